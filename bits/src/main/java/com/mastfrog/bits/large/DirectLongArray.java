@@ -0,0 +1,321 @@
+package com.mastfrog.bits.large;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Off-heap LongArray which does not use <code>sun.misc.Unsafe</code>: memory is
+ * allocated as direct ByteBuffers in native byte order, in segments of up to
+ * 1Gb (a single ByteBuffer cannot exceed 2Gb), so the array may hold well over
+ * Integer.MAX_VALUE longs, subject to <code>-XX:MaxDirectMemorySize</code>.
+ * Bulk fills and copies go through LongBuffer views, which the JDK performs as
+ * memory copies.
+ * <p>
+ * Closing the array drops its segments immediately, but the memory itself is
+ * returned by the JDK's own cleaner for direct buffers when they are
+ * collected, so no reference queue or timer thread is needed. Unlike
+ * UnsafeLongArray, new arrays are zero-initialized.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class DirectLongArray implements CloseableLongArray, OffHeap {
+
+    static final int DEFAULT_SEGMENT_SHIFT = 27;
+    private static final ByteBuffer[] NONE = new ByteBuffer[0];
+    private final int segmentShift;
+    private final int segmentMask;
+    private ByteBuffer[] segments = NONE;
+    private long size;
+    private volatile boolean disposed;
+
+    DirectLongArray(long size) {
+        this(size, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    DirectLongArray(long[] items) {
+        this(items, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    DirectLongArray(long[] items, int segmentShift) {
+        this(items.length, segmentShift);
+        putAll(0, items);
+    }
+
+    /**
+     * Create an array whose segments hold <code>1 &lt;&lt; segmentShift</code>
+     * longs each.
+     *
+     * @param size The size
+     * @param segmentShift Log2 of the segment size in longs, at most 27
+     */
+    DirectLongArray(long size, int segmentShift) {
+        if (segmentShift < 1 || segmentShift > DEFAULT_SEGMENT_SHIFT) {
+            throw new IllegalArgumentException("Bad segment shift " + segmentShift);
+        }
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1 << segmentShift) - 1;
+        resize(size);
+    }
+
+    private DirectLongArray(DirectLongArray other) {
+        this(other.size, other.segmentShift);
+        copy(0, other, 0, other.size, false);
+    }
+
+    private static ByteBuffer allocate(int longs) {
+        return ByteBuffer.allocateDirect(longs * Long.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private int segmentLength() {
+        return segmentMask + 1;
+    }
+
+    /**
+     * Get a LongBuffer view of the segment containing the passed index, whose
+     * position is the index and whose limit is at most <code>max</code>
+     * longs further on, or the end of the segment.
+     */
+    private LongBuffer segmentView(long index, long max) {
+        ByteBuffer seg = segments[(int) (index >>> segmentShift)];
+        LongBuffer result = seg.asLongBuffer();
+        int offset = (int) (index & segmentMask);
+        result.position(offset);
+        result.limit((int) Math.min(result.capacity(), offset + max));
+        return result;
+    }
+
+    boolean checkOffset(long pos) {
+        if (disposed) {
+            throw new IllegalStateException("Disposed");
+        }
+        if (pos < 0) {
+            throw new IllegalArgumentException("Negative position " + pos);
+        }
+        if (pos >= size) {
+            throw new IllegalArgumentException("Position "
+                    + pos + " is not less than array size " + size);
+        }
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long get(long index) {
+        assert checkOffset(index);
+        return segments[(int) (index >>> segmentShift)]
+                .getLong((int) (index & segmentMask) * Long.BYTES);
+    }
+
+    @Override
+    public void set(long index, long value) {
+        assert checkOffset(index);
+        segments[(int) (index >>> segmentShift)]
+                .putLong((int) (index & segmentMask) * Long.BYTES, value);
+    }
+
+    @Override
+    public void resize(long size) {
+        if (size < 0) {
+            throw new NegativeArraySizeException("Negative size " + size);
+        }
+        if (size == this.size && !disposed) {
+            return;
+        }
+        disposed = false;
+        long oldSize = this.size;
+        int segmentCount = (int) ((size + segmentMask) >>> segmentShift);
+        ByteBuffer[] nue = Arrays.copyOf(segments, segmentCount);
+        // Segments are full-length except the last, which grows geometrically
+        // up to the segment length, so repeated small additions do not
+        // reallocate and copy it each time
+        for (int i = 0; i < segmentCount; i++) {
+            long remaining = size - ((long) i << segmentShift);
+            int length = (int) Math.min(segmentLength(), remaining);
+            ByteBuffer old = nue[i];
+            int oldLength = old == null ? 0 : old.capacity() / Long.BYTES;
+            if (old == null || oldLength < length) {
+                int newLength = old == null ? length
+                        : Math.max(length, (int) Math.min(segmentLength(), oldLength * 2L));
+                nue[i] = reallocate(old, newLength);
+            } else if (oldLength / 4 > length) {
+                // Mostly unused after a shrink - give the memory back
+                nue[i] = reallocate(old, length);
+            } else if (size < oldSize && i == segmentCount - 1) {
+                // Keeping spare capacity; zero what was vacated so growing
+                // again exposes zeros
+                long oldUsed = Math.min(oldLength, oldSize - ((long) i << segmentShift));
+                zero(old, length, (int) oldUsed);
+            }
+        }
+        segments = nue;
+        this.size = size;
+    }
+
+    private static ByteBuffer reallocate(ByteBuffer old, int length) {
+        ByteBuffer seg = allocate(length);
+        if (old != null) {
+            ByteBuffer src = old.duplicate();
+            src.clear();
+            src.limit(Math.min(src.capacity(), seg.capacity()));
+            seg.put(src);
+            seg.clear();
+        }
+        return seg;
+    }
+
+    private static void zero(ByteBuffer seg, int from, int to) {
+        for (int i = from; i < to; i++) {
+            seg.putLong(i * Long.BYTES, 0);
+        }
+    }
+
+    @Override
+    public boolean isZeroInitialized() {
+        return true;
+    }
+
+    @Override
+    public long maxSize() {
+        return ((long) Integer.MAX_VALUE) << segmentShift;
+    }
+
+    @Override
+    public void fill(long start, long length, long value) {
+        if (length == 0) {
+            return;
+        }
+        assert checkOffset(start);
+        assert checkOffset(start + length - 1);
+        long[] template = new long[(int) Math.min(length, 1024)];
+        if (value != 0) {
+            Arrays.fill(template, value);
+        }
+        long index = start;
+        long end = start + length;
+        while (index < end) {
+            LongBuffer view = segmentView(index, end - index);
+            index += view.remaining();
+            while (view.hasRemaining()) {
+                view.put(template, 0, Math.min(template.length, view.remaining()));
+            }
+        }
+    }
+
+    @Override
+    public void copy(long dest, LongArray from, long start, long length, boolean grow) {
+        if (!(from instanceof DirectLongArray)) {
+            CloseableLongArray.super.copy(dest, from, start, length, grow);
+            return;
+        }
+        DirectLongArray other = (DirectLongArray) from;
+        if (start + length > other.size()) {
+            throw new IndexOutOfBoundsException("Copy past end of source array");
+        }
+        if (dest + length > size()) {
+            if (!grow) {
+                length = size() - dest;
+            } else {
+                resize(dest + length);
+            }
+        }
+        if (other == this && start < dest && start + length > dest) {
+            // Overlapping forward copy within one array - go element by
+            // element from the end
+            for (long i = length - 1; i >= 0; i--) {
+                set(dest + i, get(start + i));
+            }
+            return;
+        }
+        long copied = 0;
+        while (copied < length) {
+            LongBuffer src = other.segmentView(start + copied, length - copied);
+            LongBuffer dst = segmentView(dest + copied, length - copied);
+            int count = Math.min(src.remaining(), dst.remaining());
+            src.limit(src.position() + count);
+            dst.put(src);
+            copied += count;
+        }
+    }
+
+    @Override
+    public int getInto(long from, long[] into) {
+        if (from >= size) {
+            return 0;
+        }
+        int total = (int) Math.min(into.length, size - from);
+        int copied = 0;
+        while (copied < total) {
+            LongBuffer view = segmentView(from + copied, total - copied);
+            int count = view.remaining();
+            view.get(into, copied, count);
+            copied += count;
+        }
+        return total;
+    }
+
+    @Override
+    public void addAll(long[] longs) {
+        long oldSize = size;
+        resize(oldSize + longs.length);
+        putAll(oldSize, longs);
+    }
+
+    private void putAll(long at, long[] longs) {
+        int copied = 0;
+        while (copied < longs.length) {
+            LongBuffer view = segmentView(at + copied, longs.length - copied);
+            int count = view.remaining();
+            view.put(longs, copied, count);
+            copied += count;
+        }
+    }
+
+    @Override
+    public void addAll(LongArray longs) {
+        long oldSize = size;
+        copy(oldSize, longs, 0, longs.size(), true);
+    }
+
+    @Override
+    public void forEach(LongConsumer lc) {
+        for (long i = 0; i < size; i++) {
+            lc.accept(get(i));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Object clone() {
+        return new DirectLongArray(this);
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        segments = NONE;
+        size = 0;
+    }
+
+    @Override
+    public void close() {
+        dispose();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectLongArray(" + size + ")";
+    }
+}
@@ -1,6 +1,7 @@
 package com.mastfrog.bits.large;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.PrimitiveIterator;
 import java.util.function.Consumer;
@@ -76,6 +77,32 @@ public interface LongArray extends Cloneable {
         return new UnsafeLongArray(size);
     }
 
+    /**
+     * Create a new LongArray backed by off-heap memory in direct ByteBuffers,
+     * which does not use <code>sun.misc.Unsafe</code>. The resulting array is
+     * zero-initialized, and may be larger than Integer.MAX_VALUE longs,
+     * subject to the JVM's direct memory limit. Closing it releases its
+     * buffers; the JDK frees their memory once they are collected.
+     *
+     * @param size The initial size of the array
+     * @return An array
+     */
+    public static CloseableLongArray directLongArray(long size) {
+        return new DirectLongArray(size);
+    }
+
+    /**
+     * Create a new LongArray backed by off-heap memory in direct ByteBuffers,
+     * which does not use <code>sun.misc.Unsafe</code>, copying the passed
+     * content into it.
+     *
+     * @param content The initial content
+     * @return An array
+     */
+    public static CloseableLongArray directLongArray(long[] content) {
+        return new DirectLongArray(content);
+    }
+
     /**
      * Create a new LongArray backed by a memory mapped file in the system
      * temporary directory.
@@ -114,6 +141,21 @@ public interface LongArray extends Cloneable {
         return new MappedFileLongArray(file, size, true);
     }
 
+    /**
+     * Create a new LongArray over a file channel (with no header), which reads
+     * and writes the file a page at a time, caching recently used pages,
+     * rather than making a system call for every get or set. Modified pages
+     * are written back when evicted, flushed or closed.
+     *
+     * @param channel A channel, which the returned array will own
+     * @param pageSize The number of longs per page, a power of two
+     * @param residentPages The maximum number of pages to keep in memory
+     * @return An array
+     */
+    public static CloseableLongArray pagedFileLongArray(FileChannel channel, int pageSize, int residentPages) {
+        return new PagedFileChannelLongArray(channel, pageSize, residentPages);
+    }
+
     public static void saveForMapping(PrimitiveIterator.OfLong iter, Path to) throws IOException {
         MappedFileLongArray.saveForMapping(iter, to);
     }
@@ -142,6 +184,8 @@ public interface LongArray extends Cloneable {
             return MappedFileLongArray::new;
         } else if (this instanceof UnsafeLongArray) {
             return UnsafeLongArray::new;
+        } else if (this instanceof DirectLongArray) {
+            return DirectLongArray::new;
         } else if (this instanceof JavaLongArray) {
             return JavaLongArray::new;
         } else {
@@ -27,9 +27,15 @@ import java.util.logging.Logger;
 final class MappedFileLongArray implements CloseableLongArray {
 
     private static final int HEADER_LENGTH = Long.BYTES + Integer.BYTES * 2;
+    /**
+     * Log2 of the size of each mapped segment of the file - 1Gb.
+     */
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
     private long workingLength;
     private final Path file;
-    private MappedByteBuffer buffer;
+    private final int segmentShift;
+    private final long segmentMask;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
     private ChannelSupplier channel;
 
     MappedFileLongArray() {
@@ -41,7 +47,28 @@ final class MappedFileLongArray implements CloseableLongArray {
     }
 
     MappedFileLongArray(Path file, long size, boolean expectedToExist) {
+        this(file, size, expectedToExist, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Create an array over a file which is mapped in segments of
+     * <code>1 &lt;&lt; segmentShift</code> bytes, each mapped the first time
+     * it is touched, so that files larger than a single MappedByteBuffer can
+     * address are usable, and growing the file only requires remapping the
+     * last, partial segment.
+     *
+     * @param file The file
+     * @param size The size in longs, or -1 to use the file's size
+     * @param expectedToExist Whether the file should exist
+     * @param segmentShift Log2 of the segment size in bytes, between 3 and 30
+     */
+    MappedFileLongArray(Path file, long size, boolean expectedToExist, int segmentShift) {
+        if (segmentShift < 3 || segmentShift > 30) {
+            throw new IllegalArgumentException("Segment shift must be between 3 and 30: " + segmentShift);
+        }
         this.file = file;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
         if (size < 0) {
             if (!expectedToExist) {
                 size = 0;
@@ -107,14 +134,21 @@ final class MappedFileLongArray implements CloseableLongArray {
             hdr.putInt(1);
             hdr.putInt(1);
             hdr.putLong(longs.length);
-            int sizeInBytes = longs.length * Long.BYTES;
             hdr.flip();
             channel.write(hdr);
-            ByteBuffer buf = ByteBuffer.allocate(sizeInBytes);
-            buf.asLongBuffer().put(longs);
-            buf.position(0);
-            buf.limit(sizeInBytes);
-            channel.write(buf);
+            // Write in batches, since the size in bytes of a large array
+            // does not fit in an int
+            int batch = Math.min(longs.length, 8192);
+            ByteBuffer buf = ByteBuffer.allocate(batch * Long.BYTES);
+            for (int i = 0; i < longs.length; i += batch) {
+                int count = Math.min(batch, longs.length - i);
+                buf.clear();
+                buf.asLongBuffer().put(longs, i, count);
+                buf.limit(count * Long.BYTES);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            }
         }
     }
 
@@ -290,15 +324,25 @@ final class MappedFileLongArray implements CloseableLongArray {
         FileChannel channel = channel();
         long size = channel.size();
         if (size > targetSizeBytes) {
+            // Touching a mapping past the end of a truncated file is fatal,
+            // so drop any segment that extends beyond the new end
+            unmapFrom(targetSizeBytes);
             channel.truncate(targetSizeBytes);
-            buffer = null;
         } else if (size < targetSizeBytes) {
+            // Nothing to remap - a partial last segment is remapped at its
+            // new size the first time something past its end is touched
             channel.write(ByteBuffer.allocate(1), targetSizeBytes - 1);
-            buffer = null;
         }
         return targetSizeBytes;
     }
 
+    private void unmapFrom(long fileLength) {
+        MappedByteBuffer[] segs = segments;
+        for (int i = (int) (fileLength >>> segmentShift); i < segs.length; i++) {
+            segs[i] = null;
+        }
+    }
+
     private static <T> T wrap(Callable<T> wrapped) {
         try {
             return wrapped.call();
@@ -307,14 +351,47 @@ final class MappedFileLongArray implements CloseableLongArray {
         }
     }
 
-    private final MappedByteBuffer mapping() {
-        if (buffer == null) {
-            buffer = wrap(() -> {
-                long len = fileLength((int) workingLength);
-                return channel().map(FileChannel.MapMode.READ_WRITE, 0, len);
-            });
+    /**
+     * Get the mapped segment containing a long at the passed file position,
+     * mapping it if it is not mapped, or if it was mapped when the file ended
+     * before that position.
+     *
+     * @param filePosition A position in the file
+     * @return A mapping of the segment containing it
+     */
+    private MappedByteBuffer segment(long filePosition) {
+        int ix = (int) (filePosition >>> segmentShift);
+        MappedByteBuffer[] segs = segments;
+        if (ix < segs.length) {
+            MappedByteBuffer result = segs[ix];
+            if (result != null && (filePosition & segmentMask) + Long.BYTES <= result.capacity()) {
+                return result;
+            }
         }
-        return buffer;
+        return mapSegment(ix, filePosition);
+    }
+
+    private MappedByteBuffer mapSegment(int ix, long filePosition) {
+        return wrap(() -> {
+            FileChannel ch = channel();
+            long fileSize = ch.size();
+            if (filePosition + Long.BYTES > fileSize) {
+                fileSize = fileLength((filePosition - HEADER_LENGTH) / Long.BYTES + 1);
+            }
+            long start = (long) ix << segmentShift;
+            // Never map past the end of the file, which would grow it
+            long length = Math.min(1L << segmentShift, fileSize - start);
+            MappedByteBuffer result = ch.map(FileChannel.MapMode.READ_WRITE, start, length);
+            if (ix >= segments.length) {
+                segments = Arrays.copyOf(segments, ix + 1);
+            }
+            segments[ix] = result;
+            return result;
+        });
+    }
+
+    private int offsetInSegment(long filePosition) {
+        return (int) (filePosition & segmentMask);
     }
 
     public Object clone() {
@@ -332,12 +409,12 @@ final class MappedFileLongArray implements CloseableLongArray {
         return Integer.BYTES * 2;
     }
 
-    private int indexToFilePosition(int index) {
+    private long indexToFilePosition(long index) {
         return HEADER_LENGTH + (Long.BYTES * index);
     }
 
     synchronized void setWorkingLength(long len) {
-        mapping().putLong(sizeOffset(), len);
+        segment(sizeOffset()).putLong(sizeOffset(), len);
         workingLength = len;
     }
 
@@ -354,13 +431,15 @@ final class MappedFileLongArray implements CloseableLongArray {
         if (index > workingLength) {
             throw new IllegalStateException("Index " + index + " > " + workingLength);
         }
+        long pos = indexToFilePosition(index);
+        MappedByteBuffer seg = segment(pos);
         try {
-            return mapping().getLong(indexToFilePosition((int) index));
+            return seg.getLong(offsetInSegment(pos));
         } catch (IndexOutOfBoundsException ex) {
             throw new IllegalStateException("Underflow fetching item " + index
                     + " of " + size()
-                    + " at position " + indexToFilePosition((int) index) + " in "
-                    + " mapped buffer of " + mapping().capacity() + " pos " + mapping().position());
+                    + " at position " + pos + " in "
+                    + " mapped segment of " + seg.capacity(), ex);
         }
     }
 
@@ -373,7 +452,8 @@ final class MappedFileLongArray implements CloseableLongArray {
                 return null;
             });
         }
-        mapping().putLong(indexToFilePosition((int) index), value);
+        long pos = indexToFilePosition(index);
+        segment(pos).putLong(offsetInSegment(pos), value);
     }
 
     @Override
@@ -386,7 +466,7 @@ final class MappedFileLongArray implements CloseableLongArray {
 
     @Override
     public void close() {
-        buffer = null;
+        segments = new MappedByteBuffer[0];
         if (channel != null) {
             try {
                 channel.close();
@@ -422,22 +502,17 @@ final class MappedFileLongArray implements CloseableLongArray {
                 return null;
             });
         }
-        if (length == 1) {
-            mapping().putLong((int) start, value);
-        } else {
-            int startIndex = indexToFilePosition((int) start);
-            ByteBuffer buf = ByteBuffer.allocateDirect(Long.BYTES);
-            buf.putLong(value);
-            buf.flip();
-            ByteBuffer[] buffers = new ByteBuffer[(int) length];
-            Arrays.fill(buffers, buf);
-            wrap(() -> {
-                FileChannel channel = channel();
-                channel.position(startIndex);
-                channel.write(buffers);
-                channel.position(0);
-                return null;
-            });
+        // Fill a segment at a time, through the mapping
+        long pos = indexToFilePosition(start);
+        long end = indexToFilePosition(start + length);
+        while (pos < end) {
+            MappedByteBuffer seg = segment(pos);
+            int off = offsetInSegment(pos);
+            int last = (int) Math.min(seg.capacity(), off + (end - pos));
+            for (int i = off; i < last; i += Long.BYTES) {
+                seg.putLong(i, value);
+            }
+            pos += last - off;
         }
     }
 }
@@ -0,0 +1,382 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.bits.large;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * Implementation of LongArray over a FileChannel, in the same headerless
+ * format as FileChannelLongArray, which reads and writes the file a page at a
+ * time and keeps a bounded number of recently used pages resident, so that
+ * runs of nearby gets and sets - such as bit lookups in a LongArrayBitSet - do
+ * not each cost a system call. Useful where memory mapping is unavailable or
+ * undesirable. Modified pages are written back when evicted, on
+ * <code>flush()</code> and on <code>close()</code>; until then, the file does
+ * not reflect them.
+ * <p>
+ * Instances are thread-safe, but are not coherent with other readers or
+ * writers of the same file.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class PagedFileChannelLongArray implements CloseableLongArray {
+
+    /**
+     * The default page size, in longs - 4Kb.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 512;
+    /**
+     * The default number of resident pages - 1Mb with the default page size.
+     */
+    public static final int DEFAULT_RESIDENT_PAGES = 256;
+    private final FileChannel channel;
+    private final int pageShift;
+    private final int pageMask;
+    private final Pages pages;
+    private final ByteBuffer ioBuffer;
+    private Page last;
+    private long size;
+
+    public PagedFileChannelLongArray(FileChannel channel) {
+        this(channel, DEFAULT_PAGE_SIZE, DEFAULT_RESIDENT_PAGES);
+    }
+
+    /**
+     * Create a paged array.
+     *
+     * @param channel The channel, which is owned by this array and closed when
+     * it is
+     * @param pageSize The number of longs per page, which must be a power of
+     * two
+     * @param residentPages The maximum number of pages to keep in memory
+     */
+    public PagedFileChannelLongArray(FileChannel channel, int pageSize, int residentPages) {
+        if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two: " + pageSize);
+        }
+        if (residentPages <= 0) {
+            throw new IllegalArgumentException("Resident pages must be > 0: " + residentPages);
+        }
+        this.channel = channel;
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.pageMask = pageSize - 1;
+        this.pages = new Pages(residentPages);
+        this.ioBuffer = ByteBuffer.allocateDirect(pageSize * Long.BYTES);
+        try {
+            this.size = channel.size() / Long.BYTES;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int pageSize() {
+        return pageMask + 1;
+    }
+
+    private Page page(long index) {
+        long number = index >>> pageShift;
+        Page result = last;
+        if (result != null && result.number == number) {
+            return result;
+        }
+        result = pages.get(number);
+        if (result == null) {
+            result = load(number);
+            pages.put(number, result);
+        }
+        return last = result;
+    }
+
+    private Page load(long number) {
+        Page result = new Page(number, new long[pageSize()]);
+        long bytePosition = (number << pageShift) * Long.BYTES;
+        ByteBuffer buf = ioBuffer;
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, bytePosition + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        buf.flip();
+        // Anything past the end of the file reads as zero
+        buf.asLongBuffer().get(result.data, 0, buf.remaining() / Long.BYTES);
+        return result;
+    }
+
+    private void writeBack(Page page) {
+        long first = page.number << pageShift;
+        // Do not extend the file past the logical size with the zeros
+        // that pad out the last page
+        int count = (int) Math.min(pageSize(), size - first);
+        if (count <= 0) {
+            page.dirty = false;
+            return;
+        }
+        ByteBuffer buf = ioBuffer;
+        buf.clear();
+        buf.asLongBuffer().put(page.data, 0, count);
+        buf.limit(count * Long.BYTES);
+        long bytePosition = first * Long.BYTES;
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf, bytePosition + buf.position());
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        page.dirty = false;
+    }
+
+    /**
+     * Write any modified pages to the file.
+     */
+    public synchronized void flush() {
+        for (Page page : pages.values()) {
+            if (page.dirty) {
+                writeBack(page);
+            }
+        }
+        try {
+            // If the array was grown without writing its tail, extend the
+            // file so the size survives reopening
+            if (size > 0 && channel.size() < size * Long.BYTES) {
+                ByteBuffer zero = ByteBuffer.allocate(Long.BYTES);
+                while (zero.hasRemaining()) {
+                    channel.write(zero, (size - 1) * Long.BYTES + zero.position());
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            flush();
+        } finally {
+            pages.clear();
+            last = null;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized long get(long index) {
+        if (index < 0 || index >= size) {
+            throw new IllegalStateException("Could not read index " + index
+                    + " of " + size);
+        }
+        return page(index).data[(int) (index & pageMask)];
+    }
+
+    @Override
+    public synchronized void set(long index, long value) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative index " + index);
+        }
+        Page page = page(index);
+        page.data[(int) (index & pageMask)] = value;
+        page.dirty = true;
+        if (index >= size) {
+            size = index + 1;
+        }
+    }
+
+    @Override
+    public synchronized void resize(long size) {
+        if (size < this.size) {
+            // Drop or trim resident pages past the new end, so growing
+            // again reads zeros rather than stale values
+            for (Iterator<Page> it = pages.values().iterator(); it.hasNext();) {
+                Page page = it.next();
+                long first = page.number << pageShift;
+                if (first >= size) {
+                    it.remove();
+                } else if (first + pageSize() > size) {
+                    Arrays.fill(page.data, (int) (size - first), pageSize(), 0L);
+                }
+            }
+            last = null;
+            try {
+                channel.truncate(size * Long.BYTES);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        this.size = size;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        // Two caches over one file would not see each other's writes
+        throw new CloneNotSupportedException("Paged arrays own their channel");
+    }
+
+    @Override
+    public synchronized void clear() {
+        resize(0);
+    }
+
+    @Override
+    public synchronized void addAll(long[] longs) {
+        long start = size;
+        int copied = 0;
+        while (copied < longs.length) {
+            long index = start + copied;
+            Page page = page(index);
+            int offset = (int) (index & pageMask);
+            int count = Math.min(pageSize() - offset, longs.length - copied);
+            System.arraycopy(longs, copied, page.data, offset, count);
+            page.dirty = true;
+            copied += count;
+            // Grow as we go, so a page evicted by loading the next one
+            // is written back in full
+            size = start + copied;
+        }
+    }
+
+    @Override
+    public synchronized int getInto(long from, long[] into) {
+        if (from >= size) {
+            return 0;
+        }
+        int total = (int) Math.min(into.length, size - from);
+        int copied = 0;
+        while (copied < total) {
+            long index = from + copied;
+            Page page = page(index);
+            int offset = (int) (index & pageMask);
+            int count = Math.min(pageSize() - offset, total - copied);
+            System.arraycopy(page.data, offset, into, copied, count);
+            copied += count;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void fill(long start, long length, long value) {
+        long end = start + length;
+        long index = start;
+        while (index < end) {
+            Page page = page(index);
+            int offset = (int) (index & pageMask);
+            int count = (int) Math.min(pageSize() - offset, end - index);
+            Arrays.fill(page.data, offset, offset + count, value);
+            page.dirty = true;
+            index += count;
+            if (index > size) {
+                size = index;
+            }
+        }
+    }
+
+    @Override
+    public boolean isZeroInitialized() {
+        return true;
+    }
+
+    @Override
+    public long maxSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public void forEach(LongConsumer lng) {
+        long[] batch = new long[pageSize()];
+        long pos = 0;
+        int count;
+        while ((count = getInto(pos, batch)) > 0) {
+            for (int i = 0; i < count; i++) {
+                lng.accept(batch[i]);
+            }
+            pos += count;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + size + " longs, "
+                + pages.size() + " resident pages of " + pageSize() + ")";
+    }
+
+    private static final class Page {
+
+        final long number;
+        final long[] data;
+        boolean dirty;
+
+        Page(long number, long[] data) {
+            this.number = number;
+            this.data = data;
+        }
+    }
+
+    private final class Pages extends LinkedHashMap<Long, Page> {
+
+        private static final long serialVersionUID = 1L;
+        private final int maxPages;
+
+        Pages(int maxPages) {
+            super(Math.min(maxPages, 64) * 2, 0.75F, true);
+            this.maxPages = maxPages;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+            if (size() > maxPages) {
+                Page page = eldest.getValue();
+                if (page.dirty) {
+                    writeBack(page);
+                }
+                if (last == page) {
+                    last = null;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
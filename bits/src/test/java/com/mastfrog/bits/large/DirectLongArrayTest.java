@@ -0,0 +1,123 @@
+package com.mastfrog.bits.large;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class DirectLongArrayTest {
+
+    private final Random rnd = new Random(730141L);
+
+    @Test
+    public void testSetGetAcrossSegments() {
+        // 16-long segments, so small arrays span several
+        DirectLongArray arr = new DirectLongArray(100, 4);
+        long[] vals = new long[100];
+        for (int i = 0; i < vals.length; i++) {
+            assertEquals(0, arr.get(i));
+            vals[i] = rnd.nextLong();
+            arr.set(i, vals[i]);
+        }
+        assertArrayEquals(vals, arr.toLongArray());
+        long[] into = new long[40];
+        assertEquals(40, arr.getInto(10, into));
+        for (int i = 0; i < into.length; i++) {
+            assertEquals(vals[10 + i], into[i]);
+        }
+        assertEquals(10, arr.getInto(90, into));
+        arr.resize(250);
+        assertEquals(vals[99], arr.get(99));
+        assertEquals(0, arr.get(249));
+        arr.resize(30);
+        assertEquals(30, arr.size());
+        assertEquals(vals[29], arr.get(29));
+        arr.close();
+        assertTrue(arr.isDisposed());
+        assertEquals(0, arr.size());
+    }
+
+    @Test
+    public void testBulkFillCopyAndAdd() {
+        DirectLongArray arr = new DirectLongArray(100, 4);
+        arr.fill(5, 90, 23);
+        assertEquals(0, arr.get(4));
+        assertEquals(23, arr.get(5));
+        assertEquals(23, arr.get(94));
+        assertEquals(0, arr.get(95));
+        DirectLongArray other = new DirectLongArray(new long[]{1, 2, 3, 4, 5});
+        arr.copy(14, other, 0, 5, false);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i + 1, arr.get(14 + i));
+        }
+        arr.copy(15, arr, 14, 5, false);
+        assertEquals(1, arr.get(14));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i + 1, arr.get(15 + i), "at " + i);
+        }
+        arr.addAll(new long[]{7, 8, 9});
+        assertEquals(103, arr.size());
+        assertEquals(9, arr.get(102));
+        DirectLongArray copy = (DirectLongArray) arr.clone();
+        assertArrayEquals(arr.toLongArray(), copy.toLongArray());
+        copy.set(0, 1);
+        assertEquals(0, arr.get(0));
+        arr.addAll(other);
+        assertEquals(108, arr.size());
+        assertEquals(5, arr.get(107));
+    }
+
+    @Test
+    public void testArrayConstructor() {
+        CloseableLongArray empty = LongArray.directLongArray(new long[0]);
+        assertEquals(0, empty.size());
+        empty.addAll(new long[]{3});
+        assertEquals(3, empty.get(0));
+        // Content spanning several segments is copied into each of them
+        long[] vals = new long[75];
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = rnd.nextLong();
+        }
+        DirectLongArray arr = new DirectLongArray(vals, 4);
+        assertEquals(75, arr.size());
+        assertArrayEquals(vals, arr.toLongArray());
+    }
+
+    @Test
+    public void testGrowAndShrinkIncrementally() {
+        DirectLongArray arr = new DirectLongArray(0, 6);
+        for (int i = 0; i < 200; i++) {
+            arr.addAll(new long[]{i + 1});
+            assertEquals(i + 1, arr.size());
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i + 1, arr.get(i));
+        }
+        arr.resize(130);
+        arr.resize(140);
+        assertEquals(130, arr.get(129));
+        for (int i = 130; i < 140; i++) {
+            assertEquals(0, arr.get(i), "at " + i);
+        }
+        arr.resize(65);
+        arr.resize(128);
+        assertEquals(65, arr.get(64));
+        for (int i = 65; i < 128; i++) {
+            assertEquals(0, arr.get(i), "at " + i);
+        }
+    }
+
+    @Test
+    public void testBitSetOverDirectArray() {
+        LongArrayBitSet set = new LongArrayBitSet(LongArray.directLongArray(64));
+        set.set(3);
+        set.set(4000);
+        assertTrue(set.get(3));
+        assertTrue(set.get(4000));
+        assertFalse(set.get(5));
+        assertEquals(2, set.cardinality());
+    }
+}
@@ -213,6 +213,55 @@ public class MappedFileLongArrayTest {
         }
     }
 
+    @Test
+    public void testSegmentedMapping() throws Exception {
+        // 4K segments, so a modest array spans many of them
+        MappedFileLongArray arr = new MappedFileLongArray(
+                MappedFileLongArray.newTempFile(), 0, false, 12);
+        try {
+            int count = 5000;
+            for (int i = 0; i < count; i++) {
+                arr.set(i, i * 3L);
+            }
+            for (int i = 0; i < count; i++) {
+                assertEquals(i * 3L, arr.get(i), "at " + i);
+            }
+            // Grow well past the last partially mapped segment
+            arr.set(count * 4, 7);
+            assertEquals(7, arr.get(count * 4));
+            assertEquals((count - 1) * 3L, arr.get(count - 1));
+            arr.fill(100, 3000, 11);
+            for (int i = 0; i < count; i++) {
+                assertEquals(i >= 100 && i < 3100 ? 11 : i * 3L, arr.get(i), "at " + i);
+            }
+            arr.setWorkingLength(count * 4 + 1);
+            arr.close();
+            arr = new MappedFileLongArray(arr.file());
+            assertEquals(count * 4 + 1, arr.size());
+            assertEquals(7, arr.get(count * 4));
+            assertEquals(11, arr.get(3099));
+            assertEquals(3100 * 3L, arr.get(3100));
+        } finally {
+            arr.destroy();
+        }
+    }
+
+    @Test
+    public void testIndicesBeyondTwoGigabytes() throws Exception {
+        // The file is sparse, so this does not consume 3Gb of disk
+        MappedFileLongArray arr = new MappedFileLongArray();
+        try {
+            long far = 400_000_000L;
+            arr.set(far, 42);
+            arr.set(1, 23);
+            assertEquals(42, arr.get(far));
+            assertEquals(23, arr.get(1));
+            assertTrue(Files.size(arr.file()) > Integer.MAX_VALUE);
+        } finally {
+            arr.destroy();
+        }
+    }
+
     private static long firstZero(LongArray arr) {
         return arr.firstMatchAscending(val -> {
             return val == 0;
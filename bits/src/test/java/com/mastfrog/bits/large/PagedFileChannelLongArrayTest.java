@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.bits.large;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class PagedFileChannelLongArrayTest {
+
+    private static Path DIR;
+
+    @Test
+    public void testRandomAccessMatchesArray() throws IOException {
+        Path file = DIR.resolve("random");
+        long[] expected = new long[1000];
+        Random rnd = new Random(5103);
+        // Tiny pages and few of them, so eviction and write-back happen a lot
+        try (PagedFileChannelLongArray arr = new PagedFileChannelLongArray(
+                FileChannel.open(file, READ, WRITE, CREATE, TRUNCATE_EXISTING), 8, 4)) {
+            arr.resize(expected.length);
+            for (int i = 0; i < 20000; i++) {
+                int ix = rnd.nextInt(expected.length);
+                if (rnd.nextBoolean()) {
+                    long val = rnd.nextLong();
+                    arr.set(ix, val);
+                    expected[ix] = val;
+                } else {
+                    assertEquals(expected[ix], arr.get(ix), "at " + ix);
+                }
+            }
+            assertArrayEquals(expected, arr.toLongArray());
+        }
+        // Same format as the unpaged array
+        try (FileChannelLongArray plain = new FileChannelLongArray(FileChannel.open(file, READ))) {
+            assertArrayEquals(expected, plain.toLongArray());
+        }
+    }
+
+    @Test
+    public void testBulkOperations() throws IOException {
+        Path file = DIR.resolve("bulk");
+        long[] lngs = new long[100];
+        for (int i = 0; i < lngs.length; i++) {
+            lngs[i] = i * 7;
+        }
+        try (PagedFileChannelLongArray arr = new PagedFileChannelLongArray(
+                FileChannel.open(file, READ, WRITE, CREATE, TRUNCATE_EXISTING), 16, 2)) {
+            arr.addAll(lngs);
+            arr.addAll(lngs);
+            assertEquals(200, arr.size());
+            long[] into = new long[50];
+            assertEquals(50, arr.getInto(90, into));
+            for (int i = 0; i < into.length; i++) {
+                assertEquals(((90 + i) % 100) * 7, into[i], "at " + i);
+            }
+            assertEquals(10, arr.getInto(190, into));
+            arr.fill(10, 20, -1);
+            assertEquals(-1, arr.get(29));
+            assertEquals(30 * 7, arr.get(30));
+            arr.resize(35);
+            arr.resize(60);
+            assertEquals(34 * 7, arr.get(34));
+            assertEquals(0, arr.get(35));
+            assertEquals(0, arr.get(59));
+            long[] sum = new long[1];
+            arr.forEach(v -> sum[0] += v);
+            long expectedSum = -20;
+            for (int i = 0; i < 35; i++) {
+                expectedSum += i < 10 || i >= 30 ? i * 7 : 0;
+            }
+            assertEquals(expectedSum, sum[0]);
+        }
+        // The grown, never written tail survives reopening
+        try (PagedFileChannelLongArray arr = new PagedFileChannelLongArray(
+                FileChannel.open(file, READ, WRITE))) {
+            assertEquals(60, arr.size());
+            long[] all = arr.toLongArray();
+            assertEquals(0, Arrays.stream(all, 35, 60).filter(v -> v != 0).count());
+        }
+    }
+
+    @BeforeAll
+    public static void temp() throws IOException {
+        Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        String proposal = "PagedFileChannelLongArrayTest";
+        int ix = 1;
+        while (Files.exists(tmp.resolve(proposal))) {
+            proposal = "PagedFileChannelLongArrayTest-" + ix++;
+        }
+        DIR = tmp.resolve(proposal);
+        Files.createDirectories(DIR);
+    }
+
+    @AfterAll
+    public static void cleanup() throws IOException {
+        if (DIR != null) {
+            try (Stream<Path> str = Files.list(DIR)) {
+                str.forEach(pth -> {
+                    try {
+                        Files.delete(pth);
+                    } catch (IOException ex) {
+                        Logger.getLogger(PagedFileChannelLongArrayTest.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                });
+            }
+            Files.deleteIfExists(DIR);
+        }
+    }
+}
@@ -23,47 +23,72 @@
  */
 package com.mastfrog.util.cache;
 
-import com.mastfrog.util.preconditions.Exceptions;
-import java.util.Collection;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Expires entries from all caches.
+ * Expires entries from all caches (or one, if created for one cache).
+ * <p>
+ * Items are scheduled on a hierarchical timing wheel which only the expiry
+ * thread touches; other threads hand it new items through a lock-free queue,
+ * which it drains once per tick, so offering an item never contends on a
+ * lock. Entries whose time to live is extended after they are offered are
+ * not moved: when their bucket comes due, the expiry thread checks the
+ * remaining delay and reschedules them if it is positive, so touching an
+ * entry costs nothing beyond updating its timestamp. The thread exits after
+ * a few seconds with nothing scheduled, and is restarted on demand.
+ * </p>
  *
  * @author Tim Boudreau
  */
 class Expirer implements Runnable {
 
-    private final DelayQueue<Expirable> queue = new DelayQueue<>();
-    private volatile boolean started;
+    static final long DEFAULT_TICK_MILLIS = 10;
+    private static final long IDLE_EXIT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private final ConcurrentLinkedQueue<Expirable> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
     private final int prio;
+    private final long tickMillis;
+    private final String name;
+    private volatile Thread thread;
+    private volatile boolean idle;
+    private TimingWheel wheel;
 
     Expirer(int prio) {
-        this.prio = prio;
+        this(prio, DEFAULT_TICK_MILLIS, "Global expirer for "
+                + TimedCache.class.getSimpleName() + " entries");
     }
 
     Expirer() {
         this(Thread.MIN_PRIORITY);
     }
 
-    void removeAll(Collection<? extends Expirable> dead) {
-        queue.removeAll(dead);
+    Expirer(int prio, long tickMillis, String name) {
+        this.prio = prio;
+        this.tickMillis = tickMillis;
+        this.name = name;
     }
 
-    void offer(Expirable expirable) {
-        queue.offer(expirable);
-        checkStarted();
+    long tickMillis() {
+        return tickMillis;
     }
 
-    private void checkStarted() {
-        if (!started) {
-            started = true;
+    void offer(Expirable expirable) {
+        incoming.offer(expirable);
+        if (!running.get() && running.compareAndSet(false, true)) {
             Thread expireThread = new Thread(this);
-            expireThread.setName("Global expirer for "
-                    + TimedCache.class.getSimpleName() + " entries");
+            expireThread.setName(name);
             expireThread.setPriority(prio);
             expireThread.setDaemon(true);
+            thread = expireThread;
             expireThread.start();
+        } else if (idle) {
+            LockSupport.unpark(thread);
         }
     }
 
@@ -71,16 +96,57 @@ class Expirer implements Runnable {
         toExpire.expire();
     }
 
+    private void due(Expirable item) {
+        long delay = item.getDelay(MILLISECONDS);
+        if (delay > 0) {
+            // Touched since it was scheduled
+            wheel.schedule(item, System.currentTimeMillis() + delay);
+            return;
+        }
+        try {
+            expireOne(item);
+        } catch (RuntimeException ex) {
+            Logger.getLogger(Expirer.class.getName()).log(Level.SEVERE,
+                    "Exception expiring " + item, ex);
+        }
+    }
+
+    private void drainIncoming() {
+        long now = System.currentTimeMillis();
+        Expirable item;
+        while ((item = incoming.poll()) != null) {
+            wheel.schedule(item, now + item.getDelay(MILLISECONDS));
+        }
+    }
+
     @Override
     public void run() {
-        for (;;) {
-            try {
-                Expirable toExpire = queue.take();
-                expireOne(toExpire);
-            } catch (InterruptedException ex) {
-                Exceptions.printStackTrace(ex);
-                break;
+        if (wheel == null) {
+            wheel = new TimingWheel(tickMillis, System.currentTimeMillis());
+        }
+        while (!Thread.interrupted()) {
+            drainIncoming();
+            wheel.advance(System.currentTimeMillis(), this::due);
+            if (wheel.isEmpty() && incoming.isEmpty()) {
+                idle = true;
+                if (incoming.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_EXIT_NANOS);
+                }
+                idle = false;
+                if (wheel.isEmpty() && incoming.isEmpty()) {
+                    running.set(false);
+                    // Recheck, in case something was offered after we looked
+                    // but before the flag was cleared
+                    if (incoming.isEmpty() || !running.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } else {
+                long now = System.currentTimeMillis();
+                long untilNextTick = tickMillis - (now % tickMillis);
+                LockSupport.parkNanos(this, MILLISECONDS.toNanos(untilNextTick));
             }
         }
+        running.set(false);
     }
 }
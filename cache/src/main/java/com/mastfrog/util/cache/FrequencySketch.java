@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.cache;
+
+/**
+ * A count-min sketch of 4-bit counters which estimates how often keys have
+ * been seen recently, in a fixed amount of memory regardless of how many
+ * distinct keys pass through the cache. Each key maps to one counter in each
+ * of four rows; its estimated frequency is the minimum of those. Once the
+ * number of increments reaches ten times the table size, all counters are
+ * halved, so the sketch reflects recent history rather than all history.
+ * <p>
+ * The table starts small and is grown by the owner as the number of entries
+ * in the cache grows, up to one long per entry; since counters cannot be
+ * rehashed, growing it discards the history gathered so far.
+ * </p>
+ * <p>
+ * Not thread-safe - callers must synchronize.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L,
+        0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final int MAX_TABLE_SIZE = 1 << 22;
+    private long[] table;
+    private int mask;
+    private int sampleSize;
+    private int additions;
+
+    FrequencySketch() {
+        this(MIN_TABLE_SIZE);
+    }
+
+    FrequencySketch(long expectedEntries) {
+        allocate(tableSizeFor(expectedEntries));
+    }
+
+    private static int tableSizeFor(long expectedEntries) {
+        return Integer.highestOneBit((int) Math.max(MIN_TABLE_SIZE,
+                Math.min(MAX_TABLE_SIZE, expectedEntries)) - 1) << 1;
+    }
+
+    private void allocate(int size) {
+        table = new long[size];
+        mask = size - 1;
+        sampleSize = size * 10;
+        additions = 0;
+    }
+
+    /**
+     * Grow the table if it is too small for the passed number of distinct
+     * keys, discarding all counts if it is.
+     *
+     * @param expectedEntries The number of entries in the cache
+     */
+    void ensureCapacity(long expectedEntries) {
+        int size = tableSizeFor(expectedEntries);
+        if (size > table.length) {
+            allocate(size);
+        }
+    }
+
+    int tableSize() {
+        return table.length;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45D9F3B;
+        hash = ((hash >>> 16) ^ hash) * 0x45D9F3B;
+        return (hash >>> 16) ^ hash;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int offsetOf(int hash, int row) {
+        // Each row uses its own group of four counters within a long, so
+        // rows never collide with each other within a slot
+        return (((hash >>> (row << 3)) & 3) | (row << 2)) << 2;
+    }
+
+    /**
+     * Get the estimated number of times a key has been seen recently, from 0
+     * to 15.
+     *
+     * @param key A key
+     * @return The frequency
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int result = 15;
+        for (int row = 0; row < 4; row++) {
+            int count = (int) ((table[indexOf(hash, row)] >>> offsetOf(hash, row)) & 15L);
+            result = Math.min(result, count);
+        }
+        return result;
+    }
+
+    /**
+     * Record that a key has been seen.
+     *
+     * @param key A key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            int index = indexOf(hash, row);
+            int offset = offsetOf(hash, row);
+            if (((table[index] >>> offset) & 15L) != 15L) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.cache;
+
+import com.mastfrog.util.preconditions.Exceptions;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Deduplicates concurrent loads of the same key: the first caller to miss
+ * runs the loader, and any others which miss while it is running wait for
+ * and share its result (or failure), so a popular key expiring, or a cold
+ * start, results in one call to the backing Answerer rather than one per
+ * caller.
+ *
+ * @author Tim Boudreau
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Load a value, or wait for a load of the same key already in progress
+     * on another thread.
+     *
+     * @param <E> The exception type
+     * @param key The key
+     * @param loader Computes the value - should check whether some other
+     * caller has cached it in the meantime
+     * @return The value
+     * @throws E If the loader - this caller's or the one waited for - fails
+     */
+    <E extends Exception> V load(K key, Answerer<K, V, E> loader) throws E {
+        Flight<V> mine = new Flight<>(Thread.currentThread());
+        Flight<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            if (existing.owner == Thread.currentThread()) {
+                // The loader is looking up its own key - waiting would
+                // deadlock
+                return loader.answer(key);
+            }
+            return existing.await();
+        }
+        try {
+            V result = loader.answer(key);
+            mine.future.complete(result);
+            return result;
+        } catch (Exception | Error ex) {
+            mine.future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Load a value on the passed executor, or join a load of the same key
+     * already in progress.
+     *
+     * @param key The key
+     * @param loader Computes the value
+     * @param executor The executor to load on
+     * @return A future
+     */
+    CompletableFuture<V> loadAsync(K key, Answerer<K, V, ?> loader, Executor executor) {
+        Flight<V> mine = new Flight<>(null);
+        Flight<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing == null) {
+            try {
+                executor.execute(() -> {
+                    mine.owner = Thread.currentThread();
+                    try {
+                        mine.future.complete(loader.answer(key));
+                    } catch (Exception | Error ex) {
+                        mine.future.completeExceptionally(ex);
+                    } finally {
+                        inFlight.remove(key, mine);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                inFlight.remove(key, mine);
+                mine.future.completeExceptionally(ex);
+            }
+            existing = mine;
+        }
+        // Return a dependent future, so a caller cancelling or completing
+        // it cannot affect other callers waiting on the same load
+        return existing.future.thenApply(v -> v);
+    }
+
+    private static final class Flight<V> {
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        volatile Thread owner;
+
+        Flight(Thread owner) {
+            this.owner = owner;
+        }
+
+        V await() {
+            try {
+                return future.join();
+            } catch (CompletionException ex) {
+                return Exceptions.chuck(ex.getCause() == null ? ex : ex.getCause());
+            }
+        }
+    }
+}
@@ -125,6 +125,24 @@ public interface TimedBidiCache<T, R, E extends Exception> extends TimedCache<T,
                 return this;
             }
 
+            @Override
+            public TimedCache<R, T, E> ownExpiryWheel(long tickMillis) {
+                TimedBidiCache.this.ownExpiryWheel(tickMillis);
+                return this;
+            }
+
+            @Override
+            public TimedCache<R, T, E> maximumSize(long maximumSize) {
+                TimedBidiCache.this.maximumSize(maximumSize);
+                return this;
+            }
+
+            @Override
+            public TimedCache<R, T, E> maximumWeight(long maximumWeight, Weigher<? super R, ? super T> weigher) {
+                TimedBidiCache.this.maximumWeight(maximumWeight, (t, r) -> weigher.weigh(r, t));
+                return this;
+            }
+
             @Override
             public TimedBidiCache<R, T, E> toBidiCache(Answerer<T, R, E> reverseAnswerer) {
                 return this;
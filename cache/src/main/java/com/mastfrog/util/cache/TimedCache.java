@@ -24,14 +24,16 @@
 package com.mastfrog.util.cache;
 
 import com.mastfrog.abstractions.misc.MapSupplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 
 /**
  * A straightforward cache with expiring entries, capable of conversion into a
- * bi-directional cache. Highly concurrent, but with perfect timing it is
- * possible for a value to be computed simultaneously by two threads. It is
- * assumed that such computation is idempotent. For when you can't have a
- * dependency on Guava.
+ * bi-directional cache. Highly concurrent; concurrent lookups of a key which is
+ * not cached share a single computation of its value. For when you can't have
+ * a dependency on Guava.
  *
  * @author Tim Boudreau
  */
@@ -100,10 +102,93 @@ public interface TimedCache<T, R, E extends Exception> extends Cache<T, R, E> {
         return new TimedCacheImpl<>(ttl, answerer, backingStoreFactory);
     }
 
+    /**
+     * Get a value from the cache, computing it asynchronously in the common
+     * fork-join pool if necessary.
+     *
+     * @param key The key to look up. May not be null.
+     * @return A future
+     */
+    default CompletableFuture<R> getAsync(T key) {
+        return getAsync(key, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Get a value from the cache, computing it asynchronously on the passed
+     * executor if necessary. The default implementation simply calls
+     * <code>get()</code> on the executor; the built-in implementation shares
+     * one computation between all concurrent requests for the same key.
+     *
+     * @param key The key to look up. May not be null.
+     * @param executor The executor to compute the value on
+     * @return A future
+     */
+    default CompletableFuture<R> getAsync(T key, Executor executor) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(get(key));
+            } catch (Exception | Error ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
     default boolean remove(T key) {
         throw new UnsupportedOperationException("Removal not supported");
     }
 
+    /**
+     * Expire this cache's entries using a timing wheel and thread of its own,
+     * ticking at the passed granularity, instead of the one shared by all
+     * caches - useful for a cache with a very short or very long time to
+     * live, or one busy enough that sharing expiry work with other caches
+     * would delay them. Entries expire up to one tick after their time to
+     * live has elapsed. The thread exits when the cache has been empty for a
+     * few seconds. Must be called before anything is added to the cache.
+     *
+     * @param tickMillis The tick length in milliseconds
+     * @return this
+     * @throws IllegalStateException if the cache already has entries
+     */
+    default TimedCache<T, R, E> ownExpiryWheel(long tickMillis) {
+        throw new UnsupportedOperationException("Expiry is not configurable");
+    }
+
+    /**
+     * Bound this cache to a maximum number of entries, in addition to
+     * expiring entries by age. When adding an entry takes the cache over its
+     * maximum, entries are evicted using a frequency-aware policy
+     * (Window-TinyLFU), which favors keeping entries which have been used
+     * often recently over ones which have been used only once, so a burst of
+     * unique keys cannot flush frequently used entries. The onExpire handler,
+     * if any, is called for evicted entries. Call this before converting the
+     * cache to a bi-directional one.
+     *
+     * @param maximumSize The maximum number of entries, greater than zero
+     * @return this
+     * @throws IllegalStateException if this cache is already bounded
+     */
+    default TimedCache<T, R, E> maximumSize(long maximumSize) {
+        throw new UnsupportedOperationException("Bounding not supported");
+    }
+
+    /**
+     * Bound this cache to a maximum total weight of entries, as computed by
+     * the passed weigher - for example, to put a ceiling on the memory the
+     * cache may occupy when the sizes of values vary widely. Eviction works
+     * as described in <code>maximumSize()</code>.
+     *
+     * @param maximumWeight The maximum total weight, greater than zero
+     * @param weigher Computes the weight of each entry when it is added
+     * @return this
+     * @throws IllegalStateException if this cache is already bounded
+     */
+    default TimedCache<T, R, E> maximumWeight(long maximumWeight, Weigher<? super T, ? super R> weigher) {
+        throw new UnsupportedOperationException("Bounding not supported");
+    }
+
     /**
      * Add a consumer which is called after a value has been expired from the
      * cache - this can be used to perform any cleanup work necessary.
@@ -2,11 +2,15 @@ package com.mastfrog.util.cache;
 
 import com.mastfrog.abstractions.misc.MapSupplier;
 import com.mastfrog.util.preconditions.Checks;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import java.util.function.BiConsumer;
@@ -16,10 +20,9 @@ import java.util.logging.Logger;
 
 /**
  * A straightforward cache with expiring entries, capable of conversion into a
- * bi-directional cache. Highly concurrent, but with perfect timing it is
- * possible for a value to be computed simultaneously by two threads. It is
- * assumed that such computation is idempotent. For when you can't have a
- * dependency on Guava.
+ * bi-directional cache. Highly concurrent; concurrent lookups of a key which is
+ * not cached share a single computation of its value. For when you can't have
+ * a dependency on Guava.
  *
  * @author Tim Boudreau
  */
@@ -29,6 +32,10 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
     private final Answerer<T, R, E> answerer;
     final Map<T, CacheEntry> cache;
     private BiConsumer<T, R> onExpire;
+    private final SingleFlight<T, R> loads;
+    private volatile TinyLfuPolicy<CacheEntry> policy;
+    private volatile Expirer expirer = caches();
+    private Weigher<? super T, ? super R> weigher;
 
     TimedCacheImpl(long ttl, Answerer<T, R, E> answerer) {
         this(ttl, answerer, ConcurrentHashMap::new);
@@ -38,6 +45,7 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
         this.timeToLive = ttl;
         this.answerer = answerer;
         cache = supp.get();
+        loads = new SingleFlight<>();
     }
 
     private TimedCacheImpl(TimedCacheImpl<T, R, E> other) {
@@ -45,6 +53,10 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
         this.answerer = other.answerer;
         this.cache = other.cache;
         this.onExpire = other.onExpire;
+        this.loads = other.loads;
+        this.policy = other.policy;
+        this.expirer = other.expirer;
+        this.weigher = other.weigher;
     }
 
     @Override
@@ -55,7 +67,74 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
 
     @Override
     public boolean remove(T key) {
-        return cache.remove(key) != null;
+        CacheEntry removed = cache.remove(key);
+        if (removed != null) {
+            discarded(removed);
+            TinyLfuPolicy<CacheEntry> pol = policy;
+            if (pol != null) {
+                pol.removed(removed);
+            }
+        }
+        return removed != null;
+    }
+
+    @Override
+    public TimedCacheImpl<T, R, E> maximumSize(long maximumSize) {
+        return maximumWeight(maximumSize, (k, v) -> 1);
+    }
+
+    @Override
+    public synchronized TimedCacheImpl<T, R, E> maximumWeight(long maximumWeight, Weigher<? super T, ? super R> weigher) {
+        Checks.greaterThanZero("maximumWeight", maximumWeight);
+        Checks.notNull("weigher", weigher);
+        if (policy != null) {
+            throw new IllegalStateException("Already bounded by " + policy);
+        }
+        this.weigher = weigher;
+        policy = new TinyLfuPolicy<>(maximumWeight);
+        // Start tracking anything already cached, evicting if need be
+        for (CacheEntry e : new ArrayList<>(cache.values())) {
+            evict(policy.added(e, weigh(e.key, e.value)));
+        }
+        return this;
+    }
+
+    @Override
+    public TimedCacheImpl<T, R, E> ownExpiryWheel(long tickMillis) {
+        Checks.greaterThanZero("tickMillis", tickMillis);
+        return expirer(new Expirer(Thread.NORM_PRIORITY, tickMillis,
+                "Expirer for " + TimedCache.class.getSimpleName() + "@"
+                + Integer.toHexString(System.identityHashCode(this))));
+    }
+
+    synchronized TimedCacheImpl<T, R, E> expirer(Expirer expirer) {
+        if (!cache.isEmpty()) {
+            throw new IllegalStateException("Cannot change expiry of a cache "
+                    + "which already has entries");
+        }
+        this.expirer = expirer;
+        return this;
+    }
+
+    /**
+     * Get the total weight of entries in this cache, if it is bounded by
+     * weight, or the number of entries if not.
+     *
+     * @return The weighted size
+     */
+    long weightedSize() {
+        TinyLfuPolicy<CacheEntry> pol = policy;
+        return pol == null ? cache.size() : pol.weightedSize();
+    }
+
+    private int weigh(T key, R value) {
+        return Checks.nonNegative("weight", weigher.weigh(key, value));
+    }
+
+    private void evict(List<CacheEntry> evicted) {
+        for (CacheEntry e : evicted) {
+            e.evict();
+        }
     }
 
     @Override
@@ -86,8 +165,15 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
      */
     @Override
     public TimedCacheImpl<T, R, E> clear() {
+        List<CacheEntry> entries = new ArrayList<>(cache.values());
         cache.clear();
-        caches().removeAll(cache.values());
+        for (CacheEntry e : entries) {
+            discarded(e);
+        }
+        TinyLfuPolicy<CacheEntry> pol = policy;
+        if (pol != null) {
+            pol.clear();
+        }
         return this;
     }
 
@@ -115,6 +201,9 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
     public void close() {
         for (CacheEntry e : cache.values()) {
             e.close();
+            // Reschedule, so it is expired on the next tick rather than when
+            // it would otherwise have been due
+            expirer.offer(e.expiry);
         }
     }
 
@@ -148,14 +237,50 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
     public R get(T key) throws E {
         CacheEntry entry = cache.get(Checks.notNull("key", key));
         if (entry == null) {
-            R result = answerer.answer(key);
-            if (result != null) {
-                entry = createEntry(key, result);
-            }
-        } else {
-            entry.touch();
+            return loads.load(key, this::load);
+        }
+        hit(entry);
+        return entry.value;
+    }
+
+    /**
+     * Get a value from the cache, computing it asynchronously on the passed
+     * executor if necessary. Concurrent requests for the same key, whether
+     * synchronous or not, share a single computation.
+     *
+     * @param key The key to look up. May not be null.
+     * @param executor The executor to compute the value on
+     * @return A future, which is already completed if the value was cached
+     */
+    @Override
+    public CompletableFuture<R> getAsync(T key, Executor executor) {
+        CacheEntry entry = cache.get(Checks.notNull("key", key));
+        if (entry == null) {
+            return loads.loadAsync(key, this::load, Checks.notNull("executor", executor));
+        }
+        hit(entry);
+        return CompletableFuture.completedFuture(entry.value);
+    }
+
+    private void hit(CacheEntry entry) {
+        entry.touch();
+        TinyLfuPolicy<CacheEntry> pol = policy;
+        if (pol != null) {
+            pol.accessed(entry);
         }
-        return entry == null ? null : entry.value;
+    }
+
+    private R load(T key) throws E {
+        // Another caller may have finished loading it since we looked
+        CacheEntry entry = cache.get(key);
+        if (entry != null) {
+            return entry.value;
+        }
+        R result = answerer.answer(key);
+        if (result != null) {
+            createEntry(key, result);
+        }
+        return result;
     }
 
     CacheEntry createEntry(T key, R val) {
@@ -163,9 +288,19 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
         // make CacheEntry an interface and allow an entry to have
         // child entries that hold the reverse value which do not
         // get enqueued, just expired
+        TinyLfuPolicy<CacheEntry> pol = policy;
         CacheEntry result = new CacheEntry(key, val);
-        cache.put(key, result);
-        caches().offer(result);
+        CacheEntry old = cache.put(key, result);
+        expirer.offer(result.expiry);
+        if (old != null) {
+            discarded(old);
+        }
+        if (pol != null) {
+            if (old != null) {
+                pol.removed(old);
+            }
+            evict(pol.added(result, weigh(key, val)));
+        }
         return result;
     }
 
@@ -182,8 +317,22 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
         return new BidiCacheImpl<>(this, reverseAnswerer);
     }
 
+    /**
+     * Called when an entry is removed or replaced without expiring, so the
+     * expirer lets go of it and never passes its value to OnExpire.
+     *
+     * @param ce The entry
+     */
+    void discarded(CacheEntry ce) {
+        ce.expiry.cancel();
+    }
+
     void expireEntry(CacheEntry ce) {
         cache.remove(ce.key, ce);
+        TinyLfuPolicy<CacheEntry> pol = policy;
+        if (pol != null) {
+            pol.removed(ce);
+        }
         if (onExpire != null) {
             try {
                 onExpire.accept(ce.key, ce.value);
@@ -206,6 +355,7 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
 
         private final Answerer<R, T, E> reverseAnswerer;
         private final Map<R, TimedCacheImpl<T, R, E>.CacheEntry> reverseEntries = new ConcurrentHashMap<>();
+        private final SingleFlight<R, T> reverseLoads = new SingleFlight<>();
 
         BidiCacheImpl(TimedCacheImpl<T, R, E> orig, Answerer<R, T, E> reverseAnswerer) {
             super(orig);
@@ -274,6 +424,24 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
             return this;
         }
 
+        @Override
+        public BidiCacheImpl<T, R, E> ownExpiryWheel(long tickMillis) {
+            super.ownExpiryWheel(tickMillis);
+            return this;
+        }
+
+        @Override
+        public BidiCacheImpl<T, R, E> maximumSize(long maximumSize) {
+            super.maximumSize(maximumSize);
+            return this;
+        }
+
+        @Override
+        public BidiCacheImpl<T, R, E> maximumWeight(long maximumWeight, Weigher<? super T, ? super R> weigher) {
+            super.maximumWeight(maximumWeight, weigher);
+            return this;
+        }
+
         /**
          * Get the key for a value.
          *
@@ -286,14 +454,22 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
             TimedCacheImpl<T, R, E>.CacheEntry entry = reverseEntries.get(
                     Checks.notNull("value", value));
             if (entry == null) {
-                T result = reverseAnswerer.answer(value);
-                if (result != null) {
-                    entry = createEntry(result, value);
-                }
-            } else {
-                entry.touch();
+                return reverseLoads.load(value, this::loadKey);
             }
-            return entry == null ? null : entry.key;
+            entry.touch();
+            return entry.key;
+        }
+
+        private T loadKey(R value) throws E {
+            TimedCacheImpl<T, R, E>.CacheEntry entry = reverseEntries.get(value);
+            if (entry != null) {
+                return entry.key;
+            }
+            T result = reverseAnswerer.answer(value);
+            if (result != null) {
+                createEntry(result, value);
+            }
+            return result;
         }
 
         @Override
@@ -302,6 +478,12 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
             super.expireEntry(ce);
         }
 
+        @Override
+        void discarded(TimedCacheImpl<T, R, E>.CacheEntry ce) {
+            reverseEntries.remove(ce.value, ce);
+            super.discarded(ce);
+        }
+
         @Override
         TimedCacheImpl<T, R, E>.CacheEntry createEntry(T key, R val) {
             TimedCacheImpl<T, R, E>.CacheEntry result = super.createEntry(key, val);
@@ -310,15 +492,25 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
         }
     }
 
-    final class CacheEntry implements Expirable {
+    final class CacheEntry extends TinyLfuPolicy.Node<CacheEntry> implements Expirable {
 
         volatile long touched = System.currentTimeMillis();
         final T key;
         final R value;
+        final Expiry expiry;
 
         public CacheEntry(T key, R value) {
             this.key = key;
             this.value = value;
+            // The expirer holds a handle which can let go of the entry if it
+            // is evicted or cleared, rather than the entry itself, since the
+            // timing wheel does not support removal
+            this.expiry = new Expiry(this);
+        }
+
+        @Override
+        Object key() {
+            return key;
         }
 
         @Override
@@ -339,12 +531,17 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
             expireEntry(this);
         }
 
+        void evict() {
+            expiry.cancel();
+            expireEntry(this);
+        }
+
         @Override
         public boolean isExpired() {
             return remaining() <= 0;
         }
 
-        private long remaining() {
+        long remaining() {
             return Math.max(0, timeToLive - (System.currentTimeMillis() - touched));
         }
 
@@ -361,6 +558,63 @@ class TimedCacheImpl<T, R, E extends Exception> implements TimedCache<T, R, E> {
         }
     }
 
+    /**
+     * Stands in for a CacheEntry in the expirer. Expires the entry at most
+     * once, and on cancellation releases it, so an entry which is evicted or
+     * cleared is neither expired later nor kept reachable until its deadline.
+     */
+    final class Expiry implements Expirable {
+
+        private volatile CacheEntry entry;
+        private boolean done;
+
+        Expiry(CacheEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public String toString() {
+            CacheEntry e = entry;
+            return e == null ? "cancelled" : e.toString();
+        }
+
+        synchronized void cancel() {
+            done = true;
+            entry = null;
+        }
+
+        @Override
+        public void expire() {
+            CacheEntry e;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                e = entry;
+            }
+            if (e != null) {
+                e.expire();
+            }
+        }
+
+        @Override
+        public boolean isExpired() {
+            return getDelay(MILLISECONDS) <= 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            CacheEntry e = entry;
+            return e == null ? 0 : e.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(MILLISECONDS), o.getDelay(MILLISECONDS));
+        }
+    }
+
     static Expirer caches() {
         if (EXPIRER == null) {
             EXPIRER = expirerFactory.get();
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel, in the style of the Linux kernel's timers:
+ * four levels of buckets - 256 buckets of one tick each, then three levels of
+ * 64 buckets each covering a whole turn of the level below - so scheduling
+ * is O(1) regardless of how many items are scheduled or how far out, and
+ * advancing the clock is O(1) per tick plus the cost of the items which fall
+ * due. Items in a higher level are redistributed to the levels below as the
+ * clock reaches their bucket. Deadlines beyond the span of the top level
+ * (about 2^26 ticks) are clamped to it.
+ * <p>
+ * Items may fire up to one tick late, but never early (as long as the
+ * clock passed in is monotonic). Not thread-safe - Expirer only touches it
+ * from its own thread.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class TimingWheel {
+
+    private static final int[] BITS = {8, 6, 6, 6};
+    private static final long MAX_DELTA;
+    private final Slot[][] levels = new Slot[BITS.length][];
+    private final long tickMillis;
+    private long currentTick;
+    private int size;
+
+    static {
+        int total = 0;
+        for (int bits : BITS) {
+            total += bits;
+        }
+        MAX_DELTA = (1L << total) - 1;
+    }
+
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        for (int i = 0; i < BITS.length; i++) {
+            levels[i] = new Slot[1 << BITS[i]];
+        }
+        currentTick = nowMillis / tickMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "TimingWheel(" + size + " @ " + currentTick + " x " + tickMillis + "ms)";
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long tickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Schedule an item to be passed to the consumer passed to
+     * <code>advance()</code> once the clock reaches the passed deadline.
+     *
+     * @param item An item
+     * @param deadlineMillis A deadline, in the same time base as the clock
+     */
+    void schedule(Expirable item, long deadlineMillis) {
+        // Round up, and never into the bucket currently being fired
+        long tick = Math.max(currentTick + 1, (deadlineMillis + tickMillis - 1) / tickMillis);
+        insert(new Slot(item, Math.min(tick, currentTick + MAX_DELTA)));
+        size++;
+    }
+
+    private void insert(Slot slot) {
+        long delta = slot.tick - currentTick;
+        int shift = 0;
+        for (int level = 0; level < BITS.length; level++) {
+            int bits = BITS[level];
+            if (delta < (1L << (shift + bits)) || level == BITS.length - 1) {
+                int index = (int) ((slot.tick >>> shift) & ((1 << bits) - 1));
+                slot.next = levels[level][index];
+                levels[level][index] = slot;
+                return;
+            }
+            shift += bits;
+        }
+    }
+
+    /**
+     * Advance the clock, passing every item whose deadline has been reached
+     * to the consumer, which may schedule items again.
+     *
+     * @param nowMillis The current time
+     * @param due Receives items which are due
+     */
+    void advance(long nowMillis, Consumer<Expirable> due) {
+        long nowTick = nowMillis / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return;
+        }
+        while (currentTick <= nowTick) {
+            cascade();
+            int index = (int) (currentTick & ((1 << BITS[0]) - 1));
+            Slot slot = levels[0][index];
+            levels[0][index] = null;
+            while (slot != null) {
+                Slot next = slot.next;
+                size--;
+                due.accept(slot.item);
+                slot = next;
+            }
+            currentTick++;
+            if (size == 0) {
+                currentTick = Math.max(currentTick, nowTick);
+                return;
+            }
+        }
+    }
+
+    private void cascade() {
+        // Each time the index of a level wraps to zero, the current bucket of
+        // the level above is redistributed
+        int shift = 0;
+        for (int level = 1; level < BITS.length; level++) {
+            shift += BITS[level - 1];
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            int index = (int) ((currentTick >>> shift) & ((1 << BITS[level]) - 1));
+            Slot slot = levels[level][index];
+            levels[level][index] = null;
+            while (slot != null) {
+                Slot next = slot.next;
+                insert(slot);
+                slot = next;
+            }
+        }
+    }
+
+    private static final class Slot {
+
+        final Expirable item;
+        final long tick;
+        Slot next;
+
+        Slot(Expirable item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
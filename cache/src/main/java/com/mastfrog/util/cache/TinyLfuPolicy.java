@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounding eviction policy for TimedCache, implementing Window-TinyLFU:
+ * new entries enter a small LRU window (1% of the maximum weight); entries
+ * pushed out of the window become candidates for the main region, which is a
+ * segmented LRU split into a probation segment and a protected segment (80%
+ * of the main region) that entries are promoted into when they are hit again.
+ * When the cache is over its maximum, a candidate from the window is admitted
+ * only if a frequency sketch says it has been seen more often than the
+ * probation segment's least recently used entry; otherwise the candidate
+ * itself is evicted. That keeps one-hit wonders and scans from flushing
+ * frequently used entries out of the cache.
+ * <p>
+ * Hits are recorded on a best-effort basis: if another thread holds the
+ * policy's lock, the hit is dropped rather than making the reading thread
+ * wait, since the policy only needs an approximate picture of which entries
+ * are popular.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class TinyLfuPolicy<N extends TinyLfuPolicy.Node<N>> {
+
+    static final byte NEW = 0;
+    static final byte WINDOW = 1;
+    static final byte PROBATION = 2;
+    static final byte PROTECTED = 3;
+    static final byte DEAD = 4;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final AccessOrder<N> window = new AccessOrder<>();
+    private final AccessOrder<N> probation = new AccessOrder<>();
+    private final AccessOrder<N> protect = new AccessOrder<>();
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    TinyLfuPolicy(long maximumWeight) {
+        this.maximum = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.protectedMaximum = ((maximumWeight - windowMaximum) * 8) / 10;
+    }
+
+    @Override
+    public String toString() {
+        return "TinyLfu(" + weightedSize() + "/" + maximum + ")";
+    }
+
+    /**
+     * Get the total weight of the entries currently tracked.
+     *
+     * @return The weight
+     */
+    long weightedSize() {
+        lock.lock();
+        try {
+            return window.weight + probation.weight + protect.weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Begin tracking a newly added entry, returning any entries which must be
+     * evicted to bring the cache back under its maximum weight (which may
+     * include the new entry). The caller is responsible for removing returned
+     * entries from the cache, outside any lock.
+     *
+     * @param node The entry
+     * @param weight Its weight
+     * @return A list of entries to evict, possibly empty
+     */
+    List<N> added(N node, int weight) {
+        lock.lock();
+        try {
+            if (node.queue != NEW) {
+                // Already removed by expiry before it was added here
+                return Collections.emptyList();
+            }
+            node.weight = weight;
+            window.linkFirst(node, WINDOW);
+            // Size the sketch by the number of entries rather than the
+            // maximum weight, which may be far larger
+            sketch.ensureCapacity(size());
+            sketch.increment(node.key());
+            return evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record a cache hit on an entry, unless another thread is busy updating
+     * the policy.
+     *
+     * @param node The entry
+     */
+    void accessed(N node) {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            switch (node.queue) {
+                case WINDOW:
+                    sketch.increment(node.key());
+                    window.moveToFirst(node);
+                    break;
+                case PROBATION:
+                    sketch.increment(node.key());
+                    probation.unlink(node);
+                    protect.linkFirst(node, PROTECTED);
+                    while (protect.weight > protectedMaximum && protect.last != node) {
+                        N demoted = protect.last;
+                        protect.unlink(demoted);
+                        probation.linkFirst(demoted, PROBATION);
+                    }
+                    break;
+                case PROTECTED:
+                    sketch.increment(node.key());
+                    protect.moveToFirst(node);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop tracking an entry which has been removed from the cache by some
+     * other means than eviction.
+     *
+     * @param node The entry
+     */
+    void removed(N node) {
+        lock.lock();
+        try {
+            unlink(node);
+            node.queue = DEAD;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop tracking all entries.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            for (AccessOrder<N> order : orders()) {
+                while (order.last != null) {
+                    N node = order.last;
+                    order.unlink(node);
+                    node.queue = DEAD;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long size() {
+        return (long) window.size + probation.size + protect.size;
+    }
+
+    int sketchSize() {
+        lock.lock();
+        try {
+            return sketch.tableSize();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<AccessOrder<N>> orders() {
+        return Arrays.asList(window, probation, protect);
+    }
+
+    private void unlink(N node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.unlink(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                break;
+            case PROTECTED:
+                protect.unlink(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private List<N> evict() {
+        assert lock.isHeldByCurrentThread();
+        // Entries moved from the window to the head of probation are the
+        // candidates; the oldest of them competes first
+        N candidate = null;
+        while (window.weight > windowMaximum && window.last != null) {
+            N node = window.last;
+            window.unlink(node);
+            probation.linkFirst(node, PROBATION);
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+        List<N> result = null;
+        while (window.weight + probation.weight + protect.weight > maximum) {
+            N victim = probation.last;
+            N toEvict;
+            if (victim == null) {
+                toEvict = protect.last != null ? protect.last : window.last;
+                if (toEvict == null) {
+                    break;
+                }
+            } else if (candidate == null || candidate == victim) {
+                toEvict = victim;
+            } else if (candidate.weight > maximum
+                    || sketch.frequency(candidate.key()) <= sketch.frequency(victim.key())) {
+                toEvict = candidate;
+            } else {
+                toEvict = victim;
+            }
+            if (toEvict == candidate) {
+                candidate = candidate.prev;
+            }
+            unlink(toEvict);
+            toEvict.queue = DEAD;
+            if (result == null) {
+                result = new ArrayList<>(2);
+            }
+            result.add(toEvict);
+        }
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    /**
+     * Base class for cache entries, holding the links the policy maintains.
+     * All fields are only touched while holding the policy's lock.
+     */
+    abstract static class Node<N extends Node<N>> {
+
+        N prev;
+        N next;
+        byte queue = NEW;
+        int weight;
+
+        abstract Object key();
+    }
+
+    /**
+     * A doubly-linked list of entries from most to least recently used,
+     * which tracks its total weight.
+     */
+    static final class AccessOrder<N extends Node<N>> {
+
+        N first;
+        N last;
+        long weight;
+        int size;
+
+        void linkFirst(N node, byte queue) {
+            node.queue = queue;
+            node.prev = null;
+            node.next = first;
+            if (first == null) {
+                last = node;
+            } else {
+                first.prev = node;
+            }
+            first = node;
+            weight += node.weight;
+            size++;
+        }
+
+        void unlink(N node) {
+            N p = node.prev;
+            N n = node.next;
+            if (p == null) {
+                first = n;
+            } else {
+                p.next = n;
+            }
+            if (n == null) {
+                last = p;
+            } else {
+                n.prev = p;
+            }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+            size--;
+        }
+
+        void moveToFirst(N node) {
+            if (first != node) {
+                byte queue = node.queue;
+                unlink(node);
+                linkFirst(node, queue);
+            }
+        }
+    }
+}
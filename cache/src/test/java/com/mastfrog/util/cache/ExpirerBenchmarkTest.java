@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the old DelayQueue-based expirer against the timing wheel, shared
+ * between caches and per-cache, with several threads adding and touching
+ * entries with a short time to live. Only runs under the
+ * <code>benchmark</code> profile.
+ *
+ * @author Tim Boudreau
+ */
+@Tag("benchmark")
+public class ExpirerBenchmarkTest {
+
+    private static final Logger LOG = Logger.getLogger(ExpirerBenchmarkTest.class.getName());
+    private static final int OPS = Integer.getInteger("expirer.benchmark.ops", 1000000);
+    private static final int THREADS = 4;
+    private static final long TTL = 50;
+
+    @Test
+    public void benchmarkExpiryBackends() throws Exception {
+        Level[] levels = {Level.FINE, Level.INFO};
+        for (Level level : levels) {
+            Expirer queue = new DelayQueueExpirer();
+            run("delay-queue", level, () -> queue);
+            Expirer shared = new Expirer(Thread.NORM_PRIORITY, 10, "bench-shared");
+            run("shared-wheel", level, () -> shared);
+            run("per-cache-wheel", level, () -> new Expirer(Thread.NORM_PRIORITY, 10, "bench-own"));
+        }
+    }
+
+    private void run(String name, Level level, Supplier<Expirer> expirers) throws Exception {
+        AtomicInteger expired = new AtomicInteger();
+        List<TimedCacheImpl<Integer, Integer, RuntimeException>> caches = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            TimedCacheImpl<Integer, Integer, RuntimeException> cache
+                    = (TimedCacheImpl<Integer, Integer, RuntimeException>) TimedCache.<Integer, Integer>create(TTL, k -> k)
+                            .onExpire((k, v) -> expired.incrementAndGet());
+            caches.add(cache.expirer(expirers.get()));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (TimedCacheImpl<Integer, Integer, RuntimeException> cache : caches) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int k = 0; k < OPS; k++) {
+                    cache.get(k);
+                    if (k > 0) {
+                        // A hit, extending the entry's life
+                        cache.get(k - 1);
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        long loaded = System.nanoTime();
+        int total = OPS * THREADS;
+        long deadline = System.currentTimeMillis() + 30000;
+        // Under load an entry can expire before the next iteration touches
+        // it and be loaded again, so there may be more expiries than keys
+        while (!allEmpty(caches) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        long done = System.nanoTime();
+        assertTrue(allEmpty(caches), name + " did not expire everything");
+        assertTrue(expired.get() >= total, name + " expired " + expired.get() + " of " + total);
+        LOG.log(level, "{0}: {1} entries added and touched by {2} threads in {3}ms, all expired after {4}ms",
+                new Object[]{name, total, THREADS, TimeUnit.NANOSECONDS.toMillis(loaded - began),
+                    TimeUnit.NANOSECONDS.toMillis(done - began)});
+    }
+
+    private static boolean allEmpty(List<TimedCacheImpl<Integer, Integer, RuntimeException>> caches) {
+        for (TimedCacheImpl<Integer, Integer, RuntimeException> cache : caches) {
+            if (!cache.cache.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The expirer as it was before the timing wheel, for comparison.
+     */
+    static final class DelayQueueExpirer extends Expirer implements Runnable {
+
+        private final DelayQueue<Expirable> queue = new DelayQueue<>();
+        private volatile boolean started;
+
+        @Override
+        void offer(Expirable expirable) {
+            queue.offer(expirable);
+            if (!started) {
+                synchronized (this) {
+                    if (!started) {
+                        started = true;
+                        Thread thread = new Thread(this, "bench-delay-queue");
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                try {
+                    expireOne(queue.take());
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+}
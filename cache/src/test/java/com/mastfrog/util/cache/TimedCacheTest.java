@@ -2,11 +2,19 @@ package com.mastfrog.util.cache;
 
 import com.mastfrog.util.cache.TimedCacheImpl.BidiCacheImpl;
 import com.mastfrog.util.preconditions.Exceptions;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -14,6 +22,7 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -53,6 +62,158 @@ public class TimedCacheTest {
         assertTrue(expiredInts.contains(24));
     }
 
+    @Test
+    public void testMaximumSizeKeepsFrequentEntries() throws Throwable {
+        Set<Integer> evicted = Collections.synchronizedSet(new HashSet<>());
+        TimedCacheImpl<Integer, String, RuntimeException> cache
+                = (TimedCacheImpl<Integer, String, RuntimeException>) TimedCache.<Integer, String>create(60000,
+                        i -> "i" + i).maximumSize(100).onExpire((i, s) -> evicted.add(i));
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals("i" + i, cache.get(i));
+            }
+        }
+        // A scan of unique keys, each used once, while the frequently used
+        // keys continue to be used
+        for (int i = 1000; i < 11000; i++) {
+            assertEquals("i" + i, cache.get(i));
+            if (i % 5 == 0) {
+                int hot = (i / 5) % 20;
+                assertEquals("i" + hot, cache.get(hot));
+            }
+            assertTrue(cache.weightedSize() <= 100, "Over maximum: " + cache.weightedSize());
+        }
+        assertTrue(cache.cache.size() <= 100, "Over maximum: " + cache.cache.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(cache.cachedValue(i).isPresent(), "Frequently used " + i + " was evicted");
+        }
+        assertTrue(evicted.size() >= 10000 - 100, "Evictions not reported: " + evicted.size());
+        cache.clear();
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test
+    public void testMaximumWeight() throws Throwable {
+        TimedCacheImpl<Integer, String, RuntimeException> cache
+                = (TimedCacheImpl<Integer, String, RuntimeException>) TimedCache.<Integer, String>create(60000,
+                        i -> new String(new char[i]).replace('\0', 'x'))
+                        .maximumWeight(1000, (k, v) -> v.length());
+        for (int i = 1; i < 200; i++) {
+            assertEquals(i, cache.get(i).length());
+            assertTrue(cache.weightedSize() <= 1000, "Over maximum: " + cache.weightedSize());
+        }
+        int total = 0;
+        for (TimedCacheImpl<Integer, String, RuntimeException>.CacheEntry e : cache.cache.values()) {
+            total += e.value.length();
+        }
+        assertEquals(total, cache.weightedSize());
+        // An entry heavier than the whole cache is returned but not retained
+        assertEquals(2000, cache.get(2000).length());
+        assertFalse(cache.cachedValue(2000).isPresent());
+    }
+
+    @Test
+    public void testSketchSizedByEntriesNotWeight() {
+        TinyLfuPolicy<TestNode> policy = new TinyLfuPolicy<>(1L << 30);
+        assertEquals(16, policy.sketchSize());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.added(new TestNode(i), 1024).isEmpty());
+        }
+        assertEquals(1024, policy.sketchSize());
+        assertEquals(1000L * 1024, policy.weightedSize());
+    }
+
+    static final class TestNode extends TinyLfuPolicy.Node<TestNode> {
+
+        private final Object key;
+
+        TestNode(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        Object key() {
+            return key;
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Throwable {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TimedCache<Integer, String, RuntimeException> cache = TimedCache.create(60000, i -> {
+            calls.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(10, SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            if (i < 0) {
+                throw new IllegalArgumentException("negative");
+            }
+            return "i" + i;
+        });
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(threads.submit(() -> cache.get(5)));
+            assertTrue(loading.await(10, SECONDS));
+            for (int i = 0; i < 7; i++) {
+                results.add(threads.submit(() -> cache.get(5)));
+            }
+            CompletableFuture<String> async = cache.getAsync(5, threads);
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> f : results) {
+                assertEquals("i5", f.get(10, SECONDS));
+            }
+            assertEquals("i5", async.get(10, SECONDS));
+            assertEquals(1, calls.get());
+            // Failures are delivered to every waiter, and nothing is cached
+            List<Future<String>> failing = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                failing.add(threads.submit(() -> cache.get(-1)));
+            }
+            for (Future<String> f : failing) {
+                try {
+                    f.get(10, SECONDS);
+                    fail("Exception expected");
+                } catch (ExecutionException ex) {
+                    assertTrue(ex.getCause() instanceof IllegalArgumentException, ex.getCause().toString());
+                }
+            }
+            assertFalse(cache.cachedValue(-1).isPresent());
+            assertEquals("i5", cache.getAsync(5).get(10, SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRemovedEntriesAreNotExpired() throws Throwable {
+        Set<Integer> expiredInts = Collections.synchronizedSet(new HashSet<>());
+        BidiCacheImpl<Integer, String, RuntimeException> cache
+                = (BidiCacheImpl<Integer, String, RuntimeException>) TimedCache.<Integer, String>create(60,
+                        i -> "i" + Integer.toString(i))
+                        .toBidiCache(s -> Integer.parseInt(s.substring(1)))
+                        .onExpire((i, s) -> expiredInts.add(i));
+        try {
+            assertEquals("i7", cache.get(7));
+            assertEquals("i8", cache.get(8));
+            assertTrue(cache.remove(7));
+            assertFalse(cache.containsKey(7));
+            assertFalse(cache.containsValue("i7"));
+            Thread.sleep(250);
+            assertTrue(expiredInts.contains(8));
+            assertFalse(expiredInts.contains(7));
+        } finally {
+            EXPIRER.lastOffered.set(null);
+            EXPIRER.lastExpired.set(null);
+        }
+    }
+
     @BeforeAll
     public static void setup() {
         TimedCacheImpl.expirerFactory = () -> EXPIRER;
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class TimingWheelTest {
+
+    private long now = 1_000_003;
+
+    @Test
+    public void testItemsFireOnTimeAcrossLevels() {
+        long tick = 10;
+        TimingWheel wheel = new TimingWheel(tick, now);
+        Random rnd = new Random(1234);
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Up to ~2^20 ticks out, so items pass through three levels
+            long delay = i < 100 ? i : (long) (rnd.nextDouble() * tick * (1 << 20));
+            Item item = new Item(now + delay);
+            items.add(item);
+            wheel.schedule(item, item.deadline);
+        }
+        assertEquals(items.size(), wheel.size());
+        List<Item> fired = new ArrayList<>();
+        long end = now + tick * (1L << 20) + tick * 2;
+        while (now < end) {
+            // Uneven steps, as a real clock would give
+            long prev = now;
+            now += 1 + rnd.nextInt((int) tick * 40);
+            wheel.advance(now, e -> {
+                Item it = (Item) e;
+                it.firedAt = now;
+                it.previousAdvance = prev;
+                fired.add(it);
+            });
+        }
+        assertEquals(items.size(), fired.size());
+        assertTrue(wheel.isEmpty());
+        for (Item it : items) {
+            assertTrue(it.firedAt >= it.deadline, "Fired early: " + it);
+            assertTrue(it.previousAdvance < it.deadline + tick, "Fired late: " + it);
+        }
+    }
+
+    @Test
+    public void testRescheduleFromConsumer() {
+        TimingWheel wheel = new TimingWheel(5, now);
+        Item item = new Item(now + 20);
+        wheel.schedule(item, item.deadline);
+        int[] fires = new int[1];
+        for (int i = 0; i < 100; i++) {
+            now += 5;
+            wheel.advance(now, e -> {
+                if (++fires[0] < 3) {
+                    wheel.schedule(e, now + 50);
+                }
+            });
+        }
+        assertEquals(3, fires[0]);
+        assertTrue(wheel.isEmpty());
+    }
+
+    final class Item implements Expirable {
+
+        final long deadline;
+        long firedAt = -1;
+        long previousAdvance = -1;
+
+        Item(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public String toString() {
+            return "Item(" + deadline + " fired " + firedAt + ")";
+        }
+
+        @Override
+        public void expire() {
+        }
+
+        @Override
+        public boolean isExpired() {
+            return now >= deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - now, MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(MILLISECONDS), o.getDelay(MILLISECONDS));
+        }
+    }
+}
@@ -41,6 +41,10 @@ final class ChannelKey {
     final Set<StandardOpenOption> opts;
     final boolean randomAccess;
     final FileAttribute[] attrs;
+    // Not part of equality: whether a channel was ever opened for this
+    // instance, so reopens are counted even after the pool has dropped its
+    // state for the path
+    private volatile boolean opened;
 
     ChannelKey(Path path, Set<StandardOpenOption> opts, boolean randomAccess, FileAttribute... attrs) {
         this.path = path;
@@ -61,6 +65,17 @@ final class ChannelKey {
         return sb.toString();
     }
 
+    /**
+     * Note that a channel has been opened for this key.
+     *
+     * @return true if one had been opened before
+     */
+    boolean markOpened() {
+        boolean result = opened;
+        opened = true;
+        return result;
+    }
+
     public boolean isAppend() {
         return opts.contains(StandardOpenOption.APPEND);
     }
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.file.channels;
+
+/**
+ * A snapshot of the counters a FileChannelPool maintains, useful for sizing
+ * its open channel budget.
+ *
+ * @author Tim Boudreau
+ */
+public final class ChannelPoolStats {
+
+    private final long lookups;
+    private final long opens;
+    private final long reopens;
+    private final long evictions;
+    private final long expirations;
+    private final int openChannels;
+    private final int maxOpenChannels;
+
+    ChannelPoolStats(long lookups, long opens, long reopens, long evictions,
+            long expirations, int openChannels, int maxOpenChannels) {
+        this.lookups = lookups;
+        this.opens = opens;
+        this.reopens = reopens;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.openChannels = openChannels;
+        this.maxOpenChannels = maxOpenChannels;
+    }
+
+    /**
+     * The number of times a lease or reader asked the pool for a channel.
+     *
+     * @return A count
+     */
+    public long lookups() {
+        return lookups;
+    }
+
+    /**
+     * The number of lookups satisfied by an already open channel.
+     *
+     * @return A count
+     */
+    public long hits() {
+        return Math.max(0, lookups - opens);
+    }
+
+    /**
+     * The fraction of lookups satisfied by an already open channel.
+     *
+     * @return A number between 0 and 1, or 1 if there have been no lookups
+     */
+    public double hitRate() {
+        return lookups == 0 ? 1D : hits() / (double) lookups;
+    }
+
+    /**
+     * The number of channels opened, including reopens.
+     *
+     * @return A count
+     */
+    public long opens() {
+        return opens;
+    }
+
+    /**
+     * The number of times a channel was opened for a file and set of options
+     * which had previously been opened and closed.
+     *
+     * @return A count
+     */
+    public long reopens() {
+        return reopens;
+    }
+
+    /**
+     * The number of channels closed to stay within the open channel budget.
+     *
+     * @return A count
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * The number of channels closed because they went unused for longer than
+     * the pool's timeout.
+     *
+     * @return A count
+     */
+    public long expirations() {
+        return expirations;
+    }
+
+    /**
+     * The number of channels currently open.
+     *
+     * @return A count
+     */
+    public int openChannels() {
+        return openChannels;
+    }
+
+    /**
+     * The open channel budget, or Integer.MAX_VALUE if unbounded.
+     *
+     * @return The budget
+     */
+    public int maxOpenChannels() {
+        return maxOpenChannels;
+    }
+
+    @Override
+    public String toString() {
+        return "open " + openChannels + "/" + (maxOpenChannels == Integer.MAX_VALUE
+                ? "unbounded" : Integer.toString(maxOpenChannels))
+                + ", lookups " + lookups + ", hit rate "
+                + String.format("%.3f", hitRate()) + ", opens " + opens
+                + ", reopens " + reopens + ", evictions " + evictions
+                + ", expirations " + expirations;
+    }
+}
@@ -39,12 +39,13 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
 import java.time.Duration;
-import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -59,6 +60,22 @@ import java.util.logging.Logger;
  * maintains the position and resets it on the channel prior to invoking the
  * callback, simulating multiple open file channels without the OS-level
  * overhead (at the price of disallowing concurrent access).
+ * <p>
+ * The pool itself holds no global lock: all bookkeeping for a file - the
+ * keys it has been leased with, and the locks that serialize use of its
+ * channels - lives in a per-path state object in a concurrent map, so leases
+ * over different files never contend with each other. That state is dropped
+ * once the file has no open channels and no lease is using it, so a pool
+ * which touches an unbounded series of files does not grow without bound.
+ * </p><p>
+ * A pool may be given a budget of open channels, for workloads which touch
+ * more files than the process may hold open descriptors for. When opening a
+ * channel would exceed it, the least recently used channels which no lease is
+ * currently using are closed; they are reopened transparently on next use.
+ * The budget is a soft one - if every open channel is in use, or several
+ * threads open channels at the same moment, it may be briefly exceeded rather
+ * than blocking or failing. Use <code>stats()</code> to size it.
+ * </p>
  *
  * @author Tim Boudreau
  */
@@ -69,8 +86,17 @@ public final class FileChannelPool implements AutoCloseable {
     private static final boolean DEBUG;
     private static FileChannelPool DEFAULT_POOL;
     private final TimedCache<ChannelKey, FileChannel, IOException> channels;
-    private final Map<Path, Set<ChannelKey>> keysForPath
-            = CollectionUtils.concurrentSupplierMap(HashSet::new);
+    private final ConcurrentHashMap<Path, PathState> states
+            = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ChannelKey, OpenChannel> open
+            = new ConcurrentHashMap<>();
+    private final AtomicInteger openCount = new AtomicInteger();
+    private final int maxOpenChannels;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder reopens = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
 
     static {
         DEBUG = Boolean.getBoolean("mastfrog.file.channel.debug");
@@ -110,7 +136,41 @@ public final class FileChannelPool implements AutoCloseable {
      */
     public static FileChannelPool newPool(long channelCloseTimeout) {
         Checks.greaterThanZero("channelCloseTimeout", channelCloseTimeout);
-        return new FileChannelPool(channelCloseTimeout);
+        return new FileChannelPool(channelCloseTimeout, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new FileChannelPool which keeps at most a fixed number of
+     * channels open, closing the least recently used idle ones as needed.
+     *
+     * @param channelCloseTimeout The timeout after which, if the associated
+     * channel has not been used, the channel should be closed and removed from
+     * the pool.
+     * @param maxOpenChannels The number of channels the pool should try not
+     * to exceed
+     *
+     * @return A pool
+     */
+    public static FileChannelPool newPool(Duration channelCloseTimeout, int maxOpenChannels) {
+        return newPool(channelCloseTimeout.toMillis(), maxOpenChannels);
+    }
+
+    /**
+     * Create a new FileChannelPool which keeps at most a fixed number of
+     * channels open, closing the least recently used idle ones as needed.
+     *
+     * @param channelCloseTimeout The timeout after which, if the associated
+     * channel has not been used, the channel should be closed and removed from
+     * the pool.
+     * @param maxOpenChannels The number of channels the pool should try not
+     * to exceed
+     *
+     * @return A pool
+     */
+    public static FileChannelPool newPool(long channelCloseTimeout, int maxOpenChannels) {
+        Checks.greaterThanZero("channelCloseTimeout", channelCloseTimeout);
+        Checks.greaterThanZero("maxOpenChannels", maxOpenChannels);
+        return new FileChannelPool(channelCloseTimeout, maxOpenChannels);
     }
 
     private static void log(Path path, Set<? extends OpenOption> opts) {
@@ -138,27 +198,67 @@ public final class FileChannelPool implements AutoCloseable {
      */
     public static final synchronized FileChannelPool defaultPool() {
         if (DEFAULT_POOL == null) {
-            DEFAULT_POOL = new FileChannelPool(60000);
+            DEFAULT_POOL = new FileChannelPool(60000, Integer.MAX_VALUE);
         }
         return DEFAULT_POOL;
     }
 
-    private FileChannelPool(long leaseTimeout) {
+    private FileChannelPool(long leaseTimeout, int maxOpenChannels) {
+        this.maxOpenChannels = maxOpenChannels;
         channels = TimedCache.<ChannelKey, FileChannel, IOException>createThrowing(
                 leaseTimeout, this::newChannelFor).onExpire(this::expire);
     }
 
     private void expire(ChannelKey key, FileChannel channel) {
-        if (channel.isOpen()) {
-            try {
-                if (DEBUG) {
-                    System.out.println("Close channel for " + key);
-                }
+        try {
+            if (DEBUG && channel.isOpen()) {
+                System.out.println("Close channel for " + key);
+            }
+            if (closeChannel(key, channel)) {
+                expirations.increment();
+            }
+        } catch (IOException ioe) {
+            Logger.getLogger(FileChannelPool.class.getName()).log(Level.SEVERE, null, ioe);
+        }
+    }
+
+    /**
+     * Close a channel, removing it from the set of open channels counted
+     * against the budget if it is still registered there.
+     *
+     * @param key The key
+     * @param channel The channel
+     * @return true if the channel was registered as open
+     * @throws IOException If closing fails
+     */
+    private boolean closeChannel(ChannelKey key, FileChannel channel) throws IOException {
+        OpenChannel oc = open.get(key);
+        boolean result = oc != null && oc.channel == channel && open.remove(key, oc);
+        try {
+            if (channel.isOpen()) {
                 channel.close();
-            } catch (IOException ioe) {
-                Logger.getLogger(FileChannelPool.class.getName()).log(Level.SEVERE, null, ioe);
+            }
+        } finally {
+            if (result) {
+                openCount.decrementAndGet();
+                PathState state = states.get(key.path);
+                if (state != null && state.openChannels.decrementAndGet() == 0) {
+                    discardIfUnused(state);
+                }
             }
         }
+        return result;
+    }
+
+    /**
+     * Get a snapshot of the counters this pool maintains.
+     *
+     * @return The stats
+     */
+    public ChannelPoolStats stats() {
+        return new ChannelPoolStats(lookups.sum(), opens.sum(), reopens.sum(),
+                evictions.sum(), expirations.sum(), openCount.get(),
+                maxOpenChannels);
     }
 
     long size(ChannelKey key) throws IOException {
@@ -166,7 +266,11 @@ public final class FileChannelPool implements AutoCloseable {
     }
 
     private long size(Path path) throws IOException {
-        for (ChannelKey ck : keysForPath.get(path)) {
+        PathState state = states.get(path);
+        if (state == null) {
+            return Files.size(path);
+        }
+        for (ChannelKey ck : state.keys) {
             Optional<FileChannel> oc = channels.cachedValue(ck);
             if (oc.isPresent()) {
                 FileChannel ch = oc.get();
@@ -184,6 +288,36 @@ public final class FileChannelPool implements AutoCloseable {
     }
 
     private FileChannel newChannelFor(ChannelKey key) throws IOException {
+        if (openCount.get() >= maxOpenChannels) {
+            evictIdle(key);
+        }
+        FileChannel result = openChannel(key);
+        opens.increment();
+        PathState state = enter(key.path);
+        try {
+            state.keys.add(key);
+            // Either another lease opened this file with these options, or
+            // this one did before the state for the path was discarded
+            boolean openedBefore = key.markOpened();
+            if (!state.opened.add(key) || openedBefore) {
+                reopens.increment();
+            }
+            OpenChannel prev = open.put(key, new OpenChannel(key, result));
+            if (prev == null) {
+                openCount.incrementAndGet();
+                state.openChannels.incrementAndGet();
+            } else if (prev.channel.isOpen()) {
+                // A stale registration for a channel the cache dropped
+                // without closing
+                prev.channel.close();
+            }
+        } finally {
+            exit(state);
+        }
+        return result;
+    }
+
+    private FileChannel openChannel(ChannelKey key) throws IOException {
         if (key.randomAccess) {
             String args = toRandomAccessFileArgs(key.opts);
             RandomAccessFile file = new RandomAccessFile(key.path.toFile(), args);
@@ -196,6 +330,45 @@ public final class FileChannelPool implements AutoCloseable {
         return open(key.path, key.opts, key.attrs);
     }
 
+    private void evictIdle(ChannelKey opening) throws IOException {
+        // A full scan is linear in the number of open channels, but only
+        // happens when opening one, which costs a system call anyway; it
+        // keeps the hot path free of any shared LRU structure
+        for (int attempts = 0; attempts < 8 && openCount.get() >= maxOpenChannels; attempts++) {
+            OpenChannel victim = null;
+            for (OpenChannel oc : open.values()) {
+                if (!oc.key.equals(opening) && (victim == null || oc.lastUsed < victim.lastUsed)
+                        && !isInUse(oc.key)) {
+                    victim = oc;
+                }
+            }
+            if (victim == null) {
+                // Everything is in use - exceed the budget rather than block
+                return;
+            }
+            // Hold the lock leases take, so no lease can start using the
+            // channel while we close it; if one already has, try another
+            PathState state = enter(victim.key.path);
+            try {
+                ReentrantLock lock = state.lockFor(victim.key);
+                if (lock.tryLock()) {
+                    try {
+                        if (open.get(victim.key) == victim) {
+                            channels.remove(victim.key);
+                            if (closeChannel(victim.key, victim.channel)) {
+                                evictions.increment();
+                            }
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } finally {
+                exit(state);
+            }
+        }
+    }
+
     private String toRandomAccessFileArgs(Set<StandardOpenOption> opts) {
         StringBuilder sb = new StringBuilder(3);
         if (opts.contains(StandardOpenOption.READ)) {
@@ -213,13 +386,105 @@ public final class FileChannelPool implements AutoCloseable {
         return sb.toString();
     }
 
-    synchronized FileChannel get(ChannelKey key) throws IOException {
+    FileChannel get(ChannelKey key) throws IOException {
+        return new FileChannelWrapper(channel(key));
+    }
+
+    /**
+     * Get the pooled channel for a key, reopening it if it has been closed,
+     * without wrapping it - only for use by code in this package which will
+     * never close it.
+     *
+     * @param key A key
+     * @return An open channel
+     * @throws IOException If it cannot be opened
+     */
+    FileChannel channel(ChannelKey key) throws IOException {
+        lookups.increment();
         FileChannel ch = channels.get(key);
+        if (maxOpenChannels != Integer.MAX_VALUE) {
+            OpenChannel oc = open.get(key);
+            if (oc != null) {
+                oc.lastUsed = System.nanoTime();
+            }
+        }
         if (!ch.isOpen()) {
-            channels.remove(key);
-            ch = channels.get(key);
+            // Only reopening needs to be exclusive, and only against other
+            // users and deleters of the same file
+            PathState state = enter(key.path);
+            try {
+                synchronized (state) {
+                    ch = channels.get(key);
+                    if (!ch.isOpen()) {
+                        channels.remove(key);
+                        ch = channels.get(key);
+                    }
+                }
+            } finally {
+                exit(state);
+            }
         }
-        return new FileChannelWrapper(ch);
+        return ch;
+    }
+
+    /**
+     * Get the state for a path, registered as a user of it so it cannot be
+     * discarded until <code>exit()</code> is called.
+     *
+     * @param path A path
+     * @return The current state for that path
+     */
+    private PathState enter(Path path) {
+        for (;;) {
+            // Check with get() first, since computeIfAbsent() may lock the bin
+            // even when the key is present
+            PathState result = states.get(path);
+            if (result == null) {
+                result = states.computeIfAbsent(path, PathState::new);
+            }
+            if (result.enter()) {
+                return result;
+            }
+            // Being discarded - it is about to leave the map
+            Thread.yield();
+        }
+    }
+
+    private void exit(PathState state) {
+        if (state.users.decrementAndGet() == 0 && state.openChannels.get() == 0) {
+            discardIfUnused(state);
+        }
+    }
+
+    /**
+     * Drop the state for a path from the map if it has no open channels and
+     * nothing is using it; leases which outlive it re-register their keys
+     * with a new state when they next open a channel.
+     */
+    private void discardIfUnused(PathState state) {
+        if (state.openChannels.get() != 0 || !state.users.compareAndSet(0, -1)) {
+            return;
+        }
+        // A channel may have been opened between the check and the CAS
+        if (state.openChannels.get() != 0) {
+            state.users.set(0);
+            return;
+        }
+        states.remove(state.path, state);
+    }
+
+    private boolean isInUse(ChannelKey key) {
+        PathState state = states.get(key.path);
+        return state != null && state.lockFor(key).isLocked();
+    }
+
+    /**
+     * Get the number of paths the pool currently holds state for.
+     *
+     * @return A count
+     */
+    int trackedPaths() {
+        return states.size();
     }
 
     @SuppressWarnings("ManualArrayToCollectionCopy") // no need to create and throw away an intermediate List
@@ -237,7 +502,6 @@ public final class FileChannelPool implements AutoCloseable {
 
     private Lease randomAccessLease(Path path, Set<StandardOpenOption> openOptions, FileAttribute... attrs) throws IOException {
         ChannelKey ck = new ChannelKey(path, openOptions, true, attrs);
-        keysForPath.get(path).add(ck);
         Lease lease = new Lease(ck, this);
         if (ck.isAppend() && Files.exists(path)) {
             lease.position(Files.size(path));
@@ -301,7 +565,6 @@ public final class FileChannelPool implements AutoCloseable {
      */
     public Lease lease(Path path, Set<StandardOpenOption> openOptions, FileAttribute... attrs) throws IOException {
         ChannelKey ck = new ChannelKey(path, openOptions, false, attrs);
-        keysForPath.get(path).add(ck);
         Lease lease = new Lease(ck, this);
         if (ck.isAppend() && Files.exists(path)) {
             lease.position(Files.size(path));
@@ -309,6 +572,21 @@ public final class FileChannelPool implements AutoCloseable {
         return lease;
     }
 
+    /**
+     * Obtain a reader for a file which reads at explicit positions, without
+     * the locking and repositioning a Lease performs, so any number of threads
+     * can read from the file at once. The reader shares the pooled read-only
+     * channel for the file with read leases.
+     *
+     * @param path The file path
+     * @return A reader
+     */
+    public PositionalReader positionalReader(Path path) {
+        ChannelKey ck = new ChannelKey(Checks.notNull("path", path),
+                EnumSet.of(StandardOpenOption.READ), false, NO_ATTRS);
+        return new PositionalReader(ck, this);
+    }
+
     /**
      * Close this file channel pool, closing all channels owned by it. Close
      * operations will attempt to block until any callback actively using the
@@ -335,12 +613,8 @@ public final class FileChannelPool implements AutoCloseable {
         }
     }
 
-    synchronized boolean deleteFile(ChannelKey key) throws IOException {
-        boolean result = deleteFile(key.path);
-        if (result) {
-            readLocks.remove(key);
-        }
-        return result;
+    boolean deleteFile(ChannelKey key) throws IOException {
+        return deleteFile(key.path);
     }
 
     /**
@@ -351,85 +625,173 @@ public final class FileChannelPool implements AutoCloseable {
      * @return True if the file exists and was deleted
      * @throws IOException If deletion fails for some reason
      */
-    public synchronized boolean deleteFile(Path path) throws IOException {
-        if (Files.exists(path)) {
-            Set<ChannelKey> keys = keysForPath.get(path);
-            try {
-                for (ChannelKey k : keys) {
-                    Optional<FileChannel> optCh = channels.getOptional(k);
-                    if (optCh.isPresent()) {
-                        FileChannel ch = optCh.get();
-                        if (ch.isOpen()) {
-                            ch.close();
+    public boolean deleteFile(Path path) throws IOException {
+        if (states.get(path) == null) {
+            if (Files.exists(path)) {
+                Files.delete(path);
+                return true;
+            }
+            return false;
+        }
+        // Entering the state keeps it, and so its locks, alive while leases
+        // which were in use when the file was deleted still hold them; it is
+        // discarded once the last of them exits
+        PathState state = enter(path);
+        try {
+            synchronized (state) {
+                if (Files.exists(path)) {
+                    try {
+                        for (ChannelKey k : state.keys) {
+                            Optional<FileChannel> optCh = channels.cachedValue(k);
+                            if (optCh.isPresent()) {
+                                closeChannel(k, optCh.get());
+                            }
+                        }
+                        for (ChannelKey k : state.keys) {
+                            channels.remove(k);
                         }
+                    } finally {
+                        Files.delete(path);
                     }
+                    return true;
                 }
-                for (ChannelKey k : keys) {
-                    channels.remove(k);
-                    readLocks.remove(k);
-                }
-            } finally {
-                Files.delete(path);
-                writeLocks.remove(path);
+                return false;
             }
-            return true;
-        }
-        return false;
-    }
-
-    private final Map<ChannelKey, ReentrantLock> readLocks
-            = Collections.synchronizedMap(CollectionUtils.supplierMap(ReentrantLock::new));
-    private final Map<Path, ReentrantLock> writeLocks
-            = Collections.synchronizedMap(CollectionUtils.supplierMap(ReentrantLock::new));
-
-    private ReentrantLock lockFor(ChannelKey key) {
-        // The purpose of the lock is to ensure two threads are not
-        // repositioning the same *channel* at the same time, so it
-        // is not necessary to block writes for reads.
-        if (key.isAppend() || key.isWrite()) {
-            return writeLocks.get(key.path);
-        } else {
-            return readLocks.get(key);
+        } finally {
+            exit(state);
         }
     }
 
     void underLock(ChannelKey key, IORunnable r) throws IOException {
-        ReentrantLock lock = lockFor(key);
-        lock.lock();
+        PathState state = enter(key.path);
         try {
-            r.run();
+            ReentrantLock lock = state.lockFor(key);
+            lock.lock();
+            try {
+                r.run();
+            } finally {
+                lock.unlock();
+            }
         } finally {
-            lock.unlock();
+            exit(state);
         }
     }
 
     <R> R underLock(ChannelKey key, IOSupplier<R> r) throws IOException {
-        ReentrantLock lock = lockFor(key);
-        lock.lock();
+        PathState state = enter(key.path);
         try {
-            return r.get();
+            ReentrantLock lock = state.lockFor(key);
+            lock.lock();
+            try {
+                return r.get();
+            } finally {
+                lock.unlock();
+            }
         } finally {
-            lock.unlock();
+            exit(state);
         }
     }
 
     long underLock(ChannelKey key, IOLongSupplier r) throws IOException {
-        ReentrantLock lock = lockFor(key);
-        lock.lock();
+        PathState state = enter(key.path);
         try {
-            return r.getAsLong();
+            ReentrantLock lock = state.lockFor(key);
+            lock.lock();
+            try {
+                return r.getAsLong();
+            } finally {
+                lock.unlock();
+            }
         } finally {
-            lock.unlock();
+            exit(state);
         }
     }
 
     int underLock(ChannelKey key, IOIntSupplier r) throws IOException {
-        ReentrantLock lock = lockFor(key);
-        lock.lock();
+        PathState state = enter(key.path);
         try {
-            return r.getAsInt();
+            ReentrantLock lock = state.lockFor(key);
+            lock.lock();
+            try {
+                return r.getAsInt();
+            } finally {
+                lock.unlock();
+            }
         } finally {
-            lock.unlock();
+            exit(state);
+        }
+    }
+
+    /**
+     * Everything the pool knows about one file, so that operations on
+     * different files touch disjoint state.
+     */
+    static final class PathState {
+
+        final Path path;
+        final Set<ChannelKey> keys = ConcurrentHashMap.newKeySet();
+        final Set<ChannelKey> opened = ConcurrentHashMap.newKeySet();
+        // Threads between enter() and exit(), or -1 once discarded
+        final AtomicInteger users = new AtomicInteger();
+        final AtomicInteger openChannels = new AtomicInteger();
+        final ReentrantLock writeLock = new ReentrantLock();
+        private final ConcurrentHashMap<ChannelKey, ReentrantLock> readLocks
+                = new ConcurrentHashMap<>(4);
+
+        PathState(Path path) {
+            this.path = path;
+        }
+
+        boolean enter() {
+            for (;;) {
+                int count = users.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (users.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        ReentrantLock lockFor(ChannelKey key) {
+            // The purpose of the lock is to ensure two threads are not
+            // repositioning the same *channel* at the same time, so it
+            // is not necessary to block writes for reads.
+            if (key.isAppend() || key.isWrite()) {
+                return writeLock;
+            } else {
+                return readLock(key);
+            }
+        }
+
+        ReentrantLock readLock(ChannelKey key) {
+            ReentrantLock result = readLocks.get(key);
+            if (result == null) {
+                result = readLocks.computeIfAbsent(key, k -> new ReentrantLock());
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return path + keys.toString();
+        }
+    }
+
+    /**
+     * A channel this pool opened and has not yet closed, counted against the
+     * budget.
+     */
+    static final class OpenChannel {
+
+        final ChannelKey key;
+        final FileChannel channel;
+        volatile long lastUsed = System.nanoTime();
+
+        OpenChannel(ChannelKey key, FileChannel channel) {
+            this.key = key;
+            this.channel = channel;
         }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.file.channels;
+
+import com.mastfrog.util.preconditions.Checks;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Reads from a pooled, read-only channel at explicit positions. Unlike a
+ * Lease, a PositionalReader has no position of its own and takes no lock -
+ * <code>FileChannel.read(ByteBuffer, long)</code> does not touch the
+ * channel's position and is safe to call concurrently, so many threads may
+ * read one file through the same channel at the same time.
+ * <p>
+ * If the channel is closed underneath a read - because the pool expired it,
+ * or because a thread reading from it was interrupted, which closes the
+ * channel for everyone - the read is retried on a freshly opened channel. A
+ * read by a thread which was itself interrupted is not retried.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class PositionalReader {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private final ChannelKey key;
+    private final FileChannelPool pool;
+
+    PositionalReader(ChannelKey key, FileChannelPool pool) {
+        this.key = key;
+        this.pool = pool;
+    }
+
+    @Override
+    public String toString() {
+        return "positional:" + key;
+    }
+
+    /**
+     * Get the file this reader reads.
+     *
+     * @return The path
+     */
+    public Path of() {
+        return key.path;
+    }
+
+    /**
+     * Get the pool this reader belongs to.
+     *
+     * @return The pool
+     */
+    public FileChannelPool pool() {
+        return pool;
+    }
+
+    /**
+     * Get the current size of the file.
+     *
+     * @return The size
+     * @throws IOException If something goes wrong
+     */
+    public long size() throws IOException {
+        return pool.size(key);
+    }
+
+    /**
+     * Read bytes into the passed buffer starting at the passed position in
+     * the file, as with <code>FileChannel.read(ByteBuffer, long)</code>.
+     *
+     * @param dst A buffer
+     * @param position The file position to read from
+     * @return The number of bytes read, or -1 if the position is at or past
+     * the end of the file
+     * @throws IOException If something goes wrong
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        Checks.notNull("dst", dst);
+        Checks.nonNegative("position", position);
+        for (int attempt = 1;; attempt++) {
+            FileChannel ch = pool.channel(key);
+            int start = dst.position();
+            try {
+                return ch.read(dst, position);
+            } catch (ClosedByInterruptException ex) {
+                throw ex;
+            } catch (ClosedChannelException ex) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw ex;
+                }
+                dst.position(start);
+            }
+        }
+    }
+
+    /**
+     * Fill the passed buffer from the passed position in the file.
+     *
+     * @param dst A buffer
+     * @param position The file position to read from
+     * @throws EOFException If the end of the file is reached before the buffer
+     * is full
+     * @throws IOException If something goes wrong
+     */
+    public void readFully(ByteBuffer dst, long position) throws IOException {
+        long pos = position;
+        while (dst.hasRemaining()) {
+            int count = read(dst, pos);
+            if (count < 0) {
+                throw new EOFException("End of " + key.path + " at " + pos
+                        + " with " + dst.remaining() + " bytes unread");
+            }
+            pos += count;
+        }
+    }
+
+    /**
+     * Scatter-read into a sequence of buffers from a starting position, filling
+     * each buffer before moving to the next, until all are full or the end of
+     * the file is reached.
+     *
+     * @param dsts Some buffers
+     * @param position The file position to start reading from
+     * @return The total number of bytes read, or -1 if the position is at or
+     * past the end of the file
+     * @throws IOException If something goes wrong
+     */
+    public long read(ByteBuffer[] dsts, long position) throws IOException {
+        Checks.notNull("dsts", dsts);
+        long total = 0;
+        for (ByteBuffer dst : dsts) {
+            while (dst.hasRemaining()) {
+                int count = read(dst, position + total);
+                if (count < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += count;
+            }
+        }
+        return total;
+    }
+}
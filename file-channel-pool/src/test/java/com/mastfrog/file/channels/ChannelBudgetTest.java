@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to useAsLong, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.file.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class ChannelBudgetTest {
+
+    private static final int FILES = 20;
+    private static final int BUDGET = 4;
+    private FileChannelPool pool;
+    private Path dir;
+    private final List<Lease> leases = new ArrayList<>();
+
+    @Test
+    public void testBudgetEvictsAndReopens() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            write(leases.get(i), i);
+            assertTrue(pool.stats().openChannels() <= BUDGET, pool.stats().toString());
+        }
+        for (int i = 0; i < FILES; i++) {
+            assertEquals(i, read(leases.get(i)));
+        }
+        ChannelPoolStats stats = pool.stats();
+        assertTrue(stats.openChannels() <= BUDGET, stats.toString());
+        assertEquals(FILES * 2, stats.opens(), stats.toString());
+        assertEquals(FILES, stats.reopens(), stats.toString());
+        assertEquals(FILES * 2 - BUDGET, stats.evictions(), stats.toString());
+        // Hits now
+        for (int i = 0; i < 3; i++) {
+            assertEquals(FILES - 1, read(leases.get(FILES - 1)));
+        }
+        stats = pool.stats();
+        assertEquals(FILES * 2, stats.opens(), stats.toString());
+        assertTrue(stats.hitRate() > 0, stats.toString());
+    }
+
+    @Test
+    public void testChannelsInUseAreNotEvicted() throws Exception {
+        Lease held = leases.get(0);
+        CountDownLatch inUse = new CountDownLatch(1);
+        CountDownLatch othersDone = new CountDownLatch(1);
+        AtomicBoolean stayedOpen = new AtomicBoolean();
+        Thread t = new Thread(() -> {
+            try {
+                held.use(ch -> {
+                    inUse.countDown();
+                    try {
+                        othersDone.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                    stayedOpen.set(ch.isOpen());
+                    ch.write(ByteBuffer.allocate(Long.BYTES).putLong(0, 42L), 0);
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        assertTrue(inUse.await(10, TimeUnit.SECONDS));
+        try {
+            for (int i = 1; i < FILES; i++) {
+                write(leases.get(i), i);
+            }
+        } finally {
+            othersDone.countDown();
+        }
+        t.join();
+        assertTrue(stayedOpen.get());
+        assertEquals(42L, read(held));
+        assertTrue(pool.stats().evictions() > 0, pool.stats().toString());
+    }
+
+    private static void write(Lease lease, long value) throws IOException {
+        lease.use(ch -> {
+            ch.write(ByteBuffer.allocate(Long.BYTES).putLong(0, value), 0);
+        });
+    }
+
+    private static long read(Lease lease) throws IOException {
+        return lease.useAsLong(ch -> {
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+            ch.read(buf, 0);
+            return buf.getLong(0);
+        });
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        pool = FileChannelPool.newPool(60000, BUDGET);
+        dir = Paths.get(System.getProperty("java.io.tmpdir"))
+                .resolve(getClass().getSimpleName() + "-" + System.currentTimeMillis());
+        Files.createDirectories(dir);
+        for (int i = 0; i < FILES; i++) {
+            leases.add(pool.lease(dir.resolve("file-" + i), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        try {
+            for (int i = 0; i < FILES; i++) {
+                pool.deleteFile(dir.resolve("file-" + i));
+            }
+            Files.deleteIfExists(dir);
+        } finally {
+            pool.close();
+        }
+    }
+}
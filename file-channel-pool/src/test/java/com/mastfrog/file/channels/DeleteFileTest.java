@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to useAsLong, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.file.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class DeleteFileTest {
+
+    private FileChannelPool pool;
+    private Path dir;
+    private Path file;
+
+    @Test
+    public void testLeaseOutlivingRepeatedDeletesRecreatesFile() throws Exception {
+        Lease lease = pool.lease(file, WRITE, CREATE, APPEND);
+        write(lease, "first\n");
+        assertEquals("first\n", contents());
+        assertTrue(pool.deleteFile(file));
+        assertFalse(Files.exists(file));
+
+        write(lease, "second\n");
+        assertEquals("second\n", contents());
+        assertTrue(pool.deleteFile(file));
+        assertFalse(Files.exists(file));
+
+        // The channel reopened after the first delete must also be closed
+        // by the second, or this write lands in an unlinked file
+        write(lease, "third\n");
+        assertTrue(Files.exists(file));
+        assertEquals("third\n", contents());
+    }
+
+    @Test
+    public void testDeleteDoesNotSplitLocksOfLeasesInUse() throws Exception {
+        Lease held = pool.lease(file, READ, WRITE, CREATE);
+        write(held, "abc");
+        CountDownLatch inUse = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            try {
+                held.use(ch -> {
+                    inUse.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                });
+            } catch (IOException ex) {
+                // the channel was closed by the delete - expected
+            }
+        });
+        holder.setDaemon(true);
+        holder.start();
+        assertTrue(inUse.await(10, TimeUnit.SECONDS));
+        assertTrue(pool.deleteFile(file));
+
+        // A lease taken after the delete must still wait for the one
+        // which was in use when the file was deleted
+        AtomicBoolean entered = new AtomicBoolean();
+        Lease after = pool.lease(file, READ, WRITE, CREATE);
+        Thread other = new Thread(() -> {
+            try {
+                after.use(ch -> {
+                    entered.set(true);
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        other.setDaemon(true);
+        other.start();
+        Thread.sleep(200);
+        assertFalse(entered.get());
+        release.countDown();
+        holder.join(10000);
+        other.join(10000);
+        assertTrue(entered.get());
+    }
+
+    @Test
+    public void testStateDoesNotAccumulateAcrossCreateAndDelete() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            Path segment = dir.resolve("segment-" + i);
+            Lease writer = pool.lease(segment, WRITE, CREATE, APPEND);
+            write(writer, "segment " + i + "\n");
+            Lease reader = pool.lease(segment, READ);
+            reader.use(ch -> {
+                ByteBuffer buf = ByteBuffer.allocate(32);
+                ch.read(buf);
+            });
+            PositionalReader positional = pool.positionalReader(segment);
+            assertTrue(positional.read(ByteBuffer.allocate(4), 0) > 0);
+            assertTrue(pool.trackedPaths() <= 1, "Tracking " + pool.trackedPaths() + " paths");
+            assertTrue(pool.deleteFile(segment));
+            // A lease which outlives the delete still works, and leaves
+            // nothing behind once its file is deleted again
+            write(writer, "again\n");
+            writer.deleteFile();
+            assertFalse(Files.exists(segment));
+        }
+        assertEquals(0, pool.trackedPaths());
+    }
+
+    private String contents() throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void write(Lease lease, String what) throws IOException {
+        lease.use(ch -> {
+            ch.write(ByteBuffer.wrap(what.getBytes(StandardCharsets.UTF_8)));
+        });
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        pool = FileChannelPool.newPool(60000);
+        dir = Paths.get(System.getProperty("java.io.tmpdir"))
+                .resolve(getClass().getSimpleName() + "-" + System.currentTimeMillis());
+        Files.createDirectories(dir);
+        file = dir.resolve("deleted");
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        try {
+            pool.deleteFile(file);
+            Files.deleteIfExists(dir);
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to useAsLong, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.file.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures throughput of threads which each lease and use a distinct file,
+ * for increasing thread counts - with no shared lock in the pool, throughput
+ * should scale with the number of cores until the disk saturates. Tagged
+ * <code>benchmark</code>, so it is excluded from the default build and only
+ * runs with <code>mvn test -Pbenchmark</code>.
+ *
+ * @author Tim Boudreau
+ */
+@Tag("benchmark")
+public class FileChannelPoolScalingBenchmarkTest {
+
+    private static final Logger LOG = Logger.getLogger(FileChannelPoolScalingBenchmarkTest.class.getName());
+    private static final int OPS = Integer.getInteger("channel.pool.benchmark.ops", 200000);
+    private static final int MAX_THREADS = 64;
+    private FileChannelPool pool;
+    private Path dir;
+
+    @Test
+    public void benchmarkDistinctFileLeases() throws Exception {
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 4) {
+            run(threads);
+        }
+        double base = 0;
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 4) {
+            double opsPerSecond = run(threads);
+            if (threads == 1) {
+                base = opsPerSecond;
+            }
+            LOG.log(Level.INFO, String.format("%2d threads: %,12.0f ops/s  (%.2fx)",
+                    threads, opsPerSecond, opsPerSecond / base));
+        }
+    }
+
+    private double run(int threads) throws Exception {
+        List<Lease> leases = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            leases.add(pool.lease(dir.resolve("file-" + i), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        int perThread = Math.max(1, OPS / threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < threads; i++) {
+            Lease lease = leases.get(i);
+            Thread t = new Thread(() -> {
+                ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+                try {
+                    start.await();
+                    for (long j = 0; j < perThread; j++) {
+                        long value = j;
+                        lease.use(ch -> {
+                            buf.clear();
+                            buf.putLong(value).flip();
+                            ch.write(buf, 0);
+                        });
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                } finally {
+                    done.countDown();
+                }
+            }, "lease-bench-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        long then = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - then;
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        for (Lease lease : leases) {
+            long last = lease.useAsLong(ch -> {
+                ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+                ch.read(buf, 0);
+                return buf.getLong(0);
+            });
+            assertEquals(perThread - 1, last, lease.toString());
+        }
+        return (perThread * (double) threads) / (elapsed / 1_000_000_000D);
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        pool = FileChannelPool.newPool(5000);
+        dir = Paths.get(System.getProperty("java.io.tmpdir"))
+                .resolve(getClass().getSimpleName() + "-" + System.currentTimeMillis());
+        Files.createDirectories(dir);
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        try {
+            for (int i = 0; i < MAX_THREADS; i++) {
+                pool.deleteFile(dir.resolve("file-" + i));
+            }
+            Files.deleteIfExists(dir);
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to useAsLong, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.file.channels;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class PositionalReaderTest {
+
+    private static final int LONGS = 4096;
+    private Path file;
+    private FileChannelPool pool;
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        PositionalReader reader = pool.positionalReader(file);
+        assertEquals(LONGS * Long.BYTES, reader.size());
+        int threads = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    for (int j = 0; j < 2000; j++) {
+                        int ix = rnd.nextInt(LONGS);
+                        buf.clear();
+                        reader.readFully(buf, ix * (long) Long.BYTES);
+                        assertEquals(ix, buf.getLong(0));
+                    }
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                } finally {
+                    done.countDown();
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void testReadsDoNotWaitForLeases() throws Exception {
+        // A read lease shares the reader's channel; hold its lock and
+        // read through the positional reader meanwhile
+        Lease lease = pool.lease(file, StandardOpenOption.READ);
+        PositionalReader reader = pool.positionalReader(file);
+        CountDownLatch inUse = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                lease.use(ch -> {
+                    inUse.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        assertTrue(inUse.await(10, TimeUnit.SECONDS));
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+            reader.readFully(buf, 7 * Long.BYTES);
+            assertEquals(7L, buf.getLong(0));
+        } finally {
+            release.countDown();
+        }
+        t.join();
+    }
+
+    @Test
+    public void testScatterReadAndEndOfFile() throws Exception {
+        PositionalReader reader = pool.positionalReader(file);
+        ByteBuffer[] bufs = new ByteBuffer[]{ByteBuffer.allocate(Long.BYTES * 2),
+            ByteBuffer.allocate(Long.BYTES * 3)};
+        assertEquals(Long.BYTES * 5, reader.read(bufs, 10 * Long.BYTES));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(10 + i, bufs[0].getLong(i * Long.BYTES));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(12 + i, bufs[1].getLong(i * Long.BYTES));
+        }
+        bufs[0].clear();
+        bufs[1].clear();
+        assertEquals(Long.BYTES, reader.read(bufs, (LONGS - 1) * Long.BYTES));
+        assertEquals(LONGS - 1, bufs[0].getLong(0));
+        assertEquals(-1, reader.read(ByteBuffer.allocate(1), LONGS * Long.BYTES));
+        assertThrows(EOFException.class, () -> reader.readFully(
+                ByteBuffer.allocate(Long.BYTES * 2), (LONGS - 1) * Long.BYTES));
+    }
+
+    @BeforeEach
+    public void before() throws IOException {
+        pool = FileChannelPool.newPool(5000);
+        file = Paths.get(System.getProperty("java.io.tmpdir"))
+                .resolve(getClass().getSimpleName() + "-" + System.currentTimeMillis());
+        ByteBuffer buf = ByteBuffer.allocate(LONGS * Long.BYTES);
+        for (int i = 0; i < LONGS; i++) {
+            buf.putLong(i);
+        }
+        Files.write(file, buf.array());
+    }
+
+    @AfterEach
+    public void after() throws IOException {
+        try {
+            pool.deleteFile(file);
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.mastfrog.graph.algorithm.PageRank;
 import com.mastfrog.function.IntBiConsumer;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.IntFunction;
 
@@ -37,6 +38,7 @@ final class BitSetGraph implements IntGraph {
     private final Bits topLevel;
     private final Bits bottomLevel;
     private final IntFunction<MutableBits> bitsFactory;
+    private final AtomicReference<GraphTraversal> traversal = new AtomicReference<>();
 
     BitSetGraph(Bits[] outboundEdges, Bits[] inboundEdges, Bits topLevel, Bits bottomLevel, IntFunction<MutableBits> bitsFactory) {
         this.outboundEdges = outboundEdges;
@@ -262,12 +264,17 @@ final class BitSetGraph implements IntGraph {
      */
     @Override
     public void walk(IntGraphVisitor v) {
-        BitSet traversed = new BitSet(size());
-        walk(v, topLevel, traversed, 0);
-        // The top level nodes computation will miss isolated paths with
-        // cycles, so ensure we've covered everything
-        for (int bit = traversed.nextClearBit(0); bit >= 0 && bit < size(); bit = traversed.nextClearBit(bit + 1)) {
-            walk(v, outboundEdges[bit], traversed, 0);
+        MutableBits traversed = bitsFactory.apply(size());
+        GraphTraversal t = traversal();
+        try {
+            t.walk(topLevel, this::children, traversed, v, true);
+            // The top level nodes computation will miss isolated paths with
+            // cycles, so ensure we've covered everything
+            for (int bit = traversed.nextClearBit(0); bit >= 0 && bit < size(); bit = traversed.nextClearBit(bit + 1)) {
+                t.walk(outboundEdges[bit], this::children, traversed, v, true);
+            }
+        } finally {
+            t.release(traversal);
         }
     }
 
@@ -281,18 +288,16 @@ final class BitSetGraph implements IntGraph {
     public void walk(int startingWith, IntGraphVisitor v) {
         MutableBits set = bitsFactory.apply(size());
         set.set(startingWith);
-        walk(v, set, new BitSet(size()), 0);
+        GraphTraversal t = traversal();
+        try {
+            t.walk(set, this::children, bitsFactory.apply(size()), v, true);
+        } finally {
+            t.release(traversal);
+        }
     }
 
-    private void walk(IntGraphVisitor v, Bits traverse, BitSet seen, int depth) {
-        traverse.forEachSetBitAscending(bit -> {
-            if (!seen.get(bit)) {
-                seen.set(bit);
-                v.enterNode(bit, depth);
-                walk(v, outboundEdges[bit], seen, depth + 1);
-                v.exitNode(bit, depth);
-            }
-        });
+    private GraphTraversal traversal() {
+        return GraphTraversal.borrow(traversal, size(), bitsFactory);
     }
 
     /**
@@ -304,13 +309,15 @@ final class BitSetGraph implements IntGraph {
     @Override
     public void walkUpwards(IntGraphVisitor v) {
         int size = size();
-        BitSet traversed = new BitSet(size);
-        walkUpwards(v, bottomLevel, traversed, 0);
-        for (int bit = traversed.previousClearBit(size - 1); bit >= 0 && bit < size; bit = traversed.previousClearBit(bit - 1)) {
-            if (bit >= size) {
-                break;
+        MutableBits traversed = bitsFactory.apply(size);
+        GraphTraversal t = traversal();
+        try {
+            t.walk(bottomLevel, this::parents, traversed, v, false);
+            for (int bit = traversed.previousClearBit(size - 1); bit >= 0 && bit < size; bit = traversed.previousClearBit(bit - 1)) {
+                t.walk(inboundEdges[bit], this::children, traversed, v, true);
             }
-            walk(v, inboundEdges[bit], traversed, 0);
+        } finally {
+            t.release(traversal);
         }
     }
 
@@ -325,17 +332,12 @@ final class BitSetGraph implements IntGraph {
     public void walkUpwards(int startingWith, IntGraphVisitor v) {
         MutableBits set = bitsFactory.apply(size());
         set.set(startingWith);
-        walkUpwards(v, set, new BitSet(size()), 0);
-    }
-
-    private void walkUpwards(IntGraphVisitor v, Bits traverse, BitSet seen, int depth) {
-        traverse.forEachSetBitAscending(bit -> {
-            if (!seen.get(bit)) {
-                seen.set(bit);
-                v.enterNode(bit, depth);
-                walkUpwards(v, inboundEdges[bit], seen, depth + 1);
-            }
-        });
+        GraphTraversal t = traversal();
+        try {
+            t.walk(set, this::parents, bitsFactory.apply(size()), v, false);
+        } finally {
+            t.release(traversal);
+        }
     }
 
     /**
@@ -583,68 +585,51 @@ final class BitSetGraph implements IntGraph {
 
     @Override
     public void depthFirstSearch(int startingNode, boolean up, IntConsumer cons) {
-        depthFirstSearch(startingNode, up, cons, bitsFactory.apply(size()));
+        GraphTraversal t = traversal();
+        try {
+            t.depthFirst(startingNode, up ? this::parents : this::children, node -> {
+                cons.accept(node);
+                return true;
+            });
+        } finally {
+            t.release(traversal);
+        }
     }
 
     @Override
     public void breadthFirstSearch(int startingNode, boolean up, IntConsumer cons) {
-        breadthFirstSearch(startingNode, up, cons, bitsFactory.apply(size()));
-    }
-
-    private void breadthFirstSearch(int startingNode, boolean up, IntConsumer cons, MutableBits traversed) {
-        Bits dests = up ? inboundEdges[startingNode] : outboundEdges[startingNode];
-        boolean any = false;
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                cons.accept(bit);
-                any = true;
-            }
-        }
-        if (!any) {
-            return;
-        }
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                breadthFirstSearch(bit, up, cons, traversed);
-                traversed.set(bit);
-            }
-        }
-    }
-
-    private void depthFirstSearch(int startingNode, boolean up, IntConsumer cons, MutableBits traversed) {
-        Bits dests = up ? inboundEdges[startingNode] : outboundEdges[startingNode];
-        boolean any = false;
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                depthFirstSearch(bit, up, cons, traversed);
-                any = true;
-            }
-        }
-        if (!any) {
-            return;
-        }
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                traversed.set(bit);
-                cons.accept(bit);
-            }
+        GraphTraversal t = traversal();
+        try {
+            t.breadthFirst(startingNode, up ? this::parents : this::children,
+                    up ? this::children : this::parents, node -> {
+                        cons.accept(node);
+                        return true;
+                    });
+        } finally {
+            t.release(traversal);
         }
     }
 
     /**
      * Do a depth-first search which takes a predicate that will abort the
-     * search the first time the predicate returns false.
+     * search the first time the predicate returns true.
      *
      * @param startingNode The starting node
      * @param up Wheather to search antecedent nodes or successor nodes
      * @param cons A predicate
-     * @return True if the predicate returned false at some point (i.e. the
+     * @return True if the predicate returned true at some point (i.e. the
      * thing looked for was found in the graph and no further searching was
      * needed, such as reachability tests).
      */
     @Override
     public boolean abortableDepthFirstSearch(int startingNode, boolean up, IntPredicate cons) {
-        return abortableDepthFirstSearch(startingNode, up, cons, bitsFactory.apply(size()));
+        GraphTraversal t = traversal();
+        try {
+            return t.depthFirst(startingNode, up ? this::parents : this::children,
+                    node -> !cons.test(node));
+        } finally {
+            t.release(traversal);
+        }
     }
 
     /**
@@ -660,60 +645,13 @@ final class BitSetGraph implements IntGraph {
      */
     @Override
     public boolean abortableBreadthFirstSearch(int startingNode, boolean up, IntPredicate cons) {
-        return abortableBreadthFirstSearch(startingNode, up, cons, bitsFactory.apply(size()));
-    }
-
-    private boolean abortableBreadthFirstSearch(int startingNode, boolean up, IntPredicate cons, MutableBits traversed) {
-        Bits dests = up ? inboundEdges[startingNode] : outboundEdges[startingNode];
-        boolean any = false;
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                if (!cons.test(bit)) {
-                    return true;
-                }
-                any = true;
-            }
-        }
-        if (!any) {
-            return false;
-        }
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                boolean res = abortableBreadthFirstSearch(bit, up, cons, traversed);
-                if (res) {
-                    return true;
-                }
-                traversed.set(bit);
-            }
-        }
-        return false;
-    }
-
-    private boolean abortableDepthFirstSearch(int startingNode, boolean up, IntPredicate cons, MutableBits traversed) {
-        Bits dests = up ? inboundEdges[startingNode] : outboundEdges[startingNode];
-        boolean any = false;
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                boolean res = abortableDepthFirstSearch(bit, up, cons, traversed);
-                if (res) {
-                    return true;
-                }
-                any = true;
-            }
-        }
-        if (!any) {
-            return false;
+        GraphTraversal t = traversal();
+        try {
+            return t.breadthFirst(startingNode, up ? this::parents : this::children,
+                    up ? this::children : this::parents, cons);
+        } finally {
+            t.release(traversal);
         }
-        for (int bit = dests.nextSetBit(0); bit >= 0; bit = dests.nextSetBit(bit + 1)) {
-            if (!traversed.get(bit)) {
-                traversed.set(bit);
-                boolean res = cons.test(bit);
-                if (res) {
-                    return true;
-                }
-            }
-        }
-        return false;
     }
 
     @Override
@@ -795,7 +733,7 @@ final class BitSetGraph implements IntGraph {
         MutableBits test = bitsFactory.apply(size());
         test.or(outboundEdges[node]);
         test.clear(node);
-        closureOf(node, test, 0);
+        closure(node, test, false);
         return test.get(node);
     }
     
@@ -1100,7 +1038,7 @@ final class BitSetGraph implements IntGraph {
 
     private MutableBits _closureOf(int node) {
         MutableBits result = bitsFactory.apply(size());
-        closureOf(node, result, 0);
+        closure(node, result, false);
         return result;
     }
 
@@ -1218,19 +1156,18 @@ final class BitSetGraph implements IntGraph {
         });
     }
 
-    private void closureOf(int node, MutableBits into, int depth) {
+    private void closure(int node, MutableBits into, boolean up) {
+        // Nodes already in the passed set are not expanded
         if (into.get(node)) {
             return;
         }
-        if (depth > 0) {
-            into.set(node);
+        GraphTraversal t = traversal();
+        try {
+            t.breadthFirst(node, up ? this::parents : this::children,
+                    up ? this::children : this::parents, into, ignored -> true);
+        } finally {
+            t.release(traversal);
         }
-        outboundEdges[node].forEachSetBitAscending(bit -> {
-            if (bit != node) {
-                closureOf(bit, into, depth + 1);
-            }
-            into.set(bit);
-        });
     }
 
     /**
@@ -1243,7 +1180,7 @@ final class BitSetGraph implements IntGraph {
     @Override
     public Bits reverseClosureOf(int node) {
         MutableBits result = bitsFactory.apply(size());
-        reverseClosureOf(node, result, 0);
+        closure(node, result, true);
         return result;
     }
 
@@ -1267,30 +1204,13 @@ final class BitSetGraph implements IntGraph {
         return result;
     }
 
-    private void reverseClosureOf(int node, MutableBits into, int depth) {
-        if (into.get(node)) {
-            return;
-        }
-        if (depth > 0) {
-            into.set(node);
-        }
-        inboundEdges[node].forEachSetBitAscending(bit -> {
-            if (bit != node /* && !into.get(bit) */) {
-                reverseClosureOf(bit, into, depth + 1);
-            }
-            into.set(bit);
-        });
-    }
-
     public StringGraph toStringGraph(String[] names) {
         return new BitSetStringGraph(this, names);
     }
 
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 97 * hash + Arrays.deepHashCode(this.outboundEdges);
-        return hash;
+        return edgesHashCode(this);
     }
 
     /**
@@ -1316,11 +1236,11 @@ final class BitSetGraph implements IntGraph {
         if (obj == null) {
             return false;
         }
-        if (getClass() != obj.getClass()) {
-            return false;
+        if (obj instanceof BitSetGraph) {
+            final BitSetGraph other = (BitSetGraph) obj;
+            return Arrays.deepEquals(this.outboundEdges, other.outboundEdges);
         }
-        final BitSetGraph other = (BitSetGraph) obj;
-        return Arrays.deepEquals(this.outboundEdges, other.outboundEdges);
+        return obj instanceof IntGraph && sameEdges(this, (IntGraph) obj);
     }
 
     @Override
@@ -1378,6 +1298,48 @@ final class BitSetGraph implements IntGraph {
         return result;
     }
 
+    /**
+     * Hash code over a graph's size and edges, so graphs with the same edges
+     * hash the same whatever their representation.
+     */
+    static int edgesHashCode(IntGraph graph) {
+        int size = graph.size();
+        int hash = 3 + size;
+        for (int i = 0; i < size; i++) {
+            Bits row = graph.children(i);
+            for (int bit = row.nextSetBit(0); bit >= 0; bit = row.nextSetBit(bit + 1)) {
+                hash = 97 * hash + bit;
+            }
+            hash = 97 * hash - 1;
+        }
+        return hash;
+    }
+
+    /**
+     * Determine if two graphs, of any representation, have the same size and
+     * the same edges.
+     */
+    static boolean sameEdges(IntGraph a, IntGraph b) {
+        int size = a.size();
+        if (size != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            Bits rowA = a.children(i);
+            Bits rowB = b.children(i);
+            int bitA = rowA.nextSetBit(0);
+            int bitB = rowB.nextSetBit(0);
+            while (bitA == bitB && bitA >= 0) {
+                bitA = rowA.nextSetBit(bitA + 1);
+                bitB = rowB.nextSetBit(bitB + 1);
+            }
+            if (bitA != bitB) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static boolean noDuplicates(int[] arr) {
         int last = -1;
         for (int i = 0; i < arr.length; i++) {
@@ -0,0 +1,794 @@
+package com.mastfrog.graph;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.bits.MutableBits;
+import com.mastfrog.function.IntBiConsumer;
+import com.mastfrog.graph.algorithm.Algorithm;
+import com.mastfrog.graph.algorithm.EigenvectorCentrality;
+import com.mastfrog.graph.algorithm.PageRank;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * A graph stored in compressed sparse row form - for each direction, one array
+ * of <code>size + 1</code> offsets and one array of edge targets, each row
+ * sorted ascending. Memory use is proportional to the number of edges rather
+ * than the square of the number of nodes, which makes this the better
+ * representation for large, sparse graphs; BitSetGraph remains the better one
+ * for small or dense graphs.
+ *
+ * @author Tim Boudreau
+ */
+final class CsrGraph implements IntGraph {
+
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] inOffsets;
+    private final int[] inTargets;
+    private final Bits topLevel;
+    private final Bits bottomLevel;
+    private final IntFunction<MutableBits> bitsFactory;
+    private final AtomicReference<GraphTraversal> traversal = new AtomicReference<>();
+
+    CsrGraph(int[] outOffsets, int[] outTargets, int[] inOffsets, int[] inTargets, IntFunction<MutableBits> bitsFactory) {
+        assert outOffsets.length == inOffsets.length : "Offset array sizes differ";
+        assert outTargets.length == inTargets.length : "Target array sizes differ";
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.inOffsets = inOffsets;
+        this.inTargets = inTargets;
+        this.bitsFactory = bitsFactory;
+        // Same semantics as BitSetGraph: top level nodes have outbound
+        // but no inbound edges; bottom level nodes are those with inbound ones
+        int sz = size();
+        MutableBits top = bitsFactory.apply(sz);
+        MutableBits bottom = bitsFactory.apply(sz);
+        for (int i = 0; i < sz; i++) {
+            boolean hasIn = inOffsets[i + 1] > inOffsets[i];
+            if (hasIn) {
+                bottom.set(i);
+            } else if (outOffsets[i + 1] > outOffsets[i]) {
+                top.set(i);
+            }
+        }
+        topLevel = top.readOnlyView();
+        bottomLevel = bottom.readOnlyView();
+    }
+
+    /**
+     * Create a graph from parallel arrays of edge sources and targets, which
+     * may be in any order and may contain duplicates.
+     *
+     * @param size The number of nodes
+     * @param sources The source node of each edge
+     * @param targets The target node of each edge
+     * @param count The number of leading elements of the arrays which are edges
+     * @param bitsFactory Factory for bit sets returned from closure methods
+     * @return A graph
+     */
+    static CsrGraph create(int size, int[] sources, int[] targets, int count, IntFunction<MutableBits> bitsFactory) {
+        int[] outOffsets = new int[size + 1];
+        for (int i = 0; i < count; i++) {
+            outOffsets[sources[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            outOffsets[i + 1] += outOffsets[i];
+        }
+        int[] cursors = Arrays.copyOf(outOffsets, size);
+        int[] outTargets = new int[count];
+        for (int i = 0; i < count; i++) {
+            outTargets[cursors[sources[i]]++] = targets[i];
+        }
+        // Sort each row and squeeze out duplicate edges in place
+        int written = 0;
+        for (int node = 0; node < size; node++) {
+            int from = outOffsets[node];
+            int to = outOffsets[node + 1];
+            Arrays.sort(outTargets, from, to);
+            outOffsets[node] = written;
+            for (int i = from; i < to; i++) {
+                if (i == from || outTargets[i] != outTargets[i - 1]) {
+                    outTargets[written++] = outTargets[i];
+                }
+            }
+        }
+        outOffsets[size] = written;
+        if (written != count) {
+            outTargets = Arrays.copyOf(outTargets, written);
+        }
+        int[] inOffsets = new int[size + 1];
+        for (int i = 0; i < written; i++) {
+            inOffsets[outTargets[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            inOffsets[i + 1] += inOffsets[i];
+        }
+        cursors = Arrays.copyOf(inOffsets, size);
+        int[] inTargets = new int[written];
+        // Visiting sources in ascending order leaves each inbound row sorted
+        for (int node = 0; node < size; node++) {
+            for (int i = outOffsets[node]; i < outOffsets[node + 1]; i++) {
+                inTargets[cursors[outTargets[i]]++] = node;
+            }
+        }
+        return new CsrGraph(outOffsets, outTargets, inOffsets, inTargets, bitsFactory);
+    }
+
+    private static boolean rowContains(int[] offsets, int[] targets, int node, int value) {
+        return Arrays.binarySearch(targets, offsets[node], offsets[node + 1], value) >= 0;
+    }
+
+    private boolean validNode(int node) {
+        return node >= 0 && node < size();
+    }
+
+    @Override
+    public boolean containsEdge(int a, int b) {
+        if (!validNode(a) || !validNode(b)) {
+            return false;
+        }
+        return rowContains(outOffsets, outTargets, a, b);
+    }
+
+    /**
+     * Save a serialized graph, in the same format as BitSetGraph, so it can be
+     * read back with <code>IntGraph.load()</code>.
+     *
+     * @param out The output
+     * @throws IOException If something goes wrong
+     */
+    @Override
+    public void save(ObjectOutput out) throws IOException {
+        out.writeInt(1); // version
+        int sz = size();
+        out.writeInt(sz);
+        for (int i = 0; i < sz; i++) {
+            if (outOffsets[i + 1] > outOffsets[i]) {
+                out.writeObject(children(i).toByteArray());
+            } else {
+                out.writeObject(null);
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append("CsrGraph{size=")
+                .append(size())
+                .append(", totalCardinality=").append(totalCardinality())
+                .append("}\n");
+
+        walk((id, d) -> {
+            char[] c = new char[d * 2];
+            Arrays.fill(c, ' ');
+            sb.append(c).append(id).append('\n');
+        });
+        return sb.toString();
+    }
+
+    @Override
+    public void walk(IntGraphVisitor v) {
+        int size = size();
+        MutableBits traversed = bitsFactory.apply(size);
+        GraphTraversal t = traversal();
+        try {
+            t.walk(topLevel, this::children, traversed, v, true);
+            // The top level nodes computation will miss isolated paths with
+            // cycles, so ensure we've covered everything
+            for (int bit = traversed.nextClearBit(0); bit >= 0 && bit < size; bit = traversed.nextClearBit(bit + 1)) {
+                t.walk(children(bit), this::children, traversed, v, true);
+            }
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public void walk(int startingWith, IntGraphVisitor v) {
+        MutableBits set = bitsFactory.apply(size());
+        set.set(startingWith);
+        GraphTraversal t = traversal();
+        try {
+            t.walk(set, this::children, bitsFactory.apply(size()), v, true);
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public void walkUpwards(IntGraphVisitor v) {
+        int size = size();
+        MutableBits traversed = bitsFactory.apply(size);
+        GraphTraversal t = traversal();
+        try {
+            t.walk(bottomLevel, this::parents, traversed, v, false);
+            for (int bit = traversed.previousClearBit(size - 1); bit >= 0 && bit < size; bit = traversed.previousClearBit(bit - 1)) {
+                t.walk(parents(bit), this::children, traversed, v, true);
+            }
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public void walkUpwards(int startingWith, IntGraphVisitor v) {
+        MutableBits set = bitsFactory.apply(size());
+        set.set(startingWith);
+        GraphTraversal t = traversal();
+        try {
+            t.walk(set, this::parents, bitsFactory.apply(size()), v, false);
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    private GraphTraversal traversal() {
+        return GraphTraversal.borrow(traversal, size(), bitsFactory);
+    }
+
+    @Override
+    public void edges(IntBiConsumer bi) {
+        int sz = size();
+        for (int i = 0; i < sz; i++) {
+            for (int j = outOffsets[i]; j < outOffsets[i + 1]; j++) {
+                bi.accept(i, outTargets[j]);
+            }
+        }
+    }
+
+    @Override
+    public int edgeCount() {
+        return outTargets.length;
+    }
+
+    @Override
+    public PairSet allEdges() {
+        PairSet set = new PairSet(size());
+        edges(set::add);
+        return set;
+    }
+
+    @Override
+    public int size() {
+        return outOffsets.length - 1;
+    }
+
+    @Override
+    public Bits closureDisjunction(int a, int b) {
+        if (a == b) {
+            return bitsFactory.apply(0);
+        }
+        MutableBits ca = _closureOf(a);
+        MutableBits cb = _closureOf(b);
+        ca.xor(cb);
+        return ca;
+    }
+
+    @Override
+    public Bits closureUnion(int a, int b) {
+        if (a == b) {
+            return bitsFactory.apply(0);
+        }
+        MutableBits ca = _closureOf(a);
+        MutableBits cb = _closureOf(b);
+        ca.or(cb);
+        return ca;
+    }
+
+    @Override
+    public int distance(int a, int b) {
+        Optional<IntPath> path = shortestPathBetween(a, b);
+        if (path.isPresent()) {
+            return path.get().size();
+        } else {
+            path = shortestPathBetween(b, a);
+            if (path.isPresent()) {
+                return path.get().size();
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public Bits closureDisjunction(int... nodes) {
+        MutableBits result = bitsFactory.apply(size());
+        for (int i = 0; i < nodes.length; i++) {
+            MutableBits clos = _closureOf(nodes[i]);
+            if (i == 0) {
+                result.or(clos);
+            } else {
+                result.xor(clos);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Bits closureDisjunction(Bits nodes) {
+        MutableBits result = bitsFactory.apply(size());
+        for (int bit = nodes.nextSetBit(0), count = 0; bit >= 0; bit = nodes.nextSetBit(bit + 1), count++) {
+            if (bit >= size()) {
+                break;
+            }
+            MutableBits clos = _closureOf(bit);
+            if (count == 0) {
+                result.or(clos);
+            } else {
+                result.xor(clos);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double[] eigenvectorCentrality(int maxIterations, double minDiff,
+            boolean inEdges, boolean ignoreSelfEdges, boolean l2norm) {
+        return Algorithm.eigenvectorCentrality().setParameter(EigenvectorCentrality.MAXIMUM_ITERATIONS,
+                maxIterations).setParameter(EigenvectorCentrality.MINIMUM_DIFFERENCE, minDiff)
+                .setParameter(EigenvectorCentrality.USE_IN_EDGES, inEdges)
+                .setParameter(EigenvectorCentrality.IGNORE_SELF_EDGES, ignoreSelfEdges)
+                .setParameter(EigenvectorCentrality.NORMALIZE, l2norm).apply(this);
+    }
+
+    @Override
+    public double[] pageRank(double minDifference, double dampingFactor,
+            int maximumIterations, boolean normalize) {
+        return Algorithm.pageRank().setParameter(PageRank.MINIMUM_DIFFERENCE, minDifference)
+                .setParameter(PageRank.DAMPING_FACTOR, dampingFactor)
+                .setParameter(PageRank.MAXIMUM_ITERATIONS, maximumIterations)
+                .setParameter(PageRank.NORMALIZE, normalize).apply(this);
+    }
+
+    @Override
+    public boolean isReachableFrom(int a, int b) {
+        return _closureOf(a).get(b);
+    }
+
+    @Override
+    public boolean isReverseReachableFrom(int a, int b) {
+        return _closureOf(b).get(a);
+    }
+
+    @Override
+    public Bits neighbors(int startingNode) {
+        // Merge the two sorted rows
+        int ia = inOffsets[startingNode];
+        int ea = inOffsets[startingNode + 1];
+        int ib = outOffsets[startingNode];
+        int eb = outOffsets[startingNode + 1];
+        int[] result = new int[(ea - ia) + (eb - ib)];
+        int count = 0;
+        while (ia < ea || ib < eb) {
+            int next;
+            if (ib == eb || (ia < ea && inTargets[ia] < outTargets[ib])) {
+                next = inTargets[ia++];
+            } else if (ia == ea || outTargets[ib] < inTargets[ia]) {
+                next = outTargets[ib++];
+            } else {
+                next = inTargets[ia++];
+                ib++;
+            }
+            result[count++] = next;
+        }
+        return new IntArrayBits(result, 0, count);
+    }
+
+    @Override
+    public void depthFirstSearch(int startingNode, boolean up, IntConsumer cons) {
+        GraphTraversal t = traversal();
+        try {
+            t.depthFirst(startingNode, up ? this::parents : this::children, node -> {
+                cons.accept(node);
+                return true;
+            });
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public void breadthFirstSearch(int startingNode, boolean up, IntConsumer cons) {
+        GraphTraversal t = traversal();
+        try {
+            t.breadthFirst(startingNode, up ? this::parents : this::children,
+                    up ? this::children : this::parents, node -> {
+                        cons.accept(node);
+                        return true;
+                    });
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public boolean abortableDepthFirstSearch(int startingNode, boolean up, IntPredicate cons) {
+        GraphTraversal t = traversal();
+        try {
+            return t.depthFirst(startingNode, up ? this::parents : this::children,
+                    node -> !cons.test(node));
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public boolean abortableBreadthFirstSearch(int startingNode, boolean up, IntPredicate cons) {
+        GraphTraversal t = traversal();
+        try {
+            return t.breadthFirst(startingNode, up ? this::parents : this::children,
+                    up ? this::children : this::parents, cons);
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public Bits connectors() {
+        int sz = size();
+        MutableBits result = bitsFactory.apply(sz);
+        for (int i = 0; i < sz; i++) {
+            if (inboundReferenceCount(i) > 0 && outboundReferenceCount(i) > 0) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Bits orphans() {
+        int sz = size();
+        MutableBits result = bitsFactory.apply(sz);
+        for (int i = 0; i < sz; i++) {
+            if (inboundReferenceCount(i) == 0 && outboundReferenceCount(i) == 0) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Bits disjointNodes() {
+        // Matches BitSetGraph: each node's closure, less the node itself,
+        // less whatever was unique to the nodes preceding it
+        int sz = size();
+        MutableBits[] unique = new MutableBits[sz];
+        MutableBits result = bitsFactory.apply(sz);
+        for (int i = 0; i < sz; i++) {
+            MutableBits closure = _closureOf(i);
+            closure.clear(i);
+            for (int j = 0; j < i && !closure.isEmpty(); j++) {
+                closure.andNot(unique[j]);
+            }
+            unique[i] = closure;
+            if (!closure.isEmpty()) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isRecursive(int node) {
+        return _closureOf(node).get(node);
+    }
+
+    @Override
+    public boolean isIndirectlyRecursive(int node) {
+        MutableBits test = bitsFactory.apply(size());
+        test.or(children(node));
+        test.clear(node);
+        closure(node, test, false);
+        return test.get(node);
+    }
+
+    @Override
+    public int[] byClosureSize() {
+        Integer[] result = new Integer[size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i;
+        }
+        int[] cache = new int[result.length];
+        Arrays.fill(cache, -1);
+        Arrays.sort(result, (a, b) -> {
+            int sizeA = cache[a] == -1 ? cache[a] = closureSize(a) : cache[a];
+            int sizeB = cache[b] == -1 ? cache[b] = closureSize(b) : cache[b];
+            return sizeA == sizeB ? 0 : sizeA > sizeB ? 1 : -1;
+        });
+        int[] res = new int[result.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = result[i];
+        }
+        return res;
+    }
+
+    @Override
+    public int[] byReverseClosureSize() {
+        Integer[] result = new Integer[size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i;
+        }
+        int[] cache = new int[result.length];
+        Arrays.fill(cache, -1);
+        Arrays.sort(result, (a, b) -> {
+            int sizeA = cache[a] == -1 ? cache[a] = reverseClosureSize(a) : cache[a];
+            int sizeB = cache[b] == -1 ? cache[b] = reverseClosureSize(b) : cache[b];
+            return sizeA == sizeB ? 0 : sizeA > sizeB ? 1 : -1;
+        });
+        int[] res = new int[result.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = result[i];
+        }
+        return res;
+    }
+
+    @Override
+    public boolean hasOutboundEdge(int from, int to) {
+        return rowContains(outOffsets, outTargets, from, to);
+    }
+
+    @Override
+    public boolean hasInboundEdge(int from, int to) {
+        return rowContains(inOffsets, inTargets, from, to);
+    }
+
+    @Override
+    public int inboundReferenceCount(int node) {
+        return inOffsets[node + 1] - inOffsets[node];
+    }
+
+    @Override
+    public int outboundReferenceCount(int node) {
+        return outOffsets[node + 1] - outOffsets[node];
+    }
+
+    @Override
+    public Bits children(int node) {
+        return new IntArrayBits(outTargets, outOffsets[node], outOffsets[node + 1]);
+    }
+
+    @Override
+    public Bits parents(int node) {
+        return new IntArrayBits(inTargets, inOffsets[node], inOffsets[node + 1]);
+    }
+
+    @Override
+    public Bits topLevelOrOrphanNodes() {
+        return topLevel;
+    }
+
+    @Override
+    public Bits bottomLevelNodes() {
+        return bottomLevel;
+    }
+
+    @Override
+    public boolean isUnreferenced(int node) {
+        return inOffsets[node + 1] == inOffsets[node];
+    }
+
+    @Override
+    public int closureSize(int node) {
+        return _closureOf(node).cardinality();
+    }
+
+    @Override
+    public int reverseClosureSize(int node) {
+        return reverseClosureOf(node).cardinality();
+    }
+
+    @Override
+    public Bits closureOf(int node) {
+        return _closureOf(node);
+    }
+
+    private MutableBits _closureOf(int node) {
+        MutableBits result = bitsFactory.apply(size());
+        closure(node, result, false);
+        return result;
+    }
+
+    @Override
+    public Bits reverseClosureOf(int node) {
+        MutableBits result = bitsFactory.apply(size());
+        closure(node, result, true);
+        return result;
+    }
+
+    private void closure(int node, MutableBits into, boolean up) {
+        // Nodes already in the passed set are not expanded
+        if (into.get(node)) {
+            return;
+        }
+        GraphTraversal t = traversal();
+        try {
+            t.breadthFirst(node, up ? this::parents : this::children,
+                    up ? this::children : this::parents, into, ignored -> true);
+        } finally {
+            t.release(traversal);
+        }
+    }
+
+    @Override
+    public Optional<IntPath> shortestPathBetween(int src, int target) {
+        Iterator<IntPath> iter = pathsBetween(src, target).iterator();
+        return iter.hasNext() ? Optional.of(iter.next()) : Optional.empty();
+    }
+
+    @Override
+    public Optional<IntPath> shortestUndirectedPathBetween(int src, int target) {
+        Iterator<IntPath> iter = undirectedPathsBetween(src, target).iterator();
+        return iter.hasNext() ? Optional.of(iter.next()) : Optional.empty();
+    }
+
+    @Override
+    public List<IntPath> pathsBetween(int src, int target) {
+        List<IntPath> paths = new ArrayList<>();
+        IntPath base = new IntPath().add(src);
+        PairSet seenPairs = new PairSet(size());
+        // If there is a direct edge, we will miss that, so add it now
+        if (hasOutboundEdge(src, target)) {
+            seenPairs.add(src, target);
+            paths.add(new IntPath().add(src).add(target));
+        }
+        pathsTo(true, src, target, base, paths, seenPairs);
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private void pathsTo(boolean bottom, int src, int target, IntPath base, List<? super IntPath> paths, PairSet seenPairs) {
+        if (src == target) {
+            if (!bottom) {
+                return;
+            } else {
+                paths.add(base.copy().add(target));
+            }
+        }
+        for (int i = outOffsets[src]; i < outOffsets[src + 1]; i++) {
+            int bit = outTargets[i];
+            if (seenPairs.contains(src, bit)) {
+                continue;
+            }
+            seenPairs.add(src, bit);
+            if (bit == target) {
+                paths.add(base.copy().add(target));
+            } else if (!base.contains(bit)) {
+                pathsTo(false, bit, target, base.copy().add(bit), paths, seenPairs);
+            }
+        }
+    }
+
+    @Override
+    public List<IntPath> undirectedPathsBetween(int src, int target) {
+        List<IntPath> paths = new ArrayList<>();
+        IntPath base = new IntPath().add(src);
+        PairSet seenPairs = new PairSet(size());
+        // If there is a direct edge, we will miss that, so add it now
+        if (neighbors(src).get(target)) {
+            seenPairs.add(src, target);
+            paths.add(new IntPath().add(src).add(target));
+        }
+        undirectedPathsTo(src, target, base, paths, seenPairs);
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private void undirectedPathsTo(int src, int target, IntPath base, List<? super IntPath> paths, PairSet seenPairs) {
+        if (src == target) {
+            paths.add(base.copy().add(target));
+            return;
+        }
+        neighbors(src).forEachSetBitAscending(bit -> {
+            if (seenPairs.contains(src, bit)) {
+                return;
+            }
+            seenPairs.add(src, bit);
+            if (bit == target) {
+                paths.add(base.copy().add(target));
+            } else if (!base.contains(bit)) {
+                pathsTo(false, bit, target, base.copy().add(bit), paths, seenPairs);
+            }
+        });
+    }
+
+    @Override
+    public PairSet toPairSet() {
+        PairSet result = new PairSet(size());
+        edges(result::add);
+        return result;
+    }
+
+    @Override
+    public int totalCardinality() {
+        return inTargets.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return BitSetGraph.edgesHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (obj instanceof CsrGraph) {
+            final CsrGraph other = (CsrGraph) obj;
+            return Arrays.equals(outOffsets, other.outOffsets)
+                    && Arrays.equals(outTargets, other.outTargets);
+        }
+        // Equal to a graph in any other representation with the same edges
+        return obj instanceof IntGraph && BitSetGraph.sameEdges(this, (IntGraph) obj);
+    }
+
+    @Override
+    public IntGraph omitting(int... items) {
+        if (items.length == 0) {
+            return this;
+        }
+        int[] finalItems = Arrays.copyOf(items, items.length);
+        Arrays.sort(finalItems);
+        assert BitSetGraph.noDuplicates(finalItems);
+        int sz = size();
+        // Map each surviving node to its new index, and removed ones to -1
+        int[] newIndices = new int[sz];
+        int removed = 0;
+        for (int i = 0; i < sz; i++) {
+            if (removed < finalItems.length && finalItems[removed] == i) {
+                newIndices[i] = -1;
+                removed++;
+            } else {
+                newIndices[i] = i - removed;
+            }
+        }
+        int[] sources = new int[outTargets.length];
+        int[] targets = new int[outTargets.length];
+        int count = 0;
+        for (int i = 0; i < sz; i++) {
+            int src = newIndices[i];
+            if (src < 0) {
+                continue;
+            }
+            for (int j = outOffsets[i]; j < outOffsets[i + 1]; j++) {
+                int dest = newIndices[outTargets[j]];
+                if (dest >= 0) {
+                    sources[count] = src;
+                    targets[count++] = dest;
+                }
+            }
+        }
+        return create(sz - removed, sources, targets, count, bitsFactory);
+    }
+
+    @Override
+    public void diff(IntGraph other, BiConsumer<IntGraph, IntGraph> c) {
+        IntGraphBuilder added = new IntGraphBuilder();
+        IntGraphBuilder removed = new IntGraphBuilder();
+        edges((a, b) -> {
+            if (!other.containsEdge(a, b)) {
+                removed.addEdge(a, b);
+            }
+        });
+        other.edges((a, b) -> {
+            if (!containsEdge(a, b)) {
+                added.addEdge(a, b);
+            }
+        });
+        c.accept(added.build(), removed.build());
+    }
+}
@@ -0,0 +1,308 @@
+package com.mastfrog.graph;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.bits.MutableBits;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Explicit-stack and queue based traversals shared by the graph
+ * implementations, so that traversing long chains cannot overflow the call
+ * stack. An instance holds scratch buffers sized to the graph, and is not
+ * thread-safe; graphs keep one in an AtomicReference and borrow it for the
+ * duration of a call, creating a fresh one if it is already in use (e.g. a
+ * visitor which calls back into the graph).
+ * <p>
+ * Adjacency is passed in as functions from node to the Bits of its neighbors
+ * in the direction being traversed, so the same code serves both the
+ * downward and upward directions of BitSetGraph and CsrGraph.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class GraphTraversal {
+
+    /**
+     * Graphs smaller than this are always searched top-down - a bottom-up
+     * step scans every unvisited node, which is only worth it when the
+     * frontier is a large fraction of a large graph.
+     */
+    static final int BOTTOM_UP_MIN_SIZE = 4096;
+    /**
+     * Switch to bottom-up when the frontier exceeds 1/ALPHA of the
+     * unvisited nodes.
+     */
+    private static final int ALPHA = 14;
+    /**
+     * Switch back to top-down when the frontier falls below 1/BETA of the
+     * nodes in the graph.
+     */
+    private static final int BETA = 24;
+    private static final int INITIAL_STACK_SIZE = 32;
+    private final int size;
+    private final IntFunction<MutableBits> bitsFactory;
+    private int[] queue;
+    private int touched;
+    private int[] stackNodes;
+    private int[] stackCursors;
+    private Bits[] stackRows;
+    private MutableBits seen;
+    private MutableBits frontier;
+
+    GraphTraversal(int size, IntFunction<MutableBits> bitsFactory) {
+        this.size = size;
+        this.bitsFactory = bitsFactory;
+    }
+
+    static GraphTraversal borrow(AtomicReference<GraphTraversal> cache, int size, IntFunction<MutableBits> bitsFactory) {
+        GraphTraversal result = cache.getAndSet(null);
+        return result == null ? new GraphTraversal(size, bitsFactory) : result;
+    }
+
+    void release(AtomicReference<GraphTraversal> cache) {
+        cache.set(this);
+    }
+
+    private int[] queue() {
+        if (queue == null) {
+            // The starting node may be enqueued a second time if it is part
+            // of a cycle
+            queue = new int[size + 1];
+        }
+        return queue;
+    }
+
+    private MutableBits seen() {
+        if (seen == null) {
+            seen = bitsFactory.apply(size);
+        }
+        return seen;
+    }
+
+    private MutableBits frontier() {
+        if (frontier == null) {
+            frontier = bitsFactory.apply(size);
+        }
+        return frontier;
+    }
+
+    private int push(int top, int node, Bits row) {
+        if (stackNodes == null) {
+            stackNodes = new int[INITIAL_STACK_SIZE];
+            stackCursors = new int[INITIAL_STACK_SIZE];
+            stackRows = new Bits[INITIAL_STACK_SIZE];
+        } else if (top == stackNodes.length) {
+            int newSize = stackNodes.length * 2;
+            stackNodes = Arrays.copyOf(stackNodes, newSize);
+            stackCursors = Arrays.copyOf(stackCursors, newSize);
+            stackRows = Arrays.copyOf(stackRows, newSize);
+        }
+        stackNodes[top] = node;
+        stackCursors[top] = 0;
+        stackRows[top] = row;
+        return top + 1;
+    }
+
+    private void clearSeen() {
+        for (int i = 0; i < touched; i++) {
+            seen.clear(queue[i]);
+        }
+        touched = 0;
+    }
+
+    /**
+     * Level-synchronous breadth-first search of every node reachable from the
+     * starting node by one or more edges, in order of distance from it. The
+     * starting node itself is only visited if it is reachable from itself.
+     *
+     * @param start The starting node
+     * @param forward Maps a node to the nodes its edges lead to
+     * @param backward The inverse of forward, used for bottom-up steps when
+     * the frontier grows large, or null to always search top-down
+     * @param visitor Visits each node once; returning false aborts the search
+     * @return true if the search was aborted
+     */
+    boolean breadthFirst(int start, IntFunction<Bits> forward, IntFunction<Bits> backward, IntPredicate visitor) {
+        MutableBits visited = seen();
+        try {
+            return breadthFirst(start, forward, backward, visited, visitor);
+        } finally {
+            clearSeen();
+        }
+    }
+
+    /**
+     * Level-synchronous breadth-first search, recording visited nodes in the
+     * passed set. Nodes already present in it are neither visited nor
+     * expanded.
+     *
+     * @param start The starting node
+     * @param forward Maps a node to the nodes its edges lead to
+     * @param backward The inverse of forward, or null
+     * @param visited The set of visited nodes
+     * @param visitor Visits each node once; returning false aborts the search
+     * @return true if the search was aborted
+     */
+    boolean breadthFirst(int start, IntFunction<Bits> forward, IntFunction<Bits> backward, MutableBits visited, IntPredicate visitor) {
+        int[] q = queue();
+        q[0] = start;
+        touched = 1;
+        int levelStart = 0;
+        int levelEnd = 1;
+        int unvisited = size - visited.cardinality();
+        boolean bottomUp = false;
+        boolean canGoBottomUp = backward != null && size >= BOTTOM_UP_MIN_SIZE;
+        while (levelStart < levelEnd) {
+            int frontierSize = levelEnd - levelStart;
+            if (canGoBottomUp) {
+                bottomUp = bottomUp
+                        ? (long) frontierSize * BETA >= size
+                        : (long) frontierSize * ALPHA > unvisited;
+            }
+            int tail = bottomUp
+                    ? bottomUpStep(levelStart, levelEnd, backward, visited, visitor)
+                    : topDownStep(levelStart, levelEnd, forward, visited, visitor);
+            if (tail < 0) {
+                return true;
+            }
+            unvisited -= tail - levelEnd;
+            levelStart = levelEnd;
+            levelEnd = tail;
+        }
+        return false;
+    }
+
+    private int topDownStep(int levelStart, int levelEnd, IntFunction<Bits> forward, MutableBits visited, IntPredicate visitor) {
+        int[] q = queue;
+        for (int i = levelStart; i < levelEnd; i++) {
+            Bits row = forward.apply(q[i]);
+            for (int bit = row.nextSetBit(0); bit >= 0; bit = row.nextSetBit(bit + 1)) {
+                if (!visited.get(bit)) {
+                    visited.set(bit);
+                    q[touched++] = bit;
+                    if (!visitor.test(bit)) {
+                        return -1;
+                    }
+                }
+            }
+        }
+        return touched;
+    }
+
+    private int bottomUpStep(int levelStart, int levelEnd, IntFunction<Bits> backward, MutableBits visited, IntPredicate visitor) {
+        // Rather than expanding each frontier node, have each unvisited node
+        // look for a parent in the frontier - far fewer edge checks once the
+        // frontier covers much of the graph
+        int[] q = queue;
+        MutableBits front = frontier();
+        for (int i = levelStart; i < levelEnd; i++) {
+            front.set(q[i]);
+        }
+        try {
+            for (int node = visited.nextClearBit(0); node >= 0 && node < size; node = visited.nextClearBit(node + 1)) {
+                Bits row = backward.apply(node);
+                for (int bit = row.nextSetBit(0); bit >= 0; bit = row.nextSetBit(bit + 1)) {
+                    if (front.get(bit)) {
+                        visited.set(node);
+                        q[touched++] = node;
+                        if (!visitor.test(node)) {
+                            return -1;
+                        }
+                        break;
+                    }
+                }
+            }
+        } finally {
+            for (int i = levelStart; i < levelEnd; i++) {
+                front.clear(q[i]);
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Depth-first search of every node reachable from the starting node by
+     * one or more edges, visiting each node after all of the nodes reachable
+     * from it which were not already visited. The starting node itself is
+     * only visited, last, if it is reachable from itself.
+     *
+     * @param start The starting node
+     * @param forward Maps a node to the nodes its edges lead to
+     * @param visitor Visits each node once; returning false aborts the search
+     * @return true if the search was aborted
+     */
+    boolean depthFirst(int start, IntFunction<Bits> forward, IntPredicate visitor) {
+        MutableBits visited = seen();
+        int[] q = queue();
+        touched = 0;
+        try {
+            boolean startReached = false;
+            int top = push(0, start, forward.apply(start));
+            while (top > 0) {
+                int frame = top - 1;
+                int next = stackRows[frame].nextSetBit(stackCursors[frame]);
+                if (next < 0) {
+                    int node = stackNodes[frame];
+                    stackRows[frame] = null;
+                    top--;
+                    if (frame > 0 && !visitor.test(node)) {
+                        Arrays.fill(stackRows, 0, top, null);
+                        return true;
+                    }
+                    continue;
+                }
+                stackCursors[frame] = next + 1;
+                if (next == start) {
+                    startReached = true;
+                } else if (!visited.get(next)) {
+                    visited.set(next);
+                    q[touched++] = next;
+                    top = push(top, next, forward.apply(next));
+                }
+            }
+            return startReached && !visitor.test(start);
+        } finally {
+            clearSeen();
+        }
+    }
+
+    /**
+     * Walk depth-first from each of a set of root nodes, calling
+     * <code>enterNode</code> on first encountering each node, and
+     * <code>exitNode</code> once everything beneath it has been walked.
+     *
+     * @param roots The nodes to start from, in ascending order
+     * @param forward Maps a node to the nodes its edges lead to
+     * @param seen Nodes already walked, which are skipped and added to
+     * @param v The visitor
+     * @param exits Whether to call <code>exitNode</code>
+     */
+    void walk(Bits roots, IntFunction<Bits> forward, MutableBits seen, IntGraphVisitor v, boolean exits) {
+        int top = push(0, -1, roots);
+        try {
+            while (top > 0) {
+                int frame = top - 1;
+                int next = stackRows[frame].nextSetBit(stackCursors[frame]);
+                if (next < 0) {
+                    int node = stackNodes[frame];
+                    stackRows[frame] = null;
+                    top--;
+                    if (exits && node >= 0) {
+                        v.exitNode(node, frame - 1);
+                    }
+                    continue;
+                }
+                stackCursors[frame] = next + 1;
+                if (!seen.get(next)) {
+                    seen.set(next);
+                    v.enterNode(next, frame);
+                    top = push(top, next, forward.apply(next));
+                }
+            }
+        } finally {
+            Arrays.fill(stackRows, 0, top, null);
+        }
+    }
+}
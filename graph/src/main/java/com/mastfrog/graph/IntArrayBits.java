@@ -0,0 +1,170 @@
+package com.mastfrog.graph;
+
+import com.mastfrog.bits.AbstractBits;
+import com.mastfrog.bits.Bits;
+import com.mastfrog.bits.MutableBits;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * A read-only Bits over a sorted, duplicate-free slice of an int array, used
+ * to expose the rows of a CsrGraph without copying them into bit sets.
+ *
+ * @author Tim Boudreau
+ */
+final class IntArrayBits extends AbstractBits {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] values;
+    private final int start;
+    private final int end;
+
+    IntArrayBits(int[] values, int start, int end) {
+        super(false);
+        this.values = values;
+        this.start = start;
+        this.end = end;
+    }
+
+    IntArrayBits(int[] values) {
+        this(values, 0, values.length);
+    }
+
+    /**
+     * Returns the index in the backing array of the first value greater than
+     * or equal to the passed one, or <code>end</code> if there is none.
+     */
+    private int ceilingIndex(int value) {
+        int lo = start;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public int cardinality() {
+        return end - start;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    @Override
+    public Bits copy() {
+        return this;
+    }
+
+    @Override
+    public Bits immutableCopy() {
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return isEmpty() ? 0 : values[end - 1] + 1;
+    }
+
+    @Override
+    public BitSet toBitSet() {
+        BitSet result = new BitSet(length());
+        for (int i = start; i < end; i++) {
+            result.set(values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public MutableBits mutableCopy() {
+        MutableBits result = MutableBits.create(length());
+        for (int i = start; i < end; i++) {
+            result.set(values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean get(int bitIndex) {
+        return bitIndex >= 0 && Arrays.binarySearch(values, start, end, bitIndex) >= 0;
+    }
+
+    @Override
+    public int nextSetBit(int fromIndex) {
+        int ix = ceilingIndex(Math.max(0, fromIndex));
+        return ix < end ? values[ix] : -1;
+    }
+
+    @Override
+    public int nextClearBit(int fromIndex) {
+        int result = Math.max(0, fromIndex);
+        for (int ix = ceilingIndex(result); ix < end && values[ix] == result; ix++) {
+            result++;
+        }
+        return result;
+    }
+
+    @Override
+    public int previousSetBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        int ix = ceilingIndex(fromIndex);
+        if (ix < end && values[ix] == fromIndex) {
+            return fromIndex;
+        }
+        return ix > start ? values[ix - 1] : -1;
+    }
+
+    @Override
+    public int previousClearBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        int result = fromIndex;
+        int ix = ceilingIndex(fromIndex);
+        if (ix == end || values[ix] != fromIndex) {
+            return result;
+        }
+        for (; ix >= start && values[ix] == result; ix--) {
+            result--;
+        }
+        return result;
+    }
+
+    @Override
+    public int forEachSetBitAscending(IntConsumer consumer) {
+        for (int i = start; i < end; i++) {
+            consumer.accept(values[i]);
+        }
+        return end - start;
+    }
+
+    @Override
+    public int forEachSetBitDescending(IntConsumer consumer) {
+        for (int i = end - 1; i >= start; i--) {
+            consumer.accept(values[i]);
+        }
+        return end - start;
+    }
+
+    @Override
+    public double sum(double[] values, int ifNot) {
+        double result = 0.0;
+        for (int i = start; i < end; i++) {
+            int bit = this.values[i];
+            if (bit != ifNot) {
+                result += values[bit];
+            }
+        }
+        return result;
+    }
+}
@@ -5,13 +5,23 @@ import com.mastfrog.bits.Bits;
 import com.mastfrog.bits.MutableBits;
 
 /**
- * Builder for graphs.
+ * Builder for graphs. Edges are recorded as a flat list, from which repeated
+ * edges are squeezed out whenever it fills up, and the graph
+ * representation is chosen when <code>build()</code> is called: a bit-set
+ * based graph for small or dense graphs, or a compressed sparse row graph
+ * when that would take substantially less memory.
  */
 public final class IntGraphBuilder {
 
-    private MutableBits[] outboundEdges;
-    private MutableBits[] inboundEdges;
+    private int[] sources;
+    private int[] targets;
+    private int edgeCount;
     private static final int INITIAL_SIZE = 32;
+    /**
+     * Use compressed sparse rows when they would take less than
+     * 1/SPARSE_RATIO the memory of the bit set representation.
+     */
+    private static final int SPARSE_RATIO = 4;
     private int greatestUsed = 0;
 
     IntGraphBuilder() {
@@ -19,28 +29,11 @@ public final class IntGraphBuilder {
     }
 
     IntGraphBuilder(int initialSize) {
-        outboundEdges = new MutableBits[initialSize];
-        inboundEdges = new MutableBits[initialSize];
-        for (int i = 0; i < initialSize; i++) {
-            outboundEdges[i] = MutableBits.create(initialSize);
-            inboundEdges[i] = MutableBits.create(initialSize);
-        }
+        sources = new int[Math.max(INITIAL_SIZE, initialSize)];
+        targets = new int[sources.length];
     }
 
     private void ensureSize(int newIndex) {
-        if (newIndex > outboundEdges.length) {
-            int newSize = (((newIndex / INITIAL_SIZE) + 1) * INITIAL_SIZE) + ((newIndex % INITIAL_SIZE) + 1) + INITIAL_SIZE;
-            MutableBits[] newOut = Arrays.copyOf(outboundEdges, newSize);
-            MutableBits[] newIn = Arrays.copyOf(inboundEdges, newSize);
-            for (int i = greatestUsed; i < newSize; i++) {
-                assert newIn[i] == null : "Clobbering in " + i;
-                assert newOut[i] == null : "Clobbering out " + i;
-                newIn[i] = MutableBits.create(newSize);
-                newOut[i] = MutableBits.create(newSize);
-            }
-            outboundEdges = newOut;
-            inboundEdges = newIn;
-        }
         greatestUsed = Math.max(greatestUsed, newIndex);
     }
 
@@ -58,20 +51,78 @@ public final class IntGraphBuilder {
     }
 
     public IntGraphBuilder addEdge(int a, int b) {
+        if (a < 0 || b < 0) {
+            throw new IllegalArgumentException("Negative node in " + a + "," + b);
+        }
         ensureSize(Math.max(a, b) + 1);
-        outboundEdges[a].set(b);
-        inboundEdges[b].set(a);
+        if (edgeCount == sources.length && compact() > sources.length / 2) {
+            if (edgeCount == Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many edges: " + edgeCount);
+            }
+            int newLength = (int) Math.min(Integer.MAX_VALUE - 8, (long) edgeCount * 2);
+            sources = Arrays.copyOf(sources, newLength);
+            targets = Arrays.copyOf(targets, newLength);
+        }
+        sources[edgeCount] = a;
+        targets[edgeCount++] = b;
         return this;
     }
 
+    /**
+     * Sort the recorded edges and remove duplicates, so memory use is
+     * proportional to the number of distinct edges rather than the number
+     * of calls to <code>addEdge()</code>.
+     *
+     * @return The number of distinct edges
+     */
+    private int compact() {
+        long[] packed = new long[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            packed[i] = ((long) sources[i] << 32) | targets[i];
+        }
+        Arrays.sort(packed);
+        int written = 0;
+        for (int i = 0; i < packed.length; i++) {
+            if (i == 0 || packed[i] != packed[i - 1]) {
+                sources[written] = (int) (packed[i] >>> 32);
+                targets[written++] = (int) packed[i];
+            }
+        }
+        return edgeCount = written;
+    }
+
+    static boolean preferSparse(int nodes, long edges) {
+        long bitSetBytes = 2L * nodes * (((nodes + 63L) / 64L) * 8L);
+        long sparseBytes = 8L * (nodes + 1L) + 8L * edges;
+        return sparseBytes * SPARSE_RATIO < bitSetBytes;
+    }
+
     public IntGraph build() {
+        compact();
+        if (preferSparse(greatestUsed, edgeCount)) {
+            return CsrGraph.create(greatestUsed, sources, targets, edgeCount, MutableBits::create);
+        }
+        MutableBits[] outboundEdges = new MutableBits[greatestUsed];
+        MutableBits[] inboundEdges = new MutableBits[greatestUsed];
+        for (int i = 0; i < edgeCount; i++) {
+            int a = sources[i];
+            int b = targets[i];
+            if (outboundEdges[a] == null) {
+                outboundEdges[a] = MutableBits.create(greatestUsed);
+            }
+            if (inboundEdges[b] == null) {
+                inboundEdges[b] = MutableBits.create(greatestUsed);
+            }
+            outboundEdges[a].set(b);
+            inboundEdges[b].set(a);
+        }
         Bits[] ins = new Bits[greatestUsed];
         for (int i = 0; i < greatestUsed; i++) {
-            ins[i] = inboundEdges[i].isEmpty() ? Bits.EMPTY : inboundEdges[i].readOnlyView();
+            ins[i] = inboundEdges[i] == null ? Bits.EMPTY : inboundEdges[i].readOnlyView();
         }
         Bits[] outs = new Bits[greatestUsed];
         for (int i = 0; i < greatestUsed; i++) {
-            outs[i] = outboundEdges[i].isEmpty() ? Bits.EMPTY : outboundEdges[i].readOnlyView();
+            outs[i] = outboundEdges[i] == null ? Bits.EMPTY : outboundEdges[i].readOnlyView();
         }
         return new BitSetGraph(outs, ins);
     }
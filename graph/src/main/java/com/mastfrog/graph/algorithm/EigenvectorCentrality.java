@@ -1,7 +1,6 @@
 package com.mastfrog.graph.algorithm;
 
 import java.util.Arrays;
-import com.mastfrog.bits.Bits;
 import com.mastfrog.graph.IntGraph;
 
 /**
@@ -15,11 +14,31 @@ public final class EigenvectorCentrality extends RankingAlgorithm<EigenvectorCen
     public static BooleanParameter<EigenvectorCentrality> USE_IN_EDGES = createBooleanParameter(EigenvectorCentrality.class, "inEdges");
     public static BooleanParameter<EigenvectorCentrality> IGNORE_SELF_EDGES = createBooleanParameter(EigenvectorCentrality.class, "ignoreSelfEdges");
     public static BooleanParameter<EigenvectorCentrality> NORMALIZE = createBooleanParameter(EigenvectorCentrality.class, "normalize");
+    /**
+     * If set, use plain power iteration - compute every node's score from the
+     * previous iteration, then normalize once. Each iteration costs time
+     * proportional to the number of edges, where the default, which updates
+     * scores in place and renormalizes after each node, costs time
+     * proportional to the square of the number of nodes. Both converge
+     * toward the dominant eigenvector, but the results are <i>not</i> the
+     * same, and may rank nodes differently.
+     */
+    public static BooleanParameter<EigenvectorCentrality> POWER_ITERATION = createBooleanParameter(EigenvectorCentrality.class, "powerIteration");
+    /**
+     * If set, split the nodes of each power iteration across the common
+     * ForkJoin pool; results are identical to computing them on the calling
+     * thread. Only applies in combination with POWER_ITERATION - the default
+     * algorithm updates scores in place, one node at a time, so it cannot be
+     * parallelized without changing its results, and ignores this parameter.
+     */
+    public static BooleanParameter<EigenvectorCentrality> PARALLEL = createBooleanParameter(EigenvectorCentrality.class, "parallel");
     private int maxIterations;
     private double minDiff;
     private boolean inEdges;
     private boolean ignoreSelfEdges;
     private boolean normalize;
+    private boolean powerIteration;
+    private boolean parallel;
 
     EigenvectorCentrality() {
         this(400, 0.000001, false, true, true);
@@ -35,7 +54,25 @@ public final class EigenvectorCentrality extends RankingAlgorithm<EigenvectorCen
 
     @Override
     public double[] apply(IntGraph graph) {
-        int sz = graph.size();
+        RankingGraph ranking = inEdges ? RankingGraph.parents(graph) : RankingGraph.neighbors(graph);
+        return powerIteration ? applyPowerIteration(ranking) : applySequential(ranking);
+    }
+
+    private double sum(RankingGraph graph, int node, double[] centrality) {
+        int[] edges = graph.edges;
+        int ifNot = ignoreSelfEdges ? node : Integer.MIN_VALUE;
+        double result = 0.0;
+        for (int e = graph.offsets[node]; e < graph.offsets[node + 1]; e++) {
+            int dest = edges[e];
+            if (dest != ifNot) {
+                result += centrality[dest];
+            }
+        }
+        return result;
+    }
+
+    private double[] applySequential(RankingGraph graph) {
+        int sz = graph.size;
         double[] unnormalized = new double[sz];
         double[] centrality = new double[sz];
         Arrays.fill(centrality, 1.0 / (double) sz);
@@ -43,8 +80,7 @@ public final class EigenvectorCentrality extends RankingAlgorithm<EigenvectorCen
         int iter = 0;
         do {
             for (int i = 0; i < sz; i++) {
-                Bits dests = inEdges ? graph.parents(i) : graph.neighbors(i);
-                double sum = dests.sum(centrality, ignoreSelfEdges ? i : Integer.MIN_VALUE);
+                double sum = sum(graph, i, centrality);
                 unnormalized[i] = sum;
                 double s;
                 if (normalize) {
@@ -71,6 +107,47 @@ public final class EigenvectorCentrality extends RankingAlgorithm<EigenvectorCen
         return centrality;
     }
 
+    private double[] applyPowerIteration(RankingGraph graph) {
+        // Partial sums are per chunk and combined in chunk order whether or
+        // not chunks run in parallel, so threading does not alter results
+        int sz = graph.size;
+        double[] unnormalized = new double[sz];
+        double[] centrality = new double[sz];
+        double[] partials = new double[graph.chunkCount()];
+        Arrays.fill(centrality, 1.0 / (double) sz);
+        double diff;
+        int iter = 0;
+        do {
+            graph.forEachChunk(parallel, chunk -> {
+                double total = 0.0;
+                for (int i = graph.chunkStart(chunk); i < graph.chunkEnd(chunk); i++) {
+                    double sum = sum(graph, i, centrality);
+                    unnormalized[i] = sum;
+                    total += normalize ? sum * sum : sum;
+                }
+                partials[chunk] = total;
+            });
+            double total = RankingGraph.sum(partials);
+            double s;
+            if (normalize) {
+                s = (total == 0.0) ? 1.0 : 1 / Math.sqrt(total);
+            } else {
+                s = total == 0.0 ? 1.0 : 1 / total;
+            }
+            graph.forEachChunk(parallel, chunk -> {
+                double chunkDiff = 0.0;
+                for (int i = graph.chunkStart(chunk); i < graph.chunkEnd(chunk); i++) {
+                    double val = unnormalized[i] * s;
+                    chunkDiff += Math.abs(centrality[i] - val);
+                    centrality[i] = val;
+                }
+                partials[chunk] = chunkDiff;
+            });
+            diff = RankingGraph.sum(partials);
+        } while (iter++ < maxIterations && diff > minDiff);
+        return centrality;
+    }
+
     @Override
     public EigenvectorCentrality setParameter(DoubleParameter<EigenvectorCentrality> param, double value) {
         if (MINIMUM_DIFFERENCE == param) {
@@ -100,6 +177,12 @@ public final class EigenvectorCentrality extends RankingAlgorithm<EigenvectorCen
         } else if (NORMALIZE == param) {
             normalize = value;
             return this;
+        } else if (POWER_ITERATION == param) {
+            powerIteration = value;
+            return this;
+        } else if (PARALLEL == param) {
+            parallel = value;
+            return this;
         }
         return super.setParameter(param, value);
     }
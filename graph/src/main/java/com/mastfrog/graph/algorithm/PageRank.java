@@ -2,6 +2,7 @@ package com.mastfrog.graph.algorithm;
 
 import java.util.function.IntToDoubleFunction;
 import com.mastfrog.graph.IntGraph;
+import java.util.Arrays;
 
 /**
  *
@@ -13,10 +14,18 @@ public final class PageRank extends RankingAlgorithm<PageRank> {
     public static Algorithm.DoubleParameter<PageRank> MINIMUM_DIFFERENCE = Algorithm.createDoubleParameter(PageRank.class, "minimumDifference");
     public static Algorithm.DoubleParameter<PageRank> DAMPING_FACTOR = Algorithm.createDoubleParameter(PageRank.class, "dampingFactor");
     public static Algorithm.BooleanParameter<PageRank> NORMALIZE = Algorithm.createBooleanParameter(PageRank.class, "normalize");
+    /**
+     * If set, compute each iteration from the previous one (rather than
+     * updating scores in place), splitting nodes across the common ForkJoin
+     * pool; results are deterministic, but may differ in the last few digits
+     * from the default, in-place computation.
+     */
+    public static Algorithm.BooleanParameter<PageRank> PARALLEL = Algorithm.createBooleanParameter(PageRank.class, "parallel");
     private double minDifference;
     private double dampingFactor;
     private int maximumIterations;
     private boolean normalize;
+    private boolean parallel;
 
     PageRank(double minDifference, double dampingFactor, int maximumIterations, boolean normalize) {
         this.minDifference = minDifference;
@@ -39,10 +48,18 @@ public final class PageRank extends RankingAlgorithm<PageRank> {
 
     @Override
     public double[] apply(IntGraph graph) {
+        RankingGraph ranking = RankingGraph.parents(graph);
+        return parallel ? applyParallel(ranking) : applySequential(ranking);
+    }
+
+    private double[] applySequential(RankingGraph graph) {
         double difference;
         int cnt = 0;
-        int graphSize = graph.size();
+        int graphSize = graph.size;
         double n = graphSize;
+        int[] offsets = graph.offsets;
+        int[] parents = graph.edges;
+        int[] outDegrees = graph.outDegrees;
         double[] result = new double[graphSize];
         for (int i = 0; i < result.length; i++) {
             result[i] = 1d / n;
@@ -52,20 +69,21 @@ public final class PageRank extends RankingAlgorithm<PageRank> {
             double danglingFactor = 0;
             if (normalize) {
                 danglingFactor = dampingFactor / n * sum(graphSize, (i) -> {
-                    if (graph.children(i).isEmpty()) {
+                    if (outDegrees[i] == 0) {
                         return result[i];
                     }
                     return 0.0;
                 });
             }
             for (int i = 0; i < graphSize; i++) {
-                double inputSum = graph.parents(i).sum((int j) -> {
-                    double outDegree = graph.children(j).cardinality();
+                double inputSum = 0D;
+                for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                    int j = parents[e];
+                    double outDegree = outDegrees[j];
                     if (outDegree != 0) {
-                        return result[j] / outDegree;
+                        inputSum += result[j] / outDegree;
                     }
-                    return 0.0;
-                });
+                }
                 double val = (1.0 - dampingFactor) / n + dampingFactor * inputSum + danglingFactor;
                 difference += Math.abs(val - result[i]);
                 if (result[i] < val) {
@@ -77,11 +95,69 @@ public final class PageRank extends RankingAlgorithm<PageRank> {
         return result;
     }
 
+    private double[] applyParallel(RankingGraph graph) {
+        int graphSize = graph.size;
+        double n = graphSize;
+        int[] offsets = graph.offsets;
+        int[] parents = graph.edges;
+        int[] outDegrees = graph.outDegrees;
+        double[] result = new double[graphSize];
+        double[] next = new double[graphSize];
+        // Each node's contribution to each of its children
+        double[] shares = new double[graphSize];
+        double[] partials = new double[graph.chunkCount()];
+        Arrays.fill(result, 1d / n);
+        double difference;
+        int cnt = 0;
+        do {
+            double[] current = result;
+            graph.forEachChunk(true, chunk -> {
+                double dangling = 0.0;
+                for (int i = graph.chunkStart(chunk); i < graph.chunkEnd(chunk); i++) {
+                    int outDegree = outDegrees[i];
+                    if (outDegree == 0) {
+                        dangling += current[i];
+                        shares[i] = 0.0;
+                    } else {
+                        shares[i] = current[i] / outDegree;
+                    }
+                }
+                partials[chunk] = dangling;
+            });
+            double danglingFactor = normalize
+                    ? dampingFactor / n * RankingGraph.sum(partials)
+                    : 0.0;
+            double[] target = next;
+            graph.forEachChunk(true, chunk -> {
+                double diff = 0.0;
+                for (int i = graph.chunkStart(chunk); i < graph.chunkEnd(chunk); i++) {
+                    double inputSum = 0.0;
+                    for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                        inputSum += shares[parents[e]];
+                    }
+                    double val = (1.0 - dampingFactor) / n + dampingFactor * inputSum + danglingFactor;
+                    diff += Math.abs(val - current[i]);
+                    // Same monotonic update rule as the sequential form
+                    target[i] = Math.max(current[i], val);
+                }
+                partials[chunk] = diff;
+            });
+            difference = RankingGraph.sum(partials);
+            next = result;
+            result = target;
+            cnt++;
+        } while ((difference > minDifference) && cnt < maximumIterations);
+        return result;
+    }
+
     @Override
     public PageRank setParameter(Algorithm.BooleanParameter<PageRank> param, boolean value) {
         if (NORMALIZE == param) {
             normalize = value;
             return this;
+        } else if (PARALLEL == param) {
+            parallel = value;
+            return this;
         }
         return super.setParameter(param, value);
     }
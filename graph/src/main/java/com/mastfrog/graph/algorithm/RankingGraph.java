@@ -0,0 +1,142 @@
+package com.mastfrog.graph.algorithm;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.graph.IntGraph;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A compact snapshot of one direction of a graph's edges, as a single array of
+ * target nodes indexed by an offsets array (each node's edges in ascending
+ * order, the same order Bits.sum() visits them), along with each node's
+ * out-degree, so ranking algorithms can iterate edges without touching Bits
+ * or recomputing cardinalities on every pass.
+ *
+ * @author Tim Boudreau
+ */
+final class RankingGraph {
+
+    /**
+     * Nodes per unit of parallel work; fixed, so that partial sums are
+     * combined in the same order regardless of the number of threads, and
+     * parallel results are deterministic.
+     */
+    static final int CHUNK_SIZE = 4096;
+    final int size;
+    final int[] offsets;
+    final int[] edges;
+    final int[] outDegrees;
+
+    private RankingGraph(int size, int[] offsets, int[] edges, int[] outDegrees) {
+        this.size = size;
+        this.offsets = offsets;
+        this.edges = edges;
+        this.outDegrees = outDegrees;
+    }
+
+    static RankingGraph parents(IntGraph graph) {
+        return create(graph, false);
+    }
+
+    static RankingGraph neighbors(IntGraph graph) {
+        return create(graph, true);
+    }
+
+    /**
+     * Build the edge arrays in two passes - one to size each node's row, one
+     * to fill it - fetching rows from the graph as needed rather than holding
+     * a Bits for every node at once, and merging parents and children for
+     * neighbors rather than asking the graph for a (possibly copied) union.
+     */
+    private static RankingGraph create(IntGraph graph, boolean withChildren) {
+        int size = graph.size();
+        int[] outDegrees = new int[size];
+        int[] offsets = new int[size + 1];
+        long total = 0;
+        int[] count = new int[1];
+        for (int i = 0; i < size; i++) {
+            Bits children = graph.children(i);
+            outDegrees[i] = children.cardinality();
+            if (withChildren) {
+                count[0] = 0;
+                visitRow(graph.parents(i), children, bit -> count[0]++);
+                total += count[0];
+            } else {
+                total += graph.parents(i).cardinality();
+            }
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too many edges for an "
+                        + "edge array: " + total);
+            }
+            offsets[i + 1] = (int) total;
+        }
+        int[] edges = new int[(int) total];
+        int[] cursor = new int[1];
+        for (int i = 0; i < size; i++) {
+            cursor[0] = offsets[i];
+            visitRow(graph.parents(i), withChildren ? graph.children(i) : null,
+                    bit -> edges[cursor[0]++] = bit);
+        }
+        return new RankingGraph(size, offsets, edges, outDegrees);
+    }
+
+    /**
+     * Visit the union of one or two rows in ascending order.
+     */
+    private static void visitRow(Bits a, Bits b, IntConsumer consumer) {
+        if (b == null) {
+            a.forEachSetBitAscending(consumer);
+            return;
+        }
+        int nextA = a.nextSetBit(0);
+        int nextB = b.nextSetBit(0);
+        while (nextA >= 0 || nextB >= 0) {
+            if (nextB < 0 || (nextA >= 0 && nextA < nextB)) {
+                consumer.accept(nextA);
+                nextA = a.nextSetBit(nextA + 1);
+            } else if (nextA < 0 || nextB < nextA) {
+                consumer.accept(nextB);
+                nextB = b.nextSetBit(nextB + 1);
+            } else {
+                consumer.accept(nextA);
+                nextA = a.nextSetBit(nextA + 1);
+                nextB = b.nextSetBit(nextB + 1);
+            }
+        }
+    }
+
+    int chunkCount() {
+        return (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    int chunkStart(int chunk) {
+        return chunk * CHUNK_SIZE;
+    }
+
+    int chunkEnd(int chunk) {
+        return Math.min(size, (chunk + 1) * CHUNK_SIZE);
+    }
+
+    /**
+     * Run the passed consumer over each chunk index, in parallel on the
+     * common ForkJoin pool if requested.
+     */
+    void forEachChunk(boolean parallel, IntConsumer chunk) {
+        int chunks = chunkCount();
+        if (parallel && chunks > 1) {
+            IntStream.range(0, chunks).parallel().forEach(chunk);
+        } else {
+            for (int i = 0; i < chunks; i++) {
+                chunk.accept(i);
+            }
+        }
+    }
+
+    static double sum(double[] partials) {
+        double result = 0.0;
+        for (double d : partials) {
+            result += d;
+        }
+        return result;
+    }
+}
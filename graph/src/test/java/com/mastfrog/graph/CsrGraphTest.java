@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.graph;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.bits.MutableBits;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class CsrGraphTest {
+
+    private static final int NODES = 48;
+
+    private static BitSet[] randomEdges(long seed, int nodes, int maxEdgesPerNode) {
+        Random rnd = new Random(seed);
+        BitSet[] refs = new BitSet[nodes];
+        for (int i = 0; i < nodes; i++) {
+            refs[i] = new BitSet(nodes);
+            if (i % 7 != 0) {
+                int count = rnd.nextInt(maxEdgesPerNode + 1);
+                for (int j = 0; j < count; j++) {
+                    refs[i].set(rnd.nextInt(nodes));
+                }
+            }
+        }
+        return refs;
+    }
+
+    private static BitSet[] randomDag(long seed, int nodes, int maxEdgesPerNode) {
+        Random rnd = new Random(seed);
+        BitSet[] refs = new BitSet[nodes];
+        for (int i = 0; i < nodes; i++) {
+            refs[i] = new BitSet(nodes);
+            int count = i >= nodes - 1 ? 0 : rnd.nextInt(maxEdgesPerNode + 1);
+            for (int j = 0; j < count; j++) {
+                refs[i].set(i + 1 + rnd.nextInt(nodes - (i + 1)));
+            }
+        }
+        return refs;
+    }
+
+    private static CsrGraph csr(BitSet[] refs) {
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < refs.length; i++) {
+            for (int bit = refs[i].nextSetBit(0); bit >= 0; bit = refs[i].nextSetBit(bit + 1)) {
+                edges.add(new int[]{i, bit});
+                if (bit % 3 == 0) {
+                    // duplicates must be collapsed
+                    edges.add(new int[]{i, bit});
+                }
+            }
+        }
+        // Shuffle, so construction cannot rely on input order
+        java.util.Collections.shuffle(edges, new Random(refs.length));
+        int[] sources = new int[edges.size()];
+        int[] targets = new int[edges.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = edges.get(i)[0];
+            targets[i] = edges.get(i)[1];
+        }
+        return CsrGraph.create(refs.length, sources, targets, sources.length, MutableBits::create);
+    }
+
+    @Test
+    public void testQueriesMatchBitSetGraph() {
+        for (long seed = 1; seed < 6; seed++) {
+            BitSet[] refs = randomEdges(seed, NODES, 3);
+            IntGraph expected = IntGraph.create(refs);
+            IntGraph got = csr(refs);
+            String msg = "seed " + seed;
+            assertEquals(expected.size(), got.size(), msg);
+            assertEquals(expected.edgeCount(), got.edgeCount(), msg);
+            assertEquals(expected.totalCardinality(), got.totalCardinality(), msg);
+            assertEquals(expected.allEdges(), got.allEdges(), msg);
+            assertEquals(expected.toPairSet(), got.toPairSet(), msg);
+            assertEquals(expected.topLevelOrOrphanNodes(), got.topLevelOrOrphanNodes(), msg);
+            assertEquals(expected.bottomLevelNodes(), got.bottomLevelNodes(), msg);
+            assertEquals(expected.connectors(), got.connectors(), msg);
+            assertEquals(expected.orphans(), got.orphans(), msg);
+            assertEquals(expected.disjointNodes(), got.disjointNodes(), msg);
+            assertArrayEquals(expected.byClosureSize(), got.byClosureSize(), msg);
+            assertArrayEquals(expected.byReverseClosureSize(), got.byReverseClosureSize(), msg);
+            assertEquals(expected.closureDisjunction(1, 2, 3), got.closureDisjunction(1, 2, 3), msg);
+            for (int i = 0; i < NODES; i++) {
+                String m = msg + " node " + i;
+                assertEquals(expected.children(i), got.children(i), m);
+                assertEquals(expected.parents(i), got.parents(i), m);
+                assertEquals(expected.neighbors(i), got.neighbors(i), m);
+                assertEquals(expected.closureOf(i), got.closureOf(i), m);
+                assertEquals(expected.reverseClosureOf(i), got.reverseClosureOf(i), m);
+                assertEquals(expected.closureSize(i), got.closureSize(i), m);
+                assertEquals(expected.reverseClosureSize(i), got.reverseClosureSize(i), m);
+                assertEquals(expected.inboundReferenceCount(i), got.inboundReferenceCount(i), m);
+                assertEquals(expected.outboundReferenceCount(i), got.outboundReferenceCount(i), m);
+                assertEquals(expected.isUnreferenced(i), got.isUnreferenced(i), m);
+                assertEquals(expected.isRecursive(i), got.isRecursive(i), m);
+                assertEquals(expected.isIndirectlyRecursive(i), got.isIndirectlyRecursive(i), m);
+                int other = (i * 13 + 5) % NODES;
+                assertEquals(expected.containsEdge(i, other), got.containsEdge(i, other), m);
+                assertEquals(expected.hasOutboundEdge(i, other), got.hasOutboundEdge(i, other), m);
+                assertEquals(expected.hasInboundEdge(i, other), got.hasInboundEdge(i, other), m);
+                assertEquals(expected.isReachableFrom(i, other), got.isReachableFrom(i, other), m);
+                assertEquals(expected.isReverseReachableFrom(i, other), got.isReverseReachableFrom(i, other), m);
+                assertEquals(expected.closureUnion(i, other), got.closureUnion(i, other), m);
+                assertEquals(expected.closureDisjunction(i, other), got.closureDisjunction(i, other), m);
+                assertEquals(expected.pathsBetween(i, other), got.pathsBetween(i, other), m);
+                assertEquals(expected.undirectedPathsBetween(i, other), got.undirectedPathsBetween(i, other), m);
+                assertEquals(expected.distance(i, other), got.distance(i, other), m);
+            }
+        }
+    }
+
+    @Test
+    public void testTraversalOrderMatchesBitSetGraph() {
+        for (long seed = 10; seed < 14; seed++) {
+            BitSet[] refs = randomEdges(seed, NODES, 2);
+            IntGraph expected = IntGraph.create(refs);
+            IntGraph got = csr(refs);
+            String msg = "seed " + seed;
+            assertEquals(visit(expected, -1, false), visit(got, -1, false), msg);
+            assertEquals(visit(expected, -1, true), visit(got, -1, true), msg);
+            for (int i = 0; i < NODES; i++) {
+                String m = msg + " node " + i;
+                assertEquals(visit(expected, i, false), visit(got, i, false), m);
+                assertEquals(visit(expected, i, true), visit(got, i, true), m);
+            }
+            // The searches do not terminate on cycles, so use a DAG for them
+            refs = randomDag(seed, NODES, 3);
+            expected = IntGraph.create(refs);
+            got = csr(refs);
+            for (int i = 0; i < NODES; i++) {
+                String m = msg + " node " + i;
+                for (boolean up : new boolean[]{false, true}) {
+                    assertEquals(search(expected, i, up, false), search(got, i, up, false), m);
+                    assertEquals(search(expected, i, up, true), search(got, i, up, true), m);
+                    int stopAt = (i * 7) % NODES;
+                    assertEquals(expected.abortableDepthFirstSearch(i, up, n -> n == stopAt),
+                            got.abortableDepthFirstSearch(i, up, n -> n == stopAt), m);
+                    assertEquals(expected.abortableBreadthFirstSearch(i, up, n -> n != stopAt),
+                            got.abortableBreadthFirstSearch(i, up, n -> n != stopAt), m);
+                }
+            }
+        }
+    }
+
+    private static List<String> visit(IntGraph graph, int start, boolean upwards) {
+        List<String> result = new ArrayList<>();
+        IntGraphVisitor v = new IntGraphVisitor() {
+            @Override
+            public void enterNode(int node, int depth) {
+                result.add("+" + node + "@" + depth);
+            }
+
+            @Override
+            public void exitNode(int node, int depth) {
+                result.add("-" + node + "@" + depth);
+            }
+        };
+        if (start < 0) {
+            if (upwards) {
+                graph.walkUpwards(v);
+            } else {
+                graph.walk(v);
+            }
+        } else if (upwards) {
+            graph.walkUpwards(start, v);
+        } else {
+            graph.walk(start, v);
+        }
+        return result;
+    }
+
+    private static List<Integer> search(IntGraph graph, int start, boolean up, boolean breadthFirst) {
+        List<Integer> result = new ArrayList<>();
+        if (breadthFirst) {
+            graph.breadthFirstSearch(start, up, result::add);
+        } else {
+            graph.depthFirstSearch(start, up, result::add);
+        }
+        return result;
+    }
+
+    @Test
+    public void testOmittingAndDiff() {
+        BitSet[] refs = randomEdges(23, NODES, 3);
+        IntGraph expected = IntGraph.create(refs);
+        CsrGraph got = csr(refs);
+        IntGraph expectedOmitting = expected.omitting(0, 5, 17, NODES - 1);
+        IntGraph gotOmitting = got.omitting(17, 0, NODES - 1, 5);
+        assertTrue(gotOmitting instanceof CsrGraph);
+        assertEquals(expectedOmitting.size(), gotOmitting.size());
+        assertEquals(expectedOmitting.allEdges(), gotOmitting.allEdges());
+        assertEquals(got, csr(refs));
+        assertEquals(got.hashCode(), csr(refs).hashCode());
+        assertNotEquals(got, gotOmitting);
+
+        int[] diffs = new int[2];
+        got.diff(gotOmitting, (added, removed) -> {
+            diffs[0] = added.edgeCount();
+            diffs[1] = removed.edgeCount();
+        });
+        int[] expectedDiffs = new int[2];
+        expected.diff(expectedOmitting, (added, removed) -> {
+            expectedDiffs[0] = added.edgeCount();
+            expectedDiffs[1] = removed.edgeCount();
+        });
+        assertArrayEquals(expectedDiffs, diffs);
+    }
+
+    @Test
+    public void testSaveLoadsAsEquivalentGraph() throws Exception {
+        BitSet[] refs = randomEdges(31, NODES, 3);
+        CsrGraph graph = csr(refs);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            graph.save(out);
+        }
+        IntGraph loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = IntGraph.load(in);
+        }
+        assertEquals(graph.size(), loaded.size());
+        assertEquals(graph.allEdges(), loaded.allEdges());
+        assertEquals(graph, loaded);
+        assertEquals(loaded, graph);
+        assertEquals(graph.hashCode(), loaded.hashCode());
+        assertEquals(IntGraph.create(refs), loaded);
+    }
+
+    @Test
+    public void testBuilderSelectsRepresentation() {
+        IntGraphBuilder small = IntGraph.builder();
+        small.addEdge(0, 1).addEdge(1, 2).addEdge(2, 0).addOrphan(5);
+        IntGraph smallGraph = small.build();
+        assertTrue(smallGraph instanceof BitSetGraph, smallGraph.getClass().getName());
+        assertEquals(6, smallGraph.size());
+
+        int nodes = 20000;
+        IntGraphBuilder large = IntGraph.builder();
+        // A long chain is also deep enough to overflow a recursive closure
+        for (int i = 0; i < nodes - 1; i++) {
+            large.addEdge(i, i + 1);
+        }
+        large.addEdge(nodes - 1, 0);
+        large.addEdge(0, 1);
+        IntGraph largeGraph = large.build();
+        assertTrue(largeGraph instanceof CsrGraph, largeGraph.getClass().getName());
+        assertEquals(nodes, largeGraph.size());
+        assertEquals(nodes, largeGraph.edgeCount());
+        assertEquals(nodes, largeGraph.closureSize(0));
+        assertEquals(nodes, largeGraph.reverseClosureSize(nodes / 2));
+        assertTrue(largeGraph.isRecursive(nodes / 3));
+        assertFalse(IntGraphBuilder.preferSparse(32, 20));
+        assertTrue(IntGraphBuilder.preferSparse(nodes, nodes * 4L));
+    }
+
+    @Test
+    public void testBuilderIgnoresRepeatedEdges() {
+        int nodes = 2000;
+        IntGraphBuilder bldr = IntGraph.builder();
+        // Counted with the repeats, these edges would favor a bit set graph
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < nodes - 1; i++) {
+                bldr.addEdge(i, i + 1);
+            }
+        }
+        assertFalse(IntGraphBuilder.preferSparse(nodes, 50L * (nodes - 1)));
+        IntGraph graph = bldr.build();
+        assertTrue(graph instanceof CsrGraph, graph.getClass().getName());
+        assertEquals(nodes, graph.size());
+        assertEquals(nodes - 1, graph.edgeCount());
+        assertTrue(graph.containsEdge(0, 1));
+        assertFalse(graph.containsEdge(1, 0));
+        assertEquals(nodes - 1, graph.closureSize(0));
+    }
+
+    @Test
+    public void testIntArrayBits() {
+        int[] values = {-1, 0, 2, 3, 4, 9, 63, 64, 200, 999};
+        IntArrayBits bits = new IntArrayBits(values, 1, values.length - 1);
+        BitSet expected = new BitSet();
+        for (int i = 1; i < values.length - 1; i++) {
+            expected.set(values[i]);
+        }
+        assertEquals(expected.cardinality(), bits.cardinality());
+        assertEquals(Bits.fromBitSet(expected), bits);
+        assertEquals(expected, bits.toBitSet());
+        assertEquals(expected, bits.mutableCopy().toBitSet());
+        for (int i = 0; i < 260; i++) {
+            assertEquals(expected.get(i), bits.get(i), "get " + i);
+            assertEquals(expected.nextSetBit(i), bits.nextSetBit(i), "nextSetBit " + i);
+            assertEquals(expected.nextClearBit(i), bits.nextClearBit(i), "nextClearBit " + i);
+            assertEquals(expected.previousSetBit(i), bits.previousSetBit(i), "previousSetBit " + i);
+            assertEquals(expected.previousClearBit(i), bits.previousClearBit(i), "previousClearBit " + i);
+        }
+        assertEquals(-1, bits.previousSetBit(-1));
+        assertEquals(200, bits.previousSetBit(Integer.MAX_VALUE));
+        List<Integer> ascending = new ArrayList<>();
+        bits.forEachSetBitAscending((int bit) -> ascending.add(bit));
+        assertEquals(Arrays.asList(0, 2, 3, 4, 9, 63, 64, 200), ascending);
+        assertTrue(new IntArrayBits(values, 3, 3).isEmpty());
+    }
+}
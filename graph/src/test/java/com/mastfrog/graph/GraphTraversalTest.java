@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.graph;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.bits.MutableBits;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class GraphTraversalTest {
+
+    private static IntGraph chain(int length, boolean cyclic) {
+        BitSet[] outbound = new BitSet[length];
+        BitSet[] inbound = new BitSet[length];
+        for (int i = 0; i < length; i++) {
+            outbound[i] = new BitSet();
+            inbound[i] = new BitSet();
+        }
+        for (int i = 0; i < length - 1; i++) {
+            outbound[i].set(i + 1);
+            inbound[i + 1].set(i);
+        }
+        if (cyclic) {
+            outbound[length - 1].set(0);
+            inbound[0].set(length - 1);
+        }
+        return IntGraph.create(outbound, inbound);
+    }
+
+    private static IntGraph random(long seed, int nodes, int edgesPerNode) {
+        Random rnd = new Random(seed);
+        IntGraphBuilder bldr = IntGraph.builder();
+        bldr.addOrphan(nodes - 1);
+        for (int i = 0; i < nodes; i++) {
+            int count = rnd.nextInt(edgesPerNode * 2);
+            for (int j = 0; j < count; j++) {
+                bldr.addEdge(i, rnd.nextInt(nodes));
+            }
+        }
+        return bldr.build();
+    }
+
+    /**
+     * Distance of each node from the start by one or more edges, or -1.
+     */
+    private static int[] distances(IntGraph graph, int start, boolean up) {
+        int[] result = new int[graph.size()];
+        java.util.Arrays.fill(result, -1);
+        int[] queue = new int[graph.size() + 1];
+        int[] queueDistances = new int[queue.length];
+        int head = 0;
+        int tail = 1;
+        queue[0] = start;
+        while (head < tail) {
+            int node = queue[head];
+            int dist = queueDistances[head++];
+            Bits next = up ? graph.parents(node) : graph.children(node);
+            for (int bit = next.nextSetBit(0); bit >= 0; bit = next.nextSetBit(bit + 1)) {
+                if (result[bit] == -1) {
+                    result[bit] = dist + 1;
+                    queueDistances[tail] = dist + 1;
+                    queue[tail++] = bit;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testLongChainsDoNotOverflowTheStack() {
+        int length = 30000;
+        for (boolean cyclic : new boolean[]{false, true}) {
+            IntGraph graph = chain(length, cyclic);
+            String msg = "cyclic " + cyclic;
+            assertEquals(cyclic ? length : length - 1, graph.closureSize(0), msg);
+            assertEquals(cyclic ? length : length - 1, graph.reverseClosureSize(length - 1), msg);
+            assertEquals(cyclic, graph.isRecursive(length / 2), msg);
+            List<Integer> bfs = new ArrayList<>();
+            graph.breadthFirstSearch(0, false, bfs::add);
+            assertEquals(cyclic ? length : length - 1, bfs.size(), msg);
+            for (int i = 0; i < length - 1; i++) {
+                assertEquals(i + 1, bfs.get(i).intValue(), msg);
+            }
+            List<Integer> dfs = new ArrayList<>();
+            graph.depthFirstSearch(0, false, dfs::add);
+            assertEquals(cyclic ? length : length - 1, dfs.size(), msg);
+            // Post-order: the deepest node comes first
+            for (int i = 0; i < length - 1; i++) {
+                assertEquals(length - 1 - i, dfs.get(i).intValue(), msg);
+            }
+            int[] visits = new int[2];
+            graph.walk(0, new IntGraphVisitor() {
+                @Override
+                public void enterNode(int node, int depth) {
+                    assertEquals(node, depth, msg);
+                    visits[0]++;
+                }
+
+                @Override
+                public void exitNode(int node, int depth) {
+                    assertEquals(node, depth, msg);
+                    visits[1]++;
+                }
+            });
+            assertEquals(length, visits[0], msg);
+            assertEquals(length, visits[1], msg);
+            int[] upwards = new int[1];
+            graph.walkUpwards(length - 1, (node, depth) -> {
+                assertEquals(length - 1 - node, depth, msg);
+                upwards[0]++;
+            });
+            assertEquals(length, upwards[0], msg);
+        }
+    }
+
+    @Test
+    public void testBreadthFirstSearchIsLevelOrderedAndComplete() {
+        // Large enough, and with enough edges, to take bottom-up steps
+        IntGraph graph = random(7, GraphTraversal.BOTTOM_UP_MIN_SIZE * 2, 6);
+        assertTrue(graph instanceof CsrGraph);
+        for (boolean up : new boolean[]{false, true}) {
+            for (int start = 0; start < graph.size(); start += 1031) {
+                int[] dist = distances(graph, start, up);
+                String msg = "start " + start + " up " + up;
+                BitSet seen = new BitSet();
+                int[] lastDistance = new int[1];
+                graph.breadthFirstSearch(start, up, node -> {
+                    assertFalse(seen.get(node), msg + " visited twice: " + node);
+                    seen.set(node);
+                    assertTrue(dist[node] >= lastDistance[0], msg + " out of order at " + node);
+                    lastDistance[0] = dist[node];
+                });
+                Bits closure = up ? graph.reverseClosureOf(start) : graph.closureOf(start);
+                assertEquals(closure, Bits.fromBitSet(seen), msg);
+                for (int i = 0; i < dist.length; i++) {
+                    assertEquals(dist[i] >= 0, closure.get(i), msg + " node " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDepthFirstSearchIsPostOrdered() {
+        for (long seed = 1; seed < 4; seed++) {
+            IntGraph graph = random(seed, 300, 2);
+            for (int start = 0; start < graph.size(); start += 17) {
+                String msg = "seed " + seed + " start " + start;
+                BitSet seen = new BitSet();
+                List<Integer> order = new ArrayList<>();
+                graph.depthFirstSearch(start, false, node -> {
+                    assertFalse(seen.get(node), msg + " visited twice: " + node);
+                    seen.set(node);
+                    order.add(node);
+                });
+                assertEquals(graph.closureOf(start), Bits.fromBitSet(seen), msg);
+                // Each node's children are emitted before it, unless they
+                // are on a cycle back to it
+                BitSet emitted = new BitSet();
+                for (int node : order) {
+                    Bits kids = graph.children(node);
+                    for (int kid = kids.nextSetBit(0); kid >= 0; kid = kids.nextSetBit(kid + 1)) {
+                        if (!emitted.get(kid) && kid != start && kid != node
+                                && !graph.closureOf(kid).get(node)) {
+                            fail(msg + ": " + node + " emitted before its child " + kid);
+                        }
+                    }
+                    emitted.set(node);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAbortableSearches() {
+        IntGraph graph = chain(100, true);
+        List<Integer> bfs = new ArrayList<>();
+        assertTrue(graph.abortableBreadthFirstSearch(0, false, node -> {
+            bfs.add(node);
+            return node != 10;
+        }));
+        assertEquals(10, bfs.size());
+        assertFalse(graph.abortableBreadthFirstSearch(0, false, node -> true));
+        List<Integer> dfs = new ArrayList<>();
+        assertTrue(graph.abortableDepthFirstSearch(0, true, node -> {
+            dfs.add(node);
+            return node == 90;
+        }));
+        assertEquals(90, dfs.size());
+        assertFalse(graph.abortableDepthFirstSearch(0, true, node -> false));
+        // A graph searched from inside a callback must not share scratch state
+        // with the outer search
+        List<Integer> outer = new ArrayList<>();
+        graph.breadthFirstSearch(0, false, node -> {
+            outer.add(node);
+            if (node == 5) {
+                assertEquals(100, graph.closureSize(node));
+                List<Integer> inner = new ArrayList<>();
+                graph.breadthFirstSearch(node, true, inner::add);
+                assertEquals(100, inner.size());
+            }
+        });
+        assertEquals(100, outer.size());
+    }
+
+    @Test
+    public void testClosureRespectsPrepopulatedBits() {
+        IntGraph graph = random(5, 200, 2);
+        MutableBits reached = MutableBits.create(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            assertEquals(graph.closureOf(i), graph.closureOf(i));
+            reached.clear();
+            graph.breadthFirstSearch(i, false, reached::set);
+            assertEquals(graph.closureOf(i), reached);
+        }
+    }
+}
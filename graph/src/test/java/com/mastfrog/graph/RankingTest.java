@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.graph;
+
+import com.mastfrog.bits.Bits;
+import com.mastfrog.graph.algorithm.Algorithm;
+import com.mastfrog.graph.algorithm.EigenvectorCentrality;
+import com.mastfrog.graph.algorithm.PageRank;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class RankingTest {
+
+    static IntGraph randomGraph(long seed, int nodes, int edgesPerNode) {
+        Random rnd = new Random(seed);
+        BitSet[] refs = new BitSet[nodes];
+        for (int i = 0; i < nodes; i++) {
+            refs[i] = new BitSet(nodes);
+            // Leave some nodes dangling
+            if (i % 11 != 0) {
+                int count = 1 + rnd.nextInt(edgesPerNode * 2);
+                for (int j = 0; j < count; j++) {
+                    // Skew toward low node ids, so ranks differ
+                    int target = (int) (Math.abs(rnd.nextGaussian()) * nodes / 4) % nodes;
+                    refs[i].set(target);
+                }
+            }
+        }
+        return IntGraph.create(refs);
+    }
+
+    @Test
+    public void testSequentialPageRankMatchesBitsComputation() {
+        IntGraph graph = randomGraph(13, 500, 3);
+        double[] expected = referencePageRank(graph, 0.0000000000000004, 0.85, 1000);
+        double[] got = Algorithm.pageRank()
+                .setParameter(PageRank.DAMPING_FACTOR, 0.85).apply(graph);
+        assertArrayEquals(expected, got);
+    }
+
+    @Test
+    public void testParallelPageRank() {
+        IntGraph graph = randomGraph(23, 20000, 4);
+        PageRank alg = Algorithm.pageRank()
+                .setParameter(PageRank.DAMPING_FACTOR, 0.85)
+                .setParameter(PageRank.MINIMUM_DIFFERENCE, 0.0000000001)
+                .setParameter(PageRank.PARALLEL, true);
+        double[] a = alg.apply(graph);
+        double[] b = alg.apply(graph);
+        assertArrayEquals(a, b, "Parallel results should be deterministic");
+        double[] sequential = Algorithm.pageRank()
+                .setParameter(PageRank.DAMPING_FACTOR, 0.85)
+                .setParameter(PageRank.MINIMUM_DIFFERENCE, 0.0000000001)
+                .apply(graph);
+        assertEquals(argMax(sequential), argMax(a));
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(sequential[i], a[i], 0.000001, "Node " + i);
+        }
+    }
+
+    @Test
+    public void testSequentialEigenvectorMatchesBitsComputation() {
+        IntGraph graph = randomGraph(31, 150, 3);
+        for (boolean inEdges : new boolean[]{false, true}) {
+            double[] expected = referenceEigenvector(graph, 400, 0.000001, inEdges, true, true);
+            double[] got = Algorithm.eigenvectorCentrality()
+                    .setParameter(EigenvectorCentrality.USE_IN_EDGES, inEdges)
+                    .apply(graph);
+            assertArrayEquals(expected, got);
+        }
+    }
+
+    @Test
+    public void testParallelEigenvector() {
+        IntGraph graph = randomGraph(37, 20000, 4);
+        EigenvectorCentrality alg = Algorithm.eigenvectorCentrality()
+                .setParameter(EigenvectorCentrality.MINIMUM_DIFFERENCE, 0.0000000001)
+                .setParameter(EigenvectorCentrality.MAXIMUM_ITERATIONS, 1000)
+                .setParameter(EigenvectorCentrality.POWER_ITERATION, true)
+                .setParameter(EigenvectorCentrality.PARALLEL, true);
+        double[] a = alg.apply(graph);
+        assertArrayEquals(a, alg.apply(graph), "Parallel results should be deterministic");
+        assertArrayEquals(a, alg.setParameter(EigenvectorCentrality.PARALLEL, false).apply(graph),
+                "Parallel and single-threaded power iteration should match");
+        // Converged to an eigenvector: multiplying by the adjacency matrix
+        // changes the vector only by a constant factor
+        double[] product = new double[a.length];
+        double norm = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            int node = i;
+            product[i] = graph.neighbors(i).sum(a, node);
+            norm += product[i] * product[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(a[i], product[i] / norm, 0.00001, "Node " + i);
+        }
+        assertTrue(a[argMax(a)] > 0);
+    }
+
+    @Test
+    public void testEigenvectorThreadingDoesNotChangeResults() {
+        // Sizes either side of RankingGraph.CHUNK_SIZE, so some graphs are
+        // actually split across threads
+        int[] sizes = {3, 40, 200, 5000, 9000};
+        for (int i = 0; i < sizes.length; i++) {
+            IntGraph graph = randomGraph(41 + i, sizes[i], 3);
+            for (boolean power : new boolean[]{false, true}) {
+                if (!power && sizes[i] > 200) {
+                    // The default is quadratic in the node count
+                    continue;
+                }
+                double[] single = Algorithm.eigenvectorCentrality()
+                        .setParameter(EigenvectorCentrality.POWER_ITERATION, power)
+                        .apply(graph);
+                double[] parallel = Algorithm.eigenvectorCentrality()
+                        .setParameter(EigenvectorCentrality.POWER_ITERATION, power)
+                        .setParameter(EigenvectorCentrality.PARALLEL, true)
+                        .apply(graph);
+                assertArrayEquals(single, parallel, sizes[i] + " nodes, power iteration " + power);
+            }
+        }
+    }
+
+    private static int argMax(double[] vals) {
+        int result = 0;
+        for (int i = 1; i < vals.length; i++) {
+            if (vals[i] > vals[result]) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    // The original Bits-based computations, which the sequential
+    // implementations must continue to match exactly
+    private static double[] referencePageRank(IntGraph graph, double minDifference, double dampingFactor, int maximumIterations) {
+        double difference;
+        int cnt = 0;
+        int graphSize = graph.size();
+        double n = graphSize;
+        double[] result = new double[graphSize];
+        Arrays.fill(result, 1d / n);
+        do {
+            difference = 0.0;
+            double dangling = 0.0;
+            for (int i = 0; i < graphSize; i++) {
+                if (graph.children(i).isEmpty()) {
+                    dangling += result[i];
+                }
+            }
+            double danglingFactor = dampingFactor / n * dangling;
+            for (int i = 0; i < graphSize; i++) {
+                double inputSum = graph.parents(i).sum((int j) -> {
+                    double outDegree = graph.children(j).cardinality();
+                    if (outDegree != 0) {
+                        return result[j] / outDegree;
+                    }
+                    return 0.0;
+                });
+                double val = (1.0 - dampingFactor) / n + dampingFactor * inputSum + danglingFactor;
+                difference += Math.abs(val - result[i]);
+                if (result[i] < val) {
+                    result[i] = val;
+                }
+            }
+            cnt++;
+        } while ((difference > minDifference) && cnt < maximumIterations);
+        return result;
+    }
+
+    private static double[] referenceEigenvector(IntGraph graph, int maxIterations, double minDiff, boolean inEdges, boolean ignoreSelfEdges, boolean normalize) {
+        int sz = graph.size();
+        double[] unnormalized = new double[sz];
+        double[] centrality = new double[sz];
+        Arrays.fill(centrality, 1.0 / (double) sz);
+        double diff = 0.0;
+        int iter = 0;
+        do {
+            for (int i = 0; i < sz; i++) {
+                Bits dests = inEdges ? graph.parents(i) : graph.neighbors(i);
+                double sum = dests.sum(centrality, ignoreSelfEdges ? i : Integer.MIN_VALUE);
+                unnormalized[i] = sum;
+                double l2sum = 0.0;
+                for (int j = 0; j < sz; j++) {
+                    l2sum += unnormalized[j] * unnormalized[j];
+                }
+                double s = (l2sum == 0.0) ? 1.0 : 1 / Math.sqrt(l2sum);
+                diff = 0.0;
+                for (int j = 0; j < sz; j++) {
+                    double val = unnormalized[j] * s;
+                    diff += Math.abs(centrality[j] - val);
+                    centrality[j] = val;
+                }
+            }
+        } while (iter++ < maxIterations && diff > minDiff);
+        return centrality;
+    }
+}
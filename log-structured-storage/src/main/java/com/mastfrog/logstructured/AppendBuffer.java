@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A growable, reusable in-memory channel which a Serde can serialize a batch of
+ * records into, so the batch can be written to the file in a single call.
+ * Instances are owned by one appender and only used under its lock.
+ *
+ * @author Tim Boudreau
+ */
+final class AppendBuffer implements SeekableByteChannel {
+
+    private static final int DEFAULT_SIZE = 8192;
+    // If a huge batch grew the buffer, drop it afterwards rather than
+    // pinning the memory for the life of the appender
+    private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+    private ByteBuffer buffer;
+    private int size;
+    private boolean open = true;
+
+    AppendBuffer() {
+        this(DEFAULT_SIZE);
+    }
+
+    AppendBuffer(int initialSize) {
+        buffer = ByteBuffer.allocate(initialSize);
+    }
+
+    @Override
+    public String toString() {
+        return "AppendBuffer(" + buffer.position() + "/" + buffer.capacity() + ")";
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.capacity() - buffer.position() < bytes) {
+            int newSize = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+            ByteBuffer nue = ByteBuffer.allocate(newSize);
+            int pos = buffer.position();
+            buffer.position(0).limit(size);
+            nue.put(buffer);
+            nue.position(pos);
+            buffer = nue;
+        }
+    }
+
+    /**
+     * Get a view of the bytes written since the last call to
+     * <code>reset()</code>, positioned at zero.
+     *
+     * @return A buffer
+     */
+    ByteBuffer contents() {
+        return contents(0, size);
+    }
+
+    /**
+     * Get a view of a range of the bytes written since the last call to
+     * <code>reset()</code>.
+     *
+     * @param start The start offset
+     * @param end The end offset
+     * @return A buffer
+     */
+    ByteBuffer contents(int start, int end) {
+        ByteBuffer result = buffer.duplicate();
+        result.limit(end).position(start);
+        return result;
+    }
+
+    /**
+     * Clear this buffer for reuse.
+     */
+    void reset() {
+        if (buffer.capacity() > MAX_RETAINED_SIZE) {
+            buffer = ByteBuffer.allocate(DEFAULT_SIZE);
+        } else {
+            buffer.clear();
+        }
+        size = 0;
+        open = true;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        throw new IOException("Write-only");
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int amt = src.remaining();
+        ensureRemaining(amt);
+        buffer.put(src);
+        size = Math.max(size, buffer.position());
+        return amt;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return buffer.position();
+    }
+
+    @Override
+    public AppendBuffer position(long newPosition) throws IOException {
+        if (newPosition < 0 || newPosition > Integer.MAX_VALUE) {
+            throw new IOException("Bad position " + newPosition);
+        }
+        int pos = (int) newPosition;
+        if (pos > buffer.capacity()) {
+            ensureRemaining(pos - buffer.position());
+        }
+        buffer.position(pos);
+        size = Math.max(size, pos);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return size;
+    }
+
+    /**
+     * The number of bytes written since the last reset.
+     *
+     * @return A byte count
+     */
+    int length() {
+        return size;
+    }
+
+    @Override
+    public AppendBuffer truncate(long size) throws IOException {
+        if (size < this.size) {
+            this.size = (int) size;
+            if (buffer.position() > size) {
+                buffer.position((int) size);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+    }
+}
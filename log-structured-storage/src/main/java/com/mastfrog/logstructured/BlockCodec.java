@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ServiceLoader;
+
+/**
+ * Compresses and decompresses the fixed-size blocks that sealed storage files
+ * are split into when a folder storage is created with
+ * <code>LogStructuredStorage.compressed()</code>. The codec's name is recorded
+ * in each compressed file, and used to find the codec to decompress it with:
+ * the built-in <code>deflate</code> codec, or any implementation registered
+ * in <code>META-INF/services/com.mastfrog.logstructured.BlockCodec</code>,
+ * so faster codecs (such as LZ4) can be plugged in without this library
+ * depending on them.
+ *
+ * @author Tim Boudreau
+ */
+public interface BlockCodec {
+
+    /**
+     * A unique name for the compression format, stored in compressed files.
+     *
+     * @return A name
+     */
+    String name();
+
+    /**
+     * Compress the bytes between the source buffer's position and limit.
+     *
+     * @param src The uncompressed bytes
+     * @return A buffer whose remaining bytes are the compressed data
+     * @throws IOException If something goes wrong
+     */
+    ByteBuffer compress(ByteBuffer src) throws IOException;
+
+    /**
+     * Decompress the bytes between the source buffer's position and limit
+     * into the destination, filling exactly its remaining bytes.
+     *
+     * @param src The compressed bytes
+     * @param dest A buffer with space for exactly the uncompressed block
+     * @throws IOException If the data is corrupt
+     */
+    void decompress(ByteBuffer src, ByteBuffer dest) throws IOException;
+
+    /**
+     * Get a codec which uses the JDK's Deflater at its default level.
+     *
+     * @return A codec
+     */
+    static BlockCodec deflate() {
+        return DeflateCodec.DEFAULT;
+    }
+
+    /**
+     * Get a codec which uses the JDK's Deflater at the passed level.
+     *
+     * @param level A level from 0 to 9
+     * @return A codec
+     */
+    static BlockCodec deflate(int level) {
+        return new DeflateCodec(level);
+    }
+
+    /**
+     * Find a codec by name, looking first at the built-in codec and then at
+     * those registered with ServiceLoader.
+     *
+     * @param name The name
+     * @return A codec
+     * @throws IOException If none is found
+     */
+    static BlockCodec forName(String name) throws IOException {
+        if (DeflateCodec.NAME.equals(name)) {
+            return DeflateCodec.DEFAULT;
+        }
+        for (BlockCodec codec : ServiceLoader.load(BlockCodec.class)) {
+            if (name.equals(codec.name())) {
+                return codec;
+            }
+        }
+        throw new IOException("No BlockCodec named '" + name + "' registered");
+    }
+}
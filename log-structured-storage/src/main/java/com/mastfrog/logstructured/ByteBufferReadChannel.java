@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel over a ByteBuffer, so Serde implementations which only
+ * know how to read from a channel can deserialize from a mapped segment. The
+ * channel shares its position with the buffer.
+ *
+ * @author Tim Boudreau
+ */
+final class ByteBufferReadChannel implements SeekableByteChannel {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferReadChannel(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferReadChannel(" + buffer + ")";
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int rem = buffer.remaining();
+        if (rem == 0) {
+            return -1;
+        }
+        int count = Math.min(rem, dst.remaining());
+        if (count == rem) {
+            dst.put(buffer);
+        } else {
+            ByteBuffer part = buffer.duplicate();
+            part.limit(part.position() + count);
+            dst.put(part);
+            buffer.position(buffer.position() + count);
+        }
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        return buffer.position();
+    }
+
+    @Override
+    public ByteBufferReadChannel position(long newPosition) throws IOException {
+        if (newPosition < 0 || newPosition > buffer.limit()) {
+            throw new IOException("Position " + newPosition + " outside 0-" + buffer.limit());
+        }
+        buffer.position((int) newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return buffer.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
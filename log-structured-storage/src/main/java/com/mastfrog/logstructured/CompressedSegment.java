@@ -0,0 +1,335 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import com.mastfrog.file.channels.Lease;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Compressed form of a sealed storage file, which replaces the original once
+ * written, in an adjacent file with the extension <code>.blz</code>. The
+ * original is split into fixed-size blocks which are compressed independently,
+ * with a table of block offsets, so a reader can decompress only the block
+ * containing a given offset. Offsets in cursor and index files always refer
+ * to the uncompressed data, so they remain valid after compression.
+ * <p>
+ * Layout (big-endian):
+ * </p>
+ * <pre>
+ * int magic | int version | int blockSize | int blockCount | long size
+ * | long tableOffset | short nameLength | codec name (UTF-8)
+ * | compressed blocks | (blockCount + 1) longs of block offsets
+ * </pre>
+ *
+ * @author Tim Boudreau
+ */
+final class CompressedSegment {
+
+    static final String COMPRESSED_EXT = ".blz";
+    static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x424C5A31;
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER_BYTES = Integer.BYTES * 4 + Long.BYTES * 2 + Short.BYTES;
+
+    private CompressedSegment() {
+        throw new AssertionError();
+    }
+
+    static Path compressedFile(Path storageFile) {
+        return storageFile.resolveSibling(storageFile.getFileName() + COMPRESSED_EXT);
+    }
+
+    static boolean isCompressed(Path storageFile) {
+        return Files.exists(compressedFile(storageFile));
+    }
+
+    /**
+     * Get the uncompressed size of a storage file, whether or not it has been
+     * compressed.
+     *
+     * @param storageFile The original file name
+     * @return The size, or -1 if neither the file nor a compressed form of it
+     * exists
+     * @throws IOException If something goes wrong
+     */
+    static long size(Path storageFile) throws IOException {
+        if (Files.exists(storageFile)) {
+            return Files.size(storageFile);
+        }
+        Path compressed = compressedFile(storageFile);
+        if (!Files.exists(compressed)) {
+            return -1;
+        }
+        try (FileChannel ch = FileChannel.open(compressed, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES);
+            readFully(ch, header, 0);
+            checkMagic(header, compressed);
+            return header.getLong(Integer.BYTES * 4);
+        }
+    }
+
+    static boolean delete(Path storageFile, FileChannelPool pool) throws IOException {
+        return pool.deleteFile(compressedFile(storageFile));
+    }
+
+    private static void checkMagic(ByteBuffer header, Path file) throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a compressed segment: " + file);
+        }
+        if (header.getInt(Integer.BYTES) > VERSION) {
+            throw new IOException("Unsupported compressed segment version "
+                    + header.getInt(Integer.BYTES) + " in " + file);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int count = ch.read(buf, pos);
+            if (count < 0) {
+                throw new IOException("Unexpected end of file at " + pos);
+            }
+            pos += count;
+        }
+        buf.flip();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /**
+     * Compress a storage file, replacing it with its compressed form, unless
+     * it is opened by a reader (registered in the passed set, which is locked
+     * while the files are swapped) before that happens.
+     *
+     * @param storageFile The file
+     * @param codec The codec
+     * @param blockSize The uncompressed size of each block
+     * @param openFiles Files which readers in this process have open, with
+     * reference counts
+     * @param pool The pool, which will close any channels for the original
+     * @return true if the file was compressed
+     * @throws IOException If something goes wrong
+     */
+    static boolean compress(Path storageFile, BlockCodec codec, int blockSize, Map<Path, Integer> openFiles, FileChannelPool pool) throws IOException {
+        Path target = compressedFile(storageFile);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        byte[] name = codec.name().getBytes(UTF_8);
+        try (FileChannel in = FileChannel.open(storageFile, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            int blockCount = (int) ((size + blockSize - 1) / blockSize);
+            long[] offsets = new long[blockCount + 1];
+            long pos = FIXED_HEADER_BYTES + name.length;
+            out.position(pos);
+            ByteBuffer block = ByteBuffer.allocate(blockSize);
+            for (int i = 0; i < blockCount; i++) {
+                block.clear();
+                block.limit((int) Math.min(blockSize, size - (long) i * blockSize));
+                readFully(in, block, (long) i * blockSize);
+                ByteBuffer compressed = codec.compress(block);
+                offsets[i] = pos;
+                pos += compressed.remaining();
+                writeFully(out, compressed);
+            }
+            offsets[blockCount] = pos;
+            ByteBuffer table = ByteBuffer.allocate(offsets.length * Long.BYTES);
+            for (long off : offsets) {
+                table.putLong(off);
+            }
+            table.flip();
+            writeFully(out, table);
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + name.length);
+            header.putInt(MAGIC).putInt(VERSION).putInt(blockSize).putInt(blockCount)
+                    .putLong(size).putLong(pos).putShort((short) name.length).put(name);
+            header.flip();
+            out.position(0);
+            writeFully(out, header);
+            out.force(true);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        synchronized (openFiles) {
+            if (openFiles.containsKey(storageFile) || !Files.exists(storageFile)) {
+                Files.deleteIfExists(tmp);
+                return false;
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            pool.deleteFile(storageFile);
+        }
+        return true;
+    }
+
+    /**
+     * A read-only channel over the uncompressed contents of a compressed
+     * segment, which decompresses one block at a time as reads cross into it.
+     */
+    static final class BlockChannel implements SeekableByteChannel {
+
+        private final Path file;
+        private final Lease lease;
+        private final BlockCodec codec;
+        private final int blockSize;
+        private final long size;
+        private final long[] offsets;
+        private final ByteBuffer block;
+        private int currentBlock = -1;
+        private long position;
+        private boolean open = true;
+
+        private BlockChannel(Path file, Lease lease, BlockCodec codec, int blockSize, long size, long[] offsets) {
+            this.file = file;
+            this.lease = lease;
+            this.codec = codec;
+            this.blockSize = blockSize;
+            this.size = size;
+            this.offsets = offsets;
+            this.block = ByteBuffer.allocate(blockSize);
+        }
+
+        static BlockChannel open(Path storageFile, FileChannelPool pool) throws IOException {
+            Path file = compressedFile(storageFile);
+            Lease lease = pool.lease(file, StandardOpenOption.READ);
+            return lease.<BlockChannel>use((FileChannel ch) -> {
+                ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES);
+                readFully(ch, header, 0);
+                checkMagic(header, file);
+                header.getInt();
+                header.getInt();
+                int blockSize = header.getInt();
+                int blockCount = header.getInt();
+                long size = header.getLong();
+                long tableOffset = header.getLong();
+                ByteBuffer name = ByteBuffer.allocate(header.getShort());
+                readFully(ch, name, FIXED_HEADER_BYTES);
+                BlockCodec codec = BlockCodec.forName(UTF_8.decode(name).toString());
+                ByteBuffer table = ByteBuffer.allocate((blockCount + 1) * Long.BYTES);
+                readFully(ch, table, tableOffset);
+                long[] offsets = new long[blockCount + 1];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = table.getLong();
+                }
+                return new BlockChannel(file, lease, codec, blockSize, size, offsets);
+            });
+        }
+
+        @Override
+        public String toString() {
+            return "BlockChannel(" + file.getFileName() + "@" + position + "/" + size + ")";
+        }
+
+        private void load(int index) throws IOException {
+            if (index == currentBlock) {
+                return;
+            }
+            currentBlock = -1;
+            ByteBuffer compressed = ByteBuffer.allocate((int) (offsets[index + 1] - offsets[index]));
+            lease.use(ch -> {
+                readFully(ch, compressed, offsets[index]);
+            });
+            block.clear();
+            block.limit((int) Math.min(blockSize, size - (long) index * blockSize));
+            codec.decompress(compressed, block);
+            block.flip();
+            currentBlock = index;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int result = 0;
+            while (dst.hasRemaining() && position < size) {
+                int index = (int) (position / blockSize);
+                load(index);
+                ByteBuffer src = block.duplicate();
+                src.position((int) (position - (long) index * blockSize));
+                if (src.remaining() > dst.remaining()) {
+                    src.limit(src.position() + dst.remaining());
+                }
+                int count = src.remaining();
+                dst.put(src);
+                position += count;
+                result += count;
+            }
+            return result;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return position;
+        }
+
+        @Override
+        public BlockChannel position(long newPosition) throws IOException {
+            if (newPosition < 0 || newPosition > size) {
+                throw new IOException("Bad position " + newPosition + " in " + this);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Reader over a storage file which has been compressed after being sealed,
+ * decompressing a block at a time. Cursor offsets refer to the uncompressed
+ * data, so the cursor file is shared with the other reader implementations.
+ *
+ * @author Tim Boudreau
+ */
+final class CompressedSegmentReader<T> extends SealedSegmentReader<T> {
+
+    private CompressedSegment.BlockChannel channel;
+
+    CompressedSegmentReader(Path srcFile, Path cursorFile, Serde<T> serde, FileChannelPool pool,
+            SparseIndex.Config<T> indexing, ConsumerGroups groups) {
+        super(srcFile, cursorFile, serde, pool, indexing, groups);
+    }
+
+    @Override
+    public String toString() {
+        return "compressed:" + srcFile.getFileName() + "@" + position;
+    }
+
+    @Override
+    long openSegment() throws IOException {
+        if (!CompressedSegment.isCompressed(srcFile)) {
+            return -1;
+        }
+        channel = CompressedSegment.BlockChannel.open(srcFile, pool);
+        return channel.size();
+    }
+
+    @Override
+    T readAt(long pos) throws IOException {
+        channel.position(pos);
+        return serde.deserialize(srcFile, channel);
+    }
+
+    @Override
+    long endOfRead() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    SeekableByteChannel indexChannel() {
+        return channel;
+    }
+
+    @Override
+    void closeSegment() throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            channel = null;
+        }
+    }
+
+    @Override
+    void deleteSegment() throws IOException {
+        CompressedSegment.delete(srcFile, pool);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.io.IOException;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the named consumers of a storage, each of which has its own
+ * cursor file for every storage file, kept as a small text file listing their
+ * names. A storage with no registry has a single, unnamed consumer, whose
+ * cursor file is the one used before consumers could be named. While a file has
+ * more than one consumer, its head is never compacted (that would invalidate
+ * the other consumers' offsets), and it is only deleted once every consumer's
+ * cursor has passed its end.
+ *
+ * @author Tim Boudreau
+ */
+final class ConsumerGroups {
+
+    static final String DEFAULT = "";
+    private static final String DEFAULT_MARKER = "*";
+    private static final String CURSOR_EXT = ".cursor";
+    private static final Pattern VALID_NAME = Pattern.compile("^[A-Za-z0-9_\\-]+$");
+    private static final Set<String> DEFAULT_ONLY = Collections.singleton(DEFAULT);
+    private final Path registry;
+    private final FileChannelPool pool;
+
+    ConsumerGroups(Path registry, FileChannelPool pool) {
+        this.registry = notNull("registry", registry);
+        this.pool = notNull("pool", pool);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsumerGroups(" + registry + ")";
+    }
+
+    static String checkName(String name) {
+        notNull("name", name);
+        if (!VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Consumer names must be non-empty "
+                    + "and contain only letters, digits, - and _: '" + name + "'");
+        }
+        return name;
+    }
+
+    /**
+     * Get the cursor file a consumer uses for a storage file.
+     *
+     * @param dataFile The storage file
+     * @param consumer The consumer name, or the empty string for the default
+     * @return A path
+     */
+    static Path cursorFile(Path dataFile, String consumer) {
+        String base = dataFile.getFileName().toString();
+        return dataFile.resolveSibling(DEFAULT.equals(consumer)
+                ? base + CURSOR_EXT
+                : base + '.' + consumer + CURSOR_EXT);
+    }
+
+    Path registry() {
+        return registry;
+    }
+
+    /**
+     * Get the names of all consumers.
+     *
+     * @return A set of names, containing only the empty string if no named
+     * consumer was ever registered
+     * @throws IOException If something goes wrong
+     */
+    Set<String> names() throws IOException {
+        if (!Files.exists(registry)) {
+            return DEFAULT_ONLY;
+        }
+        Set<String> result = new TreeSet<>();
+        for (String line : Files.readAllLines(registry, UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                result.add(DEFAULT_MARKER.equals(line) ? DEFAULT : line);
+            }
+        }
+        return result.isEmpty() ? DEFAULT_ONLY : result;
+    }
+
+    boolean isShared() throws IOException {
+        return names().size() > 1;
+    }
+
+    /**
+     * Register a consumer, if it is not already registered. The default
+     * consumer is recorded too, even while it is the only one, so that a
+     * default reader which has not committed a cursor yet is still counted
+     * once named consumers are added.
+     *
+     * @param name The name, or the empty string for the default consumer
+     * @param defaultInUse If the registry does not exist yet, whether the
+     * default consumer has cursors which should be kept
+     * @throws IOException If something goes wrong
+     */
+    void register(String name, boolean defaultInUse) throws IOException {
+        // One instance is shared by a storage and all of its views, so
+        // locking on it serializes updates to this registry without making
+        // unrelated storages wait on each other
+        synchronized (this) {
+            boolean exists = Files.exists(registry);
+            Set<String> names = new TreeSet<>(exists ? names() : Collections.emptySet());
+            if (!exists && defaultInUse) {
+                names.add(DEFAULT);
+            }
+            if (!names.add(name) && exists) {
+                return;
+            }
+            List<String> lines = new ArrayList<>(names.size());
+            for (String n : names) {
+                lines.add(DEFAULT.equals(n) ? DEFAULT_MARKER : n);
+            }
+            Path tmp = registry.resolveSibling(registry.getFileName() + ".tmp");
+            Files.write(tmp, lines, UTF_8);
+            Files.move(tmp, registry, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Determine whether every consumer has read a storage file to its end.
+     *
+     * @param dataFile The file
+     * @return true if it is fully read or does not exist
+     * @throws IOException If something goes wrong
+     */
+    boolean allRead(Path dataFile) throws IOException {
+        long size = CompressedSegment.size(dataFile);
+        if (size < 0) {
+            return true;
+        }
+        for (String name : names()) {
+            if (new CursorFile(cursorFile(dataFile, name), pool).read() < size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the lowest cursor position of any consumer of a storage file.
+     *
+     * @param dataFile The file
+     * @return A position
+     * @throws IOException If something goes wrong
+     */
+    long minimumCursor(Path dataFile) throws IOException {
+        long result = Long.MAX_VALUE;
+        for (String name : names()) {
+            result = Math.min(result, Math.max(0, new CursorFile(cursorFile(dataFile, name), pool).read()));
+        }
+        return result;
+    }
+
+    /**
+     * Delete the cursor files of all consumers for a storage file.
+     *
+     * @param dataFile The file
+     * @return true if anything was deleted
+     * @throws IOException If something goes wrong
+     */
+    boolean deleteCursors(Path dataFile) throws IOException {
+        boolean result = pool.deleteFile(cursorFile(dataFile, DEFAULT));
+        for (String name : names()) {
+            if (!DEFAULT.equals(name)) {
+                result |= pool.deleteFile(cursorFile(dataFile, name));
+            }
+        }
+        return result;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(registry);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.util.preconditions.Checks;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Block codec over the JDK's Deflater and Inflater. Since the level only
+ * affects compression, all levels share one name.
+ *
+ * @author Tim Boudreau
+ */
+final class DeflateCodec implements BlockCodec {
+
+    static final String NAME = "deflate";
+    static final DeflateCodec DEFAULT = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+    private final int level;
+
+    DeflateCodec(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION) {
+            Checks.nonNegative("level", level);
+            if (level > 9) {
+                throw new IllegalArgumentException("Level must be 0-9: " + level);
+            }
+        }
+        this.level = level;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "(" + level + ")";
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] result = new byte[buf.remaining()];
+        buf.get(result);
+        return result;
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer src) throws IOException {
+        byte[] in = bytes(src);
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(in);
+            deflater.finish();
+            byte[] out = new byte[Math.max(64, in.length / 2)];
+            int len = 0;
+            while (!deflater.finished()) {
+                if (len == out.length) {
+                    byte[] nue = new byte[out.length * 2];
+                    System.arraycopy(out, 0, nue, 0, len);
+                    out = nue;
+                }
+                len += deflater.deflate(out, len, out.length - len);
+            }
+            return ByteBuffer.wrap(out, 0, len);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, ByteBuffer dest) throws IOException {
+        byte[] in = bytes(src);
+        byte[] out = new byte[dest.remaining()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            int len = 0;
+            while (len < out.length) {
+                int count = inflater.inflate(out, len, out.length - len);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed block ended after " + len
+                            + " of " + out.length + " bytes");
+                }
+                len += count;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt compressed block", ex);
+        } finally {
+            inflater.end();
+        }
+        dest.put(out);
+    }
+}
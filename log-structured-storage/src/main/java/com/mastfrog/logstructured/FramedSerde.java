@@ -0,0 +1,327 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.LeaseException;
+import com.mastfrog.function.throwing.io.IOLongConsumer;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Wraps another Serde, framing each record it writes with a header containing
+ * the payload length, a checksum of the payload and the wrapped Serde's
+ * version, and a trailer repeating the length. That makes it possible to skip
+ * records without deserializing them, find record boundaries for parallel
+ * replay, validate records on read, and detect a torn write at the tail of a
+ * file by looking only at the last few bytes.
+ * <p>
+ * On-disk layout of a frame (big-endian):
+ * </p>
+ * <pre>
+ * int length | int crc32 | int version | payload (length bytes) | int length
+ * </pre>
+ * <p>
+ * The checksum is CRC-32 rather than CRC-32C, since this library targets Java
+ * 8, where the latter is unavailable; the JDK's CRC-32 is an intrinsic on
+ * common platforms.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class FramedSerde<T> implements Serde<T> {
+
+    static final int HEADER_BYTES = Integer.BYTES * 3;
+    static final int TRAILER_BYTES = Integer.BYTES;
+    /**
+     * The number of bytes of overhead each frame adds to the record written by
+     * the wrapped Serde.
+     */
+    public static final int FRAME_OVERHEAD = HEADER_BYTES + TRAILER_BYTES;
+    private final Serde<T> delegate;
+
+    FramedSerde(Serde<T> delegate) {
+        this.delegate = notNull("delegate", delegate);
+    }
+
+    @Override
+    public String toString() {
+        return "framed(" + delegate + ")";
+    }
+
+    /**
+     * Get the wrapped Serde.
+     *
+     * @return The serde
+     */
+    public Serde<T> delegate() {
+        return delegate;
+    }
+
+    @Override
+    public int version() {
+        return delegate.version();
+    }
+
+    @Override
+    public <C extends WritableByteChannel & SeekableByteChannel> void serialize(T obj, C channel) throws IOException {
+        if (channel instanceof AppendBuffer) {
+            // Batch append - frame in place, no intermediate copy
+            writeFrame(obj, (AppendBuffer) channel);
+            return;
+        }
+        AppendBuffer buf = new AppendBuffer(256);
+        writeFrame(obj, buf);
+        ByteBuffer bytes = buf.contents();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private void writeFrame(T obj, AppendBuffer buf) throws IOException {
+        int start = (int) buf.position();
+        int payloadStart = start + HEADER_BYTES;
+        buf.position(payloadStart);
+        delegate.serialize(obj, buf);
+        int payloadEnd = (int) buf.position();
+        int length = payloadEnd - payloadStart;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(length).putInt(crc(buf.contents(payloadStart, payloadEnd)))
+                .putInt(delegate.version());
+        header.flip();
+        buf.position(start);
+        buf.write(header);
+        buf.position(payloadEnd);
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        trailer.putInt(length);
+        trailer.flip();
+        buf.write(trailer);
+    }
+
+    static int crc(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf);
+        return (int) crc.getValue();
+    }
+
+    private T checkVersion(int version) throws LeaseException {
+        if (version > delegate.version()) {
+            return fail("Record written with version " + version
+                    + " of " + delegate + " but it supports version "
+                    + delegate.version());
+        }
+        return null;
+    }
+
+    @Override
+    public <C extends ReadableByteChannel & SeekableByteChannel> T deserialize(Path in, C channel) throws LeaseException, IOException {
+        long start = channel.position();
+        long available = channel.size() - start;
+        if (available < FRAME_OVERHEAD) {
+            return fail("Truncated frame header at " + start + " in " + in);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header);
+        int length = header.getInt();
+        int crc = header.getInt();
+        int version = header.getInt();
+        if (length < 0 || length > available - FRAME_OVERHEAD) {
+            return fail("Bad frame length " + length + " at " + start + " in " + in);
+        }
+        checkVersion(version);
+        ByteBuffer payload = ByteBuffer.allocate(length + TRAILER_BYTES);
+        readFully(channel, payload);
+        if (payload.getInt(length) != length) {
+            return fail("Frame trailer does not match length " + length + " at " + start + " in " + in);
+        }
+        payload.limit(length);
+        if (crc(payload.duplicate()) != crc) {
+            return fail("Checksum mismatch for record at " + start + " in " + in);
+        }
+        return delegate.deserialize(in, payload);
+    }
+
+    @Override
+    public T deserialize(Path in, ByteBuffer buffer) throws LeaseException, IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < FRAME_OVERHEAD) {
+            return fail("Truncated frame header at " + start + " in " + in);
+        }
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        int version = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() - TRAILER_BYTES) {
+            return fail("Bad frame length " + length + " at " + start + " in " + in);
+        }
+        checkVersion(version);
+        int payloadStart = buffer.position();
+        int payloadEnd = payloadStart + length;
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(payloadEnd);
+        if (crc(payload.duplicate()) != crc) {
+            return fail("Checksum mismatch for record at " + start + " in " + in);
+        }
+        if (buffer.getInt(payloadEnd) != length) {
+            return fail("Frame trailer does not match length " + length + " at " + start + " in " + in);
+        }
+        T result = delegate.deserialize(in, payload.slice());
+        buffer.position(payloadEnd + TRAILER_BYTES);
+        return result;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer into) throws IOException {
+        while (into.hasRemaining()) {
+            if (channel.read(into) < 0) {
+                throw new LeaseException("Unexpected end of channel");
+            }
+        }
+        into.flip();
+    }
+
+    /**
+     * Read the frame header at the given position, returning the position of
+     * the next frame without reading or validating the payload, or -1 if the
+     * header is truncated or its length is not plausible.
+     *
+     * @param channel A channel
+     * @param position A position at which a frame starts
+     * @return The position of the following frame, or -1
+     * @throws IOException If something goes wrong
+     */
+    public static long skip(SeekableByteChannel channel, long position) throws IOException {
+        long size = channel.size();
+        if (size - position < FRAME_OVERHEAD) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        channel.position(position);
+        readFully(channel, header);
+        int length = header.getInt();
+        if (length < 0 || length > size - position - FRAME_OVERHEAD) {
+            return -1;
+        }
+        return position + FRAME_OVERHEAD + length;
+    }
+
+    /**
+     * Determine whether the last frame in a channel is complete and intact,
+     * by reading only the trailer and the header it points to, and verifying
+     * the checksum of that one record. If this returns true there is no torn
+     * write to recover from.
+     *
+     * @param channel A channel
+     * @return true if the channel is empty or ends with a valid frame
+     * @throws IOException If something goes wrong
+     */
+    public static boolean isTailIntact(SeekableByteChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return true;
+        }
+        if (size < FRAME_OVERHEAD) {
+            return false;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        channel.position(size - TRAILER_BYTES);
+        readFully(channel, trailer);
+        int length = trailer.getInt();
+        if (length < 0 || length > size - FRAME_OVERHEAD) {
+            return false;
+        }
+        return isValidFrame(channel, size - FRAME_OVERHEAD - length, size);
+    }
+
+    private static boolean isValidFrame(SeekableByteChannel channel, long start, long size) throws IOException {
+        if (size - start < FRAME_OVERHEAD) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.position(start);
+        readFully(channel, header);
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length < 0 || length > size - start - FRAME_OVERHEAD) {
+            return false;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length + TRAILER_BYTES);
+        readFully(channel, payload);
+        if (payload.getInt(length) != length) {
+            return false;
+        }
+        payload.limit(length);
+        return crc(payload) == crc;
+    }
+
+    /**
+     * Find the end of the last complete, valid frame in a channel, starting
+     * from a known frame boundary (such as a persisted cursor position) and
+     * validating every frame after it. Everything past the returned position
+     * is a torn or corrupted write, and may be truncated.
+     *
+     * @param channel A channel
+     * @param from A position at which a frame starts
+     * @return The position after the last valid frame
+     * @throws IOException If something goes wrong
+     */
+    public static long validLength(SeekableByteChannel channel, long from) throws IOException {
+        long size = channel.size();
+        long pos = from;
+        while (pos < size) {
+            long next = skip(channel, pos);
+            if (next < 0 || !isValidFrame(channel, pos, size)) {
+                break;
+            }
+            pos = next;
+        }
+        return pos;
+    }
+
+    /**
+     * Visit the start offset of every frame from the passed position to the
+     * end of the channel, without reading payloads - useful for splitting a
+     * file into ranges of records which can be replayed in parallel.
+     *
+     * @param channel A channel
+     * @param from A position at which a frame starts
+     * @param offsets Receives frame start offsets
+     * @return The position after the last complete frame
+     * @throws IOException If something goes wrong
+     */
+    public static long recordOffsets(SeekableByteChannel channel, long from, IOLongConsumer offsets) throws IOException {
+        long pos = from;
+        for (;;) {
+            long next = skip(channel, pos);
+            if (next < 0) {
+                return pos;
+            }
+            offsets.accept(pos);
+            pos = next;
+        }
+    }
+}
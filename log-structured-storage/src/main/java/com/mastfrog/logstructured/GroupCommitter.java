@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.function.throwing.io.IOConsumer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implements group commit for asynchronous appends: items are queued, and
+ * whichever calling thread finds no batch in progress becomes the writer,
+ * draining everything queued so far (including items enqueued by other threads
+ * while it was writing) and writing each drained batch in a single call to the
+ * batch writer. No background thread is involved - under contention, batches
+ * simply get larger.
+ *
+ * @author Tim Boudreau
+ */
+final class GroupCommitter<T> {
+
+    private final ConcurrentLinkedQueue<Pending<T>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicInteger idleWaiters = new AtomicInteger();
+    private final Object idle = new Object();
+    private final IOConsumer<List<T>> batchWriter;
+
+    GroupCommitter(IOConsumer<List<T>> batchWriter) {
+        this.batchWriter = batchWriter;
+    }
+
+    CompletableFuture<T> submit(T item) {
+        Pending<T> p = new Pending<>(item);
+        pending.offer(p);
+        drain();
+        return p.future;
+    }
+
+    /**
+     * Write anything currently queued on the calling thread, or return
+     * immediately if another thread is already doing so.
+     */
+    void drain() {
+        // Loop so that an item enqueued after the writer's last poll but
+        // before it released the flag is not stranded
+        while (!pending.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                List<Pending<T>> batch = new ArrayList<>();
+                Pending<T> p;
+                while ((p = pending.poll()) != null) {
+                    batch.add(p);
+                }
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+            } finally {
+                writing.set(false);
+                if (idleWaiters.get() > 0) {
+                    synchronized (idle) {
+                        idle.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write anything currently queued, and wait for any batch another thread
+     * is in the middle of writing to complete, so that everything submitted
+     * before this call has been written when it returns. Must not be called
+     * while holding a lock the batch writer needs.
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void awaitIdle() throws InterruptedException {
+        idleWaiters.incrementAndGet();
+        try {
+            for (;;) {
+                drain();
+                synchronized (idle) {
+                    if (!writing.get()) {
+                        // Anything still queued was submitted after our
+                        // drain() and may have lost the flag to us - loop
+                        // and write it rather than strand it
+                        if (pending.isEmpty()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    idle.wait();
+                }
+            }
+        } finally {
+            idleWaiters.decrementAndGet();
+        }
+    }
+
+    private void write(List<Pending<T>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Pending<T> p : batch) {
+            items.add(p.item);
+        }
+        try {
+            batchWriter.accept(items);
+        } catch (IOException | RuntimeException | Error ex) {
+            for (Pending<T> p : batch) {
+                p.future.completeExceptionally(ex);
+            }
+            return;
+        }
+        for (Pending<T> p : batch) {
+            p.future.complete(p.item);
+        }
+    }
+
+    private static final class Pending<T> {
+
+        private final T item;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Pending(T item) {
+            this.item = item;
+        }
+    }
+}
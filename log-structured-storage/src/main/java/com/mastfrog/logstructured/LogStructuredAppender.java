@@ -24,6 +24,8 @@
 package com.mastfrog.logstructured;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Appends elements to a log-structured storage.
@@ -41,6 +43,59 @@ public interface LogStructuredAppender<T> extends AutoCloseable {
      */
     T append(T env) throws IOException;
 
+    /**
+     * Append a batch of items. Implementations which support it serialize the
+     * entire batch into a single buffer and write it with one call to the
+     * underlying channel, which is dramatically faster than appending items
+     * one at a time. The default implementation simply calls
+     * <code>append()</code> for each item.
+     *
+     * @param items The items
+     * @return The number of items appended
+     * @throws IOException If something goes wrong
+     */
+    default int appendAll(Collection<? extends T> items) throws IOException {
+        return appendAll(items, false);
+    }
+
+    /**
+     * Append a batch of items, optionally forcing the file's contents to disk
+     * once the entire batch is written.
+     *
+     * @param items The items
+     * @param force If true, force the underlying storage to sync to disk after
+     * the batch is written
+     * @return The number of items appended
+     * @throws IOException If something goes wrong
+     */
+    default int appendAll(Collection<? extends T> items, boolean force) throws IOException {
+        for (T item : items) {
+            append(item);
+        }
+        return items.size();
+    }
+
+    /**
+     * Append an item using group commit: items appended concurrently from
+     * multiple threads are collected into a batch which is written with a
+     * single write and a single force to disk; the returned future is
+     * completed once the batch containing the item has been written and
+     * synced. The default implementation appends synchronously.
+     *
+     * @param env An item
+     * @return A future which will be completed with the item once it is
+     * persisted, or exceptionally if writing the batch fails
+     */
+    default CompletableFuture<T> appendAsync(T env) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(append(env));
+        } catch (IOException | RuntimeException ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
     /**
      * Returns true if the underlying file or other storage is open.
      *
@@ -27,14 +27,18 @@ import com.mastfrog.file.channels.FileChannelPool;
 import com.mastfrog.file.channels.Lease;
 import com.mastfrog.util.preconditions.Checks;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *
@@ -52,11 +56,34 @@ class LogStructuredAppenderImpl<T> implements LogStructuredAppender<T> {
     private Runnable onWrite;
     private final Serde<T> serde;
     private final FileChannelPool pool;
+    private final AppendBuffer buffer = new AppendBuffer();
+    private final GroupCommitter<T> committer
+            = new GroupCommitter<>(batch -> appendAll(batch, true));
+    private final SparseIndex.Config<T> indexing;
+    private final long firstRecord;
+    private SparseIndex.Writer<T> index;
+    private long[] batchOffsets = new long[0];
 
     LogStructuredAppenderImpl(Path path, Serde<T> serde, FileChannelPool pool) {
+        this(path, serde, pool, null, 0);
+    }
+
+    /**
+     * Create an appender which maintains a sparse index alongside the file.
+     *
+     * @param path The file
+     * @param serde The serde
+     * @param pool The pool
+     * @param indexing The index configuration, or null for no index
+     * @param firstRecord The number to assign the first record, if the file
+     * has no index yet
+     */
+    LogStructuredAppenderImpl(Path path, Serde<T> serde, FileChannelPool pool, SparseIndex.Config<T> indexing, long firstRecord) {
         this.path = path;
         this.serde = serde;
         this.pool = pool;
+        this.indexing = indexing;
+        this.firstRecord = firstRecord;
     }
 
     @Override
@@ -115,6 +142,30 @@ class LogStructuredAppenderImpl<T> implements LogStructuredAppender<T> {
         return appendLease;
     }
 
+    private SparseIndex.Writer<T> index() throws IOException {
+        assert Thread.holdsLock(this);
+        if (index == null && indexing != null) {
+            long next = SparseIndex.nextRecordNumber(path, serde, pool);
+            if (next < 0) {
+                next = SparseIndex.rebuild(path, serde, indexing, firstRecord, pool);
+            }
+            index = indexing.writer(path, next, pool);
+        }
+        return index;
+    }
+
+    /**
+     * Get the number of the record which will be written next, if this
+     * appender maintains an index.
+     *
+     * @return A record number, or -1
+     * @throws IOException If something goes wrong
+     */
+    synchronized long nextRecord() throws IOException {
+        SparseIndex.Writer<T> idx = index();
+        return idx == null ? -1 : idx.nextRecord();
+    }
+
     @Override
     public synchronized long size() throws IOException {
         if (appendLease != null) {
@@ -126,17 +177,100 @@ class LogStructuredAppenderImpl<T> implements LogStructuredAppender<T> {
     @Override
     public synchronized T append(T env) throws IOException {
         Checks.notNull("env", env);
+        SparseIndex.Writer<T> idx = index();
         channel().use(writeChannel -> {
+            long offset = idx == null ? 0 : writeChannel.size();
             serde.serialize(env, writeChannel);
+            // Only every interval'th record gets an index entry, so only
+            // touch the sidecar when one was recorded
+            if (idx != null && idx.written(env, offset)) {
+                idx.flush();
+            }
             if (onWrite != null) {
                 onWrite.run();
             }
         });
+        TailNotifier.written(path);
         return env;
     }
 
     @Override
-    public synchronized void close() throws IOException {
+    public synchronized int appendAll(Collection<? extends T> items, boolean force) throws IOException {
+        Checks.notNull("items", items);
+        if (items.isEmpty()) {
+            return 0;
+        }
+        SparseIndex.Writer<T> idx = index();
+        if (idx != null && batchOffsets.length < items.size()) {
+            batchOffsets = new long[items.size()];
+        }
+        buffer.reset();
+        try {
+            int ix = 0;
+            for (T item : items) {
+                if (idx != null) {
+                    batchOffsets[ix++] = buffer.position();
+                }
+                serde.serialize(Checks.notNull("item", item), buffer);
+            }
+            ByteBuffer bytes = buffer.contents();
+            channel().use(writeChannel -> {
+                long start = idx == null ? 0 : writeChannel.size();
+                while (bytes.hasRemaining()) {
+                    writeChannel.write(bytes);
+                }
+                if (idx != null) {
+                    int i = 0;
+                    boolean indexed = false;
+                    for (T item : items) {
+                        indexed |= idx.written(item, start + batchOffsets[i++]);
+                    }
+                    if (indexed) {
+                        idx.flush();
+                    }
+                }
+                if (force) {
+                    writeChannel.force(false);
+                }
+                if (onWrite != null) {
+                    onWrite.run();
+                }
+            });
+        } finally {
+            buffer.reset();
+        }
+        TailNotifier.written(path);
+        return items.size();
+    }
+
+    @Override
+    public CompletableFuture<T> appendAsync(T env) {
+        Checks.notNull("env", env);
+        return committer.submit(env);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (Thread.holdsLock(this)) {
+            // Called from within a write (e.g. an onWrite callback) - a
+            // batch in progress on another thread cannot finish until we
+            // return, so waiting for it would deadlock
+            committer.drain();
+        } else {
+            // Wait without holding our monitor, which a thread in the middle
+            // of writing a batch needs in order to finish it
+            try {
+                committer.awaitIdle();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for "
+                        + "pending appends to " + path);
+            }
+        }
+        closeLease();
+    }
+
+    private synchronized void closeLease() throws IOException {
         if (appendLease != null && Files.exists(path)) {
             appendLease.use(ch -> {
                 ch.force(true);
@@ -25,20 +25,36 @@ package com.mastfrog.logstructured;
 
 import com.mastfrog.file.channels.FileChannelPool;
 import com.mastfrog.function.throwing.io.IOFunction;
+import com.mastfrog.util.preconditions.Checks;
 import com.mastfrog.util.preconditions.Exceptions;
 import com.mastfrog.util.strings.Strings;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
@@ -58,18 +74,134 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
     private final String suffix;
     private final long maxFileSize;
     private final FileChannelPool pool;
+    // Files currently being appended to by appenders created by this instance
+    // or any indexed or compressed view of it
+    private final Set<Path> activeFiles;
+    // Files currently opened by readers, with reference counts - not
+    // eligible for compression
+    private final Map<Path, Integer> openFiles;
+    private final SparseIndex.Config<T> indexing;
+    private final ConsumerGroups groups;
+    private final Compression compression;
 
     LogStructuredFileDirImpl(String filePrefix, Path dir, Serde<T> serde, long maxFileSize, FileChannelPool pool) {
         this(filePrefix, dir, serde, DEFAULT_SUFFIX, maxFileSize, pool);
     }
 
     LogStructuredFileDirImpl(String filePrefix, Path dir, Serde<T> serde, String suffix, long maxFileSize, FileChannelPool pool) {
+        this(filePrefix, dir, serde, suffix, maxFileSize, pool, null, ConcurrentHashMap.newKeySet(),
+                new HashMap<>(), new ConsumerGroups(dir.resolve(filePrefix + "consumers"), pool), null);
+    }
+
+    private LogStructuredFileDirImpl(String filePrefix, Path dir, Serde<T> serde, String suffix, long maxFileSize,
+            FileChannelPool pool, SparseIndex.Config<T> indexing, Set<Path> activeFiles,
+            Map<Path, Integer> openFiles, ConsumerGroups groups, Compression compression) {
         this.filePrefix = filePrefix;
         this.dir = dir;
         this.serde = serde;
         this.suffix = suffix;
         this.maxFileSize = maxFileSize;
         this.pool = pool;
+        this.indexing = indexing;
+        this.activeFiles = activeFiles;
+        this.openFiles = openFiles;
+        this.groups = groups;
+        this.compression = compression;
+    }
+
+    @Override
+    public LogStructuredStorage<T> indexed(int interval, ToLongFunction<? super T> keys) {
+        Checks.greaterThanZero("interval", interval);
+        return new LogStructuredFileDirImpl<>(filePrefix, dir, serde, suffix, maxFileSize, pool,
+                new SparseIndex.Config<>(interval, keys), activeFiles, openFiles, groups, compression);
+    }
+
+    @Override
+    public LogStructuredStorage<T> compressed(BlockCodec codec, Executor executor) {
+        Checks.notNull("codec", codec);
+        Checks.notNull("executor", executor);
+        return new LogStructuredFileDirImpl<>(filePrefix, dir, serde, suffix, maxFileSize, pool,
+                indexing, activeFiles, openFiles, groups, new Compression(codec, executor));
+    }
+
+    /**
+     * Compress every sealed file which is not open for reading; sealed means
+     * not being appended to by this storage, and either not the newest file or
+     * the one an appender has just rolled over from.
+     *
+     * @param justSealed Files appenders have just closed
+     * @return The number of files compressed
+     * @throws IOException If something goes wrong
+     */
+    int compressSealedFiles(Set<Path> justSealed) throws IOException {
+        if (compression == null) {
+            return 0;
+        }
+        int result = 0;
+        List<Path> all = allFiles();
+        for (int i = 0; i < all.size(); i++) {
+            Path p = all.get(i);
+            boolean sealed = i < all.size() - 1 || justSealed.contains(p);
+            if (sealed && !activeFiles.contains(p) && Files.exists(p)
+                    && !CompressedSegment.isCompressed(p)) {
+                if (CompressedSegment.compress(p, compression.codec,
+                        CompressedSegment.DEFAULT_BLOCK_SIZE, openFiles, pool)) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private LogStructuredFileImpl<T> file(Path path) {
+        return new LogStructuredFileImpl<>(path, serde, pool, indexing, groups);
+    }
+
+    private void scheduleCompression(Path justSealed) {
+        if (compression == null) {
+            return;
+        }
+        // If a pass is already running, it picks this file up before it
+        // finishes
+        compression.sealed.add(justSealed);
+        if (compression.running.compareAndSet(false, true)) {
+            try {
+                compression.executor.execute(this::compressUntilNoneSealed);
+            } catch (RuntimeException | Error e) {
+                compression.running.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void compressUntilNoneSealed() {
+        do {
+            try {
+                compressSealedFiles(compression.takeSealed());
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(LogStructuredFileDirImpl.class.getName()).log(Level.WARNING,
+                        "Compressing sealed files in " + dir, ex);
+            } finally {
+                compression.running.set(false);
+            }
+            // A file sealed after takeSealed() but before running was cleared
+            // would otherwise be stranded until the next rollover
+        } while (!compression.sealed.isEmpty() && compression.running.compareAndSet(false, true));
+    }
+
+    /**
+     * Maps the compressed form of a storage file to the original name, which
+     * cursor and index files are named for.
+     *
+     * @param pth A path
+     * @return A path
+     */
+    private Path logicalPath(Path pth) {
+        String nm = pth.getFileName().toString();
+        if (nm.endsWith(CompressedSegment.COMPRESSED_EXT)) {
+            return pth.resolveSibling(nm.substring(0, nm.length() - CompressedSegment.COMPRESSED_EXT.length()));
+        }
+        return pth;
     }
 
     boolean isLogFile(Path pth) {
@@ -95,7 +227,11 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
     }
 
     private boolean isUnread(Path path) throws IOException {
-        return !new LogStructuredFileImpl<>(path, serde, pool).isFullyRead();
+        return !file(path).isFullyRead();
+    }
+
+    private boolean isUnread(Path path, String consumer) throws IOException {
+        return consumer == null ? isUnread(path) : !file(path).isFullyRead(consumer);
     }
 
     private <F> F listDir(IOFunction<Stream<Path>, F> c) throws IOException {
@@ -110,7 +246,7 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
         }
         return listDir(str -> {
             List<Path> l = new ArrayList<>();
-            str.filter(this::isLogFile)
+            str.map(this::logicalPath).filter(this::isLogFile).distinct()
                     .filter(path -> {
                         long val = numericPortion(path);
                         return val > timestamp;
@@ -134,22 +270,34 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
         }
         return listDir(str -> {
             List<Path> paths = new ArrayList<>();
-            str.filter(this::isLogFile).forEach(paths::add);
+            str.map(this::logicalPath).filter(this::isLogFile).distinct().forEach(paths::add);
             paths.sort(this::compare);
             return paths;
         });
     }
 
     private List<Path> allNotFullyReadFiles() throws IOException {
+        return allNotFullyReadFiles(null);
+    }
+
+    /**
+     * Get the files not yet fully read by one consumer.
+     *
+     * @param consumer A consumer name, or null for files not yet fully read by
+     * every consumer
+     * @return A sorted list of files
+     * @throws IOException If something goes wrong
+     */
+    private List<Path> allNotFullyReadFiles(String consumer) throws IOException {
         if (!Files.exists(dir) || !Files.isDirectory(dir)) {
             return Collections.emptyList();
         }
         return listDir(str -> {
             List<Path> paths = new ArrayList<>();
-            str.filter(this::isLogFile)
+            str.map(this::logicalPath).filter(this::isLogFile).distinct()
                     .filter(path -> {
                         try {
-                            return isUnread(path);
+                            return isUnread(path, consumer);
                         } catch (IOException ex) {
                             return Exceptions.chuck(ex);
                         }
@@ -166,8 +314,65 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
     }
 
     @Override
-    public LogStructuredReader<T> reader() {
-        return new LSR();
+    public LogStructuredReader<T> reader() throws IOException {
+        groups.register(ConsumerGroups.DEFAULT, false);
+        return new LSR(false, ConsumerGroups.DEFAULT);
+    }
+
+    @Override
+    public LogStructuredReader<T> mappedReader() throws IOException {
+        groups.register(ConsumerGroups.DEFAULT, false);
+        return new LSR(true, ConsumerGroups.DEFAULT);
+    }
+
+    @Override
+    public LogStructuredReader<T> reader(String consumer) throws IOException {
+        return new LSR(false, register(consumer));
+    }
+
+    @Override
+    public LogStructuredReader<T> mappedReader(String consumer) throws IOException {
+        return new LSR(true, register(consumer));
+    }
+
+    private String register(String consumer) throws IOException {
+        ConsumerGroups.checkName(consumer);
+        ensureDir();
+        boolean defaultInUse = false;
+        for (Path p : allFiles()) {
+            if (Files.exists(file(p).cursorFile())) {
+                defaultInUse = true;
+                break;
+            }
+        }
+        groups.register(consumer, defaultInUse);
+        return consumer;
+    }
+
+    private void ensureDir() throws IOException {
+        if (!Files.exists(dir)) {
+            FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ,
+                    PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE));
+            Files.createDirectories(dir, attr);
+        }
+    }
+
+    /**
+     * Determine if a file can be memory mapped for reading - that is, it is
+     * not the newest unread file (appenders always start a new file rather
+     * than reopening an old one, so only the newest can still be live for
+     * appenders in other processes), is not in use by an appender created by
+     * this storage, and is small enough to map as one buffer.
+     *
+     * @param unread The sorted list of unread files
+     * @param index The index of the file in question
+     * @return true if it can be mapped
+     * @throws IOException If something goes wrong
+     */
+    private boolean isSealed(List<Path> unread, int index) throws IOException {
+        Path p = unread.get(index);
+        return index < unread.size() - 1 && !activeFiles.contains(p)
+                && Files.size(p) <= Integer.MAX_VALUE;
     }
 
     @Override
@@ -175,36 +380,66 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
         return new LSW();
     }
 
+    @Override
+    public boolean recover() throws IOException {
+        boolean result = false;
+        for (Path p : allNotFullyReadFiles()) {
+            result |= file(p).recover();
+        }
+        return result;
+    }
+
     @Override
     public boolean delete() throws IOException {
         boolean result = false;
         for (Path p : allFiles()) {
-            result |= new LogStructuredFileImpl<>(p, serde, pool).delete();
+            result |= file(p).delete();
         }
+        groups.delete();
         return result;
     }
 
     final class LSW implements LogStructuredAppender<T> {
 
-        LogStructuredAppender<T> delegate;
+        LogStructuredAppenderImpl<T> delegate;
+        private Path delegatePath;
+        // The number of the next record, if indexed and a file has been written
+        private long nextRecord = -1;
         private Runnable onWrite = null;
+        private final GroupCommitter<T> committer
+                = new GroupCommitter<>(batch -> appendAll(batch, true));
 
         @Override
         public String toString() {
             return "LSW(" + delegate + " for " + dir + ")";
         }
 
+        private long firstRecordForNewFile() throws IOException {
+            if (indexing == null) {
+                return 0;
+            }
+            if (nextRecord >= 0) {
+                return nextRecord;
+            }
+            List<Path> all = allFiles();
+            for (int i = all.size() - 1; i >= 0; i--) {
+                long result = SparseIndex.nextRecordNumber(all.get(i), serde, pool);
+                if (result >= 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+
         private synchronized LogStructuredAppender<T> delegate() throws IOException {
             if (delegate == null) {
                 String now = Strings.zeroPrefix(System.currentTimeMillis(), 19); // digits required for Long.MAX_VALUE
                 String name = filePrefix + now + suffix;
                 Path path = dir.resolve(name);
-                if (!Files.exists(dir)) {
-                    FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ,
-                            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE));
-                    Files.createDirectories(dir, attr);
-                }
-                delegate = new LogStructuredAppenderImpl<>(path, serde, pool);
+                ensureDir();
+                delegate = file(path).appender(firstRecordForNewFile());
+                delegatePath = path;
+                activeFiles.add(path);
                 if (onWrite != null) {
                     delegate.onWrite(onWrite);
                 }
@@ -214,8 +449,23 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
 
         private synchronized void onAfterWrite() throws IOException {
             if (delegate != null && delegate.size() >= maxFileSize) {
+                Path sealed = delegatePath;
+                closeDelegate();
+                scheduleCompression(sealed);
+            }
+        }
+
+        private void closeDelegate() throws IOException {
+            assert Thread.holdsLock(this);
+            try {
+                if (indexing != null) {
+                    nextRecord = delegate.nextRecord();
+                }
                 delegate.close();
+            } finally {
+                activeFiles.remove(delegatePath);
                 delegate = null;
+                delegatePath = null;
             }
         }
 
@@ -226,6 +476,18 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
             return result;
         }
 
+        @Override
+        public synchronized int appendAll(Collection<? extends T> items, boolean force) throws IOException {
+            int result = delegate().appendAll(items, force);
+            onAfterWrite();
+            return result;
+        }
+
+        @Override
+        public CompletableFuture<T> appendAsync(T env) {
+            return committer.submit(env);
+        }
+
         @Override
         public boolean isOpen() {
             return true;
@@ -237,10 +499,23 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
         }
 
         @Override
-        public synchronized void close() throws IOException {
-            if (delegate != null) {
-                delegate.close();
-                delegate = null;
+        public void close() throws IOException {
+            if (Thread.holdsLock(this)) {
+                // Called from within a write - see LogStructuredAppenderImpl
+                committer.drain();
+            } else {
+                try {
+                    committer.awaitIdle();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for "
+                            + "pending appends to " + dir);
+                }
+            }
+            synchronized (this) {
+                if (delegate != null) {
+                    closeDelegate();
+                }
             }
         }
 
@@ -287,38 +562,83 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
 
     }
 
-    final class LSR implements LogStructuredReader<T> {
+    final class LSR implements LogStructuredReader<T>, TailNotifier.Source {
 
         LogStructuredReader<T> delegate;
+        private Path delegatePath;
         private volatile boolean anyRead;
+        private final boolean mapSealedFiles;
+        private final String consumer;
+        // Incremented by seeks, which close the delegate an outstanding
+        // read came from, so it cannot see that it is stale by itself
+        private final AtomicInteger seeks = new AtomicInteger();
+        // Held from the first wait until close, so the folder stays watched
+        // between waits
+        private TailNotifier notifier;
+
+        LSR(boolean mapSealedFiles, String consumer) {
+            this.mapSealedFiles = mapSealedFiles;
+            this.consumer = consumer;
+        }
 
         @Override
         public String toString() {
-            return "LSR(" + delegate + " for " + dir + ")";
+            return "LSR(" + (consumer.isEmpty() ? "" : consumer + ": ")
+                    + delegate + " for " + dir + ")";
         }
 
         private synchronized LogStructuredReader<T> delegate() throws IOException {
             if (delegate != null && !(delegate instanceof EmptyReader<?>)) {
                 if (!delegate.hasUnread()) {
-                    delegate.close();
-                    delegate = null;
+                    closeDelegate();
                 }
             }
             if (delegate == null) {
-                List<Path> all = allNotFullyReadFiles();
+                List<Path> all = allNotFullyReadFiles(consumer);
                 if (all.isEmpty()) {
                     return new EmptyReader<>();
                 }
-                Path p = all.get(0);
-                delegate = new LogStructuredFileImpl<>(p, serde, pool).reader();
+                delegate = open(all, 0);
+                delegatePath = all.get(0);
             }
             return delegate;
         }
 
+        /**
+         * Open a reader over one file, choosing the implementation by whether
+         * it has been compressed or can be mapped, and registering it as open
+         * so it is not compressed out from under the reader; must be paired
+         * with a call to release().
+         */
+        private LogStructuredReader<T> open(List<Path> files, int index) throws IOException {
+            Path p = files.get(index);
+            LogStructuredFileImpl<T> file = file(p);
+            synchronized (openFiles) {
+                LogStructuredReader<T> result;
+                if (CompressedSegment.isCompressed(p)) {
+                    result = file.compressedReader(consumer);
+                } else if (mapSealedFiles && isSealed(files, index)) {
+                    result = file.sealedReader(consumer);
+                } else {
+                    result = file.readerFor(consumer);
+                }
+                openFiles.merge(p, 1, Integer::sum);
+                return result;
+            }
+        }
+
+        private void release(Path p) {
+            synchronized (openFiles) {
+                openFiles.computeIfPresent(p, (path, count) -> count == 1 ? null : count - 1);
+            }
+        }
+
         @Override
         public UnadvancedRead<T> read() throws IOException {
             anyRead = true;
-            return delegate().read();
+            int seek = seeks.get();
+            UnadvancedRead<T> result = delegate().read();
+            return result == null ? null : new SeekCheckedRead(result, seek);
         }
 
         @Override
@@ -335,20 +655,26 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
 
         @Override
         public synchronized void close() throws IOException {
+            if (notifier != null) {
+                notifier.release();
+                notifier = null;
+            }
             if (delegate != null) {
-                if (anyRead) {
-                    delegate.deleteIfAllReadAndAdvanced();
+                try {
+                    if (anyRead) {
+                        delegate.deleteIfAllReadAndAdvanced();
 //                    delegate.discardCommitted();
+                    }
+                } finally {
+                    closeDelegate();
                 }
-                delegate.close();
-                delegate = null;
             }
         }
 
         @Override
         public void deleteIfAllReadAndAdvanced() throws IOException {
             for (Path p : allFiles()) {
-                LogStructuredFileImpl<T> f = new LogStructuredFileImpl<>(p, serde, pool);
+                LogStructuredFileImpl<T> f = file(p);
                 if (f.isFullyRead()) {
                     f.delete();
                 }
@@ -367,10 +693,169 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
             return delegate().hasUnread();
         }
 
+        @Override
+        public Path tailedPath() {
+            return dir;
+        }
+
+        @Override
+        public boolean awaitUnread(Duration timeout) throws IOException, InterruptedException {
+            synchronized (this) {
+                if (notifier == null) {
+                    notifier = TailNotifier.acquire(dir);
+                }
+            }
+            return TailNotifier.awaitUntil(dir, this::hasUnread, timeout);
+        }
+
         @Override
         public void rewind() throws IOException {
             delegate().rewind();
         }
+
+        @Override
+        public synchronized boolean seek(long recordNumber) throws IOException {
+            if (indexing == null) {
+                return false;
+            }
+            List<Path> all = allFiles();
+            // The record can only be in the last file numbered at or below it
+            int target = -1;
+            for (int i = 0; i < all.size(); i++) {
+                SparseIndex index = SparseIndex.load(all.get(i), pool);
+                if (index != null && index.base() <= recordNumber) {
+                    target = i;
+                }
+            }
+            if (target < 0) {
+                return false;
+            }
+            seeks.incrementAndGet();
+            closeDelegate();
+            LogStructuredReader<T> reader = open(all, target);
+            try {
+                if (!reader.seek(recordNumber)) {
+                    return false;
+                }
+            } finally {
+                reader.close();
+                release(all.get(target));
+            }
+            positionAround(all, target);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean seekToKey(long key) throws IOException {
+            if (indexing == null || !indexing.hasKeys()) {
+                return false;
+            }
+            List<Path> all = allFiles();
+            // Keys never decrease, so no file before the last one whose
+            // first indexed key is less than the target can contain it
+            int start = 0;
+            for (int i = 0; i < all.size(); i++) {
+                SparseIndex index = SparseIndex.load(all.get(i), pool);
+                if (index != null && index.isKeyed() && index.firstKey() < key) {
+                    start = i;
+                }
+            }
+            seeks.incrementAndGet();
+            closeDelegate();
+            for (int i = start; i < all.size(); i++) {
+                LogStructuredReader<T> reader = open(all, i);
+                try {
+                    if (reader.seekToKey(key)) {
+                        positionAround(all, i);
+                        return true;
+                    }
+                } finally {
+                    reader.close();
+                    release(all.get(i));
+                }
+            }
+            return false;
+        }
+
+        private void closeDelegate() throws IOException {
+            assert Thread.holdsLock(this);
+            if (delegate != null) {
+                try {
+                    delegate.close();
+                } finally {
+                    if (delegatePath != null) {
+                        release(delegatePath);
+                    }
+                    delegate = null;
+                    delegatePath = null;
+                }
+            }
+        }
+
+        /**
+         * After seeking within one file, mark all earlier files as read and
+         * rewind all later ones, so reading proceeds from the target.
+         */
+        private void positionAround(List<Path> all, int target) throws IOException {
+            for (int i = 0; i < all.size(); i++) {
+                if (i == target) {
+                    continue;
+                }
+                Path p = all.get(i);
+                CursorFile cursor = new CursorFile(file(p).cursorFile(consumer), pool);
+                cursor.createIfNotPresent();
+                cursor.newWriter().accept(i < target ? Math.max(0, CompressedSegment.size(p)) : 0);
+            }
+        }
+
+        final class SeekCheckedRead implements UnadvancedRead<T> {
+
+            private final UnadvancedRead<T> delegate;
+            private final int seek;
+
+            SeekCheckedRead(UnadvancedRead<T> delegate, int seek) {
+                this.delegate = delegate;
+                this.seek = seek;
+            }
+
+            @Override
+            public String toString() {
+                return delegate.toString();
+            }
+
+            @Override
+            public T get() {
+                return delegate.get();
+            }
+
+            private void checkCurrent() {
+                if (seek != seeks.get()) {
+                    throw new IllegalStateException("The reader has been "
+                            + "repositioned since this UncommittedRead was created");
+                }
+            }
+
+            @Override
+            public void advance() throws IOException {
+                synchronized (LSR.this) {
+                    checkCurrent();
+                    delegate.advance();
+                }
+            }
+
+            @Override
+            public void rollback() throws IOException {
+                synchronized (LSR.this) {
+                    checkCurrent();
+                    delegate.rollback();
+                }
+            }
+
+            @Override
+            public boolean isCurrent() {
+                return seek == seeks.get() && delegate.isCurrent();
+            }
+        }
     }
 
     static final class EmptyReader<T> implements LogStructuredReader<T> {
@@ -415,4 +900,27 @@ final class LogStructuredFileDirImpl<T> implements LogStructuredStorage<T> {
             // do nothing
         }
     }
+
+    static final class Compression {
+
+        private final BlockCodec codec;
+        private final Executor executor;
+        private final AtomicBoolean running = new AtomicBoolean();
+        // Files sealed by rollover and not yet seen by a compression pass
+        private final Set<Path> sealed = ConcurrentHashMap.newKeySet();
+
+        Compression(BlockCodec codec, Executor executor) {
+            this.codec = codec;
+            this.executor = executor;
+        }
+
+        Set<Path> takeSealed() {
+            Set<Path> result = new HashSet<>();
+            for (Iterator<Path> it = sealed.iterator(); it.hasNext();) {
+                result.add(it.next());
+                it.remove();
+            }
+            return result;
+        }
+    }
 }
@@ -24,14 +24,18 @@
 package com.mastfrog.logstructured;
 
 import com.mastfrog.file.channels.FileChannelPool;
+import com.mastfrog.file.channels.Lease;
 import com.mastfrog.util.collections.CollectionUtils;
+import com.mastfrog.util.preconditions.Checks;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.ToLongFunction;
 
 /**
  *
@@ -40,20 +44,60 @@ import java.util.Set;
 class LogStructuredFileImpl<T> implements LogStructuredStorage<T> {
 
     private final Path path;
-    private static final String CURSOR_EXT = ".cursor";
+    private static final String CONSUMERS_EXT = ".consumers";
     private final Serde<T> serde;
     private static final Map<Path, Set<LogStructuredAppenderImpl<?>>> OPEN_WRITERS
             = Collections.synchronizedMap(CollectionUtils.supplierMap(CollectionUtils::weakSet));
     private final FileChannelPool pool;
+    private final SparseIndex.Config<T> indexing;
+    private final ConsumerGroups groups;
+    // True if this is a standalone storage, not one file of a folder storage
+    private final boolean ownsGroups;
 
     LogStructuredFileImpl(Path path, Serde<T> serde, FileChannelPool pool) {
+        this(path, serde, pool, null, null);
+    }
+
+    /**
+     * Create a storage over a single file.
+     *
+     * @param path The file
+     * @param serde The serde
+     * @param pool The pool
+     * @param indexing The index configuration, or null
+     * @param groups The consumer registry of a folder storage this file
+     * belongs to, or null to use one adjacent to this file
+     */
+    LogStructuredFileImpl(Path path, Serde<T> serde, FileChannelPool pool, SparseIndex.Config<T> indexing, ConsumerGroups groups) {
+        this(path, serde, pool, indexing, groups == null
+                ? new ConsumerGroups(path.resolveSibling(path.getFileName() + CONSUMERS_EXT), pool)
+                : groups, groups == null);
+    }
+
+    private LogStructuredFileImpl(Path path, Serde<T> serde, FileChannelPool pool, SparseIndex.Config<T> indexing,
+            ConsumerGroups groups, boolean ownsGroups) {
         this.path = path;
         this.serde = serde;
         this.pool = pool;
+        this.indexing = indexing;
+        this.groups = groups;
+        this.ownsGroups = ownsGroups;
+    }
+
+    @Override
+    public LogStructuredFileImpl<T> indexed(int interval, ToLongFunction<? super T> keys) {
+        Checks.greaterThanZero("interval", interval);
+        // Share the registry instance, which registration locks on
+        return new LogStructuredFileImpl<>(path, serde, pool,
+                new SparseIndex.Config<>(interval, keys), groups, ownsGroups);
     }
 
     Path cursorFile() {
-        return path.getParent().resolve(Paths.get(path.getFileName().toString() + CURSOR_EXT));
+        return cursorFile(ConsumerGroups.DEFAULT);
+    }
+
+    Path cursorFile(String consumer) {
+        return ConsumerGroups.cursorFile(path, consumer);
     }
 
     @Override
@@ -67,28 +111,110 @@ class LogStructuredFileImpl<T> implements LogStructuredStorage<T> {
             }
         }
         if (result) {
-            result &= pool.deleteFile(path);
-            result |= pool.deleteFile(cursorFile());
+            result &= pool.deleteFile(path) | CompressedSegment.delete(path, pool);
+            result |= groups.deleteCursors(path);
+            SparseIndex.delete(path, pool);
+            if (ownsGroups) {
+                groups.delete();
+            }
         }
         return result;
     }
 
+    @Override
+    public boolean recover() throws IOException {
+        if (!(serde instanceof FramedSerde<?>) || !Files.exists(path)) {
+            return false;
+        }
+        long cursor = groups.minimumCursor(path);
+        Lease lease = pool.lease(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = lease.useAsLong((FileChannel ch) -> {
+            if (FramedSerde.isTailIntact(ch)) {
+                return -1;
+            }
+            long result = FramedSerde.validLength(ch, Math.min(cursor, ch.size()));
+            ch.truncate(result);
+            ch.position(result);
+            return result;
+        });
+        if (valid < 0) {
+            return false;
+        }
+        SparseIndex.truncated(path, valid, pool);
+        return true;
+    }
+
     @Override
     public boolean isFullyRead() throws IOException {
-        if (!Files.exists(path)) {
+        return groups.allRead(path);
+    }
+
+    /**
+     * Determine if one consumer has read this file to its end.
+     *
+     * @param consumer The consumer name, or the empty string
+     * @return true if it has been read or does not exist
+     * @throws IOException If something goes wrong
+     */
+    boolean isFullyRead(String consumer) throws IOException {
+        long size = CompressedSegment.size(path);
+        if (size < 0) {
             return true;
         }
-        CursorFile c = new CursorFile(cursorFile(), pool);
-        return c.read() >= Files.size(path);
+        CursorFile c = new CursorFile(cursorFile(consumer), pool);
+        return c.read() >= size;
     }
 
     @Override
     public LogStructuredAppenderImpl<T> appender() {
-        return new LogStructuredAppenderImpl<>(path, serde, pool);
+        return appender(0);
+    }
+
+    LogStructuredAppenderImpl<T> appender(long firstRecord) {
+        return new LogStructuredAppenderImpl<>(path, serde, pool, indexing, firstRecord);
+    }
+
+    @Override
+    public LogStructuredReaderImpl<T> reader() throws IOException {
+        groups.register(ConsumerGroups.DEFAULT, false);
+        return readerFor(ConsumerGroups.DEFAULT);
     }
 
     @Override
-    public LogStructuredReaderImpl<T> reader() {
-        return new LogStructuredReaderImpl<>(path, cursorFile(), serde, pool);
+    public LogStructuredReaderImpl<T> reader(String consumer) throws IOException {
+        groups.register(ConsumerGroups.checkName(consumer), Files.exists(cursorFile()));
+        return readerFor(consumer);
+    }
+
+    /**
+     * Create a reader for a consumer without registering it.
+     *
+     * @param consumer The consumer name, or the empty string
+     * @return A reader
+     */
+    LogStructuredReaderImpl<T> readerFor(String consumer) {
+        return new LogStructuredReaderImpl<>(path, cursorFile(consumer), serde, pool, indexing, groups);
+    }
+
+    /**
+     * Create a reader which maps the file; only usable if the caller knows
+     * the file will never be appended to again.
+     *
+     * @param consumer The consumer name, or the empty string
+     * @return A reader
+     */
+    MappedSegmentReader<T> sealedReader(String consumer) {
+        return new MappedSegmentReader<>(path, cursorFile(consumer), serde, pool, indexing, groups);
+    }
+
+    /**
+     * Create a reader over the compressed form of this file; only usable if
+     * it has been compressed.
+     *
+     * @param consumer The consumer name, or the empty string
+     * @return A reader
+     */
+    CompressedSegmentReader<T> compressedReader(String consumer) {
+        return new CompressedSegmentReader<>(path, cursorFile(consumer), serde, pool, indexing, groups);
     }
 }
@@ -24,7 +24,12 @@
 package com.mastfrog.logstructured;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Reads a log structured data source and updates a persistent cursor when a
@@ -101,9 +106,208 @@ public interface LogStructuredReader<T> extends AutoCloseable {
 
     /**
      * Move the persistent cursor position back to the beginning of the storage
-     * and commit that change to the persistent cursor.
+     * and commit that change to the persistent cursor. Any UnadvancedRead
+     * obtained before the call is no longer current.
      *
      * @throws IOException If something goes wrong
      */
     void rewind() throws IOException;
+
+    /**
+     * Move the persistent cursor to the record with the passed number (see
+     * <code>LogStructuredStorage.indexed()</code>) and commit that change, so
+     * the next read returns that record. Records before it are treated as
+     * read. Finding the record costs a binary search of the sparse index and
+     * reading forward at most the index interval's worth of records. If the
+     * cursor is moved, any UnadvancedRead obtained before the call is no
+     * longer current.
+     *
+     * @param recordNumber The record number
+     * @return true if the record exists and the cursor was moved; false if it
+     * does not exist (for example, its file has been deleted, or it has not
+     * been written yet) or the storage is not indexed, in which case the
+     * cursor is unchanged
+     * @throws IOException If something goes wrong
+     */
+    default boolean seek(long recordNumber) throws IOException {
+        return false;
+    }
+
+    /**
+     * Move the persistent cursor to the first record whose key, as computed
+     * by the function passed to <code>LogStructuredStorage.indexed()</code>,
+     * is greater than or equal to the passed key, and commit that change.
+     * Records before it are treated as read. If the cursor is moved, any
+     * UnadvancedRead obtained before the call is no longer current.
+     *
+     * @param key The key
+     * @return true if such a record exists and the cursor was moved; false if
+     * there is none or the storage is not indexed by key, in which case the
+     * cursor is unchanged
+     * @throws IOException If something goes wrong
+     */
+    default boolean seekToKey(long key) throws IOException {
+        return false;
+    }
+
+    /**
+     * Wait until there are unread records, or the timeout elapses. The
+     * built-in implementations park until an appender in this process writes
+     * to the storage, or a file-change event for it arrives when another
+     * process does, rechecking at least once a second in case a file event
+     * is missed; the default implementation here simply rechecks
+     * periodically.
+     *
+     * @param timeout The maximum time to wait
+     * @return true if there are unread records
+     * @throws IOException If something goes wrong
+     * @throws InterruptedException If interrupted while waiting
+     */
+    default boolean awaitUnread(Duration timeout) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!hasUnread()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.max(1, Math.min(50, TimeUnit.NANOSECONDS.toMillis(remaining))));
+        }
+        return true;
+    }
+
+    /**
+     * Read the next record and advance the cursor, waiting up to the passed
+     * timeout for one to be written if there is none.
+     *
+     * @param timeout The maximum time to wait
+     * @return A record, or null if none was written before the timeout
+     * @throws IOException If something goes wrong
+     * @throws InterruptedException If interrupted while waiting
+     */
+    default T poll(Duration timeout) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (;;) {
+            long remaining = deadline - System.nanoTime();
+            if (!awaitUnread(Duration.ofNanos(Math.max(0, remaining)))) {
+                return null;
+            }
+            T result = readAndAdvance();
+            if (result != null || remaining <= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Read the next record and advance the cursor, waiting as long as
+     * necessary for one to be written if there is none.
+     *
+     * @return A record
+     * @throws IOException If something goes wrong
+     * @throws InterruptedException If interrupted while waiting
+     */
+    default T take() throws IOException, InterruptedException {
+        T result;
+        do {
+            result = poll(Duration.ofDays(1));
+        } while (result == null);
+        return result;
+    }
+
+    /**
+     * Deliver each record, as it is written, to the passed consumer on a
+     * daemon thread, advancing the cursor past each record the consumer
+     * accepts without throwing. If the consumer throws, the failure is
+     * logged and the subscription stops, leaving the record unread.
+     *
+     * @param consumer A consumer
+     * @return A Runnable which cancels the subscription
+     * @see #subscribe(Consumer, SubscriptionErrorHandler)
+     */
+    default Runnable subscribe(Consumer<? super T> consumer) {
+        return subscribe(consumer, SubscriptionErrorHandler.logAndStop());
+    }
+
+    /**
+     * Deliver each record, as it is written, to the passed consumer on a
+     * daemon thread, advancing the cursor past each record the consumer
+     * accepts without throwing; if it throws, the error handler decides
+     * whether to retry the record, skip it or stop. Delivery stops when the
+     * returned Runnable is run, or an IOException is encountered, in which
+     * case it is logged. While there is nothing to read, the built-in
+     * implementations park the delivery thread until the storage is written
+     * to or the subscription is cancelled.
+     * <p>
+     * Cancelling does not interrupt the delivery thread, since interrupting a
+     * thread doing file I/O closes the channel it is using; instead it wakes
+     * it and waits for it to exit, so no record is delivered after the
+     * returned Runnable has been run (unless it is run by the consumer
+     * itself).
+     * </p>
+     *
+     * @param consumer A consumer
+     * @param onError Decides what to do when the consumer throws
+     * @return A Runnable which cancels the subscription
+     */
+    default Runnable subscribe(Consumer<? super T> consumer, SubscriptionErrorHandler<? super T> onError) {
+        AtomicBoolean active = new AtomicBoolean(true);
+        Logger log = Logger.getLogger(LogStructuredReader.class.getName());
+        // Park on the same notifier the built-in readers wait on, so
+        // cancelling can wake the thread rather than it having to poll
+        TailNotifier notifier = this instanceof TailNotifier.Source
+                ? TailNotifier.acquire(((TailNotifier.Source) this).tailedPath())
+                : null;
+        Thread thread = new Thread(() -> {
+            try {
+                while (active.get()) {
+                    boolean ready = notifier == null
+                            ? awaitUnread(Duration.ofSeconds(1))
+                            : notifier.awaitUntil(() -> !active.get() || hasUnread(), Duration.ofDays(1));
+                    if (!ready || !active.get()) {
+                        continue;
+                    }
+                    UnadvancedRead<T> read = read();
+                    if (read == null) {
+                        continue;
+                    }
+                    T record = read.get();
+                    try {
+                        consumer.accept(record);
+                    } catch (RuntimeException ex) {
+                        SubscriptionErrorHandler.Recovery recovery = onError.onError(record, ex);
+                        if (recovery == SubscriptionErrorHandler.Recovery.RETRY) {
+                            continue;
+                        } else if (recovery != SubscriptionErrorHandler.Recovery.SKIP) {
+                            return;
+                        }
+                    }
+                    read.advanceIfCurrent();
+                }
+            } catch (InterruptedException ex) {
+                log.log(Level.FINE, "Interrupted tailing " + this, ex);
+            } catch (IOException | RuntimeException ex) {
+                log.log(Level.SEVERE, "Subscription to " + this + " failed", ex);
+            } finally {
+                if (notifier != null) {
+                    notifier.release();
+                }
+            }
+        }, "tail-" + this);
+        thread.setDaemon(true);
+        thread.start();
+        return () -> {
+            if (active.compareAndSet(true, false)) {
+                if (notifier != null) {
+                    notifier.signal();
+                }
+                if (Thread.currentThread() != thread) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
 }
@@ -27,8 +27,10 @@ import com.mastfrog.file.channels.FileChannelPool;
 import com.mastfrog.file.channels.Lease;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
@@ -36,7 +38,7 @@ import java.util.function.Consumer;
  *
  * @author Tim Boudreau
  */
-class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
+class LogStructuredReaderImpl<T> implements LogStructuredReader<T>, TailNotifier.Source {
 
     private ChannelAndCursor cac;
     private final Path srcFile;
@@ -44,12 +46,33 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
     private final AtomicInteger readSequence = new AtomicInteger(Integer.MIN_VALUE);
     private final Serde<T> serde;
     private final FileChannelPool pool;
+    private final SparseIndex.Config<T> indexing;
+    private final ConsumerGroups groups;
+    // Held from the first wait until close, so the file stays watched
+    // between waits
+    private TailNotifier notifier;
 
     LogStructuredReaderImpl(Path srcFile, Path cursorFile, Serde<T> serde, FileChannelPool pool) {
+        this(srcFile, cursorFile, serde, pool, null, null);
+    }
+
+    LogStructuredReaderImpl(Path srcFile, Path cursorFile, Serde<T> serde, FileChannelPool pool,
+            SparseIndex.Config<T> indexing, ConsumerGroups groups) {
         this.srcFile = srcFile;
         this.cursorFile = cursorFile;
         this.serde = serde;
         this.pool = pool;
+        this.indexing = indexing;
+        this.groups = groups;
+    }
+
+    @Override
+    public Path tailedPath() {
+        return srcFile;
+    }
+
+    private boolean isShared() throws IOException {
+        return groups != null && groups.isShared();
     }
 
     @Override
@@ -74,16 +97,67 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
     public void rewind() throws IOException {
         ChannelAndCursor cac = cac();
         if (cac != null && cac.cursor() != null) {
+            readSequence.incrementAndGet();
             cac.cursor().rewind();
         }
     }
 
+    @Override
+    public synchronized boolean seek(long recordNumber) throws IOException {
+        SparseIndex index = indexing == null ? null : SparseIndex.load(srcFile, pool);
+        if (index == null || !Files.exists(srcFile)) {
+            return false;
+        }
+        Lease lease = pool.lease(srcFile, StandardOpenOption.READ);
+        return moveCursor(lease.useAsLong((FileChannel ch) -> {
+            return index.offsetOf(recordNumber, srcFile, ch, serde);
+        }));
+    }
+
+    @Override
+    public synchronized boolean seekToKey(long key) throws IOException {
+        SparseIndex index = indexing == null || !indexing.hasKeys()
+                ? null : SparseIndex.load(srcFile, pool);
+        if (index == null || !Files.exists(srcFile)) {
+            return false;
+        }
+        Lease lease = pool.lease(srcFile, StandardOpenOption.READ);
+        return moveCursor(lease.useAsLong((FileChannel ch) -> {
+            return index.offsetOfKey(key, srcFile, ch, serde, indexing);
+        }));
+    }
+
+    private boolean moveCursor(long offset) throws IOException {
+        if (offset < 0) {
+            return false;
+        }
+        // Any outstanding UnadvancedRead refers to the old position
+        readSequence.incrementAndGet();
+        // Reopened at the new cursor position on the next read
+        close();
+        CursorFile cf = new CursorFile(cursorFile, pool);
+        cf.createIfNotPresent();
+        cf.newWriter().accept(offset);
+        return true;
+    }
+
     @Override
     public synchronized void deleteIfAllReadAndAdvanced() throws IOException {
+        if (isShared()) {
+            // Other consumers may not be done with the file
+            if (groups.allRead(srcFile)) {
+                close();
+                pool.deleteFile(srcFile);
+                groups.deleteCursors(srcFile);
+                SparseIndex.delete(srcFile, pool);
+            }
+            return;
+        }
         ChannelAndCursor cac = cac();
         if (cac != null) {
             discardCommitted();
             if (cac.deleteIfEmpty()) {
+                SparseIndex.delete(srcFile, pool);
                 cac.close();
                 this.cac = null;
             }
@@ -93,7 +167,10 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
     @Override
     public synchronized void discardCommitted() throws IOException {
         ChannelAndCursor cac = cac();
-        if (cac != null) {
+        if (cac != null && isShared()) {
+            // Compacting would invalidate other consumers' cursors
+            cac.commit();
+        } else if (cac != null) {
             Lease read = cac.channel();
             Lease write = read.forSameFile(StandardOpenOption.WRITE, StandardOpenOption.SYNC);
             assert write.isWrite() : "Not a write lease: " + write;
@@ -103,7 +180,12 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
             if (currPos > 0) {
                 long size = read.size();
                 if (size > 0) {
+                    SparseIndex index = SparseIndex.load(srcFile, pool);
+                    long[] firstRecord = new long[1];
                     read.use(readChannel -> {
+                        if (index != null) {
+                            firstRecord[0] = index.recordAt(currPos, srcFile, readChannel, serde);
+                        }
                         write.use(writeChannel -> {
                             writeChannel.position(0);
                             assert writeChannel.position() == 0 : "Opened in append mode?";
@@ -116,6 +198,9 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
                         readChannel.position(0);
                     });
                     read.position(0);
+                    if (index != null) {
+                        SparseIndex.compacted(srcFile, currPos, firstRecord[0], pool);
+                    }
                 }
             }
         }
@@ -124,6 +209,9 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
     @Override
     public synchronized boolean hasUnread() throws IOException {
         ChannelAndCursor channelAndCursor = cac();
+        if (channelAndCursor == null) {
+            return false;
+        }
         Lease channel = channelAndCursor.channel();
         if (channel.size() == 0) {
             return false;
@@ -132,6 +220,16 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
         return channelPosition != channel.size();
     }
 
+    @Override
+    public boolean awaitUnread(Duration timeout) throws IOException, InterruptedException {
+        synchronized (this) {
+            if (notifier == null) {
+                notifier = TailNotifier.acquire(srcFile);
+            }
+        }
+        return TailNotifier.awaitUntil(srcFile, this::hasUnread, timeout);
+    }
+
     @Override
     public synchronized UnadvancedRead<T> read() throws IOException {
         ChannelAndCursor channelAndCursor = cac();
@@ -207,12 +305,18 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
                 readSequence.incrementAndGet();
                 T obj = serde.deserialize(srcFile, readChannel);
                 consumer.accept(obj);
-                channelAndCursor.commit();
             });
+            // The lease's position is only updated once use() exits, so
+            // committing inside the closure would persist the old position
+            channelAndCursor.commit();
         } catch (IOException ex) {
             channel.position(oldPosition);
             channelAndCursor.commit();
             throw ex;
+        } catch (RuntimeException | Error ex) {
+            // Consumer failed - leave the record to be read again
+            channel.position(oldPosition);
+            throw ex;
         }
         return true;
     }
@@ -223,6 +327,12 @@ class LogStructuredReaderImpl<T> implements LogStructuredReader<T> {
             cac.close();
             cac = null;
         }
+        synchronized (this) {
+            if (notifier != null) {
+                notifier.release();
+                notifier = null;
+            }
+        }
     }
 
 }
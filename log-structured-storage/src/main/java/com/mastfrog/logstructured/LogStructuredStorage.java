@@ -27,6 +27,8 @@ import com.mastfrog.file.channels.FileChannelPool;
 import com.mastfrog.util.preconditions.Checks;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.function.ToLongFunction;
 
 /**
  * Abstraction for appendable persistent storage of ad-hoc objects / records,
@@ -50,6 +52,118 @@ public interface LogStructuredStorage<T> {
      */
     LogStructuredReader<T> reader() throws IOException;
 
+    /**
+     * Get a view of this storage which compresses storage files once they are
+     * sealed - once an appender has rolled over to a new file, so they will
+     * never be written again - replacing each with a compressed copy made of
+     * independently compressed 64Kb blocks. Readers decompress transparently,
+     * a block at a time, and cursor and index positions are unaffected.
+     * Compression runs on the passed executor each time an appender rolls
+     * over, and covers any sealed files not yet compressed, except those a
+     * reader in this process has open. Implementations which do not roll over
+     * to new files return themselves.
+     *
+     * @param codec The codec, such as <code>BlockCodec.deflate()</code>; it
+     * must be available via <code>BlockCodec.forName()</code> to processes
+     * which read the files
+     * @param executor The executor to compress on
+     * @return A storage
+     */
+    default LogStructuredStorage<T> compressed(BlockCodec codec, Executor executor) {
+        return this;
+    }
+
+    /**
+     * Create a reader for a named consumer, which has its own persistent
+     * cursor, so several consumers can each read every record of the same
+     * storage independently, without copying it. The first call for a given
+     * name registers the consumer persistently; from then on, storage files are
+     * only deleted once every registered consumer has read them (if the
+     * unnamed cursor used by <code>reader()</code> was already in use, it
+     * remains a consumer too), and while a file has more than one consumer,
+     * <code>discardCommitted()</code> only commits the caller's cursor rather
+     * than compacting the file, since that would move records out from under
+     * the others. A consumer registered after records were written starts
+     * from the oldest record not yet deleted.
+     *
+     * @param consumer A name consisting of letters, digits, - and _
+     * @return A reader
+     * @throws IOException If something goes wrong
+     * @throws UnsupportedOperationException if this storage does not support
+     * multiple consumers
+     */
+    default LogStructuredReader<T> reader(String consumer) throws IOException {
+        throw new UnsupportedOperationException("Named consumers not supported by " + this);
+    }
+
+    /**
+     * Create a memory-mapping reader (see <code>mappedReader()</code>) for a
+     * named consumer (see <code>reader(String)</code>).
+     *
+     * @param consumer A name consisting of letters, digits, - and _
+     * @return A reader
+     * @throws IOException If something goes wrong
+     */
+    default LogStructuredReader<T> mappedReader(String consumer) throws IOException {
+        return reader(consumer);
+    }
+
+    /**
+     * Create a reader which memory-maps storage files which are sealed - will
+     * never be appended to again - and deserializes records directly from the
+     * mapping using <code>Serde.deserialize(Path, ByteBuffer)</code>, falling
+     * back to ordinary channel reads for any file which may still be written
+     * to. For a large backlog this turns replay into a scan of the page cache,
+     * rather than one or more system calls per record. Implementations which
+     * do not have a notion of sealed files return the same thing as
+     * <code>reader()</code>.
+     *
+     * @return A reader
+     * @throws IOException If something goes wrong
+     */
+    default LogStructuredReader<T> mappedReader() throws IOException {
+        return reader();
+    }
+
+    /**
+     * Get a view of this storage whose appenders maintain a sparse index in a
+     * sidecar file next to each storage file, recording the offset of every
+     * <code>interval</code>th record, so that readers can jump to a record by
+     * number with <code>LogStructuredReader.seek()</code>, reading forward
+     * at most <code>interval - 1</code> records. Records are numbered
+     * sequentially from zero in the order they are appended; numbering
+     * continues across files, and resumes where it left off when a new
+     * appender is created, so long as any indexed file remains (once all
+     * files have been read and deleted, numbering starts over). Existing
+     * unindexed records in a file are indexed the first time an indexed
+     * appender writes to it. Implementations which do not support indexing
+     * return themselves, and their readers' seek methods return false.
+     *
+     * @param interval The number of records between index entries - smaller
+     * values mean faster seeks and larger index files
+     * @return A storage
+     */
+    default LogStructuredStorage<T> indexed(int interval) {
+        return indexed(interval, null);
+    }
+
+    /**
+     * Get a view of this storage whose appenders maintain a sparse index, as
+     * with <code>indexed(int)</code>, which also records a key for each indexed
+     * record - such as an event timestamp - so readers can jump to the first
+     * record with a key greater than or equal to some value with
+     * <code>LogStructuredReader.seekToKey()</code>. Keys must never decrease
+     * in the order records are appended.
+     *
+     * @param interval The number of records between index entries
+     * @param keys Computes the key for a record; may be null if only seeking
+     * by record number is needed
+     * @return A storage
+     */
+    default LogStructuredStorage<T> indexed(int interval, ToLongFunction<? super T> keys) {
+        return this;
+    }
+
     /**
      * Create a appender which can append new records (using the encoding of the
      * Serde passed when this storage was created).
@@ -59,13 +173,30 @@ public interface LogStructuredStorage<T> {
     LogStructuredAppender<T> appender();
 
     /**
-     * Determine if all available records have been read.
+     * Determine if all available records have been read by every consumer.
      *
      * @return True if all existing records have been read.
      * @throws IOException If something goes wrong (file deleted, etc.)
      */
     boolean isFullyRead() throws IOException;
 
+    /**
+     * Recover from a crash during a write: if this storage was created with a
+     * framed Serde (see <code>Serde.framed()</code>), check the tail of each
+     * unread file, and if the last record is torn or corrupt, truncate the
+     * file to the end of the last valid record following the persisted
+     * cursor. Checking an intact file costs a couple of small reads regardless
+     * of its size. Call this on startup, before any appenders are created.
+     * Storages with unframed Serdes cannot detect record boundaries and do
+     * nothing.
+     *
+     * @return true if any file was truncated
+     * @throws IOException If something goes wrong
+     */
+    default boolean recover() throws IOException {
+        return false;
+    }
+
     /**
      * Delete all associated persistent files associated with this storage. May
      * return false if a writer is open over this storage.
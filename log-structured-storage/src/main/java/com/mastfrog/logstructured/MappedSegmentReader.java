@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import com.mastfrog.file.channels.Lease;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader over a sealed segment which memory-maps the entire file once and
+ * hands the Serde slices of the mapping, so reading a record costs no system
+ * calls.
+ *
+ * @author Tim Boudreau
+ */
+final class MappedSegmentReader<T> extends SealedSegmentReader<T> {
+
+    private ByteBuffer mapping;
+    private long end;
+
+    MappedSegmentReader(Path srcFile, Path cursorFile, Serde<T> serde, FileChannelPool pool) {
+        this(srcFile, cursorFile, serde, pool, null, null);
+    }
+
+    MappedSegmentReader(Path srcFile, Path cursorFile, Serde<T> serde, FileChannelPool pool,
+            SparseIndex.Config<T> indexing, ConsumerGroups groups) {
+        super(srcFile, cursorFile, serde, pool, indexing, groups);
+    }
+
+    @Override
+    public String toString() {
+        return "mapped:" + srcFile.getFileName() + "@" + position;
+    }
+
+    @Override
+    long openSegment() throws IOException {
+        if (!Files.exists(srcFile)) {
+            return -1;
+        }
+        Lease lease = pool.lease(srcFile, StandardOpenOption.READ);
+        long size = lease.size();
+        mapping = lease.<ByteBuffer>use((FileChannel ch) -> {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        });
+        return size;
+    }
+
+    @Override
+    T readAt(long pos) throws IOException {
+        ByteBuffer record = mapping.duplicate();
+        record.position((int) pos);
+        record = record.slice();
+        T result = serde.deserialize(srcFile, record);
+        end = pos + record.position();
+        return result;
+    }
+
+    @Override
+    long endOfRead() {
+        return end;
+    }
+
+    @Override
+    SeekableByteChannel indexChannel() {
+        return new ByteBufferReadChannel(mapping.duplicate());
+    }
+
+    @Override
+    void closeSegment() {
+        // The mapping is released when garbage collected
+        mapping = null;
+    }
+
+    @Override
+    void deleteSegment() throws IOException {
+        pool.deleteFile(srcFile);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Base class for readers over a sealed segment - one which will never be
+ * appended to again. Handles the cursor, uncommitted reads, seeking via the
+ * sparse index and deletion of the segment once fully read; subclasses only
+ * supply access to the segment's bytes. Cursor offsets are the same as those
+ * used by LogStructuredReaderImpl, so the implementations are interchangeable
+ * over a given file. Since the segment is immutable, committed records are
+ * never compacted out of it; instead the whole file is deleted once it has
+ * been fully read.
+ *
+ * @author Tim Boudreau
+ */
+abstract class SealedSegmentReader<T> implements LogStructuredReader<T> {
+
+    final Path srcFile;
+    final Serde<T> serde;
+    final FileChannelPool pool;
+    private final Path cursorFile;
+    private final SparseIndex.Config<T> indexing;
+    private final ConsumerGroups groups;
+    private final AtomicInteger readSequence = new AtomicInteger(Integer.MIN_VALUE);
+    private CursorFileWriter cursorWriter;
+    private long size = -1;
+    long position;
+
+    SealedSegmentReader(Path srcFile, Path cursorFile, Serde<T> serde, FileChannelPool pool,
+            SparseIndex.Config<T> indexing, ConsumerGroups groups) {
+        this.srcFile = srcFile;
+        this.cursorFile = cursorFile;
+        this.serde = serde;
+        this.pool = pool;
+        this.indexing = indexing;
+        this.groups = groups;
+    }
+
+    /**
+     * Open the segment.
+     *
+     * @return The length of the segment's (uncompressed) data, or -1 if it
+     * does not exist
+     * @throws IOException If something goes wrong
+     */
+    abstract long openSegment() throws IOException;
+
+    /**
+     * Deserialize the record at the passed offset in the open segment.
+     *
+     * @param pos An offset
+     * @return A record
+     * @throws IOException If something goes wrong
+     */
+    abstract T readAt(long pos) throws IOException;
+
+    /**
+     * The offset just past the record most recently returned by readAt().
+     *
+     * @return An offset
+     * @throws IOException If something goes wrong
+     */
+    abstract long endOfRead() throws IOException;
+
+    /**
+     * A channel over the open segment's data for the sparse index to scan.
+     *
+     * @return A channel
+     */
+    abstract SeekableByteChannel indexChannel();
+
+    abstract void closeSegment() throws IOException;
+
+    abstract void deleteSegment() throws IOException;
+
+    private boolean open() throws IOException {
+        if (size < 0) {
+            long sz = openSegment();
+            if (sz < 0) {
+                return false;
+            }
+            CursorFile cf = new CursorFile(cursorFile, pool);
+            cf.createIfNotPresent();
+            position = Math.min(sz, Math.max(0, cf.read()));
+            cursorWriter = cf.newWriter();
+            size = sz;
+        }
+        return true;
+    }
+
+    private boolean atEnd() throws IOException {
+        return !open() || position >= size;
+    }
+
+    private void commit(long pos) throws IOException {
+        if (cursorWriter == null && !open()) {
+            return;
+        }
+        position = pos;
+        cursorWriter.accept(pos);
+    }
+
+    @Override
+    public synchronized boolean hasUnread() throws IOException {
+        return !atEnd();
+    }
+
+    @Override
+    public synchronized UnadvancedRead<T> read() throws IOException {
+        if (atEnd()) {
+            return null;
+        }
+        T obj = readAt(position);
+        return new SealedRead(obj, endOfRead(), readSequence.incrementAndGet());
+    }
+
+    @Override
+    public synchronized T readAndAdvance() throws IOException {
+        if (atEnd()) {
+            return null;
+        }
+        readSequence.incrementAndGet();
+        T result = readAt(position);
+        commit(endOfRead());
+        return result;
+    }
+
+    @Override
+    public synchronized boolean readAndAdvance(Consumer<T> consumer) throws IOException {
+        if (atEnd()) {
+            return false;
+        }
+        readSequence.incrementAndGet();
+        T obj = readAt(position);
+        long end = endOfRead();
+        consumer.accept(obj);
+        commit(end);
+        return true;
+    }
+
+    @Override
+    public synchronized void rewind() throws IOException {
+        if (open()) {
+            readSequence.incrementAndGet();
+            commit(0);
+        }
+    }
+
+    private SparseIndex index() throws IOException {
+        return indexing == null || !open() ? null : SparseIndex.load(srcFile, pool);
+    }
+
+    @Override
+    public synchronized boolean seek(long recordNumber) throws IOException {
+        SparseIndex index = index();
+        if (index == null) {
+            return false;
+        }
+        return seekTo(index.offsetOf(recordNumber, srcFile, indexChannel(), serde));
+    }
+
+    @Override
+    public synchronized boolean seekToKey(long key) throws IOException {
+        SparseIndex index = index();
+        if (index == null) {
+            return false;
+        }
+        return seekTo(index.offsetOfKey(key, srcFile, indexChannel(), serde, indexing));
+    }
+
+    private boolean seekTo(long offset) throws IOException {
+        if (offset < 0) {
+            return false;
+        }
+        readSequence.incrementAndGet();
+        commit(offset);
+        return true;
+    }
+
+    @Override
+    public void discardCommitted() throws IOException {
+        // The segment is immutable - it is deleted whole once fully read
+    }
+
+    @Override
+    public synchronized void deleteIfAllReadAndAdvanced() throws IOException {
+        if (open() && position >= size) {
+            close();
+            if (groups == null || groups.allRead(srcFile)) {
+                deleteSegment();
+                if (groups == null) {
+                    pool.deleteFile(cursorFile);
+                } else {
+                    groups.deleteCursors(srcFile);
+                }
+                SparseIndex.delete(srcFile, pool);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            closeSegment();
+        } finally {
+            size = -1;
+            cursorWriter = null;
+        }
+    }
+
+    final class SealedRead implements UnadvancedRead<T> {
+
+        private final T obj;
+        private final long end;
+        private final int sequence;
+
+        SealedRead(T obj, long end, int sequence) {
+            this.obj = obj;
+            this.end = end;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public String toString() {
+            return "SR:" + obj + "@" + end;
+        }
+
+        @Override
+        public T get() {
+            return obj;
+        }
+
+        private void checkCurrent() {
+            if (!isCurrent()) {
+                throw new IllegalStateException("Another read has been performed "
+                        + "since this UncommittedRead was created");
+            }
+        }
+
+        @Override
+        public void advance() throws IOException {
+            synchronized (SealedSegmentReader.this) {
+                checkCurrent();
+                commit(end);
+            }
+        }
+
+        @Override
+        public void rollback() throws IOException {
+            synchronized (SealedSegmentReader.this) {
+                checkCurrent();
+                commit(position);
+            }
+        }
+
+        @Override
+        public boolean isCurrent() {
+            return sequence == readSequence.get();
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.mastfrog.logstructured;
 
 import com.mastfrog.file.channels.LeaseException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
@@ -59,6 +60,44 @@ public interface Serde<T> {
      */
     <C extends ReadableByteChannel & SeekableByteChannel> T deserialize(Path in, C channel) throws LeaseException, IOException;
 
+    /**
+     * Deserialize one object from the passed buffer, which may be a slice of a
+     * memory-mapped file, positioned at the start of the record; on return the
+     * buffer's position must be the end of the record. The default
+     * implementation wraps the buffer in a read-only channel and delegates to
+     * <code>deserialize(Path, C)</code>; implementations which can decode
+     * directly from a buffer should override it to avoid the copying that
+     * implies.
+     *
+     * @param in A file path, for logging purposes
+     * @param buffer A buffer
+     * @return An object deserialized from the buffer
+     * @throws LeaseException If deserialization fails
+     * @throws IOException If something else goes wrong
+     */
+    default T deserialize(Path in, ByteBuffer buffer) throws LeaseException, IOException {
+        return deserialize(in, new ByteBufferReadChannel(buffer));
+    }
+
+    /**
+     * Wrap a Serde so that each record it writes is framed with its length,
+     * a checksum and the Serde's version, allowing records to be skipped
+     * without deserializing them, validated on read, and torn writes at the
+     * end of a file to be detected and truncated by
+     * <code>LogStructuredStorage.recover()</code>. Files written with a framed
+     * Serde must always be read with one.
+     *
+     * @param <T> The type
+     * @param serde A serde
+     * @return A framed serde
+     */
+    static <T> FramedSerde<T> framed(Serde<T> serde) {
+        if (serde instanceof FramedSerde<?>) {
+            return (FramedSerde<T>) serde;
+        }
+        return new FramedSerde<>(serde);
+    }
+
     /**
      * Version field implementations can use as they wish to compare with
      * written data.
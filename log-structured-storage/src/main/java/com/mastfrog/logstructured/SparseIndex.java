@@ -0,0 +1,506 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import com.mastfrog.file.channels.Lease;
+import com.mastfrog.util.search.Bias;
+import com.mastfrog.util.search.BinarySearch;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ToLongFunction;
+
+/**
+ * A sparse index over one storage file, kept in an adjacent sidecar file, which
+ * records the byte offset (and optionally a user-supplied key such as an event
+ * timestamp) of every Nth record, so a reader can binary search it to get close
+ * to a given record number or key and then read forward at most N - 1 records.
+ * <p>
+ * Record numbers are assigned sequentially across all the files of a storage;
+ * the sidecar's header holds the number of the first record in the file, the
+ * interval and flags, and each entry is three longs - record number, offset
+ * and key. Only the appender writes entries; readers rewrite the file when
+ * they compact or truncate the storage file, so offsets stay correct.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class SparseIndex {
+
+    static final String INDEX_EXT = ".idx";
+    static final int HEADER_BYTES = Long.BYTES + Integer.BYTES * 2;
+    static final int ENTRY_BYTES = Long.BYTES * 3;
+    private static final int FLAG_KEYED = 1;
+    private static final Set<StandardOpenOption> INDEX_APPEND_OPTIONS
+            = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+    private static final Set<StandardOpenOption> INDEX_REWRITE_OPTIONS
+            = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    private final long base;
+    private final int interval;
+    private final int flags;
+    private final long[] records;
+    private final long[] offsets;
+    private final long[] keys;
+
+    private SparseIndex(long base, int interval, int flags, long[] records, long[] offsets, long[] keys) {
+        this.base = base;
+        this.interval = interval;
+        this.flags = flags;
+        this.records = records;
+        this.offsets = offsets;
+        this.keys = keys;
+    }
+
+    @Override
+    public String toString() {
+        return "SparseIndex(" + base + " every " + interval + " with "
+                + records.length + " entries)";
+    }
+
+    static Path indexFile(Path storageFile) {
+        return storageFile.resolveSibling(storageFile.getFileName() + INDEX_EXT);
+    }
+
+    /**
+     * Load the index for a storage file.
+     *
+     * @param storageFile The storage file, not the index
+     * @param pool The pool
+     * @return An index or null if none exists
+     * @throws IOException If something goes wrong
+     */
+    static SparseIndex load(Path storageFile, FileChannelPool pool) throws IOException {
+        Path idx = indexFile(storageFile);
+        if (!Files.exists(idx) || Files.size(idx) < HEADER_BYTES) {
+            return null;
+        }
+        Lease lease = pool.lease(idx, StandardOpenOption.READ);
+        return lease.position(0).<SparseIndex>use((FileChannel ch) -> {
+            // A partially written trailing entry is ignored
+            int count = (int) ((ch.size() - HEADER_BYTES) / ENTRY_BYTES);
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + count * ENTRY_BYTES);
+            ch.position(0);
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {
+                // read fully
+            }
+            buf.flip();
+            long base = buf.getLong();
+            int interval = buf.getInt();
+            int flags = buf.getInt();
+            long[] records = new long[count];
+            long[] offsets = new long[count];
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++) {
+                records[i] = buf.getLong();
+                offsets[i] = buf.getLong();
+                keys[i] = buf.getLong();
+            }
+            return new SparseIndex(base, interval, flags, records, offsets, keys);
+        });
+    }
+
+    static boolean delete(Path storageFile, FileChannelPool pool) throws IOException {
+        return pool.deleteFile(indexFile(storageFile));
+    }
+
+    long base() {
+        return base;
+    }
+
+    int size() {
+        return records.length;
+    }
+
+    boolean isKeyed() {
+        return (flags & FLAG_KEYED) != 0;
+    }
+
+    long firstKey() {
+        return keys.length == 0 ? Long.MAX_VALUE : keys[0];
+    }
+
+    private static long distance(long target, long value) {
+        // BinarySearch uses the magnitude of the difference to choose between
+        // neighbors, so pass it a real distance, saturating on overflow
+        long result = target - value;
+        if (((target ^ value) & (target ^ result)) < 0) {
+            return target > value ? Long.MAX_VALUE : -Long.MAX_VALUE;
+        }
+        return result;
+    }
+
+    private static int lastAtOrBelow(long[] sorted, long target) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        LongUnaryOperator comparer = ix -> distance(target, sorted[(int) ix]);
+        return (int) BinarySearch.search(0, sorted.length, comparer, Bias.BACKWARD);
+    }
+
+    private static <C extends ReadableByteChannel & SeekableByteChannel> long skip(Path file, C channel, Serde<?> serde, long position) throws IOException {
+        if (serde instanceof FramedSerde<?>) {
+            return FramedSerde.skip(channel, position);
+        }
+        channel.position(position);
+        serde.deserialize(file, channel);
+        return channel.position();
+    }
+
+    /**
+     * Find the offset of a record by number, reading forward from the nearest
+     * preceding index entry.
+     *
+     * @param record The record number
+     * @param file The storage file
+     * @param channel A channel over it
+     * @param serde The serde
+     * @return The offset, or -1 if the record is not in this file
+     * @throws IOException If something goes wrong
+     */
+    <C extends ReadableByteChannel & SeekableByteChannel> long offsetOf(long record, Path file, C channel, Serde<?> serde) throws IOException {
+        if (record < base) {
+            return -1;
+        }
+        int entry = lastAtOrBelow(records, record);
+        long rec = entry < 0 ? base : records[entry];
+        long pos = entry < 0 ? 0 : offsets[entry];
+        long size = channel.size();
+        while (rec < record && pos >= 0 && pos < size) {
+            pos = skip(file, channel, serde, pos);
+            rec++;
+        }
+        return pos < 0 || pos >= size ? -1 : pos;
+    }
+
+    /**
+     * Find the offset of the first record whose key is greater than or equal
+     * to the passed one, assuming keys never decrease.
+     *
+     * @param key The key
+     * @param file The storage file
+     * @param channel A channel over it
+     * @param serde The serde
+     * @param config The configuration which supplies keys
+     * @return The offset, or -1 if no such record is in this file
+     * @throws IOException If something goes wrong
+     */
+    <T, C extends ReadableByteChannel & SeekableByteChannel> long offsetOfKey(long key, Path file, C channel, Serde<T> serde, Config<T> config) throws IOException {
+        if (!isKeyed() || !config.hasKeys()) {
+            return -1;
+        }
+        // Start from the last entry whose key is strictly less, so that if
+        // several records share the key, we find the first of them
+        int entry = key == Long.MIN_VALUE ? -1 : lastAtOrBelow(keys, key - 1);
+        long pos = entry < 0 ? 0 : offsets[entry];
+        long size = channel.size();
+        while (pos < size) {
+            channel.position(pos);
+            T obj = serde.deserialize(file, channel);
+            if (config.key(obj) >= key) {
+                return pos;
+            }
+            pos = channel.position();
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of the record at a given offset (or of the record which
+     * would be written next, if passed the size of the file).
+     *
+     * @param offset An offset at a record boundary
+     * @param file The storage file
+     * @param channel A channel over it
+     * @param serde The serde
+     * @return A record number
+     * @throws IOException If something goes wrong
+     */
+    <C extends ReadableByteChannel & SeekableByteChannel> long recordAt(long offset, Path file, C channel, Serde<?> serde) throws IOException {
+        int entry = lastAtOrBelow(offsets, offset);
+        long rec = entry < 0 ? base : records[entry];
+        long pos = entry < 0 ? 0 : offsets[entry];
+        while (pos >= 0 && pos < offset) {
+            pos = skip(file, channel, serde, pos);
+            rec++;
+        }
+        return rec;
+    }
+
+    /**
+     * Get the number of the record which would be written next to a storage
+     * file, reading at most the records after the last index entry.
+     *
+     * @param storageFile The file
+     * @param serde The serde
+     * @param pool The pool
+     * @return A record number, or -1 if there is no index
+     * @throws IOException If something goes wrong
+     */
+    static long nextRecordNumber(Path storageFile, Serde<?> serde, FileChannelPool pool) throws IOException {
+        SparseIndex index = load(storageFile, pool);
+        if (index == null) {
+            return -1;
+        }
+        if (!Files.exists(storageFile)) {
+            if (CompressedSegment.isCompressed(storageFile)) {
+                try (CompressedSegment.BlockChannel ch = CompressedSegment.BlockChannel.open(storageFile, pool)) {
+                    return index.recordAt(ch.size(), storageFile, ch, serde);
+                }
+            }
+            return index.base;
+        }
+        Lease lease = pool.lease(storageFile, StandardOpenOption.READ);
+        return lease.useAsLong((FileChannel ch) -> {
+            return index.recordAt(ch.size(), storageFile, ch, serde);
+        });
+    }
+
+    /**
+     * Index an existing, unindexed storage file by reading all of it.
+     *
+     * @param storageFile The file
+     * @param serde The serde
+     * @param config The index configuration
+     * @param base The number of the first record in the file
+     * @param pool The pool
+     * @return The number of the record which would be written next
+     * @throws IOException If something goes wrong
+     */
+    static <T> long rebuild(Path storageFile, Serde<T> serde, Config<T> config, long base, FileChannelPool pool) throws IOException {
+        Writer<T> writer = config.writer(storageFile, base, pool);
+        if (Files.exists(storageFile)) {
+            Lease lease = pool.lease(storageFile, StandardOpenOption.READ);
+            lease.use((FileChannel ch) -> {
+                long pos = 0;
+                long size = ch.size();
+                while (pos < size) {
+                    ch.position(pos);
+                    writer.written(serde.deserialize(storageFile, ch), pos);
+                    pos = ch.position();
+                }
+            });
+        }
+        writer.flush();
+        return writer.nextRecord();
+    }
+
+    /**
+     * Rewrite the index after the head of the storage file has been discarded.
+     *
+     * @param storageFile The storage file
+     * @param removedBytes The number of bytes removed from the head of the
+     * file
+     * @param firstRecord The number of the record now at offset zero
+     * @param pool The pool
+     * @throws IOException If something goes wrong
+     */
+    static void compacted(Path storageFile, long removedBytes, long firstRecord, FileChannelPool pool) throws IOException {
+        SparseIndex old = load(storageFile, pool);
+        if (old == null) {
+            return;
+        }
+        int first = 0;
+        while (first < old.size() && old.offsets[first] < removedBytes) {
+            first++;
+        }
+        long[] offsets = Arrays.copyOfRange(old.offsets, first, old.size());
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] -= removedBytes;
+        }
+        rewrite(storageFile, new SparseIndex(firstRecord, old.interval, old.flags,
+                Arrays.copyOfRange(old.records, first, old.size()), offsets,
+                Arrays.copyOfRange(old.keys, first, old.size())), pool);
+    }
+
+    /**
+     * Drop any entries pointing at or past the passed length, after a storage
+     * file has been truncated.
+     *
+     * @param storageFile The storage file
+     * @param length The new length
+     * @param pool The pool
+     * @throws IOException If something goes wrong
+     */
+    static void truncated(Path storageFile, long length, FileChannelPool pool) throws IOException {
+        SparseIndex old = load(storageFile, pool);
+        if (old == null) {
+            return;
+        }
+        int count = 0;
+        while (count < old.size() && old.offsets[count] < length) {
+            count++;
+        }
+        if (count != old.size()) {
+            rewrite(storageFile, new SparseIndex(old.base, old.interval, old.flags,
+                    Arrays.copyOf(old.records, count), Arrays.copyOf(old.offsets, count),
+                    Arrays.copyOf(old.keys, count)), pool);
+        }
+    }
+
+    private static void rewrite(Path storageFile, SparseIndex index, FileChannelPool pool) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + index.size() * ENTRY_BYTES);
+        buf.putLong(index.base).putInt(index.interval).putInt(index.flags);
+        for (int i = 0; i < index.size(); i++) {
+            buf.putLong(index.records[i]).putLong(index.offsets[i]).putLong(index.keys[i]);
+        }
+        buf.flip();
+        Lease lease = pool.lease(indexFile(storageFile), INDEX_REWRITE_OPTIONS,
+                LogStructuredAppenderImpl.ATTRS);
+        lease.use(ch -> {
+            ch.truncate(0);
+            ch.position(0);
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        });
+    }
+
+    /**
+     * Index settings for a storage, supplied by the user.
+     *
+     * @param <T> The record type
+     */
+    static final class Config<T> {
+
+        private final int interval;
+        private final ToLongFunction<? super T> keys;
+
+        Config(int interval, ToLongFunction<? super T> keys) {
+            this.interval = interval;
+            this.keys = keys;
+        }
+
+        @Override
+        public String toString() {
+            return "every " + interval + (keys == null ? "" : " keyed by " + keys);
+        }
+
+        boolean hasKeys() {
+            return keys != null;
+        }
+
+        long key(T obj) {
+            return keys == null ? 0 : keys.applyAsLong(obj);
+        }
+
+        Writer<T> writer(Path storageFile, long nextRecord, FileChannelPool pool) {
+            return new Writer<>(this, storageFile, nextRecord, pool);
+        }
+    }
+
+    /**
+     * Appends entries to the index as records are appended to its storage
+     * file; only used under the appender's lock.
+     *
+     * @param <T> The record type
+     */
+    static final class Writer<T> {
+
+        private final Config<T> config;
+        private final Path indexFile;
+        private final long base;
+        private final FileChannelPool pool;
+        private long nextRecord;
+        private Lease lease;
+        private ByteBuffer pending = ByteBuffer.allocate(ENTRY_BYTES * 8);
+
+        Writer(Config<T> config, Path storageFile, long nextRecord, FileChannelPool pool) {
+            this.config = config;
+            this.indexFile = indexFile(storageFile);
+            this.base = nextRecord;
+            this.nextRecord = nextRecord;
+            this.pool = pool;
+        }
+
+        long nextRecord() {
+            return nextRecord;
+        }
+
+        /**
+         * Note that a record was written at the passed offset; entries are
+         * buffered until <code>flush()</code> is called.
+         *
+         * @param obj The record
+         * @param offset The offset in the storage file it was written at
+         * @return True if the record was one that gets an index entry, so
+         * there is something to flush
+         */
+        boolean written(T obj, long offset) {
+            long rec = nextRecord++;
+            if (rec % config.interval == 0) {
+                if (pending.remaining() < ENTRY_BYTES) {
+                    ByteBuffer nue = ByteBuffer.allocate(pending.capacity() * 2);
+                    pending.flip();
+                    nue.put(pending);
+                    pending = nue;
+                }
+                pending.putLong(rec).putLong(offset).putLong(config.key(obj));
+                return true;
+            }
+            return false;
+        }
+
+        void flush() throws IOException {
+            if (lease == null) {
+                boolean isNew = !Files.exists(indexFile) || Files.size(indexFile) < HEADER_BYTES;
+                lease = pool.lease(indexFile, INDEX_APPEND_OPTIONS, LogStructuredAppenderImpl.ATTRS);
+                if (isNew) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.putLong(base).putInt(config.interval)
+                            .putInt(config.hasKeys() ? FLAG_KEYED : 0);
+                    header.flip();
+                    lease.use(ch -> {
+                        ch.truncate(0);
+                        while (header.hasRemaining()) {
+                            ch.write(header);
+                        }
+                    });
+                }
+            }
+            if (pending.position() == 0) {
+                return;
+            }
+            pending.flip();
+            try {
+                lease.use(ch -> {
+                    while (pending.hasRemaining()) {
+                        ch.write(pending);
+                    }
+                });
+            } finally {
+                pending.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides what a subscription (see <code>LogStructuredReader.subscribe()</code>)
+ * does with a record its consumer threw an exception on.
+ *
+ * @author Tim Boudreau
+ */
+@FunctionalInterface
+public interface SubscriptionErrorHandler<T> {
+
+    /**
+     * Called on the delivery thread when the consumer throws.
+     *
+     * @param record The record the consumer was passed
+     * @param thrown What it threw
+     * @return What to do next
+     */
+    Recovery onError(T record, RuntimeException thrown);
+
+    /**
+     * A handler which logs the failure and stops the subscription, leaving
+     * the record unread so a later reader receives it again; used when none
+     * is passed.
+     *
+     * @param <T> The record type
+     * @return A handler
+     */
+    static <T> SubscriptionErrorHandler<T> logAndStop() {
+        return (record, thrown) -> {
+            Logger.getLogger(SubscriptionErrorHandler.class.getName()).log(Level.WARNING,
+                    "Subscriber threw on " + record + " - stopping", thrown);
+            return Recovery.STOP;
+        };
+    }
+
+    /**
+     * What to do with a record the consumer threw on.
+     */
+    enum Recovery {
+        /**
+         * Deliver the record again immediately; a handler which wants to
+         * back off should sleep before returning this.
+         */
+        RETRY,
+        /**
+         * Advance past the record and continue with the next one.
+         */
+        SKIP,
+        /**
+         * Leave the record unread and end the subscription.
+         */
+        STOP
+    }
+}
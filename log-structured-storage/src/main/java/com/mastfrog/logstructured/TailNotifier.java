@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.function.throwing.io.IOBooleanSupplier;
+import com.mastfrog.util.file.WatchManager;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lets tailing readers park until a storage is written to. Appenders in this
+ * process signal the notifier for the file they write and its folder
+ * directly; writes by other processes are picked up by watching the file or
+ * folder with a WatchManager. Since file watching can lag or miss events,
+ * waiters also recheck periodically - once a second until the watch is in
+ * place, and every ten seconds after that.
+ * <p>
+ * Notifiers are reference counted: a reader acquires one the first time it
+ * waits and releases it when closed, and each wait holds one for its
+ * duration, so the notifier and its watch are discarded once nothing is
+ * tailing the path.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class TailNotifier {
+
+    private static final Map<Path, TailNotifier> NOTIFIERS = new ConcurrentHashMap<>();
+    private static final long MAX_PARK_MILLIS = 1000;
+    private static final long MAX_WATCHED_PARK_MILLIS = 10000;
+    private static WatchManager watchManager;
+    private final Path target;
+    private final BiConsumer<Path, WatchEvent.Kind<?>> onEvent = (path, kind) -> signal();
+    private final AtomicBoolean watching = new AtomicBoolean();
+    // Only touched inside NOTIFIERS.compute() for the target
+    private int references;
+    private long version;
+
+    /**
+     * Implemented by readers which wait on a notifier, so that a subscription
+     * can park on the same one and be woken when cancelled.
+     */
+    interface Source {
+
+        Path tailedPath();
+    }
+
+    private TailNotifier(Path target) {
+        this.target = target;
+    }
+
+    @Override
+    public String toString() {
+        return "TailNotifier(" + target + " v" + version() + ")";
+    }
+
+    /**
+     * Get the notifier for a path, creating it if need be; must be paired
+     * with a call to release().
+     *
+     * @param storagePath The file or folder of a storage
+     * @return A notifier
+     */
+    static TailNotifier acquire(Path storagePath) {
+        return NOTIFIERS.compute(storagePath.toAbsolutePath(), (path, existing) -> {
+            TailNotifier result = existing == null ? new TailNotifier(path) : existing;
+            result.references++;
+            return result;
+        });
+    }
+
+    /**
+     * Release a notifier obtained from acquire(), discarding it and its watch
+     * if nothing else holds it.
+     */
+    void release() {
+        TailNotifier live = NOTIFIERS.computeIfPresent(target, (path, existing) -> {
+            return existing != this || --references > 0 ? existing : null;
+        });
+        if (live == null) {
+            unwatch();
+            // Wake anyone still parked on this instance, so they recheck
+            signal();
+        }
+    }
+
+    /**
+     * Wait until the passed test returns true, parking between checks until
+     * the storage is written to, holding the notifier for the path for the
+     * duration.
+     *
+     * @param storagePath The file or folder of a storage
+     * @param test Tests for unread data
+     * @param timeout The maximum time to wait
+     * @return The last result of the test
+     * @throws IOException If the test throws
+     * @throws InterruptedException If interrupted
+     */
+    static boolean awaitUntil(Path storagePath, IOBooleanSupplier test, Duration timeout) throws IOException, InterruptedException {
+        TailNotifier notifier = acquire(storagePath);
+        try {
+            return notifier.awaitUntil(test, timeout);
+        } finally {
+            notifier.release();
+        }
+    }
+
+    /**
+     * Wake any readers waiting on a file which has just been written to, or
+     * on the folder it is in.
+     *
+     * @param written The file
+     */
+    static void written(Path written) {
+        if (NOTIFIERS.isEmpty()) {
+            return;
+        }
+        Path abs = written.toAbsolutePath();
+        TailNotifier n = NOTIFIERS.get(abs);
+        if (n != null) {
+            n.signal();
+        }
+        Path parent = abs.getParent();
+        if (parent != null && (n = NOTIFIERS.get(parent)) != null) {
+            n.signal();
+        }
+    }
+
+    static int liveNotifiers() {
+        return NOTIFIERS.size();
+    }
+
+    private static synchronized WatchManager watchManager() {
+        if (watchManager == null) {
+            watchManager = new WatchManager(Executors.newScheduledThreadPool(1, r -> {
+                Thread t = new Thread(r, "log-structured-tail-watch");
+                t.setDaemon(true);
+                return t;
+            }), 20, 20, 100);
+        }
+        return watchManager;
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    synchronized void signal() {
+        version++;
+        notifyAll();
+    }
+
+    private void watch() {
+        if (!watching.get() && Files.exists(target) && watching.compareAndSet(false, true)) {
+            try {
+                watchManager().watch(target, onEvent, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException ex) {
+                watching.set(false);
+                // Will retry on the next wait, and fall back to rechecking
+                // periodically meanwhile
+                Logger.getLogger(TailNotifier.class.getName()).log(Level.FINE,
+                        "Could not watch " + target, ex);
+            }
+        }
+    }
+
+    private void unwatch() {
+        if (watching.compareAndSet(true, false)) {
+            watchManager().unwatch(target, onEvent);
+        }
+    }
+
+    /**
+     * Wait until the version changes from the passed one, or the timeout or
+     * the maximum park time elapses, whichever is first.
+     *
+     * @param seen The version read before checking for unread data
+     * @param nanos The maximum time to wait
+     * @throws InterruptedException If interrupted
+     */
+    void await(long seen, long nanos) throws InterruptedException {
+        watch();
+        long maxPark = watching.get() ? MAX_WATCHED_PARK_MILLIS : MAX_PARK_MILLIS;
+        long millis = Math.min(maxPark, TimeUnit.NANOSECONDS.toMillis(nanos));
+        synchronized (this) {
+            if (version == seen) {
+                if (millis == 0) {
+                    wait(0, (int) Math.max(1, nanos));
+                } else {
+                    wait(millis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the passed test returns true, parking between checks until
+     * the storage is written to.
+     *
+     * @param test Tests for unread data
+     * @param timeout The maximum time to wait
+     * @return The last result of the test
+     * @throws IOException If the test throws
+     * @throws InterruptedException If interrupted
+     */
+    boolean awaitUntil(IOBooleanSupplier test, Duration timeout) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (;;) {
+            long seen = version();
+            if (test.getAsBoolean()) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            await(seen, remaining);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.logstructured;
+
+import com.mastfrog.file.channels.FileChannelPool;
+import com.mastfrog.logstructured.LogStructuredStorageTest.Thing;
+import com.mastfrog.logstructured.LogStructuredStorageTest.ThingSerde;
+import com.mastfrog.util.file.FileUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+class FramedSerdeTest {
+
+    private Path file;
+    private FileChannelPool pool;
+    private FramedSerde<Thing> serde;
+
+    @Test
+    void testRoundTripAndOffsets() throws IOException {
+        LogStructuredStorage<Thing> stor = LogStructuredStorage.create(file, serde, pool);
+        List<Thing> expected = append(stor, 0, 100);
+        List<Long> offsets = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertTrue(FramedSerde.isTailIntact(ch));
+            long end = FramedSerde.recordOffsets(ch, 0, offsets::add);
+            assertEquals(ch.size(), end);
+            assertEquals(ch.size(), FramedSerde.validLength(ch, 0));
+        }
+        assertEquals(100, offsets.size());
+        assertEquals(0L, offsets.get(0).longValue());
+        assertFalse(stor.recover());
+        assertEquals(expected, readAll(stor.reader()));
+    }
+
+    @Test
+    void testTornTailIsTruncated() throws IOException {
+        LogStructuredStorage<Thing> stor = LogStructuredStorage.create(file, serde, pool);
+        List<Thing> expected = append(stor, 0, 50);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // Half of a frame, as if the process died mid-write
+            ByteBuffer partial = ByteBuffer.allocate(10);
+            partial.putInt(120).putInt(12345).putShort((short) 0);
+            partial.flip();
+            ch.write(partial);
+            try (FileChannel rch = FileChannel.open(file, StandardOpenOption.READ)) {
+                assertFalse(FramedSerde.isTailIntact(rch));
+            }
+        }
+        assertTrue(stor.recover());
+        assertFalse(stor.recover());
+        assertEquals(expected, readAll(stor.reader()));
+    }
+
+    @Test
+    void testCorruptRecordIsRejected() throws IOException {
+        LogStructuredStorage<Thing> stor = LogStructuredStorage.create(file, serde, pool);
+        append(stor, 0, 3);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer junk = ByteBuffer.allocate(1);
+            junk.put((byte) 99);
+            junk.flip();
+            ch.write(junk, FramedSerde.HEADER_BYTES + 5);
+        }
+        try {
+            stor.reader().readAndAdvance();
+            fail("Corrupt record not detected");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("Checksum"), ex.getMessage());
+        }
+    }
+
+    private static List<Thing> append(LogStructuredStorage<Thing> stor, int start, int count) throws IOException {
+        List<Thing> result = new ArrayList<>();
+        LogStructuredAppender<Thing> appender = stor.appender();
+        for (int i = start; i < start + count; i++) {
+            result.add(new Thing(i));
+        }
+        appender.appendAll(result.subList(0, count / 2));
+        for (Thing t : result.subList(count / 2, count)) {
+            appender.append(t);
+        }
+        appender.close();
+        return result;
+    }
+
+    private static List<Thing> readAll(LogStructuredReader<Thing> reader) throws IOException {
+        List<Thing> result = new ArrayList<>();
+        while (reader.hasUnread()) {
+            result.add(reader.readAndAdvance());
+        }
+        return result;
+    }
+
+    @BeforeEach
+    void before() throws IOException {
+        file = FileUtils.newTempFile(FramedSerdeTest.class.getSimpleName() + "-");
+        pool = FileChannelPool.newPool(Duration.ofSeconds(10));
+        serde = Serde.framed(new ThingSerde());
+    }
+
+    @AfterEach
+    void after() throws IOException {
+        pool.close();
+        FileUtils.deleteIfExists(file);
+        FileUtils.deleteIfExists(file.getParent().resolve(file.getFileName() + ".cursor"));
+    }
+}
@@ -35,15 +35,22 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -131,6 +138,464 @@ public class LogStructuredStorageTest {
         assertEquals(all, got);
     }
 
+    @Test
+    public void testBatchAppend() throws IOException {
+        for (LogStructuredStorage<Thing> s : Arrays.<LogStructuredStorage<Thing>>asList(stor, dirStor)) {
+            LogStructuredAppender<Thing> appender = s.appender();
+            List<Thing> batch = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                batch.add(new Thing(i));
+            }
+            assertEquals(2500, appender.appendAll(batch.subList(0, 2500)));
+            assertEquals(2500, appender.appendAll(batch.subList(2500, 5000), true));
+            appender.close();
+            assertEquals(new ArrayList<>(batch), readAll(s), s.toString());
+        }
+    }
+
+    @Test
+    public void testAsyncAppend() throws Exception {
+        for (LogStructuredStorage<Thing> s : Arrays.<LogStructuredStorage<Thing>>asList(stor, dirStor)) {
+            LogStructuredAppender<Thing> appender = s.appender();
+            Set<Thing> all = Collections.synchronizedSet(new HashSet<>());
+            List<CompletableFuture<Thing>> futures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                int base = i * 100000;
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        Thing t = new Thing(base + j);
+                        all.add(t);
+                        futures.add(appender.appendAsync(t));
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (CompletableFuture<Thing> f : futures) {
+                f.get(10, TimeUnit.SECONDS);
+            }
+            appender.close();
+            assertEquals(all, new HashSet<>(readAll(s)));
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForBatchInProgress() throws Exception {
+        assertCloseWaitsForBatchInProgress(stor);
+    }
+
+    @Test
+    public void testDirCloseWaitsForBatchInProgress() throws Exception {
+        assertCloseWaitsForBatchInProgress(dirStor);
+    }
+
+    private void assertCloseWaitsForBatchInProgress(LogStructuredStorage<Thing> s) throws Exception {
+        LogStructuredAppender<Thing> appender = s.appender();
+        CountDownLatch inWrite = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean block = new AtomicBoolean(true);
+        appender.onWrite(() -> {
+            if (block.getAndSet(false)) {
+                inWrite.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Exceptions.chuck(ex);
+                }
+            }
+        });
+        List<CompletableFuture<Thing>> futures = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = new Thread(() -> futures.add(appender.appendAsync(new Thing(1))));
+        writer.start();
+        assertTrue(inWrite.await(10, TimeUnit.SECONDS));
+        // Queued behind the batch in progress, which the closing thread
+        // must wait out, rather than forcing and returning
+        CompletableFuture<Thing> queued = appender.appendAsync(new Thing(2));
+        assertFalse(queued.isDone());
+        AtomicBoolean closed = new AtomicBoolean();
+        Thread closer = new Thread(() -> {
+            try {
+                appender.close();
+                closed.set(queued.isDone());
+            } catch (IOException ex) {
+                Exceptions.chuck(ex);
+            }
+        });
+        closer.start();
+        Thread.sleep(200);
+        release.countDown();
+        closer.join(10000);
+        writer.join(10000);
+        assertFalse(closer.isAlive());
+        assertTrue(closed.get(), "close() returned before a queued append was written to " + s);
+        for (CompletableFuture<Thing> f : futures) {
+            assertEquals(new Thing(1), f.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(new Thing(1), new Thing(2)), readAll(s), s.toString());
+    }
+
+    @Test
+    public void testMappedReader() throws IOException {
+        LogStructuredAppender<Thing> appender = dirStor.appender();
+        List<Thing> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            expected.add(appender.append(new Thing(i)));
+        }
+        appender.close();
+        LogStructuredReader<Thing> reader = dirStor.mappedReader();
+        List<Thing> got = new ArrayList<>();
+        boolean anyMapped = false;
+        for (int i = 0; reader.hasUnread(); i++) {
+            if (i % 2 == 0) {
+                UnadvancedRead<Thing> read = reader.read();
+                anyMapped |= reader.toString().contains("mapped:");
+                got.add(read.get());
+                read.advance();
+            } else {
+                got.add(reader.readAndAdvance());
+            }
+        }
+        assertTrue(anyMapped, "No segments were mapped");
+        assertEquals(expected, got);
+        reader.close();
+        assertTrue(dirStor.isFullyRead());
+    }
+
+    @Test
+    public void testSeekFile() throws IOException {
+        LogStructuredStorage<Thing> indexed = stor.indexed(16, thing -> thing.id() * 10L);
+        LogStructuredAppender<Thing> appender = indexed.appender();
+        for (int i = 0; i < 1000; i += 50) {
+            List<Thing> batch = new ArrayList<>();
+            for (int j = i; j < i + 50; j++) {
+                batch.add(new Thing(j));
+            }
+            if (i % 100 == 0) {
+                appender.appendAll(batch);
+            } else {
+                for (Thing t : batch) {
+                    appender.append(t);
+                }
+            }
+        }
+        appender.close();
+        LogStructuredReader<Thing> reader = indexed.reader();
+        assertTrue(reader.seek(537));
+        assertEquals(new Thing(537), reader.readAndAdvance());
+        assertEquals(new Thing(538), reader.readAndAdvance());
+        assertTrue(reader.seekToKey(5371));
+        assertEquals(new Thing(538), reader.readAndAdvance());
+        assertTrue(reader.seekToKey(120));
+        assertEquals(new Thing(12), reader.readAndAdvance());
+        assertFalse(reader.seek(1000));
+        assertFalse(reader.seekToKey(10000));
+        assertEquals(new Thing(13), reader.readAndAdvance());
+
+        assertTrue(reader.seek(400));
+        reader.discardCommitted();
+        assertFalse(reader.seek(399));
+        assertTrue(reader.seek(401));
+        assertEquals(new Thing(401), reader.readAndAdvance());
+        reader.close();
+
+        appender = indexed.appender();
+        for (int i = 1000; i < 1010; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+        reader = indexed.reader();
+        assertTrue(reader.seek(1005));
+        assertEquals(new Thing(1005), reader.readAndAdvance());
+        assertTrue(reader.seek(999));
+        assertEquals(new Thing(999), reader.readAndAdvance());
+        reader.close();
+        assertFalse(stor.reader().seek(999), "Unindexed view should not seek");
+    }
+
+    @Test
+    public void testSeekDir() throws IOException {
+        LogStructuredStorage<Thing> indexed = dirStor.indexed(10, thing -> thing.id());
+        LogStructuredAppender<Thing> appender = indexed.appender();
+        for (int i = 0; i < 5000; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+        LogStructuredReader<Thing> reader = indexed.reader();
+        assertTrue(reader.seek(3333));
+        for (int i = 3333; i < 3500; i++) {
+            assertEquals(new Thing(i), reader.readAndAdvance());
+        }
+        assertTrue(reader.seekToKey(1234));
+        assertEquals(new Thing(1234), reader.readAndAdvance());
+        assertFalse(reader.seek(5000));
+        List<Thing> rest = new ArrayList<>();
+        while (reader.hasUnread()) {
+            rest.add(reader.readAndAdvance());
+        }
+        assertEquals(5000 - 1235, rest.size());
+        assertEquals(new Thing(4999), rest.get(rest.size() - 1));
+        reader.close();
+
+        appender = indexed.appender();
+        for (int i = 5000; i < 5100; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+        reader = indexed.mappedReader();
+        assertTrue(reader.seek(5050));
+        assertEquals(new Thing(5050), reader.readAndAdvance());
+        assertTrue(reader.seekToKey(4990));
+        assertEquals(new Thing(4990), reader.readAndAdvance());
+        reader.close();
+    }
+
+    @Test
+    public void testRepositioningInvalidatesOutstandingReads() throws IOException {
+        LogStructuredStorage<Thing> indexed = stor.indexed(16, thing -> thing.id() * 10L);
+        LogStructuredAppender<Thing> appender = indexed.appender();
+        for (int i = 0; i < 100; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+        LogStructuredReader<Thing> reader = indexed.reader();
+        UnadvancedRead<Thing> stale = reader.read();
+        assertEquals(new Thing(0), stale.get());
+        assertTrue(reader.seek(50));
+        assertStale(stale);
+        assertEquals(new Thing(50), reader.readAndAdvance());
+
+        stale = reader.read();
+        assertTrue(reader.seekToKey(200));
+        assertStale(stale);
+        stale = reader.read();
+        assertEquals(new Thing(20), stale.get());
+        reader.rewind();
+        assertStale(stale);
+        assertEquals(new Thing(0), reader.readAndAdvance());
+        reader.close();
+
+        LogStructuredStorage<Thing> indexedDir = dirStor.indexed(10, thing -> thing.id());
+        appender = indexedDir.appender();
+        for (int i = 0; i < 3000; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+        reader = indexedDir.mappedReader();
+        stale = reader.read();
+        assertTrue(reader.seek(2500));
+        assertStale(stale);
+        assertEquals(new Thing(2500), reader.readAndAdvance());
+        stale = reader.read();
+        assertTrue(reader.seekToKey(10));
+        assertStale(stale);
+        assertEquals(new Thing(10), reader.readAndAdvance());
+        reader.close();
+    }
+
+    private static void assertStale(UnadvancedRead<Thing> read) throws IOException {
+        assertFalse(read.isCurrent(), "Read still current after repositioning");
+        try {
+            read.advance();
+            throw new AssertionError("Advancing a read made before "
+                    + "repositioning the reader should fail");
+        } catch (IllegalStateException ex) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testNamedConsumers() throws IOException {
+        LogStructuredReader<Thing> a = dirStor.reader("a");
+        LogStructuredReader<Thing> b = dirStor.reader("b");
+        LogStructuredAppender<Thing> appender = dirStor.appender();
+        List<Thing> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            expected.add(appender.append(new Thing(i)));
+        }
+        appender.close();
+        int files = ((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().size();
+        assertTrue(files > 1, "Test needs several files");
+
+        List<Thing> gotA = new ArrayList<>();
+        while (a.hasUnread()) {
+            gotA.add(a.readAndAdvance());
+        }
+        a.discardCommitted();
+        a.close();
+        a.deleteIfAllReadAndAdvanced();
+        assertEquals(expected, gotA);
+        assertEquals(files, ((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().size(),
+                "Files deleted before all consumers read them");
+        assertFalse(dirStor.isFullyRead());
+
+        List<Thing> gotB = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            gotB.add(b.readAndAdvance());
+        }
+        b.discardCommitted();
+        b.close();
+        b = dirStor.reader("b");
+        while (b.hasUnread()) {
+            gotB.add(b.readAndAdvance());
+        }
+        b.close();
+        b.deleteIfAllReadAndAdvanced();
+        assertEquals(expected, gotB);
+        assertTrue(dirStor.isFullyRead());
+        assertTrue(((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().isEmpty());
+    }
+
+    @Test
+    public void testDefaultConsumerOpenedBeforeNamedOne() throws IOException {
+        LogStructuredReader<Thing> def = dirStor.reader();
+        LogStructuredReader<Thing> x = dirStor.reader("x");
+        LogStructuredAppender<Thing> appender = dirStor.appender();
+        List<Thing> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            expected.add(appender.append(new Thing(i)));
+        }
+        appender.close();
+        int files = ((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().size();
+        assertTrue(files > 1, "Test needs several files");
+
+        List<Thing> gotX = new ArrayList<>();
+        while (x.hasUnread()) {
+            gotX.add(x.readAndAdvance());
+        }
+        x.discardCommitted();
+        x.close();
+        x.deleteIfAllReadAndAdvanced();
+        assertEquals(expected, gotX);
+        assertEquals(files, ((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().size(),
+                "Files deleted before the default consumer, which had not "
+                + "committed anything yet, read them");
+        assertFalse(dirStor.isFullyRead());
+
+        List<Thing> gotDefault = new ArrayList<>();
+        while (def.hasUnread()) {
+            gotDefault.add(def.readAndAdvance());
+        }
+        def.close();
+        def.deleteIfAllReadAndAdvanced();
+        assertEquals(expected, gotDefault);
+        assertTrue(dirStor.isFullyRead());
+        assertTrue(((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().isEmpty());
+    }
+
+    @Test
+    public void testNamedConsumersOverFile() throws IOException {
+        LogStructuredReader<Thing> x = stor.reader("x");
+        LogStructuredReader<Thing> y = stor.reader("y");
+        LogStructuredAppender<Thing> appender = stor.appender();
+        for (int i = 0; i < 100; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+        for (int i = 0; i < 60; i++) {
+            assertEquals(new Thing(i), x.readAndAdvance());
+        }
+        x.discardCommitted();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(new Thing(i), y.readAndAdvance());
+        }
+        y.discardCommitted();
+        assertEquals(new Thing(60), x.readAndAdvance());
+        assertEquals(new Thing(10), y.readAndAdvance());
+        x.close();
+        y.close();
+        try {
+            stor.reader("no spaces");
+            throw new AssertionError("Bad name accepted");
+        } catch (IllegalArgumentException ex) {
+            // ok
+        }
+        stor.delete();
+    }
+
+    @Test
+    public void testCompressedSegments() throws IOException {
+        LogStructuredStorage<Thing> compressed = dirStor.compressed(BlockCodec.deflate(), Runnable::run)
+                .indexed(20, thing -> thing.id());
+        LogStructuredAppender<Thing> appender = compressed.appender();
+        List<Thing> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            expected.add(appender.append(new Thing(i)));
+        }
+        appender.close();
+        long compressedFiles;
+        try (Stream<Path> str = Files.list(dir)) {
+            compressedFiles = str.filter(p -> p.toString().endsWith(CompressedSegment.COMPRESSED_EXT)).count();
+        }
+        assertTrue(compressedFiles > 1, "No files compressed");
+        int files = ((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().size();
+        assertTrue(files > compressedFiles);
+
+        LogStructuredReader<Thing> reader = compressed.reader();
+        assertTrue(reader.seek(1717));
+        assertEquals(new Thing(1717), reader.readAndAdvance());
+        assertTrue(reader.seekToKey(0));
+        List<Thing> got = new ArrayList<>();
+        for (int i = 0; reader.hasUnread(); i++) {
+            if (i % 2 == 0) {
+                UnadvancedRead<Thing> read = reader.read();
+                got.add(read.get());
+                read.advance();
+            } else {
+                got.add(reader.readAndAdvance());
+            }
+        }
+        assertEquals(expected, got);
+        reader.close();
+        reader.deleteIfAllReadAndAdvanced();
+        assertTrue(((LogStructuredFileDirImpl<Thing>) dirStor).allFiles().isEmpty());
+    }
+
+    @Test
+    public void testSegmentSealedDuringCompressionPassIsCompressed() throws IOException {
+        List<Runnable> tasks = new ArrayList<>();
+        LogStructuredStorage<Thing> compressed = dirStor.compressed(BlockCodec.deflate(), tasks::add);
+        LogStructuredAppender<Thing> appender = compressed.appender();
+        LogStructuredFileDirImpl<Thing> impl = (LogStructuredFileDirImpl<Thing>) dirStor;
+        int count = 0;
+        while (tasks.isEmpty()) {
+            appender.append(new Thing(count++));
+        }
+        // Fill the second file until it rolls over, while the first pass has
+        // yet to run
+        List<Path> files = impl.allFiles();
+        while (files.size() < 2 || Files.size(files.get(1)) < 32768) {
+            appender.append(new Thing(count++));
+            files = impl.allFiles();
+        }
+        assertEquals(2, files.size(), files::toString);
+        assertEquals(1, tasks.size(), "Second pass scheduled while the first is pending");
+        tasks.remove(0).run();
+        assertTrue(tasks.isEmpty());
+        for (Path p : files) {
+            assertTrue(CompressedSegment.isCompressed(p), p + " not compressed");
+        }
+        appender.close();
+        List<Thing> got = readAll(compressed);
+        assertEquals(count, got.size());
+        for (int i = 0; i < got.size(); i++) {
+            assertEquals(new Thing(i), got.get(i));
+        }
+    }
+
+    private static List<Thing> readAll(LogStructuredStorage<Thing> s) throws IOException {
+        List<Thing> result = new ArrayList<>();
+        LogStructuredReader<Thing> reader = s.reader();
+        while (reader.hasUnread()) {
+            UnadvancedRead<Thing> read = reader.read();
+            result.add(read.get());
+            read.advance();
+        }
+        return result;
+    }
+
     class R implements Runnable {
 
         private final int base;
@@ -186,6 +651,162 @@ public class LogStructuredStorageTest {
         }
     }
 
+    @Test
+    public void testTailNotifiersReleasedOnClose() throws Exception {
+        for (LogStructuredStorage<Thing> s : Arrays.<LogStructuredStorage<Thing>>asList(stor, dirStor)) {
+            int before = TailNotifier.liveNotifiers();
+            LogStructuredReader<Thing> a = s.reader();
+            LogStructuredReader<Thing> b = s.reader();
+            assertFalse(a.awaitUnread(Duration.ofMillis(10)), s.toString());
+            assertFalse(b.awaitUnread(Duration.ofMillis(10)), s.toString());
+            assertEquals(before + 1, TailNotifier.liveNotifiers(), s.toString());
+            a.close();
+            assertEquals(before + 1, TailNotifier.liveNotifiers(),
+                    "Notifier discarded while still held in " + s);
+            b.close();
+            assertEquals(before, TailNotifier.liveNotifiers(),
+                    "Notifier not discarded after its readers were closed in " + s);
+        }
+    }
+
+    @Test
+    public void testWritesByOtherProcessesSeenAfterNotifierDiscarded() throws Exception {
+        // Write behind the appender's back, so only the file watch can wake
+        // the reader; the second round checks a discarded watch is replaced
+        ThingSerde serde = new ThingSerde();
+        for (int i = 0; i < 2; i++) {
+            LogStructuredReader<Thing> reader = stor.reader();
+            CompletableFuture<Long> woke = new CompletableFuture<>();
+            Thread waiter = new Thread(() -> {
+                try {
+                    assertTrue(reader.awaitUnread(Duration.ofSeconds(20)));
+                    woke.complete(System.nanoTime());
+                } catch (Exception | AssertionError ex) {
+                    woke.completeExceptionally(ex);
+                }
+            });
+            waiter.start();
+            Thread.sleep(300);
+            long written = System.nanoTime();
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                serde.serialize(new Thing(i), ch);
+            }
+            long elapsed = woke.get(20, TimeUnit.SECONDS) - written;
+            assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5), "Took "
+                    + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms to notice write " + i);
+            assertEquals(new Thing(i), reader.readAndAdvance());
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testTailingReader() throws Exception {
+        for (LogStructuredStorage<Thing> s : Arrays.<LogStructuredStorage<Thing>>asList(stor, dirStor)) {
+            LogStructuredReader<Thing> reader = s.reader();
+            long start = System.nanoTime();
+            assertNull(reader.poll(Duration.ofMillis(100)), s.toString());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            LogStructuredAppender<Thing> appender = s.appender();
+            List<Thing> expected = new ArrayList<>();
+            for (int i = 0; i < 600; i++) {
+                expected.add(new Thing(i));
+            }
+            Thread writer = new Thread(() -> {
+                try {
+                    for (Thing t : expected) {
+                        // Single write per record, so a tailing reader never
+                        // sees half a record
+                        appender.appendAll(Collections.singletonList(t));
+                        if (t.id() % 50 == 0) {
+                            Thread.sleep(5);
+                        }
+                    }
+                } catch (IOException | InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+            List<Thing> got = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 200; i++) {
+                got.add(reader.take());
+            }
+            for (int i = 0; i < 200; i++) {
+                Thing t = reader.poll(Duration.ofSeconds(10));
+                assertNotNull(t, "Timed out after " + got.size() + " in " + s);
+                got.add(t);
+            }
+            CountDownLatch latch = new CountDownLatch(200);
+            Runnable cancel = reader.subscribe(t -> {
+                got.add(t);
+                latch.countDown();
+            });
+            assertTrue(latch.await(10, TimeUnit.SECONDS), "Subscriber got " + got.size() + " in " + s);
+            cancel.run();
+            writer.join(10000);
+            assertEquals(expected, got, s.toString());
+            assertNull(reader.poll(Duration.ofMillis(20)));
+            appender.close();
+        }
+    }
+
+    @Test
+    public void testSubscriberFailures() throws Exception {
+        LogStructuredAppender<Thing> appender = stor.appender();
+        for (int i = 0; i < 5; i++) {
+            appender.append(new Thing(i));
+        }
+        appender.close();
+
+        LogStructuredReader<Thing> reader = stor.reader();
+        List<Thing> got = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runnable cancel = reader.subscribe(t -> {
+            got.add(t);
+            if (t.id() == 1) {
+                throw new IllegalStateException("fail " + t);
+            }
+        }, (t, ex) -> {
+            stopped.countDown();
+            return SubscriptionErrorHandler.Recovery.STOP;
+        });
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+        cancel.run();
+        assertEquals(Arrays.asList(new Thing(0), new Thing(1)), got);
+        assertEquals(new Thing(1), reader.readAndAdvance(), "Failed record should be left unread");
+
+        got.clear();
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        cancel = reader.subscribe(t -> {
+            got.add(t);
+            if (t.id() == 2 && failedOnce.compareAndSet(false, true)) {
+                throw new IllegalStateException("fail " + t);
+            }
+            if (t.id() == 3) {
+                throw new IllegalStateException("fail " + t);
+            }
+            if (t.id() == 4) {
+                done.countDown();
+            }
+        }, (t, ex) -> t.id() == 2
+                ? SubscriptionErrorHandler.Recovery.RETRY
+                : SubscriptionErrorHandler.Recovery.SKIP);
+        assertTrue(done.await(10, TimeUnit.SECONDS), "Got " + got);
+        cancel.run();
+        assertEquals(Arrays.asList(new Thing(2), new Thing(2), new Thing(3), new Thing(4)), got);
+        assertFalse(reader.hasUnread());
+
+        // An idle subscription parks until woken, so cancelling must wake it
+        cancel = reader.subscribe(got::add);
+        Thread.sleep(50);
+        long start = System.nanoTime();
+        cancel.run();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1),
+                "Cancelling an idle subscription took too long");
+        reader.close();
+    }
+
     @Test
     public void sanityCheck() throws IOException {
         ThingSerde things = new ThingSerde();
@@ -225,12 +846,22 @@ public class LogStructuredStorageTest {
     public void teardown() throws IOException {
         pool.close();
         FileUtils.deleteIfExists(file);
+        FileUtils.deleteIfExists(SparseIndex.indexFile(file));
+        stor.delete();
         dirStor.delete();
         FileUtils.deltree(dir);
     }
 
     static final class ThingSerde implements Serde<Thing> {
 
+        @Override
+        public Thing deserialize(Path in, ByteBuffer buffer) throws LeaseException, IOException {
+            int length = buffer.getInt();
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new Thing(bytes);
+        }
+
         @Override
         public <C extends java.nio.channels.WritableByteChannel & java.nio.channels.SeekableByteChannel> void serialize(Thing obj, C channel) throws IOException {
             byte[] bytes = obj.toByteArray();
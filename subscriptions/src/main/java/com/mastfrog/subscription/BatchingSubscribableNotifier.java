@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import static com.mastfrog.subscription.DeliveryStrategy.BATCHING;
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Accumulates events per key while a delivery for that key is pending, and
+ * delivers them in order, in batches, so that a burst of events costs one
+ * executor task per batch rather than one per event. State is kept per key
+ * in a ConcurrentHashMap, and only touched within <code>compute()</code>
+ * for that key, so events for different keys do not contend for a lock.
+ *
+ * @author Tim Boudreau
+ */
+final class BatchingSubscribableNotifier<K, E> implements SubscribableNotifier<K, E> {
+
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final SubscribableNotifier<K, E> delegate;
+    private final ConcurrentHashMap<K, Batch> pending = new ConcurrentHashMap<>();
+
+    BatchingSubscribableNotifier(Executor executor, int maxBatchSize, SubscribableNotifier<K, E> delegate) {
+        this.executor = notNull("executor", executor);
+        this.maxBatchSize = greaterThanZero("maxBatchSize", maxBatchSize);
+        this.delegate = notNull("delegate", delegate);
+    }
+
+    @Override
+    public DeliveryStrategy deliveryStrategy() {
+        return BATCHING;
+    }
+
+    @Override
+    public void onEvent(K key, E event) {
+        boolean[] created = new boolean[1];
+        Batch result = pending.compute(key, (k, batch) -> {
+            if (batch == null) {
+                batch = new Batch(k);
+                created[0] = true;
+            }
+            batch.add(event);
+            return batch;
+        });
+        if (created[0]) {
+            schedule(result);
+        }
+    }
+
+    @Override
+    public void onEvents(K key, List<? extends E> events) {
+        boolean[] created = new boolean[1];
+        Batch result = pending.compute(key, (k, batch) -> {
+            if (batch == null) {
+                batch = new Batch(k);
+                created[0] = true;
+            }
+            for (E event : events) {
+                batch.add(event);
+            }
+            return batch;
+        });
+        if (created[0]) {
+            schedule(result);
+        }
+    }
+
+    private void schedule(Batch batch) {
+        try {
+            executor.execute(batch);
+        } catch (RuntimeException | Error e) {
+            // Otherwise every later event for the key would be buffered
+            // behind a task which will never run
+            pending.remove(batch.key, batch);
+            throw e;
+        }
+    }
+
+    final class Batch implements Runnable {
+
+        private final K key;
+        private Object[] events = new Object[8];
+        private int count;
+        // Only read and written by the single task in flight for our key
+        private List<E> inFlight;
+
+        Batch(K key) {
+            this.key = key;
+        }
+
+        // Only called within pending.compute() for our key
+        void add(E event) {
+            if (count == events.length) {
+                events = Arrays.copyOf(events, count * 2);
+            }
+            events[count++] = event;
+        }
+
+        // Likewise
+        @SuppressWarnings("unchecked")
+        private List<E> take() {
+            int n = Math.min(count, maxBatchSize);
+            Object[] result = Arrays.copyOf(events, n);
+            System.arraycopy(events, n, events, 0, count - n);
+            Arrays.fill(events, count - n, count, null);
+            count -= n;
+            return (List<E>) Arrays.asList(result);
+        }
+
+        @Override
+        public void run() {
+            pending.computeIfPresent(key, (k, b) -> {
+                inFlight = take();
+                return b;
+            });
+            try {
+                if (inFlight != null && !inFlight.isEmpty()) {
+                    delegate.onEvents(key, inFlight);
+                }
+            } finally {
+                // Only one task per key is ever in flight, which keeps
+                // per-key ordering with a multi-threaded executor
+                Batch next = pending.computeIfPresent(key, (k, b) -> {
+                    return b.count > 0 ? b : null;
+                });
+                inFlight = null;
+                if (next != null) {
+                    schedule(next);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import com.mastfrog.util.collections.MapFactories;
+import com.mastfrog.util.collections.MapFactory;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A subscribers store for read-mostly use, where the subscribers to each key
+ * are an immutable array which is replaced wholesale when a subscriber is
+ * added or removed. Looking up and iterating subscribers during event
+ * delivery takes no lock and copies nothing; mutations are serialized on the
+ * store and pay for a copy of that key's subscribers.
+ * <p>
+ * With the equality-based map types and IDENTITY_WITHOUT_REFERENCE, the key
+ * lookup is lock-free as well; other map types (such as WEAK) are used via
+ * their synchronized wrappers, so only the lookup takes a lock. Subscribers
+ * are strongly referenced, and compared by equality unless identity
+ * comparison was requested.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class CopyOnWriteSubscribersStore<K, C> implements SubscribersStore<K, C>, SubscribersStoreController<K, C> {
+
+    private final Index<K, C> index;
+    private final boolean identitySubscribers;
+
+    CopyOnWriteSubscribersStore(int targetSize, MapFactory type, boolean identitySubscribers) {
+        notNull("type", type);
+        if (!type.isMapBased()) {
+            index = new IdentityHashIndex<>();
+        } else if (type == MapFactories.EQUALITY || type == MapFactories.EQUALITY_CONCURRENT) {
+            index = new MapIndex<>(new ConcurrentHashMap<>(targetSize));
+        } else {
+            index = new MapIndex<>(type.createMap(targetSize, true));
+        }
+        this.identitySubscribers = identitySubscribers;
+    }
+
+    @Override
+    public Collection<? extends C> subscribersTo(K key) {
+        Subscribers<C> result = index.get(key);
+        return result == null ? Subscribers.empty() : result;
+    }
+
+    @Override
+    public Collection<? extends K> subscribedKeys() {
+        return index.keys();
+    }
+
+    @Override
+    public boolean isKeysRetrievalSupported() {
+        return index.isKeysRetrievalSupported();
+    }
+
+    @Override
+    public synchronized boolean add(K key, C subscriber) {
+        notNull("subscriber", subscriber);
+        Subscribers<C> old = index.get(key);
+        if (old == null) {
+            index.put(key, new Subscribers<>(new Object[]{subscriber}));
+            return true;
+        }
+        if (old.indexOf(subscriber, identitySubscribers) >= 0) {
+            return false;
+        }
+        index.put(key, old.adding(subscriber));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(K key, C subscriber) {
+        Subscribers<C> old = index.get(key);
+        if (old == null) {
+            return false;
+        }
+        int ix = old.indexOf(subscriber, identitySubscribers);
+        if (ix < 0) {
+            return false;
+        }
+        if (old.size() == 1) {
+            index.remove(key);
+        } else {
+            index.put(key, old.removing(ix));
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void removeAll(K key) {
+        index.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+    }
+
+    /**
+     * An immutable snapshot of the subscribers to one key.
+     */
+    static final class Subscribers<C> extends AbstractCollection<C> {
+
+        private static final Subscribers<Object> EMPTY = new Subscribers<>(new Object[0]);
+        private final Object[] items;
+
+        Subscribers(Object[] items) {
+            this.items = items;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <C> Subscribers<C> empty() {
+            return (Subscribers<C>) EMPTY;
+        }
+
+        int indexOf(Object o, boolean identity) {
+            for (int i = 0; i < items.length; i++) {
+                if (identity ? items[i] == o : items[i].equals(o)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Subscribers<C> adding(C item) {
+            Object[] nue = Arrays.copyOf(items, items.length + 1);
+            nue[items.length] = item;
+            return new Subscribers<>(nue);
+        }
+
+        Subscribers<C> removing(int index) {
+            Object[] nue = new Object[items.length - 1];
+            System.arraycopy(items, 0, nue, 0, index);
+            System.arraycopy(items, index + 1, nue, index, nue.length - index);
+            return new Subscribers<>(nue);
+        }
+
+        @Override
+        public int size() {
+            return items.length;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return items.length == 0;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o != null && indexOf(o, false) >= 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(Consumer<? super C> action) {
+            for (Object o : items) {
+                action.accept((C) o);
+            }
+        }
+
+        @Override
+        public Object[] toArray() {
+            return items.clone();
+        }
+
+        @Override
+        public Iterator<C> iterator() {
+            return new Iterator<C>() {
+                private int cursor;
+
+                @Override
+                public boolean hasNext() {
+                    return cursor < items.length;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public C next() {
+                    if (cursor >= items.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return (C) items[cursor++];
+                }
+            };
+        }
+    }
+
+    interface Index<K, C> {
+
+        Subscribers<C> get(K key);
+
+        void put(K key, Subscribers<C> subscribers);
+
+        void remove(K key);
+
+        void clear();
+
+        Collection<? extends K> keys();
+
+        default boolean isKeysRetrievalSupported() {
+            return true;
+        }
+    }
+
+    static final class MapIndex<K, C> implements Index<K, C> {
+
+        private final Map<K, Subscribers<C>> map;
+
+        MapIndex(Map<K, Subscribers<C>> map) {
+            this.map = map;
+        }
+
+        @Override
+        public Subscribers<C> get(K key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void put(K key, Subscribers<C> subscribers) {
+            map.put(key, subscribers);
+        }
+
+        @Override
+        public void remove(K key) {
+            map.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public Collection<? extends K> keys() {
+            // Required when iterating a Collections.synchronizedMap, and
+            // harmless for a ConcurrentHashMap
+            synchronized (map) {
+                return new ArrayList<>(map.keySet());
+            }
+        }
+    }
+
+    /**
+     * Maps identity hash codes to subscribers without referencing keys, as
+     * sorted parallel arrays which are replaced when a key is added or
+     * removed.
+     */
+    static final class IdentityHashIndex<K, C> implements Index<K, C> {
+
+        private static final Snapshot EMPTY_SNAPSHOT
+                = new Snapshot(new int[0], new Subscribers<?>[0]);
+        private volatile Snapshot snapshot = EMPTY_SNAPSHOT;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Subscribers<C> get(K key) {
+            Snapshot snap = snapshot;
+            int ix = Arrays.binarySearch(snap.hashes, System.identityHashCode(key));
+            return ix < 0 ? null : (Subscribers<C>) snap.subscribers[ix];
+        }
+
+        @Override
+        public void put(K key, Subscribers<C> subscribers) {
+            Snapshot snap = snapshot;
+            int hash = System.identityHashCode(key);
+            int ix = Arrays.binarySearch(snap.hashes, hash);
+            if (ix >= 0) {
+                Subscribers<?>[] subs = snap.subscribers.clone();
+                subs[ix] = subscribers;
+                snapshot = new Snapshot(snap.hashes, subs);
+                return;
+            }
+            int insert = -ix - 1;
+            int len = snap.hashes.length;
+            int[] hashes = new int[len + 1];
+            Subscribers<?>[] subs = new Subscribers<?>[len + 1];
+            System.arraycopy(snap.hashes, 0, hashes, 0, insert);
+            System.arraycopy(snap.subscribers, 0, subs, 0, insert);
+            hashes[insert] = hash;
+            subs[insert] = subscribers;
+            System.arraycopy(snap.hashes, insert, hashes, insert + 1, len - insert);
+            System.arraycopy(snap.subscribers, insert, subs, insert + 1, len - insert);
+            snapshot = new Snapshot(hashes, subs);
+        }
+
+        @Override
+        public void remove(K key) {
+            Snapshot snap = snapshot;
+            int ix = Arrays.binarySearch(snap.hashes, System.identityHashCode(key));
+            if (ix < 0) {
+                return;
+            }
+            int len = snap.hashes.length - 1;
+            int[] hashes = new int[len];
+            Subscribers<?>[] subs = new Subscribers<?>[len];
+            System.arraycopy(snap.hashes, 0, hashes, 0, ix);
+            System.arraycopy(snap.subscribers, 0, subs, 0, ix);
+            System.arraycopy(snap.hashes, ix + 1, hashes, ix, len - ix);
+            System.arraycopy(snap.subscribers, ix + 1, subs, ix, len - ix);
+            snapshot = new Snapshot(hashes, subs);
+        }
+
+        @Override
+        public void clear() {
+            snapshot = EMPTY_SNAPSHOT;
+        }
+
+        @Override
+        public boolean isKeysRetrievalSupported() {
+            return false;
+        }
+
+        @Override
+        public Collection<? extends K> keys() {
+            throw new UnsupportedOperationException("Key iteration not supported.");
+        }
+
+        private static final class Snapshot {
+
+            private final int[] hashes;
+            private final Subscribers<?>[] subscribers;
+
+            Snapshot(int[] hashes, Subscribers<?>[] subscribers) {
+                this.hashes = hashes;
+                this.subscribers = subscribers;
+            }
+        }
+    }
+}
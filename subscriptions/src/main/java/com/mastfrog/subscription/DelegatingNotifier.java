@@ -23,6 +23,8 @@
  */
 package com.mastfrog.subscription;
 
+import java.util.List;
+
 /**
  *
  * @author Tim Boudreau
@@ -41,4 +43,9 @@ final class DelegatingNotifier<K, E> implements SubscribableNotifier<K, E> {
         delegate.onEvent(key, event);
     }
 
+    @Override
+    public void onEvents(K key, List<? extends E> events) {
+        delegate.onEvents(key, events);
+    }
+
 }
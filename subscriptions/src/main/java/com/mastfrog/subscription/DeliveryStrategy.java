@@ -31,5 +31,15 @@ public enum DeliveryStrategy {
 
     SYNCHRONOUS,
     ASYNCHRONOUS,
-    COALESCING
+    COALESCING,
+    /**
+     * Events are accumulated per key and delivered to subscribers as a list,
+     * one executor task per batch rather than per event.
+     */
+    BATCHING,
+    /**
+     * Keys are hashed onto a fixed number of lanes, each of which delivers
+     * its events in order on at most one thread at a time.
+     */
+    PARTITIONED
 }
@@ -24,6 +24,8 @@
 package com.mastfrog.subscription;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
@@ -43,6 +45,20 @@ public interface EventApplier<K, E, C> {
 
     void apply(K key, E event, Collection<? extends C> consumers);
 
+    /**
+     * Apply a batch of events for one key; the default implementation calls
+     * <code>apply()</code> for each event.
+     *
+     * @param key The key
+     * @param events The events, in the order they occurred
+     * @param consumers The subscribers
+     */
+    default void applyAll(K key, List<? extends E> events, Collection<? extends C> consumers) {
+        for (E event : events) {
+            apply(key, event, consumers);
+        }
+    }
+
     default EventApplier<K, E, C> filter(BiPredicate<K, E> tester) {
         return (k, e, consumers) -> {
             if (tester.test(k, e)) {
@@ -94,4 +110,62 @@ public interface EventApplier<K, E, C> {
             }
         };
     }
+
+    /**
+     * Creates an applier for subscribers which want to receive events in
+     * batches; when used with batching delivery, each subscriber gets all
+     * the events in a batch in one call; otherwise it gets a list of one.
+     *
+     * @param <K> The key type
+     * @param <E> The event type
+     * @return An applier
+     */
+    static <K, E> EventApplier<K, E, Consumer<? super List<E>>> batchConsumers() {
+        return new EventApplier<K, E, Consumer<? super List<E>>>() {
+            @Override
+            public void apply(K key, E event, Collection<? extends Consumer<? super List<E>>> consumers) {
+                List<E> list = Collections.singletonList(event);
+                for (Consumer<? super List<E>> c : consumers) {
+                    c.accept(list);
+                }
+            }
+
+            @Override
+            public void applyAll(K key, List<? extends E> events, Collection<? extends Consumer<? super List<E>>> consumers) {
+                List<E> list = Collections.unmodifiableList(events);
+                for (Consumer<? super List<E>> c : consumers) {
+                    c.accept(list);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates an applier for subscribers which want to receive the key and
+     * events in batches.
+     *
+     * @see #batchConsumers()
+     * @param <K> The key type
+     * @param <E> The event type
+     * @return An applier
+     */
+    static <K, E> EventApplier<K, E, BiConsumer<? super K, ? super List<E>>> batchBiconsumers() {
+        return new EventApplier<K, E, BiConsumer<? super K, ? super List<E>>>() {
+            @Override
+            public void apply(K key, E event, Collection<? extends BiConsumer<? super K, ? super List<E>>> consumers) {
+                List<E> list = Collections.singletonList(event);
+                for (BiConsumer<? super K, ? super List<E>> c : consumers) {
+                    c.accept(key, list);
+                }
+            }
+
+            @Override
+            public void applyAll(K key, List<? extends E> events, Collection<? extends BiConsumer<? super K, ? super List<E>>> consumers) {
+                List<E> list = Collections.unmodifiableList(events);
+                for (BiConsumer<? super K, ? super List<E>> c : consumers) {
+                    c.accept(key, list);
+                }
+            }
+        };
+    }
 }
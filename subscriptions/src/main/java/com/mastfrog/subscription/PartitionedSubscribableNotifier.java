@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import static com.mastfrog.subscription.DeliveryStrategy.PARTITIONED;
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import com.mastfrog.util.collections.MpscQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Hashes keys onto a fixed number of lanes, each of which is a
+ * multi-producer, single-consumer queue drained by at most one executor
+ * thread at a time; events for one key are delivered in order, and a task is
+ * only submitted when a lane goes from idle to busy.
+ *
+ * @author Tim Boudreau
+ */
+final class PartitionedSubscribableNotifier<K, E> implements SubscribableNotifier<K, E> {
+
+    private static final int DRAIN_LIMIT = 256;
+    private final Executor executor;
+    private final SubscribableNotifier<K, E> delegate;
+    private final List<Lane> lanes;
+
+    PartitionedSubscribableNotifier(Executor executor, int laneCount, SubscribableNotifier<K, E> delegate) {
+        this.executor = notNull("executor", executor);
+        this.delegate = notNull("delegate", delegate);
+        lanes = new ArrayList<>(greaterThanZero("laneCount", laneCount));
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new Lane());
+        }
+    }
+
+    @Override
+    public DeliveryStrategy deliveryStrategy() {
+        return PARTITIONED;
+    }
+
+    @Override
+    public void onEvent(K key, E event) {
+        lanes.get(laneFor(key)).add(key, event);
+    }
+
+    private int laneFor(K key) {
+        int hash = key == null ? 0 : key.hashCode();
+        return Math.floorMod((hash ^ (hash >>> 16)) * 0x9E3779B9, lanes.size());
+    }
+
+    private static final class Pair<K, E> {
+
+        private final K key;
+        private final E event;
+
+        Pair(K key, E event) {
+            this.key = key;
+            this.event = event;
+        }
+    }
+
+    final class Lane implements Runnable, Consumer<Pair<K, E>> {
+
+        private final MpscQueue<Pair<K, E>> queue = MpscQueue.unbounded();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void add(K key, E event) {
+            queue.offer(new Pair<>(key, event));
+            if (scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RuntimeException | Error e) {
+                // Leave the events queued for the next add() to schedule,
+                // rather than leaving the lane marked busy forever
+                scheduled.set(false);
+                throw e;
+            }
+        }
+
+        @Override
+        public void accept(Pair<K, E> pair) {
+            delegate.onEvent(pair.key, pair.event);
+        }
+
+        @Override
+        public void run() {
+            try {
+                queue.drain(this, DRAIN_LIMIT);
+            } finally {
+                scheduled.set(false);
+                // Anything offered after the drain finished but before the
+                // flag was cleared would otherwise sit until the next event
+                if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
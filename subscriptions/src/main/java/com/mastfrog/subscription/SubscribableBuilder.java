@@ -29,6 +29,7 @@ import com.mastfrog.util.collections.SetFactories;
 import com.mastfrog.function.TriConsumer;
 import com.mastfrog.util.collections.MapFactory;
 import com.mastfrog.util.preconditions.Checks;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -102,6 +103,15 @@ public final class SubscribableBuilder {
             return withEventApplier(app);
         }
 
+        public <E> EventSubscribableBuilder<K, IK, E, Consumer<? super List<E>>> batchConsumers() {
+            return withEventApplier(EventApplier.batchConsumers());
+        }
+
+        public <E> EventSubscribableBuilder<K, IK, E, BiConsumer<? super IK, ? super List<E>>> batchBiconsumers() {
+            EventApplier<IK, E, BiConsumer<? super IK, ? super List<E>>> app = EventApplier.batchBiconsumers();
+            return withEventApplier(app);
+        }
+
         public <E, C> EventSubscribableBuilder<K, IK, E, C> withEventApplier(EventApplier<? super IK, ? super E, ? super C> applier) {
             return new EventSubscribableBuilder<>(keyType, keys, applier);
         }
@@ -128,6 +138,24 @@ public final class SubscribableBuilder {
             return new StoreSubscribableBuilder<>(keyType, keys, applier, store);
         }
 
+        /**
+         * Store subscribers in immutable per-key arrays which are replaced
+         * on subscription changes, so event delivery can look up and
+         * iterate subscribers without locking or copying; best when events
+         * vastly outnumber subscribes and unsubscribes.
+         *
+         * @param targetSize The initial key map size
+         * @param type The type of key map
+         * @param identitySubscribers If true, compare subscribers by
+         * identity rather than equality
+         * @return A builder
+         */
+        public StoreSubscribableBuilder<K, IK, C, E> storingSubscribersCopyOnWrite(int targetSize, MapFactory type, boolean identitySubscribers) {
+            SubscribersStoreImpl<IK, C> store = new SubscribersStoreImpl<>(
+                    new CopyOnWriteSubscribersStore<>(targetSize, type, identitySubscribers));
+            return new StoreSubscribableBuilder<>(keyType, keys, applier, store);
+        }
+
         public SubscriberStorageBuilder<K, IK, E, C> storingSubscribersIn(SetFactory<Object> supp) {
             return new SubscriberStorageBuilder<>(this).withSets(supp);
         }
@@ -191,6 +219,20 @@ public final class SubscribableBuilder {
             return outer.storingSubscribers(initialKeyMapSize, mappingType,
                     sets.setSupplier(initialSubscriberSetSize, threadSafe));
         }
+
+        /**
+         * Build a store whose per-key subscribers are copy-on-write arrays;
+         * subscribers are compared by identity if the set type passed to
+         * <code>withSets()</code> is an identity set, and by equality
+         * otherwise.
+         *
+         * @return A builder
+         */
+        public StoreSubscribableBuilder<K, IK, C, E> copyOnWrite() {
+            boolean identity = sets == SetFactories.IDENTITY
+                    || sets == SetFactories.CONCURRENT_IDENTITY;
+            return outer.storingSubscribersCopyOnWrite(initialKeyMapSize, mappingType, identity);
+        }
     }
 
     public static final class StoreSubscribableBuilder<K, IK, C, E> {
@@ -220,6 +262,22 @@ public final class SubscribableBuilder {
             return new FinishableSubscribableBuilder<>(keyType, keys, applier, store, del, del.async(ForkJoinPool.commonPool()));
         }
 
+        public FinishableSubscribableBuilder<K, IK, E, C> withBatchedEventDelivery(Executor executor, int maxBatchSize) {
+            return new FinishableSubscribableBuilder<>(keyType, keys, applier, store, del, del.batching(executor, Checks.greaterThanZero("maxBatchSize", maxBatchSize)));
+        }
+
+        public FinishableSubscribableBuilder<K, IK, E, C> withBatchedEventDelivery(int maxBatchSize) {
+            return withBatchedEventDelivery(ForkJoinPool.commonPool(), maxBatchSize);
+        }
+
+        public FinishableSubscribableBuilder<K, IK, E, C> withPartitionedEventDelivery(Executor executor, int lanes) {
+            return new FinishableSubscribableBuilder<>(keyType, keys, applier, store, del, del.partitioned(executor, Checks.greaterThanZero("lanes", lanes)));
+        }
+
+        public FinishableSubscribableBuilder<K, IK, E, C> withPartitionedEventDelivery(int lanes) {
+            return withPartitionedEventDelivery(ForkJoinPool.commonPool(), lanes);
+        }
+
         public FinishableSubscribableBuilder<K, IK, E, C> withEventDelivery(Function<SubscribableNotifier<K, E>, SubscribableNotifier<? super K, ? super E>> xform) {
             return new FinishableSubscribableBuilder<>(keyType, keys, applier, store, del, xform.apply(del));
         }
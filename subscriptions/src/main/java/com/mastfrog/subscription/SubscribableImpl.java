@@ -26,6 +26,7 @@ package com.mastfrog.subscription;
 import com.mastfrog.function.TriConsumer;
 import static com.mastfrog.util.preconditions.Checks.notNull;
 import java.util.Collection;
+import java.util.List;
 
 /**
  *
@@ -91,6 +92,17 @@ class SubscribableImpl<K, IK, C, E> extends AbstractCacheMaintainer<K> implement
         internalOnEvent(internalKey, event);
     }
 
+    @Override
+    public void onEvents(K key, List<? extends E> events) {
+        if (!events.isEmpty()) {
+            IK internalKey = keys.constructKey(key);
+            Collection<? extends C> consumers = store.subscribersTo(internalKey);
+            if (!consumers.isEmpty()) {
+                applier.applyAll(internalKey, events, consumers);
+            }
+        }
+    }
+
     @Override
     public void destroyed(K type) {
         storeModifier.removeAll(keys.constructKey(type));
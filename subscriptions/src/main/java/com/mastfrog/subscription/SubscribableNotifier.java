@@ -24,6 +24,7 @@
 package com.mastfrog.subscription;
 
 import com.mastfrog.util.collections.MapFactory;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
@@ -48,6 +49,21 @@ public interface SubscribableNotifier<K, E> {
      */
     void onEvent(K key, E event);
 
+    /**
+     * Publish a batch of events to subscribers to one key, in order. The
+     * default implementation calls <code>onEvent()</code> for each; the
+     * notifier which looks up subscribers overrides it to do so once per
+     * batch, and hand the whole list to the EventApplier.
+     *
+     * @param key The key object
+     * @param events The events
+     */
+    default void onEvents(K key, List<? extends E> events) {
+        for (E event : events) {
+            onEvent(key, event);
+        }
+    }
+
     default DeliveryStrategy deliveryStrategy() {
         return DeliveryStrategy.SYNCHRONOUS;
     }
@@ -64,6 +80,8 @@ public interface SubscribableNotifier<K, E> {
         switch (deliveryStrategy()) {
             case ASYNCHRONOUS:
             case COALESCING:
+            case BATCHING:
+            case PARTITIONED:
                 throw new IllegalStateException("Already asynchronous or coalescing-async");
         }
         return new SubscribableNotifier<K, E>() {
@@ -89,6 +107,8 @@ public interface SubscribableNotifier<K, E> {
         switch (deliveryStrategy()) {
             case ASYNCHRONOUS:
             case COALESCING:
+            case BATCHING:
+            case PARTITIONED:
                 throw new IllegalStateException("Already asynchronous or coalescing-async");
         }
         return new SubscribableNotifier<K, E>() {
@@ -121,4 +141,46 @@ public interface SubscribableNotifier<K, E> {
         };
     }
 
+    /**
+     * Deliver events asynchronously, accumulating events for each key while
+     * a delivery for that key is pending, and passing them on via
+     * <code>onEvents()</code> in batches of up to the passed size. Events for
+     * any one key are delivered in order.
+     *
+     * @param exe The executor to deliver on
+     * @param maxBatchSize The maximum number of events to deliver in one call
+     * @return A notifier
+     */
+    default SubscribableNotifier<K, E> batching(Executor exe, int maxBatchSize) {
+        switch (deliveryStrategy()) {
+            case ASYNCHRONOUS:
+            case COALESCING:
+            case BATCHING:
+            case PARTITIONED:
+                throw new IllegalStateException("Already asynchronous or coalescing-async");
+        }
+        return new BatchingSubscribableNotifier<>(exe, maxBatchSize, this);
+    }
+
+    /**
+     * Deliver events asynchronously on a fixed number of lanes, choosing the
+     * lane by the hash code of the key, so that events for any one key are
+     * delivered in order while different keys are delivered in parallel.
+     * Each lane drains its queue on at most one executor thread at a time,
+     * submitting a task only when it goes from idle to busy.
+     *
+     * @param exe The executor lanes run on
+     * @param lanes The number of lanes
+     * @return A notifier
+     */
+    default SubscribableNotifier<K, E> partitioned(Executor exe, int lanes) {
+        switch (deliveryStrategy()) {
+            case ASYNCHRONOUS:
+            case COALESCING:
+            case BATCHING:
+            case PARTITIONED:
+                throw new IllegalStateException("Already asynchronous or coalescing-async");
+        }
+        return new PartitionedSubscribableNotifier<>(exe, lanes, this);
+    }
 }
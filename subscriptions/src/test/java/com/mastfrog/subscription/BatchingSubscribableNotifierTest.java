@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import com.mastfrog.util.collections.MapFactories;
+import com.mastfrog.util.collections.SetFactories;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class BatchingSubscribableNotifierTest {
+
+    @Test
+    public void testPerKeyOrderingWithMultiThreadedExecutor() throws Exception {
+        ExecutorService exe = Executors.newFixedThreadPool(8);
+        try {
+            RecordingNotifier<String, Integer> rec = new RecordingNotifier<>();
+            SubscribableNotifier<String, Integer> notifier = rec.batching(exe, 7);
+            int keys = 16;
+            int perKey = 2000;
+            // Each producer owns two keys and interleaves them, alternating
+            // single events with lists, so ordering per key is well defined
+            Thread[] producers = new Thread[keys / 2];
+            for (int i = 0; i < producers.length; i++) {
+                String a = "k" + (i * 2);
+                String b = "k" + (i * 2 + 1);
+                producers[i] = new Thread(() -> {
+                    for (int j = 0; j < perKey; j += 2) {
+                        notifier.onEvent(a, j);
+                        notifier.onEvent(a, j + 1);
+                        notifier.onEvents(b, Arrays.asList(j, j + 1));
+                    }
+                });
+                producers[i].start();
+            }
+            for (Thread t : producers) {
+                t.join();
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (rec.delivered.get() < keys * perKey && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(keys * perKey, rec.delivered.get());
+            assertEquals(0, rec.overlaps.get(), "Deliveries for one key overlapped");
+            for (int i = 0; i < keys; i++) {
+                List<Integer> got = rec.events("k" + i);
+                assertEquals(perKey, got.size());
+                for (int j = 0; j < perKey; j++) {
+                    assertEquals(j, got.get(j).intValue(), "k" + i + " at " + j);
+                }
+                for (List<Integer> batch : rec.batches("k" + i)) {
+                    assertTrue(batch.size() <= 7, "Oversized batch " + batch);
+                }
+            }
+        } finally {
+            exe.shutdownNow();
+            exe.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testBatchSizeLimit() {
+        ManualExecutor exe = new ManualExecutor();
+        RecordingNotifier<String, Integer> rec = new RecordingNotifier<>();
+        SubscribableNotifier<String, Integer> notifier = rec.batching(exe, 10);
+        for (int i = 0; i < 13; i++) {
+            notifier.onEvent("a", i);
+        }
+        notifier.onEvents("a", range(13, 25));
+        notifier.onEvent("b", 0);
+        // One task per key with events pending, however many events
+        assertEquals(2, exe.pending());
+        exe.runAll();
+        assertEquals(range(0, 25), rec.events("a"));
+        assertEquals(Arrays.asList(range(0, 10), range(10, 20), range(20, 25)), rec.batches("a"));
+        assertEquals(Arrays.asList(Arrays.asList(0)), rec.batches("b"));
+        // The a task rescheduled itself twice
+        assertEquals(4, exe.submitted());
+    }
+
+    @Test
+    public void testEventsArrivingDuringDeliveryAreRescheduled() {
+        ManualExecutor exe = new ManualExecutor();
+        List<List<Integer>> batches = new ArrayList<>();
+        AtomicReference<SubscribableNotifier<String, Integer>> notifier = new AtomicReference<>();
+        SubscribableNotifier<String, Integer> delegate = new SubscribableNotifier<String, Integer>() {
+            @Override
+            public void onEvent(String key, Integer event) {
+                throw new AssertionError("Should be delivered as a batch");
+            }
+
+            @Override
+            public void onEvents(String key, List<? extends Integer> events) {
+                batches.add(new ArrayList<>(events));
+                if (batches.size() == 1) {
+                    notifier.get().onEvent(key, 100);
+                }
+            }
+        };
+        notifier.set(delegate.batching(exe, 5));
+        notifier.get().onEvent("a", 1);
+        notifier.get().onEvent("a", 2);
+        assertEquals(1, exe.pending());
+        assertTrue(exe.runOne());
+        // Not delivered by the task delivering the first batch, but by the
+        // same task resubmitted once it finished
+        assertEquals(1, exe.pending());
+        exe.runAll();
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(100)), batches);
+        assertEquals(0, exe.pending());
+    }
+
+    @Test
+    public void testRejectedExecutionDoesNotStrandKey() {
+        ManualExecutor exe = new ManualExecutor().reject(1);
+        RecordingNotifier<String, Integer> rec = new RecordingNotifier<>();
+        SubscribableNotifier<String, Integer> notifier = rec.batching(exe, 10);
+        assertThrows(RejectedExecutionException.class, () -> notifier.onEvent("a", 1));
+        notifier.onEvent("a", 2);
+        assertEquals(1, exe.pending());
+        exe.runAll();
+        assertEquals(Arrays.asList(2), rec.events("a"));
+    }
+
+    @Test
+    public void testBatchConsumers() {
+        ManualExecutor exe = new ManualExecutor();
+        SubscribableBuilder.SubscribableContents<String, String, Consumer<? super List<Integer>>, Integer> contents
+                = SubscribableBuilder.withKeys(String.class)
+                        .<Integer>batchConsumers()
+                        .storingSubscribersIn(SetFactories.ORDERED_HASH)
+                        .withCacheType(MapFactories.EQUALITY_CONCURRENT)
+                        .threadSafe()
+                        .withBatchedEventDelivery(exe, 3)
+                        .build();
+        List<List<Integer>> first = new ArrayList<>();
+        List<List<Integer>> second = new ArrayList<>();
+        Consumer<List<Integer>> a = first::add;
+        Consumer<List<Integer>> b = second::add;
+        contents.subscribable.subscribe("x", a);
+        contents.subscribable.subscribe("x", b);
+        for (int i = 0; i < 7; i++) {
+            contents.eventInput.onEvent("x", i);
+        }
+        exe.runAll();
+        List<List<Integer>> expected = Arrays.asList(range(0, 3), range(3, 6), range(6, 7));
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+    }
+
+    static List<Integer> range(int start, int end) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            result.add(i);
+        }
+        return result;
+    }
+}
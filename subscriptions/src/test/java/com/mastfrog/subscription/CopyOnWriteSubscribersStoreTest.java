@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import com.mastfrog.subscription.CopyOnWriteSubscribersStore.IdentityHashIndex;
+import com.mastfrog.subscription.CopyOnWriteSubscribersStore.Subscribers;
+import com.mastfrog.util.collections.MapFactories;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class CopyOnWriteSubscribersStoreTest {
+
+    @Test
+    public void testEqualitySubscribers() {
+        for (MapFactories type : new MapFactories[]{MapFactories.EQUALITY, MapFactories.WEAK, MapFactories.IDENTITY_WITHOUT_REFERENCE}) {
+            CopyOnWriteSubscribersStore<String, Sub> store = new CopyOnWriteSubscribersStore<>(16, type, false);
+            String key = "k";
+            Sub a = new Sub("a");
+            Sub b = new Sub("b");
+            assertTrue(store.add(key, a), type.name());
+            assertTrue(store.add(key, b), type.name());
+            assertFalse(store.add(key, new Sub("a")), "Equal subscriber added twice with " + type);
+            assertEquals(Arrays.asList(a, b), new ArrayList<>(store.subscribersTo(key)), type.name());
+            assertTrue(store.remove(key, new Sub("a")), type.name());
+            assertEquals(Arrays.asList(b), new ArrayList<>(store.subscribersTo(key)), type.name());
+            assertFalse(store.remove(key, new Sub("a")), type.name());
+            assertTrue(store.remove(key, b), type.name());
+            assertTrue(store.subscribersTo(key).isEmpty(), type.name());
+            assertFalse(store.remove(key, b), type.name());
+
+            store.add(key, a);
+            store.add(key, b);
+            store.add("other", a);
+            store.removeAll(key);
+            assertTrue(store.subscribersTo(key).isEmpty(), type.name());
+            assertEquals(Arrays.asList(a), new ArrayList<>(store.subscribersTo("other")), type.name());
+            store.clear();
+            assertTrue(store.subscribersTo("other").isEmpty(), type.name());
+        }
+    }
+
+    @Test
+    public void testIdentitySubscribers() {
+        for (MapFactories type : new MapFactories[]{MapFactories.EQUALITY_CONCURRENT, MapFactories.IDENTITY_WITHOUT_REFERENCE}) {
+            CopyOnWriteSubscribersStore<String, Sub> store = new CopyOnWriteSubscribersStore<>(16, type, true);
+            String key = "k";
+            Sub a = new Sub("a");
+            Sub a2 = new Sub("a");
+            assertTrue(store.add(key, a), type.name());
+            assertFalse(store.add(key, a), type.name());
+            assertTrue(store.add(key, a2), "Equal but distinct subscriber rejected with " + type);
+            assertEquals(2, store.subscribersTo(key).size(), type.name());
+            assertFalse(store.remove(key, new Sub("a")), type.name());
+            assertTrue(store.remove(key, a2), type.name());
+            Collection<? extends Sub> remaining = store.subscribersTo(key);
+            assertEquals(1, remaining.size(), type.name());
+            assertSame(a, remaining.iterator().next(), type.name());
+            store.removeAll(key);
+            assertTrue(store.subscribersTo(key).isEmpty(), type.name());
+        }
+    }
+
+    @Test
+    public void testKeysRetrieval() {
+        CopyOnWriteSubscribersStore<String, Sub> store = new CopyOnWriteSubscribersStore<>(16, MapFactories.EQUALITY, false);
+        store.add("a", new Sub("x"));
+        store.add("b", new Sub("x"));
+        assertTrue(store.isKeysRetrievalSupported());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(store.subscribedKeys()));
+
+        CopyOnWriteSubscribersStore<String, Sub> noRefs = new CopyOnWriteSubscribersStore<>(16, MapFactories.IDENTITY_WITHOUT_REFERENCE, false);
+        noRefs.add("a", new Sub("x"));
+        assertFalse(noRefs.isKeysRetrievalSupported());
+        assertThrows(UnsupportedOperationException.class, noRefs::subscribedKeys);
+    }
+
+    @Test
+    public void testIdentityHashIndexInsertAndRemoveOrdering() {
+        Random rnd = new Random(4417);
+        IdentityHashIndex<Object, Sub> index = new IdentityHashIndex<>();
+        List<Object> keys = new ArrayList<>();
+        List<Subscribers<Sub>> values = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            keys.add(new Object());
+            values.add(new Subscribers<>(new Object[]{new Sub("s" + i)}));
+        }
+        // Insert in random order, checking every key inserted so far after
+        // each insertion, so inserts at the start, middle and end of the
+        // sorted arrays are all exercised
+        List<Integer> order = shuffled(keys.size(), rnd);
+        for (int i = 0; i < order.size(); i++) {
+            int ix = order.get(i);
+            assertNull(index.get(keys.get(ix)));
+            index.put(keys.get(ix), values.get(ix));
+            for (int j = 0; j <= i; j++) {
+                int k = order.get(j);
+                assertSame(values.get(k), index.get(keys.get(k)), "After inserting " + i);
+            }
+        }
+        // Replacing a key's value leaves the others alone
+        Subscribers<Sub> replacement = new Subscribers<>(new Object[]{new Sub("r")});
+        index.put(keys.get(7), replacement);
+        assertSame(replacement, index.get(keys.get(7)));
+        values.set(7, replacement);
+
+        order = shuffled(keys.size(), rnd);
+        for (int i = 0; i < order.size(); i++) {
+            int ix = order.get(i);
+            index.remove(keys.get(ix));
+            assertNull(index.get(keys.get(ix)));
+            for (int j = i + 1; j < order.size(); j++) {
+                int k = order.get(j);
+                assertSame(values.get(k), index.get(keys.get(k)), "After removing " + i);
+            }
+        }
+        // Removing an absent key is harmless
+        index.remove(keys.get(0));
+        assertNull(index.get(keys.get(0)));
+    }
+
+    @Test
+    public void testSnapshotStableWhileModified() throws Exception {
+        for (MapFactories type : new MapFactories[]{MapFactories.EQUALITY, MapFactories.IDENTITY_WITHOUT_REFERENCE}) {
+            CopyOnWriteSubscribersStore<String, Sub> store = new CopyOnWriteSubscribersStore<>(16, type, false);
+            String key = "k";
+            List<Sub> initial = Arrays.asList(new Sub("a"), new Sub("b"), new Sub("c"));
+            for (Sub s : initial) {
+                store.add(key, s);
+            }
+            Collection<? extends Sub> snapshot = store.subscribersTo(key);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread mutator = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        Sub s = new Sub("m" + (i % 50));
+                        store.add(key, s);
+                        if (i % 3 == 0) {
+                            store.remove(key, initial.get(i % initial.size()));
+                        } else if (i % 3 == 1) {
+                            store.add(key, initial.get(i % initial.size()));
+                        }
+                        store.remove(key, new Sub("m" + ((i + 25) % 50)));
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                } finally {
+                    done.set(true);
+                }
+            });
+            mutator.start();
+            int reads = 0;
+            while (!done.get()) {
+                assertEquals(initial, new ArrayList<>(snapshot), type.name());
+                // A fresh snapshot is internally consistent too
+                Collection<? extends Sub> current = store.subscribersTo(key);
+                int count = 0;
+                for (Sub s : current) {
+                    count++;
+                }
+                assertEquals(current.size(), count, type.name());
+                assertEquals(current.size(), new HashSet<>(current).size(), "Duplicates with " + type);
+                reads++;
+            }
+            mutator.join();
+            assertNull(failure.get(), () -> type.name() + ": " + failure.get());
+            assertTrue(reads > 0);
+            assertEquals(initial, new ArrayList<>(snapshot), type.name());
+        }
+    }
+
+    private static List<Integer> shuffled(int size, Random rnd) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            result.add(i);
+        }
+        Collections.shuffle(result, rnd);
+        return result;
+    }
+
+    static final class Sub {
+
+        private final String name;
+
+        Sub(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Sub && ((Sub) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executor which queues tasks until the test runs them, and can be told to
+ * reject submissions.
+ *
+ * @author Tim Boudreau
+ */
+final class ManualExecutor implements Executor {
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private int rejections;
+    private int submitted;
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        if (rejections > 0) {
+            rejections--;
+            throw new RejectedExecutionException("Rejecting " + command);
+        }
+        submitted++;
+        tasks.add(command);
+    }
+
+    ManualExecutor reject(int count) {
+        synchronized (this) {
+            rejections = count;
+        }
+        return this;
+    }
+
+    synchronized int pending() {
+        return tasks.size();
+    }
+
+    synchronized int submitted() {
+        return submitted;
+    }
+
+    boolean runOne() {
+        Runnable task;
+        synchronized (this) {
+            task = tasks.poll();
+        }
+        if (task != null) {
+            task.run();
+        }
+        return task != null;
+    }
+
+    int runAll() {
+        int result = 0;
+        while (runOne()) {
+            result++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import static com.mastfrog.subscription.BatchingSubscribableNotifierTest.range;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class PartitionedSubscribableNotifierTest {
+
+    @Test
+    public void testPerKeyOrderingWithMultiThreadedExecutor() throws Exception {
+        ExecutorService exe = Executors.newFixedThreadPool(8);
+        try {
+            RecordingNotifier<String, Integer> rec = new RecordingNotifier<>();
+            SubscribableNotifier<String, Integer> notifier = rec.partitioned(exe, 4);
+            int keys = 16;
+            int perKey = 2000;
+            Thread[] producers = new Thread[keys];
+            for (int i = 0; i < producers.length; i++) {
+                String key = "k" + i;
+                producers[i] = new Thread(() -> {
+                    for (int j = 0; j < perKey; j++) {
+                        notifier.onEvent(key, j);
+                    }
+                });
+                producers[i].start();
+            }
+            for (Thread t : producers) {
+                t.join();
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (rec.delivered.get() < keys * perKey && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(keys * perKey, rec.delivered.get());
+            assertEquals(0, rec.overlaps.get(), "Deliveries for one key overlapped");
+            for (int i = 0; i < keys; i++) {
+                assertEquals(range(0, perKey), rec.events("k" + i), "k" + i);
+            }
+        } finally {
+            exe.shutdownNow();
+            exe.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testLaneReschedulesAfterDrainLimit() {
+        ManualExecutor exe = new ManualExecutor();
+        RecordingNotifier<String, Integer> rec = new RecordingNotifier<>();
+        SubscribableNotifier<String, Integer> notifier = rec.partitioned(exe, 1);
+        for (int i = 0; i < 600; i++) {
+            notifier.onEvent("a", i);
+        }
+        // Only the transition from idle to busy submits a task
+        assertEquals(1, exe.pending());
+        assertTrue(exe.runOne());
+        assertEquals(256, rec.events("a").size());
+        // More remains queued, so the lane resubmits itself rather than
+        // holding an executor thread indefinitely
+        assertEquals(1, exe.pending());
+        assertEquals(2, exe.runAll());
+        assertEquals(range(0, 600), rec.events("a"));
+        assertEquals(3, exe.submitted());
+        notifier.onEvent("a", 600);
+        assertEquals(1, exe.pending(), "Idle lane not rescheduled");
+        exe.runAll();
+        assertEquals(range(0, 601), rec.events("a"));
+    }
+
+    @Test
+    public void testEventsArrivingDuringDrainAreDelivered() {
+        ManualExecutor exe = new ManualExecutor();
+        List<Integer> got = new ArrayList<>();
+        AtomicReference<SubscribableNotifier<String, Integer>> notifier = new AtomicReference<>();
+        SubscribableNotifier<String, Integer> delegate = (key, event) -> {
+            got.add(event);
+            if (event < 3) {
+                notifier.get().onEvent(key, event + 10);
+            }
+        };
+        notifier.set(delegate.partitioned(exe, 2));
+        notifier.get().onEvent("a", 0);
+        notifier.get().onEvent("a", 1);
+        notifier.get().onEvent("a", 2);
+        assertEquals(1, exe.pending());
+        exe.runAll();
+        assertEquals(Arrays.asList(0, 1, 2, 10, 11, 12), got);
+        assertEquals(0, exe.pending());
+    }
+
+    @Test
+    public void testRejectedExecutionDoesNotStrandLane() {
+        ManualExecutor exe = new ManualExecutor().reject(1);
+        RecordingNotifier<String, Integer> rec = new RecordingNotifier<>();
+        SubscribableNotifier<String, Integer> notifier = rec.partitioned(exe, 1);
+        assertThrows(RejectedExecutionException.class, () -> notifier.onEvent("a", 1));
+        notifier.onEvent("a", 2);
+        assertEquals(1, exe.pending());
+        exe.runAll();
+        // The first event stayed queued, and is delivered with the second
+        assertEquals(Arrays.asList(1, 2), rec.events("a"));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records deliveries per key, and the batches they arrived in, counting any
+ * deliveries for one key which overlap (on an executor thread, an assertion
+ * failure would go unnoticed).
+ *
+ * @author Tim Boudreau
+ */
+final class RecordingNotifier<K, E> implements SubscribableNotifier<K, E> {
+
+    private final Map<K, List<E>> events = new ConcurrentHashMap<>();
+    private final Map<K, List<List<E>>> batches = new ConcurrentHashMap<>();
+    private final Map<K, AtomicBoolean> busy = new ConcurrentHashMap<>();
+    final AtomicInteger delivered = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+
+    @Override
+    public void onEvent(K key, E event) {
+        List<E> one = new ArrayList<>(1);
+        one.add(event);
+        onEvents(key, one);
+    }
+
+    @Override
+    public void onEvents(K key, List<? extends E> batch) {
+        AtomicBoolean flag = busy.computeIfAbsent(key, k -> new AtomicBoolean());
+        if (flag.getAndSet(true)) {
+            overlaps.incrementAndGet();
+        }
+        try {
+            // Only touched by one thread at a time, unless overlaps > 0
+            events.computeIfAbsent(key, k -> new ArrayList<>()).addAll(batch);
+            batches.computeIfAbsent(key, k -> new ArrayList<>()).add(new ArrayList<>(batch));
+        } finally {
+            flag.set(false);
+        }
+        delivered.addAndGet(batch.size());
+    }
+
+    List<E> events(K key) {
+        return events.getOrDefault(key, new ArrayList<>());
+    }
+
+    List<List<E>> batches(K key) {
+        return batches.getOrDefault(key, new ArrayList<>());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded MPSC queue over a ring buffer, after Dmitry Vyukov's bounded queue:
+ * each slot carries a sequence number telling a producer whether the slot is
+ * free for the lap it is on, and telling the consumer whether the slot has
+ * been published. Producers claim a position by CAS on a shared counter; the
+ * consumer's position is its own, so it never contends with producers.
+ *
+ * @author Tim Boudreau
+ */
+final class ArrayMpscQueue<T> extends AbstractQueue<T> implements MpscQueue<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerPosition = new AtomicLong();
+    private final int mask;
+    // Written only by the consumer; volatile so size() is sane elsewhere
+    private volatile long consumerPosition;
+
+    ArrayMpscQueue(int capacity) {
+        greaterThanZero("capacity", capacity);
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity too large: " + capacity);
+        }
+        // A one-slot ring cannot work: the sequence that marks a slot published
+        // is the same one the next producer reads as free
+        int length = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicReferenceArray<>(length);
+        sequences = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            sequences.set(i, i);
+        }
+        mask = length - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public boolean offer(T e) {
+        notNull("e", e);
+        for (;;) {
+            long pos = producerPosition.get();
+            int ix = (int) pos & mask;
+            long diff = sequences.get(ix) - pos;
+            if (diff == 0) {
+                if (producerPosition.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(ix, e);
+                    // Publish - the consumer waits for pos + 1
+                    sequences.lazySet(ix, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // The consumer has not yet freed the slot a lap ago: full
+                return false;
+            }
+            // Otherwise another producer claimed this position; retry
+        }
+    }
+
+    @Override
+    public T poll() {
+        long pos = consumerPosition;
+        int ix = (int) pos & mask;
+        if (sequences.get(ix) != pos + 1) {
+            return null;
+        }
+        T result = slots.get(ix);
+        slots.lazySet(ix, null);
+        // Free the slot for the producer one lap ahead
+        sequences.lazySet(ix, pos + mask + 1);
+        consumerPosition = pos + 1;
+        return result;
+    }
+
+    @Override
+    public T peek() {
+        long pos = consumerPosition;
+        int ix = (int) pos & mask;
+        return sequences.get(ix) == pos + 1 ? slots.get(ix) : null;
+    }
+
+    @Override
+    public int drain(Consumer<? super T> consumer, int max) {
+        greaterThanZero("max", max);
+        notNull("consumer", consumer);
+        long pos = consumerPosition;
+        int result = 0;
+        try {
+            while (result < max) {
+                int ix = (int) pos & mask;
+                if (sequences.get(ix) != pos + 1) {
+                    break;
+                }
+                T value = slots.get(ix);
+                slots.lazySet(ix, null);
+                sequences.lazySet(ix, pos + mask + 1);
+                pos++;
+                result++;
+                consumer.accept(value);
+            }
+        } finally {
+            consumerPosition = pos;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long pos = consumerPosition;
+        return sequences.get((int) pos & mask) != pos + 1;
+    }
+
+    @Override
+    public int size() {
+        // Claimed but not yet published positions are included
+        long size = producerPosition.get() - consumerPosition;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // do nothing
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new It();
+    }
+
+    final class It implements Iterator<T> {
+
+        private long pos = consumerPosition;
+
+        @Override
+        public boolean hasNext() {
+            return sequences.get((int) pos & mask) == pos + 1;
+        }
+
+        @Override
+        public T next() {
+            int ix = (int) pos & mask;
+            T result = slots.get(ix);
+            if (sequences.get(ix) != pos + 1 || result == null) {
+                throw new NoSuchElementException();
+            }
+            pos++;
+            return result;
+        }
+    }
+}
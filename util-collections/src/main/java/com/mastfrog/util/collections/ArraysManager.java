@@ -411,7 +411,7 @@ abstract class ArraysManager<T> implements Iterable<T> {
         }
 
         Longs(int batchSize) {
-            super(batchSize, ArraysPool.cachingPool(batchSize, 3, 7));
+            super(batchSize, ArraysPool.defaultPool(batchSize));
         }
 
         Longs(ArraysManager<long[]> other) {
@@ -419,7 +419,7 @@ abstract class ArraysManager<T> implements Iterable<T> {
         }
 
         Longs(int batchSize, SortChecker checker, long[][] contents) {
-            this(batchSize, checker, contents, ArraysPool.cachingPool(batchSize, 3, 7));
+            this(batchSize, checker, contents, ArraysPool.defaultPool(batchSize));
         }
 
         Longs(int batchSize, SortChecker checker, long[][] contents, ArraysPool<long[]> pool) {
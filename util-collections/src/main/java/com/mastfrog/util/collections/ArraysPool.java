@@ -47,6 +47,48 @@ abstract class ArraysPool<T> implements Supplier<T> {
         return new LongArraySupplier(arrayLength);
     }
 
+    /**
+     * Returns a pool backed by the shared, thread-caching MagazinePool when
+     * the array length is one of its size classes, and otherwise a caching
+     * pool private to the caller.
+     *
+     * @param arrayLength The array length
+     * @return A pool
+     */
+    public static ArraysPool<long[]> defaultPool(int arrayLength) {
+        int cls = MagazinePool.sizeClass(arrayLength);
+        if (cls >= 0 && Integer.bitCount(arrayLength) == 1
+                && arrayLength >= 1 << MagazinePool.MIN_SHIFT) {
+            return new MagazineBackedPool<>(MagazinePool.sharedLongs(), arrayLength);
+        }
+        return cachingPool(arrayLength, 3, 7);
+    }
+
+    static final class MagazineBackedPool<T> extends ArraysPool<T> {
+
+        private final MagazinePool<T> pool;
+        private final int length;
+
+        MagazineBackedPool(MagazinePool<T> pool, int length) {
+            this.pool = pool;
+            this.length = length;
+        }
+
+        @Override
+        public T get() {
+            // Arrays may have been used by another owner; hand them out
+            // zeroed as a freshly allocated one would be
+            T result = pool.acquire(length);
+            pool.zero(result);
+            return result;
+        }
+
+        @Override
+        public void dispose(T arr) {
+            pool.release(arr);
+        }
+    }
+
     static final class LongArraySupplier extends ArraysPool<long[]> implements Supplier<long[]> {
 
         private final int length;
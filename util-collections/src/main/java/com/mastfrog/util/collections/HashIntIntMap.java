@@ -0,0 +1,512 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * IntIntMap backed by an open-addressing hash index rather than a sorted
+ * array, for maps with random insertion order and lookup-heavy workloads,
+ * where IntIntMapImpl would repeatedly re-sort or shift its arrays. Keys and
+ * values are kept densely packed in insertion order - removal moves the
+ * last entry into the vacated index - so index-based methods remain O(1);
+ * but iteration order is <i>not</i> sorted, and methods that depend on key
+ * ordering (<code>greatestKey()</code>, <code>nearestKey()</code> and
+ * friends) are linear scans.
+ *
+ * @author Tim Boudreau
+ */
+final class HashIntIntMap implements IntIntMap, Iterable<Integer> {
+
+    private final int initialCapacity;
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private final IntHashIndex index;
+
+    HashIntIntMap() {
+        this(16);
+    }
+
+    HashIntIntMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative capacity " + initialCapacity);
+        }
+        this.initialCapacity = Math.max(4, initialCapacity);
+        keys = new int[this.initialCapacity];
+        values = new int[this.initialCapacity];
+        index = new IntHashIndex(initialCapacity);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < size; i++) {
+            result += keys[i];
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof Map<?, ?>)) {
+            return false;
+        }
+        Map<?, ?> m = (Map<?, ?>) o;
+        if (m.size() != size) {
+            return false;
+        }
+        if (o instanceof IntIntMap) {
+            IntIntMap other = (IntIntMap) o;
+            for (int i = 0; i < size; i++) {
+                int ix = other.indexOf(keys[i]);
+                if (ix < 0 || other.valueAt(ix) != values[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (Entry<?, ?> e : m.entrySet()) {
+            Object k = e.getKey();
+            Object v = e.getValue();
+            if (!(k instanceof Integer) || !(v instanceof Integer)) {
+                return false;
+            }
+            int ix = index.find((Integer) k);
+            if (ix < 0 || values[ix] != (Integer) v) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size * 5);
+        for (int i = 0; i < size; i++) {
+            sb.append(keys[i]).append('=').append(values[i]);
+            if (i != size - 1) {
+                sb.append(", ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index out of bounds "
+                    + 0 + "-" + size + ": " + index);
+        }
+    }
+
+    @Override
+    public int valueAt(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    public int setValueAt(int index, int value) {
+        checkIndex(index);
+        int old = values[index];
+        values[index] = value;
+        return old;
+    }
+
+    @Override
+    public int key(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    @Override
+    public void put(int key, int value) {
+        int ix = index.find(key);
+        if (ix >= 0) {
+            values[ix] = value;
+            return;
+        }
+        if (size == keys.length) {
+            int newSize = keys.length + Math.max(initialCapacity, keys.length / 2);
+            keys = Arrays.copyOf(keys, newSize);
+            values = Arrays.copyOf(values, newSize);
+        }
+        keys[size] = key;
+        values[size] = value;
+        index.add(key, size++);
+    }
+
+    @Override
+    public Integer put(Integer key, Integer value) {
+        int ix = index.find(key);
+        Integer result = ix < 0 ? null : values[ix];
+        put(key.intValue(), value.intValue());
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends Integer> m) {
+        m.forEach((key, val) -> {
+            put(key.intValue(), val.intValue());
+        });
+    }
+
+    @Override
+    public int indexOf(int key) {
+        return index.find(key);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return index.find(key) >= 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && index.find((Integer) key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (!(value instanceof Integer)) {
+            return false;
+        }
+        int val = (Integer) value;
+        for (int i = 0; i < size; i++) {
+            if (values[i] == val) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getAsInt(int key) {
+        int ix = index.find(key);
+        if (ix < 0) {
+            throw new NoSuchElementException("No key " + key);
+        }
+        return values[ix];
+    }
+
+    @Override
+    public int getAsInt(int key, int defaultValue) {
+        int ix = index.find(key);
+        return ix < 0 ? defaultValue : values[ix];
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int ix = index.find((Integer) key);
+        return ix < 0 ? null : values[ix];
+    }
+
+    @Override
+    public Integer getOrDefault(Object key, Integer defaultValue) {
+        if (!(key instanceof Integer)) {
+            return defaultValue;
+        }
+        int ix = index.find((Integer) key);
+        return ix < 0 ? defaultValue : values[ix];
+    }
+
+    @Override
+    public boolean remove(int key) {
+        int ix = index.remove(key);
+        if (ix < 0) {
+            return false;
+        }
+        fillHole(ix);
+        return true;
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int ix = index.remove((Integer) key);
+        if (ix < 0) {
+            return null;
+        }
+        int result = values[ix];
+        fillHole(ix);
+        return result;
+    }
+
+    private void fillHole(int ix) {
+        int last = --size;
+        if (ix != last) {
+            keys[ix] = keys[last];
+            values[ix] = values[last];
+            index.moved(keys[ix], ix);
+        }
+    }
+
+    @Override
+    public int removeAll(IntSet keys) {
+        int result = 0;
+        for (PrimitiveIterator.OfInt it = keys.iterator(); it.hasNext();) {
+            if (remove(it.nextInt())) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int removeIndices(IntSet indices) {
+        if (indices.isEmpty()) {
+            return 0;
+        }
+        int[] all = indices.toIntArray();
+        Arrays.sort(all);
+        if (all[0] < 0 || all[all.length - 1] >= size) {
+            throw new IndexOutOfBoundsException("Indices out of range 0-"
+                    + size + ": " + indices);
+        }
+        // Descending, so an entry moved into a hole is never one which
+        // is still waiting to be removed
+        for (int i = all.length - 1; i >= 0; i--) {
+            int ix = all[i];
+            index.remove(keys[ix]);
+            fillHole(ix);
+        }
+        return all.length;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        index.clear();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int greatestKey() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("Empty");
+        }
+        int result = keys[0];
+        for (int i = 1; i < size; i++) {
+            result = Math.max(result, keys[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int leastKey() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("Empty");
+        }
+        int result = keys[0];
+        for (int i = 1; i < size; i++) {
+            result = Math.min(result, keys[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int nearestKey(int key, boolean backward) {
+        int ix = nearestIndexTo(key, backward);
+        return ix < 0 ? -1 : keys[ix];
+    }
+
+    @Override
+    public int nearestIndexTo(int key, boolean backward) {
+        // Same wrap-around semantics as IntIntMapImpl: if nothing is found
+        // in the requested direction, return the greatest key when searching
+        // backward and the least when searching forward
+        if (size == 0) {
+            return -1;
+        }
+        int ix = index.find(key);
+        if (ix >= 0) {
+            return ix;
+        }
+        int best = -1;
+        int least = 0;
+        int greatest = 0;
+        for (int i = 0; i < size; i++) {
+            int k = keys[i];
+            if (k < keys[least]) {
+                least = i;
+            }
+            if (k > keys[greatest]) {
+                greatest = i;
+            }
+            if (backward ? k < key && (best < 0 || k > keys[best])
+                    : k > key && (best < 0 || k < keys[best])) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return backward ? greatest : least;
+        }
+        return best;
+    }
+
+    @Override
+    public void forEachKey(IntConsumer c) {
+        for (int i = 0; i < size; i++) {
+            c.accept(keys[i]);
+        }
+    }
+
+    @Override
+    public void forEachValue(IntConsumer c) {
+        for (int i = 0; i < size; i++) {
+            c.accept(values[i]);
+        }
+    }
+
+    @Override
+    public void forEachPair(IntIntMapConsumer c) {
+        for (int i = 0; i < size; i++) {
+            c.item(keys[i], values[i]);
+        }
+    }
+
+    @Override
+    public IntSet keySet() {
+        if (size == 0) {
+            return IntSet.EMPTY;
+        }
+        return new IntSetArray(keysArray(), size, false).readOnlyView();
+    }
+
+    @Override
+    public int[] keysArray() {
+        return Arrays.copyOf(keys, size);
+    }
+
+    public int[] valuesArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public Collection<Integer> values() {
+        return new IntListImpl(valuesArray());
+    }
+
+    @Override
+    public Set<Entry<Integer, Integer>> entrySet() {
+        Set<Map.Entry<Integer, Integer>> result = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            result.add(new IntEntry(i));
+        }
+        return result;
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return keysIterator();
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt keysIterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int ix = -1;
+
+            @Override
+            public int nextInt() {
+                if (ix + 1 >= size) {
+                    throw new NoSuchElementException();
+                }
+                return keys[++ix];
+            }
+
+            @Override
+            public boolean hasNext() {
+                return ix + 1 < size;
+            }
+        };
+    }
+
+    final class IntEntry implements Map.Entry<Integer, Integer> {
+
+        private final int index;
+
+        IntEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Integer getKey() {
+            return keys[index];
+        }
+
+        @Override
+        public Integer getValue() {
+            return values[index];
+        }
+
+        @Override
+        public Integer setValue(Integer value) {
+            Integer old = values[index];
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && getValue().equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return keys[index] ^ values[index];
+        }
+
+        @Override
+        public String toString() {
+            return keys[index] + "=" + values[index];
+        }
+    }
+}
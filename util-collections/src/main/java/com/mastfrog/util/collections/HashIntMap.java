@@ -0,0 +1,657 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * IntMap backed by an open-addressing hash index rather than a sorted array,
+ * for maps with random insertion order and lookup-heavy workloads, where
+ * ArrayIntMap would repeatedly re-sort or shift its arrays. As with
+ * HashIntIntMap, keys and values are kept densely packed in insertion order -
+ * removal moves the last entry into the vacated index - so index-based
+ * methods remain O(1); but iteration order is <i>not</i> sorted, and methods
+ * that depend on key ordering (<code>greatestKey()</code>,
+ * <code>leastValue()</code>, <code>nearestKey()</code>,
+ * <code>valuesBetween()</code> and friends) are linear scans which visit
+ * entries in index order.
+ *
+ * @author Tim Boudreau
+ */
+final class HashIntMap<T> implements IntMap<T> {
+
+    private static final long serialVersionUID = 1;
+    private final int initialCapacity;
+    private transient int[] keys;
+    private transient Object[] values;
+    private transient int size;
+    private transient IntHashIndex index;
+
+    HashIntMap() {
+        this(16);
+    }
+
+    HashIntMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative capacity " + initialCapacity);
+        }
+        this.initialCapacity = Math.max(4, initialCapacity);
+        keys = new int[this.initialCapacity];
+        values = new Object[this.initialCapacity];
+        index = new IntHashIndex(initialCapacity);
+    }
+
+    private HashIntMap(HashIntMap<T> other) {
+        initialCapacity = other.initialCapacity;
+        keys = Arrays.copyOf(other.keys, other.keys.length);
+        values = Arrays.copyOf(other.values, other.values.length);
+        size = other.size;
+        index = new IntHashIndex(other.index);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(keysArray());
+        out.writeObject(valuesArray());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int[] keys = (int[]) in.readObject();
+        Object[] values = (Object[]) in.readObject();
+        if (keys.length != values.length) {
+            throw new IOException("Different lengths arrays");
+        }
+        this.keys = keys;
+        this.values = values;
+        size = keys.length;
+        index = new IntHashIndex(size);
+        index.rebuild(keys, size);
+    }
+
+    @Override
+    public HashIntMap<T> copy() {
+        return new HashIntMap<>(this);
+    }
+
+    @Override
+    public void trim() {
+        int newSize = Math.max(size, 4);
+        if (newSize < keys.length) {
+            keys = Arrays.copyOf(keys, newSize);
+            values = Arrays.copyOf(values, newSize);
+        }
+        index.rebuild(keys, size);
+    }
+
+    @Override
+    public int hashCode() {
+        // Will produce the same result as AbstractMap / HashMap
+        int result = 0;
+        for (int i = 0; i < size; i++) {
+            result += keys[i] ^ Objects.hashCode(values[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof Map<?, ?>)) {
+            return false;
+        }
+        Map<?, ?> m = (Map<?, ?>) o;
+        if (m.size() != size) {
+            return false;
+        }
+        if (o instanceof IntMap<?>) {
+            IntMap<?> other = (IntMap<?>) o;
+            for (int i = 0; i < size; i++) {
+                int ix = other.indexOf(keys[i]);
+                if (ix < 0 || !Objects.equals(other.valueAt(ix), values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (Entry<?, ?> e : m.entrySet()) {
+            Object k = e.getKey();
+            if (!(k instanceof Integer)) {
+                return false;
+            }
+            int ix = index.find((Integer) k);
+            if (ix < 0 || !Objects.equals(values[ix], e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size * 8).append('{');
+        for (int i = 0; i < size; i++) {
+            sb.append(keys[i]).append('=').append(values[i]);
+            if (i != size - 1) {
+                sb.append(", ");
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index out of bounds "
+                    + 0 + "-" + size + ": " + index);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T valueAt(int index) {
+        checkIndex(index);
+        return (T) values[index];
+    }
+
+    @Override
+    public void setValueAt(int index, T obj) {
+        checkIndex(index);
+        values[index] = obj;
+    }
+
+    @Override
+    public int key(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T put(int key, T val) {
+        int ix = index.find(key);
+        if (ix >= 0) {
+            T old = (T) values[ix];
+            values[ix] = val;
+            return old;
+        }
+        if (size == keys.length) {
+            int newSize = keys.length + Math.max(initialCapacity, keys.length / 2);
+            keys = Arrays.copyOf(keys, newSize);
+            values = Arrays.copyOf(values, newSize);
+        }
+        keys[size] = key;
+        values[size] = val;
+        index.add(key, size++);
+        return null;
+    }
+
+    @Override
+    public T put(Integer key, T value) {
+        return put(key.intValue(), value);
+    }
+
+    @Override
+    public void putAll(Map<? extends Integer, ? extends T> m) {
+        m.forEach((key, val) -> {
+            put(key.intValue(), val);
+        });
+    }
+
+    @Override
+    public int indexOf(int key) {
+        return index.find(key);
+    }
+
+    @Override
+    public boolean containsKey(int key) {
+        return index.find(key) >= 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && index.find((Integer) key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < size; i++) {
+            if (Objects.equals(value, values[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int key) {
+        int ix = index.find(key);
+        return ix < 0 ? null : (T) values[ix];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T getIfPresent(int key, T defaultValue) {
+        int ix = index.find(key);
+        return ix < 0 ? defaultValue : (T) values[ix];
+    }
+
+    @Override
+    public T get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public T remove(int key) {
+        int ix = index.remove(key);
+        if (ix < 0) {
+            return null;
+        }
+        return fillHole(ix);
+    }
+
+    @Override
+    public T remove(Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+    @Override
+    public T removeIndex(int index) {
+        checkIndex(index);
+        this.index.remove(keys[index]);
+        return fillHole(index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T fillHole(int ix) {
+        T result = (T) values[ix];
+        int last = --size;
+        if (ix != last) {
+            keys[ix] = keys[last];
+            values[ix] = values[last];
+            index.moved(keys[ix], ix);
+        }
+        values[last] = null;
+        return result;
+    }
+
+    @Override
+    public int removeIndices(IntSet indices) {
+        if (indices.isEmpty()) {
+            return 0;
+        }
+        int[] all = indices.toIntArray();
+        Arrays.sort(all);
+        if (all[0] < 0 || all[all.length - 1] >= size) {
+            throw new IndexOutOfBoundsException("Indices out of range 0-"
+                    + size + ": " + indices);
+        }
+        // Descending, so an entry moved into a hole is never one which
+        // is still waiting to be removed
+        for (int i = all.length - 1; i >= 0; i--) {
+            int ix = all[i];
+            index.remove(keys[ix]);
+            fillHole(ix);
+        }
+        return all.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int removeIf(Predicate<T> test) {
+        int result = 0;
+        // Descending, for the same reason as removeIndices()
+        for (int i = size - 1; i >= 0; i--) {
+            if (test.test((T) values[i])) {
+                index.remove(keys[i]);
+                fillHole(i);
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void decrementKeys(int decrement) {
+        if (decrement < 0) {
+            throw new IllegalArgumentException();
+        }
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] >= decrement) {
+                keys[kept] = keys[i] - decrement;
+                values[kept++] = values[i];
+            }
+        }
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+        index.rebuild(keys, size);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        index.clear();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int leastIndex() {
+        int result = -1;
+        for (int i = 0; i < size; i++) {
+            if (result < 0 || keys[i] < keys[result]) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    private int greatestIndex() {
+        int result = -1;
+        for (int i = 0; i < size; i++) {
+            if (result < 0 || keys[i] > keys[result]) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int greatestKey() {
+        int ix = greatestIndex();
+        return ix < 0 ? -1 : keys[ix];
+    }
+
+    @Override
+    public int leastKey() {
+        int ix = leastIndex();
+        return ix < 0 ? -1 : keys[ix];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T greatestValue() {
+        int ix = greatestIndex();
+        return ix < 0 ? null : (T) values[ix];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T leastValue() {
+        int ix = leastIndex();
+        return ix < 0 ? null : (T) values[ix];
+    }
+
+    @Override
+    public int nearestKey(int key, boolean backward) {
+        int ix = nearestIndexTo(key, backward);
+        return ix < 0 ? -1 : keys[ix];
+    }
+
+    @Override
+    public int nearestIndexTo(int key, boolean backward) {
+        // Same wrap-around semantics as HashIntIntMap
+        if (size == 0) {
+            return -1;
+        }
+        int ix = index.find(key);
+        if (ix >= 0) {
+            return ix;
+        }
+        int best = -1;
+        int least = 0;
+        int greatest = 0;
+        for (int i = 0; i < size; i++) {
+            int k = keys[i];
+            if (k < keys[least]) {
+                least = i;
+            }
+            if (k > keys[greatest]) {
+                greatest = i;
+            }
+            if (backward ? k < key && (best < 0 || k > keys[best])
+                    : k > key && (best < 0 || k < keys[best])) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return backward ? greatest : least;
+        }
+        return best;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int valuesBetween(int first, int second, IntMapConsumer<T> c) {
+        int v1 = Math.min(first, second);
+        int v2 = Math.max(first, second);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] >= v1 && keys[i] <= v2) {
+                c.accept(keys[i], (T) values[i]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int keysAndValuesBetween(int first, int second, IndexedIntMapConsumer<T> c) {
+        int v1 = Math.min(first, second);
+        int v2 = Math.max(first, second);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] >= v1 && keys[i] <= v2) {
+                c.accept(i, keys[i], (T) values[i]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEachIndexed(IndexedIntMapConsumer<? super T> c) {
+        for (int i = 0; i < size; i++) {
+            c.accept(i, keys[i], (T) values[i]);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEachReversed(IndexedIntMapConsumer<? super T> c) {
+        for (int i = size - 1; i >= 0; i--) {
+            c.accept(i, keys[i], (T) values[i]);
+        }
+    }
+
+    @Override
+    public void forEachKey(IntConsumer c) {
+        for (int i = 0; i < size; i++) {
+            c.accept(keys[i]);
+        }
+    }
+
+    @Override
+    public IntSet keySet() {
+        if (size == 0) {
+            return IntSet.EMPTY;
+        }
+        return new IntSetArray(keysArray(), size, false).readOnlyView();
+    }
+
+    @Override
+    public int[] keysArray() {
+        return Arrays.copyOf(keys, size);
+    }
+
+    @Override
+    public Object[] valuesArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public Collection<T> values() {
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                return valueAt(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<Integer, T>> entrySet() {
+        Set<Map.Entry<Integer, T>> result = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            result.add(new ObjEntry(i));
+        }
+        return result;
+    }
+
+    @Override
+    public Iterable<Map.Entry<Integer, T>> entries() {
+        return this;
+    }
+
+    @Override
+    public Iterator<Map.Entry<Integer, T>> iterator() {
+        if (size == 0) {
+            return Collections.emptyIterator();
+        }
+        return new Iterator<Map.Entry<Integer, T>>() {
+            private int ix = -1;
+
+            @Override
+            public boolean hasNext() {
+                return ix + 1 < size;
+            }
+
+            @Override
+            public Map.Entry<Integer, T> next() {
+                if (ix + 1 >= size) {
+                    throw new NoSuchElementException();
+                }
+                return new ObjEntry(++ix);
+            }
+        };
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt keysIterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int ix = -1;
+
+            @Override
+            public int nextInt() {
+                if (ix + 1 >= size) {
+                    throw new NoSuchElementException();
+                }
+                return keys[++ix];
+            }
+
+            @Override
+            public boolean hasNext() {
+                return ix + 1 < size;
+            }
+        };
+    }
+
+    final class ObjEntry implements Map.Entry<Integer, T> {
+
+        private final int index;
+
+        ObjEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Integer getKey() {
+            return keys[index];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T getValue() {
+            return (T) values[index];
+        }
+
+        @Override
+        public T setValue(T value) {
+            T old = getValue();
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return keys[index] ^ Objects.hashCode(values[index]);
+        }
+
+        @Override
+        public String toString() {
+            return keys[index] + "=" + values[index];
+        }
+    }
+}
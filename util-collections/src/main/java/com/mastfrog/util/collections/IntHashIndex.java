@@ -0,0 +1,228 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash index from int keys to positions in a dense array
+ * owned by the caller - the storage behind the hashed int-keyed maps, which
+ * keep their keys and values packed in insertion order (so index-based
+ * methods stay O(1)) and use this only to find a key's position. Each slot
+ * packs the key in the high 32 bits and the position plus one in the low 32,
+ * so a probe touches one array and zero means empty. Uses linear probing
+ * with Fibonacci hashing, and backward-shift deletion so no tombstones
+ * accumulate.
+ *
+ * @author Tim Boudreau
+ */
+final class IntHashIndex {
+
+    private static final int MIN_CAPACITY = 8;
+    private long[] slots;
+    private int mask;
+    private int shift;
+    private int count;
+    private int resizeAt;
+
+    IntHashIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    IntHashIndex(IntHashIndex other) {
+        slots = Arrays.copyOf(other.slots, other.slots.length);
+        mask = other.mask;
+        shift = other.shift;
+        count = other.count;
+        resizeAt = other.resizeAt;
+    }
+
+    private static int capacityFor(int size) {
+        // Keep the load factor under 0.7
+        long needed = Math.max(MIN_CAPACITY, (size * 10L) / 7 + 1);
+        if (needed > 1 << 30) {
+            throw new IllegalArgumentException("Too large: " + size);
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        slots = new long[capacity];
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        resizeAt = (int) (capacity * 7L / 10);
+    }
+
+    private int home(int key) {
+        return (key * 0x9E3779B9) >>> shift;
+    }
+
+    private static int keyOf(long slot) {
+        return (int) (slot >>> 32);
+    }
+
+    private static int positionOf(long slot) {
+        return (int) slot - 1;
+    }
+
+    private static long slot(int key, int position) {
+        return ((long) key << 32) | ((position + 1) & 0xFFFFFFFFL);
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Find the position of a key.
+     *
+     * @param key A key
+     * @return The position, or -1
+     */
+    int find(int key) {
+        long[] s = slots;
+        for (int i = home(key);; i = (i + 1) & mask) {
+            long slot = s[i];
+            if (slot == 0) {
+                return -1;
+            } else if (keyOf(slot) == key) {
+                return positionOf(slot);
+            }
+        }
+    }
+
+    /**
+     * Add a key which is known not to be present.
+     *
+     * @param key The key
+     * @param position Its position in the caller's arrays
+     */
+    void add(int key, int position) {
+        if (count >= resizeAt) {
+            rehash(slots.length << 1);
+        }
+        insert(key, position);
+        count++;
+    }
+
+    private void insert(int key, int position) {
+        long[] s = slots;
+        int i = home(key);
+        while (s[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        s[i] = slot(key, position);
+    }
+
+    private int slotIndex(int key) {
+        long[] s = slots;
+        for (int i = home(key);; i = (i + 1) & mask) {
+            long slot = s[i];
+            if (slot == 0) {
+                return -1;
+            } else if (keyOf(slot) == key) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Record that a key has moved to a different position.
+     *
+     * @param key The key
+     * @param position The new position
+     */
+    void moved(int key, int position) {
+        int ix = slotIndex(key);
+        if (ix < 0) {
+            throw new IllegalStateException("Not present: " + key);
+        }
+        slots[ix] = slot(key, position);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key The key
+     * @return The position it had, or -1 if not present
+     */
+    int remove(int key) {
+        int ix = slotIndex(key);
+        if (ix < 0) {
+            return -1;
+        }
+        long[] s = slots;
+        int result = positionOf(s[ix]);
+        // Backward-shift: pull later members of the cluster into the hole
+        // unless doing so would move them before their home slot
+        int hole = ix;
+        for (int j = (ix + 1) & mask;; j = (j + 1) & mask) {
+            long slot = s[j];
+            if (slot == 0) {
+                break;
+            }
+            int home = home(keyOf(slot));
+            boolean movable = hole <= j
+                    ? home <= hole || home > j
+                    : home <= hole && home > j;
+            if (movable) {
+                s[hole] = slot;
+                hole = j;
+            }
+        }
+        s[hole] = 0;
+        count--;
+        return result;
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0L);
+        count = 0;
+    }
+
+    /**
+     * Rebuild from scratch from the first <code>size</code> keys in the
+     * passed array, whose positions are their indices.
+     *
+     * @param keys The keys
+     * @param size The number of keys
+     */
+    void rebuild(int[] keys, int size) {
+        allocate(capacityFor(size));
+        for (int i = 0; i < size; i++) {
+            insert(keys[i], i);
+        }
+        count = size;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        allocate(capacity);
+        for (long slot : old) {
+            if (slot != 0) {
+                insert(keyOf(slot), positionOf(slot));
+            }
+        }
+    }
+}
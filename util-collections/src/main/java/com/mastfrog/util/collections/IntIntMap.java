@@ -54,6 +54,33 @@ public interface IntIntMap extends Map<Integer, Integer>, IntegerKeyedMap {
         return new IntIntMapImpl();
     }
 
+    /**
+     * Create a new IntIntMap which uses an open-addressing hash table to
+     * locate keys, rather than binary search over a sorted array. Lookups
+     * and insertions are O(1) regardless of insertion order, which makes
+     * this the better choice for large maps populated with keys in random
+     * order; the trade-off is that iteration order is insertion order (until
+     * removals), not sorted, and <code>greatestKey()</code>,
+     * <code>leastKey()</code> and <code>nearestKey()</code> are linear scans.
+     *
+     * @param initialCapacity The capacity to preallocate space for
+     * @return A map
+     */
+    static IntIntMap createHashed(int initialCapacity) {
+        return new HashIntIntMap(initialCapacity);
+    }
+
+    /**
+     * Create a new IntIntMap which uses an open-addressing hash table to
+     * locate keys.
+     *
+     * @see #createHashed(int)
+     * @return A map
+     */
+    static IntIntMap createHashed() {
+        return new HashIntIntMap();
+    }
+
     /**
      * Create a new IntIntMap from an array of keys and an array of values.
      *
@@ -206,8 +206,7 @@ final class IntIntMapImpl implements IntIntMap, Iterable<Integer> {
     public void put(int key, int value) {
         int oldIx = indexOf(key);
         if (oldIx < 0) {
-            sorted = size == 0 ? false
-                    : key > greatestKey();
+            sorted = size == 0 || (sorted && key > keys[size - 1]);
             maybeGrow();
             keys[size] = key;
             values[size] = value;
@@ -247,6 +246,7 @@ final class IntIntMapImpl implements IntIntMap, Iterable<Integer> {
                 values[ixA] = values[ixB];
                 values[ixB] = hold;
             });
+            sorted = true;
         }
     }
 
@@ -145,6 +145,36 @@ public interface IntMap<T> extends Iterable<Map.Entry<Integer, T>>, Map<Integer,
         return new ArrayIntMap<>(initialCapacity);
     }
 
+    /**
+     * Create a primitive integer map which uses an open-addressing hash table
+     * to locate keys, rather than binary search over a sorted array. Lookups,
+     * insertions and removals are O(1) regardless of insertion order, which
+     * makes this the better choice for large maps populated with keys in
+     * random order; the trade-off is that iteration order is insertion order
+     * (until removals), not sorted, and methods which depend on key order,
+     * such as <code>greatestKey()</code>, <code>nearestKey()</code> and
+     * <code>valuesBetween()</code>, are linear scans.
+     *
+     * @param <T> The value type
+     * @param initialCapacity The capacity to preallocate space for
+     * @return A map
+     */
+    public static <T> IntMap<T> createHashed(int initialCapacity) {
+        return new HashIntMap<>(initialCapacity);
+    }
+
+    /**
+     * Create a primitive integer map which uses an open-addressing hash table
+     * to locate keys.
+     *
+     * @see #createHashed(int)
+     * @param <T> The value type
+     * @return A map
+     */
+    public static <T> IntMap<T> createHashed() {
+        return new HashIntMap<>();
+    }
+
     /**
      * The equivalent of SupplierMap for primitive int keyed maps, with a
      * supplier for empty values, and the default capacity of 96.
@@ -56,6 +56,8 @@ import java.util.function.IntConsumer;
  */
 public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, OrderedIntegerCollection {
 
+    private static final int COMPRESSED_THRESHOLD = 4096;
+
 //    @HotSpotIntrinsicCandidate
     IntSet() {
     }
@@ -82,6 +84,39 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
         return new IntSetArray(capacity);
     }
 
+    /**
+     * Create a compressed IntSet, which partitions values into chunks of 65536
+     * and stores each chunk as a sorted array, a bitmap or a list of runs,
+     * whichever is smallest. Memory use is proportional to the number of
+     * values and how clustered they are rather than to the largest value, so
+     * this is the best choice for large sets of sparse-but-clustered values
+     * such as entity ids; logical operations with other compressed sets work
+     * chunk-by-chunk. Negative values are allowed.
+     *
+     * @return An IntSet
+     */
+    public static IntSet compressed() {
+        return new IntSetCompressed();
+    }
+
+    /**
+     * Create a compressed IntSet containing the passed values.
+     *
+     * @see #compressed()
+     * @param values The initial contents
+     * @return An IntSet
+     */
+    public static IntSet compressed(int... values) {
+        IntSetCompressed result = new IntSetCompressed();
+        int[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        for (int v : sorted) {
+            result.add(v);
+        }
+        result.trim();
+        return result;
+    }
+
     /**
      * Create a BitSet backed IntSet pre-populated with the sequence of numbers
      * from zero up to and including <code>upTo</code>.
@@ -138,22 +173,22 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
      * Create an IntSet.
      *
      * @param minValue the minimum expected value (negative guarantees an
-     * array-based return value)
+     * array-based return value; large values or very wide ranges result in a
+     * {@linkplain #compressed() compressed} set)
      * @param maxValue The maximum expected values
      * @return
      */
     public static IntSet create(int minValue, int maxValue) {
-        int len = Math.abs(maxValue - minValue) + 1;
-        if (len > 1_073_741_824) {
-            return new IntSetArray(len / 20);
+        long len = Math.abs((long) maxValue - minValue) + 1;
+        if (len > 1_073_741_824 || minValue > 32_768) {
+            // A BitSet would be huge or mostly empty, and a sorted array
+            // covering a wide range is slow to update
+            return new IntSetCompressed();
         }
         if (minValue < 0) {
-            return new IntSetArray(len);
-        }
-        if (minValue > 32_768) {
-            return new IntSetArray(len / 4);
+            return new IntSetArray((int) len);
         }
-        return new IntSetImpl(len);
+        return new IntSetImpl((int) len);
     }
 
     public static IntSet create() {
@@ -168,7 +203,9 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
      * Create an IntSet from an array. The result will be either array- or
      * BitSet-backed depending on whether negative values are encountered, or
      * the lowest value present in the array would cause a substantial array of
-     * empty longs to be allocated in a BitSet.
+     * empty longs to be allocated in a BitSet; large arrays of such values, or
+     * values too sparse for a BitSet to be economical, result in a
+     * {@linkplain #compressed() compressed} set.
      *
      * @param arr An array
      * @return An integer set
@@ -178,14 +215,19 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
             return create();
         }
         int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
         for (int i = 0; i < arr.length; i++) {
             min = Math.min(arr[i], min);
-            if (arr[i] < 0) {
-                break;
-            }
+            max = Math.max(arr[i], max);
         }
         if (min < 0 || min > Long.SIZE * 16) {
-            return new IntSetArray(arr);
+            // Sorted arrays get slow to update as they grow
+            return arr.length >= COMPRESSED_THRESHOLD ? compressed(arr)
+                    : new IntSetArray(arr);
+        }
+        if (max >= 1 << 16 && max / Byte.SIZE > (long) arr.length * Integer.BYTES) {
+            // A BitSet would spend more than 32 bits per member
+            return compressed(arr);
         }
         BitSet set = new BitSet(arr.length);
         for (int i = 0; i < arr.length; i++) {
@@ -347,6 +389,17 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
         return false;
     }
 
+    private static boolean allCompressed(Iterable<IntSet> all) {
+        boolean any = false;
+        for (IntSet is : all) {
+            if (!(IntSetReadOnly.unwrap(is) instanceof IntSetCompressed)) {
+                return false;
+            }
+            any = true;
+        }
+        return any;
+    }
+
     /**
      * Combine multiple IntSets via logical OR.
      *
@@ -354,6 +407,13 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
      * @return A new IntSet
      */
     public static IntSet merge(Iterable<IntSet> all) {
+        if (allCompressed(all)) {
+            IntSet result = new IntSetCompressed();
+            for (IntSet is : all) {
+                result = result.or(is);
+            }
+            return result;
+        }
         if (anyArrayBased(all)) {
             IntSetArray arr = new IntSetArray();
             for (IntSet is : all) {
@@ -366,7 +426,7 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
             if (bits == null) {
                 bits = (BitSet) i.toBits();
             } else {
-                bits.or(bits);
+                bits.or(i.bitsUnsafe());
             }
         }
         return bits == null ? new IntSetImpl(1) : new IntSetImpl(bits);
@@ -379,6 +439,13 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
      * @return A new IntSet
      */
     public static IntSet intersection(Iterable<IntSet> all) {
+        if (allCompressed(all)) {
+            IntSet result = null;
+            for (IntSet is : all) {
+                result = result == null ? is.copy() : result.intersection(is);
+            }
+            return result == null ? IntSet.EMPTY : result;
+        }
         if (anyArrayBased(all)) {
             Iterator<IntSet> iter = all.iterator();
             if (!iter.hasNext()) {
@@ -398,7 +465,7 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
             if (bits == null) {
                 bits = (BitSet) i.toBits();
             } else {
-                bits.and(bits);
+                bits.and(i.bitsUnsafe());
             }
         }
         return bits == null ? new IntSetImpl(1) : new IntSetImpl(bits);
@@ -478,6 +545,19 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
         return new IntSetImpl(nue);
     }
 
+    /**
+     * Get a new IntSet containing those integers in this set which are not
+     * present in the passed one.
+     *
+     * @param other Another set
+     * @return A new set
+     */
+    public IntSet andNot(IntSet other) {
+        IntSet result = copy();
+        result.removeAll(other);
+        return result;
+    }
+
     /**
      * Get a new IntSet representing those integers which are only in either
      * this one or the passed one.
@@ -652,7 +732,7 @@ public abstract class IntSet implements Set<Integer>, Cloneable, Trimmable, Orde
      * Remove a range of values from this set.
      *
      * @param start The start (inclusive)
-     * @param end The end (exclusive)
+     * @param end The end (inclusive)
      * @return True if the set was altered
      */
     public boolean removeRange(int start, int end) {
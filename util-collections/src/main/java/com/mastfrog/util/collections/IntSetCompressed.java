@@ -0,0 +1,1572 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import com.mastfrog.util.search.Bias;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed IntSet in the style of Roaring bitmaps: values are partitioned
+ * into chunks of 65536 by their high 16 bits, and each chunk's low 16 bits are
+ * stored in whichever container is smallest for its contents - a sorted
+ * <code>char[]</code> for sparse chunks (up to 4096 values), a 1024-word
+ * bitmap for dense ones, or a list of runs for clustered ones. Memory use is
+ * therefore proportional to the number of values and how clustered they are,
+ * rather than to the largest value (as with a BitSet) - a handful of ids near
+ * 2<sup>30</sup> costs a few dozen bytes - while dense chunks keep bitmap
+ * speed for membership tests and logical operations, which are performed
+ * container-by-container.
+ * <p>
+ * Negative values are supported (chunks are ordered so iteration is in
+ * ascending signed order). Runs are produced by <code>addInterval()</code>,
+ * logical operations on run containers and <code>trim()</code>, which
+ * converts every chunk to its most compact form.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+final class IntSetCompressed extends IntSet {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+    // Beyond this many runs a run container is larger than a bitmap
+    private static final int RUNS_MAX = 2047;
+    private static final long NONE = Long.MIN_VALUE;
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int AND_NOT = 2;
+    private static final int XOR = 3;
+    private char[] keys;
+    private Container[] containers;
+    private int count;
+    private int size;
+
+    IntSetCompressed() {
+        keys = new char[4];
+        containers = new Container[4];
+    }
+
+    IntSetCompressed(IntSetCompressed other) {
+        keys = Arrays.copyOf(other.keys, Math.max(4, other.count));
+        containers = new Container[keys.length];
+        for (int i = 0; i < other.count; i++) {
+            containers[i] = other.containers[i].copy();
+        }
+        count = other.count;
+        size = other.size;
+    }
+
+    static IntSetCompressed toCompressed(Collection<?> coll) {
+        coll = IntSetReadOnly.unwrap(coll);
+        if (coll instanceof IntSetCompressed) {
+            return (IntSetCompressed) coll;
+        }
+        IntSetCompressed result = new IntSetCompressed();
+        if (coll instanceof IntSet) {
+            ((IntSet) coll).forEachInt(result::add);
+        } else {
+            for (Object o : coll) {
+                if (o instanceof Integer) {
+                    result.add(((Integer) o).intValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static char high(int value) {
+        return (char) ((value >>> 16) ^ 0x8000);
+    }
+
+    private static int low(int value) {
+        return value & 0xFFFF;
+    }
+
+    private static int base(char key) {
+        return (key ^ 0x8000) << 16;
+    }
+
+    private int find(char key) {
+        // Ascending adds are common; check the last chunk first
+        if (count > 0 && keys[count - 1] == key) {
+            return count - 1;
+        }
+        return Arrays.binarySearch(keys, 0, count, key);
+    }
+
+    private void insertContainer(int at, char key, Container c) {
+        if (count == keys.length) {
+            int newLength = keys.length * 2;
+            keys = Arrays.copyOf(keys, newLength);
+            containers = Arrays.copyOf(containers, newLength);
+        }
+        System.arraycopy(keys, at, keys, at + 1, count - at);
+        System.arraycopy(containers, at, containers, at + 1, count - at);
+        keys[at] = key;
+        containers[at] = c;
+        count++;
+    }
+
+    private void removeContainer(int at) {
+        System.arraycopy(keys, at + 1, keys, at, count - (at + 1));
+        System.arraycopy(containers, at + 1, containers, at, count - (at + 1));
+        containers[--count] = null;
+    }
+
+    @Override
+    boolean _add(int val) {
+        char key = high(val);
+        int ix = find(key);
+        if (ix < 0) {
+            ix = -ix - 1;
+            insertContainer(ix, key, new ArrayContainer());
+        }
+        Container c = containers[ix];
+        int before = c.cardinality();
+        c = containers[ix] = c.add(low(val));
+        if (c.cardinality() != before) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(int value) {
+        int ix = find(high(value));
+        if (ix < 0) {
+            return false;
+        }
+        Container c = containers[ix];
+        int before = c.cardinality();
+        c = c.remove(low(value));
+        if (c.cardinality() == before) {
+            return false;
+        }
+        size--;
+        if (c.cardinality() == 0) {
+            removeContainer(ix);
+        } else {
+            containers[ix] = c;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(int val) {
+        int ix = find(high(val));
+        return ix >= 0 && containers[ix].contains(low(val));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains(((Integer) o).intValue());
+    }
+
+    @Override
+    public boolean add(Integer e) {
+        return add(e.intValue());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Integer && remove(((Integer) o).intValue());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(containers, 0, count, null);
+        count = 0;
+        size = 0;
+    }
+
+    @Override
+    public IntSetCompressed copy() {
+        return new IntSetCompressed(this);
+    }
+
+    @Override
+    public boolean isArrayBased() {
+        // Not a BitSet, may hold negative values, and materializing one
+        // could be enormous - callers must treat this like an array-based set
+        return true;
+    }
+
+    @Override
+    public void trim() {
+        for (int i = 0; i < count; i++) {
+            containers[i] = Container.best(containers[i]);
+            containers[i].trim();
+        }
+        keys = Arrays.copyOf(keys, Math.max(1, count));
+        containers = Arrays.copyOf(containers, keys.length);
+    }
+
+    @Override
+    public int first() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("Empty");
+        }
+        return base(keys[0]) | containers[0].first();
+    }
+
+    @Override
+    public int last() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("Empty");
+        }
+        return base(keys[count - 1]) | containers[count - 1].last();
+    }
+
+    @Override
+    public int max() {
+        return size == 0 ? -1 : last();
+    }
+
+    @Override
+    public int removeFirst() {
+        int result = first();
+        remove(result);
+        return result;
+    }
+
+    @Override
+    public int removeLast() {
+        int result = last();
+        remove(result);
+        return result;
+    }
+
+    @Override
+    public int pick(Random r) {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("Empty");
+        }
+        return valueAt(r.nextInt(size));
+    }
+
+    @Override
+    public int indexOf(int value) {
+        int ix = find(high(value));
+        if (ix < 0) {
+            return -1;
+        }
+        Container c = containers[ix];
+        int lo = low(value);
+        if (!c.contains(lo)) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = 0; i < ix; i++) {
+            result += containers[i].cardinality();
+        }
+        return result + c.rank(lo) - 1;
+    }
+
+    @Override
+    public int valueAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index
+                    + " out of range 0-" + size);
+        }
+        for (int i = 0;; i++) {
+            int card = containers[i].cardinality();
+            if (index < card) {
+                return base(keys[i]) | containers[i].select(index);
+            }
+            index -= card;
+        }
+    }
+
+    /**
+     * Find the least value greater than or equal to the passed one.
+     *
+     * @param value A value
+     * @return The value, or NONE
+     */
+    private long ceiling(int value) {
+        char key = high(value);
+        int ix = find(key);
+        if (ix >= 0) {
+            int result = containers[ix].next(low(value));
+            if (result >= 0) {
+                return base(key) | result;
+            }
+            ix++;
+        } else {
+            ix = -ix - 1;
+        }
+        return ix < count ? base(keys[ix]) | containers[ix].first() : NONE;
+    }
+
+    /**
+     * Find the greatest value less than or equal to the passed one.
+     *
+     * @param value A value
+     * @return The value, or NONE
+     */
+    private long floor(int value) {
+        char key = high(value);
+        int ix = find(key);
+        if (ix >= 0) {
+            int result = containers[ix].previous(low(value));
+            if (result >= 0) {
+                return base(key) | result;
+            }
+            ix--;
+        } else {
+            ix = -ix - 2;
+        }
+        return ix >= 0 ? base(keys[ix]) | containers[ix].last() : NONE;
+    }
+
+    private long nearest(int value, Bias bias) {
+        switch (bias) {
+            case NONE:
+                return contains(value) ? value : NONE;
+            case BACKWARD:
+                return floor(value);
+            case FORWARD:
+                return ceiling(value);
+            case NEAREST:
+                long prev = floor(value);
+                long next = ceiling(value);
+                if (prev == NONE) {
+                    return next;
+                } else if (next == NONE) {
+                    return prev;
+                }
+                return next - value <= value - prev ? next : prev;
+            default:
+                throw new AssertionError(bias);
+        }
+    }
+
+    @Override
+    public int nearestIndexTo(int value, Bias bias) {
+        long result = nearest(value, bias);
+        return result == NONE ? -1 : indexOf((int) result);
+    }
+
+    @Override
+    public int nearestValueTo(int value, Bias bias) {
+        long result = nearest(value, bias);
+        return result == NONE ? Integer.MIN_VALUE : (int) result;
+    }
+
+    @Override
+    public int valuesBetween(int first, int last, IntSetValueConsumer c) {
+        int min = Math.min(first, last);
+        int max = Math.max(first, last);
+        long v = ceiling(min);
+        if (v == NONE || v > max) {
+            return 0;
+        }
+        int index = indexOf((int) v);
+        int result = 0;
+        while (v != NONE && v <= max) {
+            c.onValue(index++, (int) v);
+            result++;
+            v = v == Integer.MAX_VALUE ? NONE : ceiling((int) v + 1);
+        }
+        return result;
+    }
+
+    @Override
+    public int lastContiguous(int startingAt) {
+        if (size == 0) {
+            return -1;
+        }
+        int ix = find(high(startingAt));
+        int lo = low(startingAt);
+        if (ix < 0 || !containers[ix].contains(lo)) {
+            return startingAt;
+        }
+        for (;;) {
+            int end = containers[ix].runEnd(lo);
+            if (end == 0xFFFF && ix + 1 < count && keys[ix + 1] == keys[ix] + 1
+                    && containers[ix + 1].contains(0)) {
+                ix++;
+                lo = 0;
+            } else {
+                return base(keys[ix]) | end;
+            }
+        }
+    }
+
+    @Override
+    public boolean addInterval(int start, int end) {
+        int oldSize = size;
+        for (long v = start; v < end;) {
+            char key = high((int) v);
+            long chunkBase = base(key);
+            long chunkEnd = Math.min(end, chunkBase + 65536);
+            int lo = (int) (v - chunkBase);
+            int hi = (int) (chunkEnd - chunkBase);
+            int ix = find(key);
+            if (ix < 0) {
+                RunContainer run = new RunContainer();
+                run.appendRun(lo, hi);
+                insertContainer(-ix - 1, key, run);
+                size += hi - lo;
+            } else {
+                Container old = containers[ix];
+                long[] words = old.mutableWords();
+                setRange(words, lo, hi);
+                Container nue = containers[ix] = Container.best(Container.fromWords(words));
+                size += nue.cardinality() - old.cardinality();
+            }
+            v = chunkEnd;
+        }
+        return oldSize != size;
+    }
+
+    @Override
+    public boolean removeRange(int start, int end) {
+        int min = Math.min(start, end);
+        int max = Math.max(start, end);
+        if (min == max) {
+            return remove(min);
+        }
+        int oldSize = size;
+        // Inclusive of the end, like the default implementation in IntSet
+        long limit = (long) max + 1;
+        for (long v = min; v < limit;) {
+            char key = high((int) v);
+            long chunkBase = base(key);
+            long chunkEnd = Math.min(limit, chunkBase + 65536);
+            int ix = find(key);
+            if (ix >= 0) {
+                Container old = containers[ix];
+                long[] words = old.mutableWords();
+                clearRange(words, (int) (v - chunkBase), (int) (chunkEnd - chunkBase));
+                Container nue = Container.fromWords(words);
+                if (nue == null) {
+                    removeContainer(ix);
+                    size -= old.cardinality();
+                } else {
+                    nue = containers[ix] = Container.best(nue);
+                    size += nue.cardinality() - old.cardinality();
+                }
+            }
+            v = chunkEnd;
+        }
+        return oldSize != size;
+    }
+
+    @Override
+    public IntSet inverse(int lowerBound, int upperBound) {
+        IntSetCompressed all = new IntSetCompressed();
+        all.addInterval(Math.min(lowerBound, upperBound), Math.max(lowerBound, upperBound));
+        return all.combine(this, AND_NOT);
+    }
+
+    private IntSetCompressed combine(IntSetCompressed other, int op) {
+        IntSetCompressed result = new IntSetCompressed();
+        int i = 0;
+        int j = 0;
+        while (i < count || j < other.count) {
+            int cmp = i == count ? 1 : j == other.count ? -1
+                    : Character.compare(keys[i], other.keys[j]);
+            Container c;
+            char key;
+            if (cmp == 0) {
+                key = keys[i];
+                c = Container.combine(containers[i++], other.containers[j++], op);
+            } else if (cmp < 0) {
+                key = keys[i];
+                c = op == AND ? null : containers[i].copy();
+                i++;
+            } else {
+                key = other.keys[j];
+                c = op == OR || op == XOR ? other.containers[j].copy() : null;
+                j++;
+            }
+            if (c != null && c.cardinality() > 0) {
+                result.insertContainer(result.count, key, c);
+                result.size += c.cardinality();
+            }
+            if (op == AND && (i == count || j == other.count)) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private void adopt(IntSetCompressed other) {
+        keys = other.keys;
+        containers = other.containers;
+        count = other.count;
+        size = other.size;
+    }
+
+    @Override
+    public IntSet intersection(IntSet other) {
+        return combine(toCompressed(other), AND);
+    }
+
+    @Override
+    public IntSet or(IntSet other) {
+        return combine(toCompressed(other), OR);
+    }
+
+    @Override
+    public IntSet xor(IntSet other) {
+        if (other == this) {
+            return new IntSetCompressed();
+        }
+        return combine(toCompressed(other), XOR);
+    }
+
+    @Override
+    public IntSet andNot(IntSet other) {
+        return combine(toCompressed(other), AND_NOT);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Integer> c) {
+        c = IntSetReadOnly.unwrap(c);
+        if (c instanceof IntSetCompressed) {
+            int oldSize = size;
+            adopt(combine((IntSetCompressed) c, OR));
+            return oldSize != size;
+        }
+        int oldSize = size;
+        if (c instanceof IntSet) {
+            ((IntSet) c).forEachInt(this::add);
+        } else {
+            for (Integer i : c) {
+                add(i.intValue());
+            }
+        }
+        return oldSize != size;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        int oldSize = size;
+        adopt(combine(toCompressed(c), AND));
+        return oldSize != size;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        c = IntSetReadOnly.unwrap(c);
+        if (c == this) {
+            boolean result = size > 0;
+            clear();
+            return result;
+        }
+        int oldSize = size;
+        if (c instanceof IntSetCompressed) {
+            adopt(combine((IntSetCompressed) c, AND_NOT));
+        } else if (c instanceof IntSet) {
+            ((IntSet) c).forEachInt(this::remove);
+        } else {
+            for (Object o : c) {
+                remove(o);
+            }
+        }
+        return oldSize != size;
+    }
+
+    @Override
+    public boolean removeAll(IntSet ints) {
+        return removeAll((Collection<?>) ints);
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        c = IntSetReadOnly.unwrap(c);
+        if (c instanceof IntSetCompressed) {
+            IntSetCompressed other = (IntSetCompressed) c;
+            return other.size <= size && other.combine(this, AND_NOT).isEmpty();
+        } else if (c instanceof IntSet) {
+            for (PrimitiveIterator.OfInt it = ((IntSet) c).iterator(); it.hasNext();) {
+                if (!contains(it.nextInt())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sameContents(Set<? extends Integer> other) {
+        return other.size() == size && containsAll(other);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void forEach(IntConsumer cons) {
+        for (int i = 0; i < count; i++) {
+            containers[i].forEach(base(keys[i]), cons);
+        }
+    }
+
+    @Override
+    public void forEachReversed(IntConsumer cons) {
+        for (int i = count - 1; i >= 0; i--) {
+            containers[i].forEachReversed(base(keys[i]), cons);
+        }
+    }
+
+    @Override
+    public int[] toIntArray() {
+        int[] result = new int[size];
+        int[] cursor = new int[1];
+        forEachInt(val -> result[cursor[0]++] = val);
+        return result;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] result = new Object[size];
+        int[] cursor = new int[1];
+        forEachInt(val -> result[cursor[0]++] = val);
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        T[] result = a.length < size
+                ? (T[]) Array.newInstance(a.getClass().getComponentType(), size)
+                : a;
+        int[] cursor = new int[1];
+        forEachInt(val -> result[cursor[0]++] = (T) Integer.valueOf(val));
+        if (result.length > size) {
+            result[size] = null;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a BitSet of this set's contents; note this allocates one bit
+     * for every value up to the greatest, which is exactly what this class
+     * exists to avoid, and fails if negative values are present.
+     *
+     * @return A bit set
+     */
+    @Override
+    public BitSet toBits() {
+        BitSet result = new BitSet(size == 0 ? 1 : Math.max(1, last() + 1));
+        forEachInt(result::set);
+        return result;
+    }
+
+    @Override
+    BitSet bitsUnsafe() {
+        return toBits();
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new It();
+    }
+
+    @Override
+    public int hashCode() {
+        //follows the contract of AbstractSet.hashCode()
+        int[] h = new int[1];
+        forEachInt(val -> h[0] += val);
+        return h[0];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof Collection<?>)) {
+            return false;
+        }
+        Collection<?> c = IntSetReadOnly.unwrap((Collection<?>) o);
+        if (!(c instanceof Set<?>)) {
+            return false;
+        }
+        return c.size() == size && containsAll(c);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size * 8).append('[');
+        forEachInt(val -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(val);
+        });
+        return sb.append(']').toString();
+    }
+
+    final class It implements PrimitiveIterator.OfInt {
+
+        private int ix;
+        private int lo;
+
+        It() {
+            lo = count > 0 ? containers[0].first() : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return lo >= 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (lo < 0) {
+                throw new NoSuchElementException();
+            }
+            int result = base(keys[ix]) | lo;
+            lo = lo < 0xFFFF ? containers[ix].next(lo + 1) : -1;
+            if (lo < 0 && ++ix < count) {
+                lo = containers[ix].first();
+            }
+            return result;
+        }
+    }
+
+    static void setRange(long[] words, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (firstWord == lastWord) {
+            words[firstWord] |= firstMask & lastMask;
+        } else {
+            words[firstWord] |= firstMask;
+            for (int i = firstWord + 1; i < lastWord; i++) {
+                words[i] = -1L;
+            }
+            words[lastWord] |= lastMask;
+        }
+    }
+
+    static void clearRange(long[] words, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (firstWord == lastWord) {
+            words[firstWord] &= ~(firstMask & lastMask);
+        } else {
+            words[firstWord] &= ~firstMask;
+            for (int i = firstWord + 1; i < lastWord; i++) {
+                words[i] = 0;
+            }
+            words[lastWord] &= ~lastMask;
+        }
+    }
+
+    /**
+     * The low 16 bits of the values in one chunk. Mutators return the
+     * container to use afterwards, which may be a different type.
+     */
+    abstract static class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        abstract Container add(int low);
+
+        abstract Container remove(int low);
+
+        abstract int first();
+
+        abstract int last();
+
+        /**
+         * Count the values less than or equal to the passed one.
+         */
+        abstract int rank(int low);
+
+        abstract int select(int index);
+
+        /**
+         * Least value &gt;= the passed one, or -1.
+         */
+        abstract int next(int low);
+
+        /**
+         * Greatest value &lt;= the passed one, or -1.
+         */
+        abstract int previous(int low);
+
+        /**
+         * The last value of the consecutive run containing the passed
+         * (present) value.
+         */
+        abstract int runEnd(int low);
+
+        abstract void forEach(int base, IntConsumer c);
+
+        abstract void forEachReversed(int base, IntConsumer c);
+
+        abstract void setBits(long[] words);
+
+        abstract int runCount();
+
+        abstract Container copy();
+
+        void trim() {
+            // do nothing
+        }
+
+        long[] words() {
+            long[] result = new long[WORDS];
+            setBits(result);
+            return result;
+        }
+
+        long[] mutableWords() {
+            return words();
+        }
+
+        static Container fromWords(long[] words) {
+            int card = 0;
+            for (long w : words) {
+                card += Long.bitCount(w);
+            }
+            if (card == 0) {
+                return null;
+            } else if (card > ARRAY_MAX) {
+                return new BitmapContainer(words, card);
+            }
+            char[] values = new char[card];
+            int n = 0;
+            for (int i = 0; i < WORDS; i++) {
+                for (long w = words[i]; w != 0; w &= w - 1) {
+                    values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(w));
+                }
+            }
+            return new ArrayContainer(values, card);
+        }
+
+        /**
+         * Convert a container to whichever representation is smallest.
+         */
+        static Container best(Container c) {
+            int card = c.cardinality();
+            int runBytes = 2 + 4 * c.runCount();
+            int plainBytes = card <= ARRAY_MAX ? 2 * card : 8 * WORDS;
+            if (runBytes < plainBytes) {
+                if (c instanceof RunContainer) {
+                    return c;
+                }
+                RunContainer result = new RunContainer();
+                c.forEach(0, result::append);
+                return result;
+            } else if (c instanceof RunContainer) {
+                return fromWords(c.words());
+            }
+            return c;
+        }
+
+        static Container combine(Container a, Container b, int op) {
+            Container result;
+            switch (op) {
+                case AND:
+                    if (a instanceof ArrayContainer) {
+                        return ((ArrayContainer) a).filter(b, true);
+                    } else if (b instanceof ArrayContainer) {
+                        return ((ArrayContainer) b).filter(a, true);
+                    }
+                    long[] wa = a.mutableWords();
+                    long[] wb = b.words();
+                    for (int i = 0; i < WORDS; i++) {
+                        wa[i] &= wb[i];
+                    }
+                    result = fromWords(wa);
+                    break;
+                case OR:
+                    if (a instanceof ArrayContainer && b instanceof ArrayContainer
+                            && a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+                        return ((ArrayContainer) a).merge((ArrayContainer) b, false);
+                    }
+                    long[] words = a.mutableWords();
+                    b.setBits(words);
+                    result = fromWords(words);
+                    break;
+                case AND_NOT:
+                    if (a instanceof ArrayContainer) {
+                        return ((ArrayContainer) a).filter(b, false);
+                    }
+                    long[] remaining = a.mutableWords();
+                    long[] removed = b.words();
+                    for (int i = 0; i < WORDS; i++) {
+                        remaining[i] &= ~removed[i];
+                    }
+                    result = fromWords(remaining);
+                    break;
+                case XOR:
+                    if (a instanceof ArrayContainer && b instanceof ArrayContainer
+                            && a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+                        return ((ArrayContainer) a).merge((ArrayContainer) b, true);
+                    }
+                    long[] xa = a.mutableWords();
+                    long[] xb = b.words();
+                    for (int i = 0; i < WORDS; i++) {
+                        xa[i] ^= xb[i];
+                    }
+                    result = fromWords(xa);
+                    break;
+                default:
+                    throw new AssertionError(op);
+            }
+            if (result != null && (a instanceof RunContainer || b instanceof RunContainer)) {
+                result = best(result);
+            }
+            return result;
+        }
+    }
+
+    static final class ArrayContainer extends Container {
+
+        private char[] values;
+        private int size;
+
+        ArrayContainer() {
+            values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        private int search(int low) {
+            return Arrays.binarySearch(values, 0, size, (char) low);
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return search(low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int ix = search(low);
+            if (ix >= 0) {
+                return this;
+            } else if (size == ARRAY_MAX) {
+                return new BitmapContainer(words(), size).add(low);
+            }
+            ix = -ix - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            }
+            System.arraycopy(values, ix, values, ix + 1, size - ix);
+            values[ix] = (char) low;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int ix = search(low);
+            if (ix >= 0) {
+                System.arraycopy(values, ix + 1, values, ix, size - (ix + 1));
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        int first() {
+            return values[0];
+        }
+
+        @Override
+        int last() {
+            return values[size - 1];
+        }
+
+        @Override
+        int rank(int low) {
+            int ix = search(low);
+            return ix >= 0 ? ix + 1 : -ix - 1;
+        }
+
+        @Override
+        int select(int index) {
+            return values[index];
+        }
+
+        @Override
+        int next(int low) {
+            int ix = search(low);
+            if (ix >= 0) {
+                return low;
+            }
+            ix = -ix - 1;
+            return ix < size ? values[ix] : -1;
+        }
+
+        @Override
+        int previous(int low) {
+            int ix = search(low);
+            if (ix >= 0) {
+                return low;
+            }
+            ix = -ix - 1;
+            return ix > 0 ? values[ix - 1] : -1;
+        }
+
+        @Override
+        int runEnd(int low) {
+            int result = low;
+            for (int i = search(low) + 1; i < size && values[i] == result + 1; i++) {
+                result++;
+            }
+            return result;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer c) {
+            for (int i = 0; i < size; i++) {
+                c.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        void forEachReversed(int base, IntConsumer c) {
+            for (int i = size - 1; i >= 0; i--) {
+                c.accept(base | values[i]);
+            }
+        }
+
+        @Override
+        void setBits(long[] words) {
+            for (int i = 0; i < size; i++) {
+                int v = values[i];
+                words[v >>> 6] |= 1L << v;
+            }
+        }
+
+        @Override
+        int runCount() {
+            int result = size > 0 ? 1 : 0;
+            for (int i = 1; i < size; i++) {
+                if (values[i] != values[i - 1] + 1) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(4, size)), size);
+        }
+
+        @Override
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        ArrayContainer filter(Container other, boolean keepPresent) {
+            char[] result = new char[size];
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i]) == keepPresent) {
+                    result[n++] = values[i];
+                }
+            }
+            return n == 0 ? null : new ArrayContainer(result, n);
+        }
+
+        ArrayContainer merge(ArrayContainer other, boolean exclusive) {
+            char[] result = new char[size + other.size];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < size && j < other.size) {
+                char a = values[i];
+                char b = other.values[j];
+                if (a < b) {
+                    result[n++] = a;
+                    i++;
+                } else if (b < a) {
+                    result[n++] = b;
+                    j++;
+                } else {
+                    if (!exclusive) {
+                        result[n++] = a;
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            while (i < size) {
+                result[n++] = values[i++];
+            }
+            while (j < other.size) {
+                result[n++] = other.values[j++];
+            }
+            return n == 0 ? null : new ArrayContainer(result, n);
+        }
+    }
+
+    static final class BitmapContainer extends Container {
+
+        private final long[] words;
+        private int card;
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) == 0) {
+                words[low >>> 6] |= mask;
+                card++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) != 0) {
+                words[low >>> 6] &= ~mask;
+                if (--card <= ARRAY_MAX) {
+                    return fromWords(words);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        int first() {
+            return next(0);
+        }
+
+        @Override
+        int last() {
+            return previous(0xFFFF);
+        }
+
+        @Override
+        int rank(int low) {
+            int word = low >>> 6;
+            int result = 0;
+            for (int i = 0; i < word; i++) {
+                result += Long.bitCount(words[i]);
+            }
+            return result + Long.bitCount(words[word] & (-1L >>> (63 - (low & 63))));
+        }
+
+        @Override
+        int select(int index) {
+            for (int i = 0; i < WORDS; i++) {
+                int bits = Long.bitCount(words[i]);
+                if (index < bits) {
+                    long w = words[i];
+                    for (int j = 0; j < index; j++) {
+                        w &= w - 1;
+                    }
+                    return (i << 6) + Long.numberOfTrailingZeros(w);
+                }
+                index -= bits;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        int next(int low) {
+            int i = low >>> 6;
+            for (long w = words[i] & (-1L << low);; w = words[i]) {
+                if (w != 0) {
+                    return (i << 6) + Long.numberOfTrailingZeros(w);
+                } else if (++i == WORDS) {
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        int previous(int low) {
+            int i = low >>> 6;
+            for (long w = words[i] & (-1L >>> (63 - (low & 63)));; w = words[i]) {
+                if (w != 0) {
+                    return (i << 6) + 63 - Long.numberOfLeadingZeros(w);
+                } else if (--i < 0) {
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        int runEnd(int low) {
+            int i = low >>> 6;
+            for (long w = ~words[i] & (-1L << low);; w = ~words[i]) {
+                if (w != 0) {
+                    return (i << 6) + Long.numberOfTrailingZeros(w) - 1;
+                } else if (++i == WORDS) {
+                    return 0xFFFF;
+                }
+            }
+        }
+
+        @Override
+        void forEach(int base, IntConsumer c) {
+            for (int i = 0; i < WORDS; i++) {
+                for (long w = words[i]; w != 0; w &= w - 1) {
+                    c.accept(base | ((i << 6) + Long.numberOfTrailingZeros(w)));
+                }
+            }
+        }
+
+        @Override
+        void forEachReversed(int base, IntConsumer c) {
+            for (int i = WORDS - 1; i >= 0; i--) {
+                for (long w = words[i]; w != 0;) {
+                    int bit = 63 - Long.numberOfLeadingZeros(w);
+                    c.accept(base | ((i << 6) + bit));
+                    w &= ~(1L << bit);
+                }
+            }
+        }
+
+        @Override
+        void setBits(long[] into) {
+            for (int i = 0; i < WORDS; i++) {
+                into[i] |= words[i];
+            }
+        }
+
+        @Override
+        long[] words() {
+            // Callers of words() only read
+            return words;
+        }
+
+        @Override
+        long[] mutableWords() {
+            return words.clone();
+        }
+
+        @Override
+        int runCount() {
+            int result = 0;
+            long prev = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long w = words[i];
+                // Count bits which are set and whose predecessor is not
+                result += Long.bitCount(w & ~((w << 1) | (prev >>> 63)));
+                prev = w;
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), card);
+        }
+    }
+
+    static final class RunContainer extends Container {
+
+        // Pairs of start, length - 1
+        private char[] runs;
+        private int count;
+        private int card;
+
+        RunContainer() {
+            runs = new char[4];
+        }
+
+        private RunContainer(char[] runs, int count, int card) {
+            this.runs = runs;
+            this.count = count;
+            this.card = card;
+        }
+
+        private int start(int run) {
+            return runs[run * 2];
+        }
+
+        private int end(int run) {
+            return runs[run * 2] + runs[run * 2 + 1];
+        }
+
+        /**
+         * Index of the last run starting at or before the passed value, or -1.
+         */
+        private int floor(int low) {
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start(mid) <= low) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return hi;
+        }
+
+        private void insertRun(int at, int start, int end) {
+            if ((count + 1) * 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            System.arraycopy(runs, at * 2, runs, at * 2 + 2, (count - at) * 2);
+            runs[at * 2] = (char) start;
+            runs[at * 2 + 1] = (char) (end - start);
+            count++;
+        }
+
+        private void deleteRun(int at) {
+            System.arraycopy(runs, at * 2 + 2, runs, at * 2, (count - at - 1) * 2);
+            count--;
+        }
+
+        void append(int low) {
+            if (count > 0 && end(count - 1) + 1 == low) {
+                runs[count * 2 - 1]++;
+                card++;
+            } else {
+                appendRun(low, low + 1);
+            }
+        }
+
+        void appendRun(int start, int endExclusive) {
+            insertRun(count, start, endExclusive - 1);
+            card += endExclusive - start;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int run = floor(low);
+            return run >= 0 && low <= end(run);
+        }
+
+        @Override
+        Container add(int low) {
+            int run = floor(low);
+            if (run >= 0 && low <= end(run)) {
+                return this;
+            }
+            card++;
+            boolean joinsPrevious = run >= 0 && end(run) + 1 == low;
+            boolean joinsNext = run + 1 < count && start(run + 1) == low + 1;
+            if (joinsPrevious && joinsNext) {
+                runs[run * 2 + 1] = (char) (end(run + 1) - start(run));
+                deleteRun(run + 1);
+            } else if (joinsPrevious) {
+                runs[run * 2 + 1]++;
+            } else if (joinsNext) {
+                runs[(run + 1) * 2] = (char) low;
+                runs[(run + 1) * 2 + 1]++;
+            } else {
+                insertRun(run + 1, low, low);
+                if (count > RUNS_MAX) {
+                    return best(this);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            int run = floor(low);
+            if (run < 0 || low > end(run)) {
+                return this;
+            }
+            card--;
+            int start = start(run);
+            int end = end(run);
+            if (start == end) {
+                deleteRun(run);
+            } else if (low == start) {
+                runs[run * 2] = (char) (low + 1);
+                runs[run * 2 + 1]--;
+            } else if (low == end) {
+                runs[run * 2 + 1]--;
+            } else {
+                runs[run * 2 + 1] = (char) (low - 1 - start);
+                insertRun(run + 1, low + 1, end);
+                if (count > RUNS_MAX) {
+                    return best(this);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        int first() {
+            return start(0);
+        }
+
+        @Override
+        int last() {
+            return end(count - 1);
+        }
+
+        @Override
+        int rank(int low) {
+            int result = 0;
+            for (int i = 0; i < count; i++) {
+                int start = start(i);
+                if (low < start) {
+                    break;
+                }
+                int end = end(i);
+                if (low <= end) {
+                    return result + low - start + 1;
+                }
+                result += end - start + 1;
+            }
+            return result;
+        }
+
+        @Override
+        int select(int index) {
+            for (int i = 0; i < count; i++) {
+                int length = runs[i * 2 + 1] + 1;
+                if (index < length) {
+                    return start(i) + index;
+                }
+                index -= length;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        int next(int low) {
+            int run = floor(low);
+            if (run >= 0 && low <= end(run)) {
+                return low;
+            }
+            return run + 1 < count ? start(run + 1) : -1;
+        }
+
+        @Override
+        int previous(int low) {
+            int run = floor(low);
+            return run < 0 ? -1 : Math.min(low, end(run));
+        }
+
+        @Override
+        int runEnd(int low) {
+            return end(floor(low));
+        }
+
+        @Override
+        void forEach(int base, IntConsumer c) {
+            for (int i = 0; i < count; i++) {
+                for (int v = start(i), end = end(i); v <= end; v++) {
+                    c.accept(base | v);
+                }
+            }
+        }
+
+        @Override
+        void forEachReversed(int base, IntConsumer c) {
+            for (int i = count - 1; i >= 0; i--) {
+                for (int v = end(i), start = start(i); v >= start; v--) {
+                    c.accept(base | v);
+                }
+            }
+        }
+
+        @Override
+        void setBits(long[] words) {
+            for (int i = 0; i < count; i++) {
+                setRange(words, start(i), end(i) + 1);
+            }
+        }
+
+        @Override
+        int runCount() {
+            return count;
+        }
+
+        @Override
+        Container copy() {
+            return new RunContainer(Arrays.copyOf(runs, Math.max(4, count * 2)), count, card);
+        }
+
+        @Override
+        void trim() {
+            runs = Arrays.copyOf(runs, count * 2);
+        }
+    }
+}
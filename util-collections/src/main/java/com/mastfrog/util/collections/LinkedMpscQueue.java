@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import static com.mastfrog.util.preconditions.Checks.greaterThanZero;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Unbounded MPSC queue after Dmitry Vyukov's intrusive design: producers
+ * atomically swap themselves in as the tail and then link the previous tail
+ * to themselves; the consumer owns a stub head node and follows
+ * <code>next</code> links. The gap between the swap and the link is the
+ * window in which the consumer may see the queue end early.
+ *
+ * @author Tim Boudreau
+ */
+final class LinkedMpscQueue<T> extends AbstractQueue<T> implements MpscQueue<T> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LinkedMpscQueue, Node> TAIL
+            = AtomicReferenceFieldUpdater.newUpdater(LinkedMpscQueue.class, Node.class, "tail");
+    private volatile Node<T> tail;
+    // Only touched by the consumer
+    private Node<T> head;
+
+    LinkedMpscQueue() {
+        head = tail = new Node<>(null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean offer(T e) {
+        Node<T> node = new Node<>(notNull("e", e));
+        Node<T> prev = TAIL.getAndSet(this, node);
+        prev.lazySetNext(node);
+        return true;
+    }
+
+    @Override
+    public T poll() {
+        Node<T> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        T result = next.value;
+        // The node becomes the new stub; drop its value so it is not
+        // retained after being consumed
+        next.value = null;
+        head = next;
+        return result;
+    }
+
+    @Override
+    public T peek() {
+        Node<T> next = head.next;
+        return next == null ? null : next.value;
+    }
+
+    @Override
+    public int drain(Consumer<? super T> consumer, int max) {
+        greaterThanZero("max", max);
+        notNull("consumer", consumer);
+        Node<T> h = head;
+        int result = 0;
+        try {
+            for (Node<T> next = h.next; next != null && result < max; next = h.next) {
+                T value = next.value;
+                next.value = null;
+                h = next;
+                result++;
+                consumer.accept(value);
+            }
+        } finally {
+            head = h;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * Count the elements, walking the list - O(n).
+     *
+     * @return The size
+     */
+    @Override
+    public int size() {
+        int result = 0;
+        for (Node<T> n = head.next; n != null && result < Integer.MAX_VALUE; n = n.next) {
+            result++;
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // do nothing
+        }
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new It<>(head);
+    }
+
+    static final class It<T> implements Iterator<T> {
+
+        private Node<T> node;
+
+        It(Node<T> stub) {
+            node = stub;
+        }
+
+        @Override
+        public boolean hasNext() {
+            Node<T> next = node.next;
+            // A null value means the consumer has already taken it
+            return next != null && next.value != null;
+        }
+
+        @Override
+        public T next() {
+            Node<T> next = node.next;
+            T result;
+            if (next == null || (result = next.value) == null) {
+                throw new NoSuchElementException();
+            }
+            node = next;
+            return result;
+        }
+    }
+
+    static final class Node<T> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT
+                = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+        volatile Node<T> next;
+        T value;
+
+        Node(T value) {
+            this.value = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        void lazySetNext(Node<T> next) {
+            NEXT.lazySet(this, next);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import static com.mastfrog.util.preconditions.Checks.nonNegative;
+import static com.mastfrog.util.preconditions.Checks.notNull;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-classed pool of arrays or direct ByteBuffers, for code which wants to
+ * run without allocating in steady state. Requests are rounded up to a power
+ * of two between 8 and 2<sup>20</sup> elements; larger requests are simply
+ * allocated and not retained.
+ * <p>
+ * Each thread caches a small <i>magazine</i> of items per size class, so
+ * acquiring and releasing is uncontended; only when a thread's magazine runs
+ * empty or fills up does it exchange a whole magazine with a shared depot,
+ * under a lock. The depot retains at most the maximum retained bytes passed
+ * at construction; beyond that, released items are left to the garbage
+ * collector. Each thread may additionally hold up to one magazine per size
+ * class, of at most 16 items and 64Kb; items too large for that (for example
+ * long arrays of more than 8192 elements) bypass the magazines and are
+ * exchanged with the depot one at a time, so that idle threads do not pin
+ * large arrays outside the depot's limit.
+ * </p><p>
+ * The contents of an acquired array are unspecified - it may have been used
+ * before. Buffers are cleared (position zero, limit at capacity) on release.
+ * </p><p>
+ * In debug mode (pass true, or set the system property
+ * <code>mastfrog.magazine.pool.debug</code>), the pool records where each
+ * outstanding item was acquired, so that {@link #leaks()} can report items
+ * which were never released, and releasing an item twice or one which did
+ * not come from the pool throws an IllegalStateException.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public final class MagazinePool<T> {
+
+    static final int MIN_SHIFT = 3;
+    static final int MAX_SHIFT = 20;
+    static final int MAGAZINE_SIZE = 16;
+    static final int MAX_MAGAZINE_BYTES = 64 * 1024;
+    private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+    private static final boolean DEBUG_DEFAULT
+            = Boolean.getBoolean("mastfrog.magazine.pool.debug");
+    private static final long SHARED_MAX_RETAINED
+            = Long.getLong("mastfrog.magazine.pool.max.bytes", 8 * 1024 * 1024);
+    private final Kind<T> kind;
+    private final long maxRetainedBytes;
+    private final AtomicLong depotBytes = new AtomicLong();
+    private final Depot[] depots = new Depot[CLASSES];
+    // Items per magazine for each size class; zero for classes whose items
+    // go straight to the depot
+    private final int[] capacities = new int[CLASSES];
+    private final ThreadLocal<Magazine[]> magazines
+            = ThreadLocal.withInitial(() -> new Magazine[CLASSES]);
+    private final Map<Object, Throwable> outstanding;
+
+    MagazinePool(Kind<T> kind, long maxRetainedBytes, boolean debug) {
+        this.kind = kind;
+        this.maxRetainedBytes = nonNegative("maxRetainedBytes", maxRetainedBytes);
+        for (int i = 0; i < CLASSES; i++) {
+            depots[i] = new Depot();
+            capacities[i] = (int) Math.min(MAGAZINE_SIZE, MAX_MAGAZINE_BYTES / itemBytes(i));
+        }
+        outstanding = debug ? new IdentityHashMap<>() : null;
+    }
+
+    /**
+     * Create a pool of byte arrays.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle arrays the
+     * shared depot will hold on to
+     * @return A pool
+     */
+    public static MagazinePool<byte[]> bytes(long maxRetainedBytes) {
+        return bytes(maxRetainedBytes, DEBUG_DEFAULT);
+    }
+
+    /**
+     * Create a pool of byte arrays.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle arrays the
+     * shared depot will hold on to
+     * @param debug If true, track outstanding arrays for leak detection
+     * @return A pool
+     */
+    public static MagazinePool<byte[]> bytes(long maxRetainedBytes, boolean debug) {
+        return new MagazinePool<>(Kind.BYTES, maxRetainedBytes, debug);
+    }
+
+    /**
+     * Create a pool of int arrays.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle arrays the
+     * shared depot will hold on to
+     * @return A pool
+     */
+    public static MagazinePool<int[]> ints(long maxRetainedBytes) {
+        return ints(maxRetainedBytes, DEBUG_DEFAULT);
+    }
+
+    /**
+     * Create a pool of int arrays.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle arrays the
+     * shared depot will hold on to
+     * @param debug If true, track outstanding arrays for leak detection
+     * @return A pool
+     */
+    public static MagazinePool<int[]> ints(long maxRetainedBytes, boolean debug) {
+        return new MagazinePool<>(Kind.INTS, maxRetainedBytes, debug);
+    }
+
+    /**
+     * Create a pool of long arrays.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle arrays the
+     * shared depot will hold on to
+     * @return A pool
+     */
+    public static MagazinePool<long[]> longs(long maxRetainedBytes) {
+        return longs(maxRetainedBytes, DEBUG_DEFAULT);
+    }
+
+    /**
+     * Create a pool of long arrays.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle arrays the
+     * shared depot will hold on to
+     * @param debug If true, track outstanding arrays for leak detection
+     * @return A pool
+     */
+    public static MagazinePool<long[]> longs(long maxRetainedBytes, boolean debug) {
+        return new MagazinePool<>(Kind.LONGS, maxRetainedBytes, debug);
+    }
+
+    /**
+     * Create a pool of direct ByteBuffers.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle buffers the
+     * shared depot will hold on to
+     * @return A pool
+     */
+    public static MagazinePool<ByteBuffer> directBuffers(long maxRetainedBytes) {
+        return directBuffers(maxRetainedBytes, DEBUG_DEFAULT);
+    }
+
+    /**
+     * Create a pool of direct ByteBuffers.
+     *
+     * @param maxRetainedBytes The maximum number of bytes of idle buffers the
+     * shared depot will hold on to
+     * @param debug If true, track outstanding buffers for leak detection
+     * @return A pool
+     */
+    public static MagazinePool<ByteBuffer> directBuffers(long maxRetainedBytes, boolean debug) {
+        return new MagazinePool<>(Kind.DIRECT_BUFFERS, maxRetainedBytes, debug);
+    }
+
+    /**
+     * Get a process-wide pool of long arrays, retaining up to the number of
+     * bytes specified by the system property
+     * <code>mastfrog.magazine.pool.max.bytes</code> (default 8Mb).
+     *
+     * @return The shared pool
+     */
+    public static MagazinePool<long[]> sharedLongs() {
+        return SharedLongs.POOL;
+    }
+
+    /**
+     * Get an array or buffer with at least the requested length, from this
+     * thread's magazine if possible. Unless the requested length is larger
+     * than the largest size class, the result's length is the requested
+     * length rounded up to a power of two (minimum 8).
+     *
+     * @param minimumLength The minimum length
+     * @return An array or buffer whose contents are unspecified
+     */
+    public T acquire(int minimumLength) {
+        int cls = sizeClass(nonNegative("minimumLength", minimumLength));
+        T result;
+        if (cls < 0) {
+            result = kind.allocate(minimumLength);
+        } else if (capacities[cls] == 0) {
+            Object item = depots[cls].poll();
+            if (item != null) {
+                depotBytes.addAndGet(-itemBytes(cls));
+                result = kind.cast(item);
+            } else {
+                result = kind.allocate(1 << (cls + MIN_SHIFT));
+            }
+        } else {
+            Magazine mag = magazine(cls);
+            if (mag.count == 0) {
+                Object[] full = depots[cls].exchangeEmpty(mag.items);
+                if (full != null) {
+                    depotBytes.addAndGet(-magazineBytes(cls));
+                    mag.items = full;
+                    mag.count = capacities[cls];
+                }
+            }
+            if (mag.count > 0) {
+                result = kind.cast(mag.items[--mag.count]);
+                mag.items[mag.count] = null;
+            } else {
+                result = kind.allocate(1 << (cls + MIN_SHIFT));
+            }
+        }
+        if (outstanding != null) {
+            synchronized (outstanding) {
+                outstanding.put(result, new Throwable("Acquired "
+                        + kind.length(result) + " by " + Thread.currentThread()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return an array or buffer to the pool. Items whose length is not one of
+     * this pool's size classes are discarded.
+     *
+     * @param item An item obtained from {@link #acquire(int)}
+     * @throws IllegalStateException in debug mode, if the item is not
+     * outstanding from this pool
+     */
+    public void release(T item) {
+        notNull("item", item);
+        if (outstanding != null) {
+            Throwable acquiredAt;
+            synchronized (outstanding) {
+                acquiredAt = outstanding.remove(item);
+            }
+            if (acquiredAt == null) {
+                throw new IllegalStateException("Released twice or not "
+                        + "acquired from this pool: " + kind.describe(item));
+            }
+        }
+        int length = kind.length(item);
+        int cls = sizeClass(length);
+        if (cls < 0 || (1 << (cls + MIN_SHIFT)) != length) {
+            return;
+        }
+        kind.reset(item);
+        int capacity = capacities[cls];
+        if (capacity == 0) {
+            long bytes = itemBytes(cls);
+            if (depotBytes.addAndGet(bytes) > maxRetainedBytes) {
+                depotBytes.addAndGet(-bytes);
+            } else {
+                depots[cls].push(item);
+            }
+            return;
+        }
+        Magazine mag = magazine(cls);
+        if (mag.count == capacity) {
+            long bytes = magazineBytes(cls);
+            if (depotBytes.addAndGet(bytes) > maxRetainedBytes) {
+                depotBytes.addAndGet(-bytes);
+                return;
+            }
+            mag.items = depots[cls].exchangeFull(mag.items);
+            mag.count = 0;
+        }
+        mag.items[mag.count++] = item;
+    }
+
+    /**
+     * Get the number of bytes of idle items held in the shared depot (not
+     * counting per-thread magazines).
+     *
+     * @return A number of bytes
+     */
+    public long retainedBytes() {
+        return depotBytes.get();
+    }
+
+    /**
+     * Discard everything held in the shared depot, and in the calling
+     * thread's magazines. Other threads' magazines are left alone - they hold
+     * at most 64Kb per size class each, and are discarded when their thread
+     * exits.
+     */
+    public void trim() {
+        magazines.remove();
+        for (int i = 0; i < CLASSES; i++) {
+            depotBytes.addAndGet(-depots[i].clear(capacities[i]) * itemBytes(i));
+        }
+    }
+
+    /**
+     * Determine if this pool tracks outstanding items.
+     *
+     * @return true if in debug mode
+     */
+    public boolean isDebug() {
+        return outstanding != null;
+    }
+
+    /**
+     * In debug mode, get a throwable recording where each item which has been
+     * acquired and not yet released was acquired; in normal mode, returns an
+     * empty list.
+     *
+     * @return A list of allocation sites
+     */
+    public List<Throwable> leaks() {
+        if (outstanding == null) {
+            return new ArrayList<>(0);
+        }
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+    void zero(T item) {
+        kind.zero(item);
+    }
+
+    private Magazine magazine(int cls) {
+        Magazine[] mags = magazines.get();
+        Magazine result = mags[cls];
+        if (result == null) {
+            result = mags[cls] = new Magazine();
+        }
+        return result;
+    }
+
+    private long itemBytes(int cls) {
+        return (long) kind.bytesPerElement() << (cls + MIN_SHIFT);
+    }
+
+    private long magazineBytes(int cls) {
+        return itemBytes(cls) * capacities[cls];
+    }
+
+    static int sizeClass(int length) {
+        if (length <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    private static final class SharedLongs {
+
+        static final MagazinePool<long[]> POOL = longs(SHARED_MAX_RETAINED);
+    }
+
+    private static final class Magazine {
+
+        Object[] items = new Object[MAGAZINE_SIZE];
+        int count;
+    }
+
+    /**
+     * Holds full magazines available to any thread, and empty ones to hand
+     * back to a thread whose magazine is full; or, for size classes too large
+     * for magazines, individual items.
+     */
+    private static final class Depot {
+
+        private final ArrayDeque<Object[]> full = new ArrayDeque<>();
+        private final ArrayDeque<Object[]> empty = new ArrayDeque<>();
+        private final ArrayDeque<Object> items = new ArrayDeque<>();
+
+        synchronized Object poll() {
+            return items.poll();
+        }
+
+        synchronized void push(Object item) {
+            items.push(item);
+        }
+
+        synchronized Object[] exchangeEmpty(Object[] emptyMagazine) {
+            Object[] result = full.poll();
+            if (result != null) {
+                empty.push(emptyMagazine);
+            }
+            return result;
+        }
+
+        synchronized Object[] exchangeFull(Object[] fullMagazine) {
+            full.push(fullMagazine);
+            Object[] result = empty.poll();
+            return result == null ? new Object[MAGAZINE_SIZE] : result;
+        }
+
+        synchronized int clear(int magazineCapacity) {
+            int result = full.size() * magazineCapacity + items.size();
+            full.clear();
+            empty.clear();
+            items.clear();
+            return result;
+        }
+    }
+
+    abstract static class Kind<T> {
+
+        static final Kind<byte[]> BYTES = new Kind<byte[]>(1) {
+            @Override
+            byte[] allocate(int length) {
+                return new byte[length];
+            }
+
+            @Override
+            int length(byte[] item) {
+                return item.length;
+            }
+
+            @Override
+            void zero(byte[] item) {
+                Arrays.fill(item, (byte) 0);
+            }
+        };
+
+        static final Kind<int[]> INTS = new Kind<int[]>(Integer.BYTES) {
+            @Override
+            int[] allocate(int length) {
+                return new int[length];
+            }
+
+            @Override
+            int length(int[] item) {
+                return item.length;
+            }
+
+            @Override
+            void zero(int[] item) {
+                Arrays.fill(item, 0);
+            }
+        };
+
+        static final Kind<long[]> LONGS = new Kind<long[]>(Long.BYTES) {
+            @Override
+            long[] allocate(int length) {
+                return new long[length];
+            }
+
+            @Override
+            int length(long[] item) {
+                return item.length;
+            }
+
+            @Override
+            void zero(long[] item) {
+                Arrays.fill(item, 0L);
+            }
+        };
+
+        static final Kind<ByteBuffer> DIRECT_BUFFERS = new Kind<ByteBuffer>(1) {
+            @Override
+            ByteBuffer allocate(int length) {
+                return ByteBuffer.allocateDirect(length);
+            }
+
+            @Override
+            int length(ByteBuffer item) {
+                return item.capacity();
+            }
+
+            @Override
+            void reset(ByteBuffer item) {
+                item.clear();
+            }
+
+            @Override
+            void zero(ByteBuffer item) {
+                item.clear();
+                while (item.remaining() >= Long.BYTES) {
+                    item.putLong(0L);
+                }
+                while (item.hasRemaining()) {
+                    item.put((byte) 0);
+                }
+                item.clear();
+            }
+
+            @Override
+            String describe(ByteBuffer item) {
+                return item.toString();
+            }
+        };
+
+        private final int bytesPerElement;
+
+        Kind(int bytesPerElement) {
+            this.bytesPerElement = bytesPerElement;
+        }
+
+        int bytesPerElement() {
+            return bytesPerElement;
+        }
+
+        abstract T allocate(int length);
+
+        abstract int length(T item);
+
+        abstract void zero(T item);
+
+        void reset(T item) {
+            // do nothing
+        }
+
+        @SuppressWarnings("unchecked")
+        T cast(Object o) {
+            return (T) o;
+        }
+
+        String describe(T item) {
+            return item.getClass().getSimpleName() + "[" + length(item) + "]";
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * A non-blocking multi-producer, single-consumer FIFO queue, suitable as the
+ * inbox of a worker which is the only thread that takes items out of it. Any
+ * number of threads may <code>offer()</code> concurrently; <code>poll()</code>,
+ * <code>peek()</code>, the <code>drain()</code> methods and iteration must
+ * only be called by one thread at a time (typically the same thread, or
+ * threads which hand off ownership with a happens-before edge, such as an
+ * executor running one job at a time).
+ * <p>
+ * Unlike {@link AtomicLinkedQueue}, which keeps only a reference to its tail
+ * and so must walk the whole list to find the head, every operation here is
+ * O(1) except <code>size()</code> on an unbounded queue, and the queue is
+ * FIFO. Removing arbitrary elements (<code>remove(Object)</code>,
+ * <code>removeAll()</code>, <code>retainAll()</code> and
+ * <code>Iterator.remove()</code>) is not supported. While a producer is in
+ * the middle of an <code>offer()</code>, the consumer may briefly see the
+ * queue as ending before that element.
+ * </p>
+ *
+ * @author Tim Boudreau
+ */
+public interface MpscQueue<T> extends Queue<T> {
+
+    /**
+     * Create an unbounded queue, a linked list in which each
+     * <code>offer()</code> is a single atomic swap.
+     *
+     * @param <T> The element type
+     * @return A queue
+     */
+    static <T> MpscQueue<T> unbounded() {
+        return new LinkedMpscQueue<>();
+    }
+
+    /**
+     * Create a bounded queue backed by a preallocated ring buffer, whose
+     * <code>offer()</code> returns false (and <code>add()</code> throws an
+     * <code>IllegalStateException</code>) when it is full.
+     *
+     * @param <T> The element type
+     * @param capacity The minimum capacity, which is rounded up to a power of
+     * two no smaller than 2
+     * @return A queue
+     */
+    static <T> MpscQueue<T> bounded(int capacity) {
+        return new ArrayMpscQueue<>(capacity);
+    }
+
+    /**
+     * Remove up to <code>max</code> elements from the head of the queue,
+     * passing each to the consumer in FIFO order.
+     *
+     * @param consumer A consumer
+     * @param max The maximum number of elements to remove
+     * @return The number of elements removed
+     */
+    int drain(Consumer<? super T> consumer, int max);
+
+    /**
+     * Remove all currently available elements from the head of the queue,
+     * passing each to the consumer in FIFO order.
+     *
+     * @param consumer A consumer
+     * @return The number of elements removed
+     */
+    default int drain(Consumer<? super T> consumer) {
+        return drain(consumer, Integer.MAX_VALUE);
+    }
+}
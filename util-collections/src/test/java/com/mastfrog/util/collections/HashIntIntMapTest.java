@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class HashIntIntMapTest {
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random rnd = new Random(1049);
+        HashIntIntMap m = new HashIntIntMap(4);
+        Map<Integer, Integer> exp = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            // Small key range so there are plenty of collisions and removals
+            int key = rnd.nextInt(2000) - 1000;
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    assertEquals(exp.remove(key) != null, m.remove(key));
+                    break;
+                default:
+                    int val = rnd.nextInt();
+                    m.put(key, val);
+                    exp.put(key, val);
+            }
+            if (i % 1000 == 0) {
+                assertMatches(exp, m);
+            }
+        }
+        assertMatches(exp, m);
+        assertEquals(m, exp);
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertFalse(m.containsKey(exp.keySet().iterator().next()));
+    }
+
+    @Test
+    public void testIndicesAreDense() {
+        HashIntIntMap m = new HashIntIntMap();
+        for (int i = 0; i < 100; i++) {
+            m.put(i * 7, i);
+        }
+        assertTrue(m.remove(0));
+        assertEquals(99, m.size());
+        for (int i = 0; i < m.size(); i++) {
+            assertEquals(i, m.indexOf(m.key(i)));
+            assertEquals(m.valueAt(i), m.getAsInt(m.key(i)));
+        }
+        IntSet indices = IntSet.create(10);
+        for (int i = 0; i < 50; i += 5) {
+            indices.add(i);
+        }
+        int[] removedKeys = new int[indices.size()];
+        int[] ix = indices.toIntArray();
+        for (int i = 0; i < ix.length; i++) {
+            removedKeys[i] = m.key(ix[i]);
+        }
+        assertEquals(ix.length, m.removeIndices(indices));
+        assertEquals(99 - ix.length, m.size());
+        for (int k : removedKeys) {
+            assertFalse(m.containsKey(k));
+        }
+        for (int i = 0; i < m.size(); i++) {
+            assertEquals(i, m.indexOf(m.key(i)));
+            assertEquals(m.key(i) / 7, m.valueAt(i));
+        }
+    }
+
+    @Test
+    public void testOrderingQueriesMatchSortedMap() {
+        Random rnd = new Random(7);
+        IntIntMap hashed = IntIntMap.createHashed();
+        IntIntMap sorted = IntIntMap.create();
+        for (int i = 0; i < 200; i++) {
+            int k = rnd.nextInt(10000);
+            hashed.put(k, i);
+            sorted.put(k, i);
+        }
+        assertEquals(sorted.greatestKey(), hashed.greatestKey());
+        assertEquals(sorted.leastKey(), hashed.leastKey());
+        for (int i = -10; i < 10010; i += 13) {
+            assertEquals("backward " + i, sorted.nearestKey(i, true), hashed.nearestKey(i, true));
+            assertEquals("forward " + i, sorted.nearestKey(i, false), hashed.nearestKey(i, false));
+        }
+        assertEquals(sorted.keySet(), hashed.keySet());
+    }
+
+    private static void assertMatches(Map<Integer, Integer> exp, HashIntIntMap m) {
+        assertEquals(exp.size(), m.size());
+        exp.forEach((k, v) -> {
+            assertTrue(k + "", m.containsKey(k.intValue()));
+            assertEquals(v.intValue(), m.getAsInt(k));
+        });
+        m.forEachPair((k, v) -> {
+            assertEquals(exp.get(k), Integer.valueOf(v));
+        });
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class HashIntMapTest {
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random rnd = new Random(2203);
+        IntMap<String> m = IntMap.createHashed(4);
+        Map<Integer, String> exp = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = rnd.nextInt(2000) - 1000;
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    assertEquals(exp.remove(key), m.remove(key));
+                    break;
+                default:
+                    String val = Integer.toString(rnd.nextInt());
+                    assertEquals(exp.put(key, val), m.put(key, val));
+            }
+            if (i % 1000 == 0) {
+                assertMatches(exp, m);
+            }
+        }
+        assertMatches(exp, m);
+        assertEquals(m, exp);
+        assertEquals(exp.hashCode(), m.hashCode());
+        IntMap<String> copy = m.copy();
+        m.clear();
+        assertTrue(m.isEmpty());
+        assertNull(m.get(exp.keySet().iterator().next()));
+        assertMatches(exp, copy);
+    }
+
+    @Test
+    public void testOrderedQueries() {
+        IntMap<String> m = IntMap.createHashed();
+        TreeMap<Integer, String> exp = new TreeMap<>();
+        for (int key : new int[]{50, 10, 40, 20, 30}) {
+            m.put(key, "v" + key);
+            exp.put(key, "v" + key);
+        }
+        assertEquals(10, m.leastKey());
+        assertEquals(50, m.greatestKey());
+        assertEquals("v10", m.leastValue());
+        assertEquals("v50", m.greatestValue());
+        assertEquals(30, m.nearestKey(35, true));
+        assertEquals(40, m.nearestKey(35, false));
+        Map<Integer, String> between = new HashMap<>();
+        assertEquals(3, m.valuesBetween(40, 15, between::put));
+        assertEquals(exp.subMap(15, true, 40, true), between);
+
+        m.decrementKeys(20);
+        assertEquals(4, m.size());
+        assertFalse(m.containsKey(-10));
+        assertEquals("v20", m.get(0));
+        assertEquals("v50", m.get(30));
+        assertEquals(1, m.removeIf("v30"::equals));
+        assertFalse(m.containsKey(10));
+        assertEquals(3, m.size());
+    }
+
+    @Test
+    public void testIndicesAreDense() {
+        IntMap<String> m = IntMap.createHashed();
+        for (int i = 0; i < 100; i++) {
+            m.put(i * 7, "v" + i);
+        }
+        assertEquals("v0", m.remove(0));
+        assertEquals(99, m.size());
+        for (int i = 0; i < m.size(); i++) {
+            assertEquals(i, m.indexOf(m.key(i)));
+            assertEquals(m.valueAt(i), m.get(m.key(i)));
+        }
+        IntSet indices = IntSet.create(10);
+        for (int i = 0; i < 50; i += 5) {
+            indices.add(i);
+        }
+        Map<Integer, String> exp = new HashMap<>(m);
+        indices.forEachInt(ix -> exp.remove(m.key(ix)));
+        assertEquals(10, m.removeIndices(indices));
+        assertMatches(exp, m);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSerialization() throws Exception {
+        IntMap<String> m = IntMap.createHashed();
+        for (int i = 0; i < 30; i++) {
+            m.put(i * 31, "x" + i);
+        }
+        m.remove(31);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(m);
+        }
+        IntMap<String> read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (IntMap<String>) in.readObject();
+        }
+        assertMatches(new HashMap<>(m), read);
+        read.put(1, "new");
+        assertEquals("new", read.get(1));
+    }
+
+    private static <T> void assertMatches(Map<Integer, T> exp, IntMap<T> m) {
+        assertEquals(exp.size(), m.size());
+        for (Map.Entry<Integer, T> e : exp.entrySet()) {
+            assertTrue(e.getKey().toString(), m.containsKey(e.getKey().intValue()));
+            assertEquals(e.getValue(), m.get(e.getKey().intValue()));
+        }
+        int[] count = new int[1];
+        m.forEachIndexed((ix, key, val) -> {
+            assertEquals(ix, m.indexOf(key));
+            assertEquals(exp.get(key), val);
+            count[0]++;
+        });
+        assertEquals(exp.size(), count[0]);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares random-order insertion and lookup across the sorted-array maps
+ * (IntIntMapImpl and ArrayIntMap) and the hashed maps (HashIntIntMap and
+ * HashIntMap).
+ *
+ * @author Tim Boudreau
+ */
+@Category(Benchmark.class)
+public class IntMapBenchmarkTest {
+
+    private static final Logger LOG = Logger.getLogger(IntMapBenchmarkTest.class.getName());
+    private static final int SIZE = Integer.getInteger("intmap.benchmark.size", 20000);
+
+    @Test
+    public void benchmarkRandomInsertAndLookup() {
+        int[] keys = new int[SIZE];
+        Random rnd = new Random(5);
+        for (int i = 0; i < SIZE; i++) {
+            keys[i] = rnd.nextInt(Integer.MAX_VALUE);
+        }
+        Level[] levels = {Level.FINE, Level.INFO};
+        for (Level level : levels) {
+            runIntInt("IntIntMapImpl", level, keys, IntIntMap::create);
+            runIntInt("HashIntIntMap", level, keys, IntIntMap::createHashed);
+            runIntMap("ArrayIntMap", level, keys, size -> IntMap.create(size));
+            runIntMap("HashIntMap", level, keys, size -> IntMap.createHashed(size));
+        }
+    }
+
+    private void runIntInt(String name, Level level, int[] keys, IntFunction<IntIntMap> factory) {
+        long began = System.nanoTime();
+        IntIntMap map = factory.apply(16);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+            // Interleave a lookup, as real workloads do, which forces the
+            // sorted map to re-sort
+            map.getAsInt(keys[i >> 1], -1);
+        }
+        long inserted = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            sum += map.getAsInt(keys[i], 0);
+        }
+        long done = System.nanoTime();
+        assertEquals(name, expectedSum(keys, map), sum);
+        report(name, level, began, inserted, done);
+    }
+
+    private void runIntMap(String name, Level level, int[] keys, IntFunction<IntMap<Integer>> factory) {
+        long began = System.nanoTime();
+        IntMap<Integer> map = factory.apply(16);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], Integer.valueOf(i));
+            map.getIfPresent(keys[i >> 1], -1);
+        }
+        long inserted = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            sum += map.getIfPresent(keys[i], 0);
+        }
+        long done = System.nanoTime();
+        assertEquals(name, keys.length > 0, sum > 0);
+        report(name, level, began, inserted, done);
+    }
+
+    private static long expectedSum(int[] keys, IntIntMap map) {
+        long result = 0;
+        for (int key : keys) {
+            result += map.getAsInt(key);
+        }
+        return result;
+    }
+
+    private static void report(String name, Level level, long began, long inserted, long done) {
+        LOG.log(level, "{0}: {1} random inserts in {2}ms, {1} lookups in {3}ms",
+                new Object[]{name, SIZE, TimeUnit.NANOSECONDS.toMillis(inserted - began),
+                    TimeUnit.NANOSECONDS.toMillis(done - inserted)});
+    }
+}
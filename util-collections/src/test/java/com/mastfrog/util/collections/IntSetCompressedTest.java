@@ -0,0 +1,252 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import com.mastfrog.util.search.Bias;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class IntSetCompressedTest {
+
+    @Test
+    public void testRandomOperationsMatchTreeSet() {
+        Random rnd = new Random(20903);
+        IntSetCompressed set = new IntSetCompressed();
+        TreeSet<Integer> exp = new TreeSet<>();
+        for (int i = 0; i < 60000; i++) {
+            // Three chunks, one negative, with enough values in the middle one
+            // to force conversion to a bitmap and back
+            int v = rnd.nextInt(3 * 65536) - 65536;
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(exp.remove(v), set.remove(v));
+            } else {
+                assertEquals(exp.add(v), set.add(v));
+            }
+            if (i % 10000 == 0) {
+                assertMatches(exp, set);
+                set.trim();
+                assertMatches(exp, set);
+            }
+        }
+        assertMatches(exp, set);
+        while (!exp.isEmpty()) {
+            assertEquals(exp.pollFirst().intValue(), set.removeFirst());
+            if (!exp.isEmpty()) {
+                assertEquals(exp.pollLast().intValue(), set.removeLast());
+            }
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testIntervalsAndRuns() {
+        IntSetCompressed set = new IntSetCompressed();
+        TreeSet<Integer> exp = new TreeSet<>();
+        set.addInterval(65530, 200000);
+        addRange(exp, 65530, 200000);
+        set.addInterval(-10, 10);
+        addRange(exp, -10, 10);
+        set.removeRange(100000, 100010);
+        for (int i = 100000; i <= 100010; i++) {
+            exp.remove(i);
+        }
+        assertMatches(exp, set);
+        assertEquals(99999, set.lastContiguous(65530));
+        assertEquals(9, set.lastContiguous(-10));
+        assertEquals(10, set.lastContiguous(10));
+        set.remove(150000);
+        exp.remove(150000);
+        set.add(300000);
+        exp.add(300000);
+        assertMatches(exp, set);
+        set.trim();
+        assertMatches(exp, set);
+
+        IntSet inverse = set.inverse(0, 100);
+        assertEquals(90, inverse.size());
+        assertFalse(inverse.contains(5));
+        assertTrue(inverse.contains(10));
+        assertFalse(inverse.contains(100));
+    }
+
+    @Test
+    public void testLogicalOperations() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 8; round++) {
+            IntSetCompressed a = new IntSetCompressed();
+            IntSetCompressed b = new IntSetCompressed();
+            TreeSet<Integer> ea = new TreeSet<>();
+            TreeSet<Integer> eb = new TreeSet<>();
+            // Alternate sparse, dense and run-heavy contents
+            fill(rnd, a, ea, round);
+            fill(rnd, b, eb, round + 1);
+            if (round % 2 == 0) {
+                a.trim();
+                b.trim();
+            }
+            TreeSet<Integer> and = new TreeSet<>(ea);
+            and.retainAll(eb);
+            TreeSet<Integer> or = new TreeSet<>(ea);
+            or.addAll(eb);
+            TreeSet<Integer> andNot = new TreeSet<>(ea);
+            andNot.removeAll(eb);
+            TreeSet<Integer> xor = new TreeSet<>(or);
+            xor.removeAll(and);
+            assertMatches(and, a.intersection(b));
+            assertMatches(or, a.or(b));
+            assertMatches(andNot, a.andNot(b));
+            assertMatches(xor, a.xor(b));
+            // Mixed with other implementations
+            IntSet other = IntSet.arrayBased(eb.size());
+            eb.forEach(other::add);
+            assertMatches(and, a.intersection(other));
+            assertMatches(andNot, a.andNot(other));
+            IntSetCompressed c = a.copy();
+            c.retainAll(b);
+            assertMatches(and, c);
+            c = a.copy();
+            c.addAll(b);
+            assertMatches(or, c);
+            c = a.copy();
+            c.removeAll(b);
+            assertMatches(andNot, c);
+            assertMatches(ea, a);
+            assertMatches(eb, b);
+            assertTrue(c.containsAll(IntSet.intersection(listOf(c, a))));
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        IntSetCompressed set = new IntSetCompressed();
+        set.addAll(-70000, 5, 10, 70000);
+        assertEquals(10, set.nearestValueTo(10, Bias.NONE));
+        assertEquals(Integer.MIN_VALUE, set.nearestValueTo(11, Bias.NONE));
+        assertEquals(10, set.nearestValueTo(11, Bias.BACKWARD));
+        assertEquals(70000, set.nearestValueTo(11, Bias.FORWARD));
+        assertEquals(-70000, set.nearestValueTo(-1, Bias.BACKWARD));
+        assertEquals(5, set.nearestValueTo(-1, Bias.FORWARD));
+        assertEquals(Integer.MIN_VALUE, set.nearestValueTo(70001, Bias.FORWARD));
+        assertEquals(Integer.MIN_VALUE, set.nearestValueTo(-70001, Bias.BACKWARD));
+        assertEquals(3, set.nearestIndexTo(69999, Bias.NEAREST));
+        assertEquals(1, set.nearestIndexTo(6, Bias.NEAREST));
+        assertEquals(1, set.nearestIndexTo(0, Bias.NEAREST));
+    }
+
+    @Test
+    public void testSparseValuesAreCompact() {
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; i++) {
+            // A few low ids and clusters of ids near 2^30, which as a BitSet
+            // would take 128Mb
+            ids[i] = i < 10 ? i : (1 << 30) + (i / 100) * 100_000 + i % 100;
+        }
+        IntSet set = IntSet.create(ids);
+        assertTrue(set.getClass().getName(), set instanceof IntSetCompressed);
+        assertEquals(ids.length, set.size());
+        for (int id : ids) {
+            assertTrue(set.contains(id));
+        }
+        assertTrue(IntSet.create(1 << 30, (1 << 30) + 1000) instanceof IntSetCompressed);
+    }
+
+    private static List<IntSet> listOf(IntSet... sets) {
+        List<IntSet> result = new ArrayList<>();
+        for (IntSet s : sets) {
+            result.add(s);
+        }
+        return result;
+    }
+
+    private static void addRange(TreeSet<Integer> set, int start, int end) {
+        for (int i = start; i < end; i++) {
+            set.add(i);
+        }
+    }
+
+    private static void fill(Random rnd, IntSet set, TreeSet<Integer> exp, int kind) {
+        switch (kind % 3) {
+            case 0:
+                for (int i = 0; i < 500; i++) {
+                    int v = rnd.nextInt(1 << 20);
+                    set.add(v);
+                    exp.add(v);
+                }
+                break;
+            case 1:
+                for (int i = 0; i < 20000; i++) {
+                    int v = rnd.nextInt(3 * 65536);
+                    set.add(v);
+                    exp.add(v);
+                }
+                break;
+            default:
+                for (int i = 0; i < 20; i++) {
+                    int start = rnd.nextInt(200000);
+                    int len = rnd.nextInt(3000);
+                    set.addInterval(start, start + len);
+                    addRange(exp, start, start + len);
+                }
+        }
+    }
+
+    private static void assertMatches(NavigableSet<Integer> exp, IntSet set) {
+        assertEquals(exp.size(), set.size());
+        PrimitiveIterator.OfInt it = set.iterator();
+        int index = 0;
+        for (Integer v : exp) {
+            assertTrue(it.hasNext());
+            assertEquals(v.intValue(), it.nextInt());
+            if (index % 97 == 0) {
+                assertTrue(set.contains(v.intValue()));
+                assertEquals(index, set.indexOf(v));
+                assertEquals(v.intValue(), set.valueAt(index));
+                assertFalse(set.contains(v + 1) != exp.contains(v + 1));
+            }
+            index++;
+        }
+        assertFalse(it.hasNext());
+        if (!exp.isEmpty()) {
+            assertEquals(exp.first().intValue(), set.first());
+            assertEquals(exp.last().intValue(), set.last());
+        }
+        List<Integer> reversed = new ArrayList<>();
+        set.forEachReversed(reversed::add);
+        assertEquals(new ArrayList<>(exp.descendingSet()), reversed);
+        assertTrue(set.equals(exp));
+        assertEquals(exp.hashCode(), set.hashCode());
+    }
+}
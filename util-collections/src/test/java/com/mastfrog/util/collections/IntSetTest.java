@@ -218,6 +218,8 @@ public class IntSetTest {
         testIndexOf(bits, 11, 3);
         testIndexOf(arrays, 20, 5);
         testIndexOf(bits, 20, 5);
+        testIndexOf(compressed, 11, 3);
+        testIndexOf(compressed, 20, 5);
     }
 
     private void testIndexOf(Supplier<IntSet> factory, int size, int iterations) {
@@ -271,6 +273,7 @@ public class IntSetTest {
     public void testDiscontiguous() {
         testDiscontiguous(bits);
         testDiscontiguous(arrays);
+        testDiscontiguous(compressed);
     }
 
     private void testDiscontiguous(Supplier<IntSet> supp) {
@@ -319,6 +322,8 @@ public class IntSetTest {
         testValuesBetween(bits, 50, 3);
         testValuesBetween(arrays, 7, 1);
         testValuesBetween(bits, 7, 1);
+        testValuesBetween(compressed, 50, 3);
+        testValuesBetween(compressed, 7, 1);
     }
 
     private void testValuesBetween(Supplier<IntSet> is, int size, int iterations) {
@@ -352,6 +357,48 @@ public class IntSetTest {
         }
     }
 
+    @Test
+    public void testRemoveRange() {
+        for (Supplier<IntSet> supp : Arrays.asList(arrays, bits, compressed)) {
+            IntSet set = supp.get();
+            for (int i = 0; i < 10; i++) {
+                set.add(i);
+            }
+            String msg = set.getClass().getSimpleName() + ": ";
+            assertTrue(msg, set.removeRange(2, 5));
+            assertEquals(msg, new TreeSet<>(Arrays.asList(0, 1, 6, 7, 8, 9)), set);
+            assertTrue(msg, set.removeRange(9, 8));
+            assertEquals(msg, new TreeSet<>(Arrays.asList(0, 1, 6, 7)), set);
+            assertFalse(msg, set.removeRange(2, 5));
+            testRemoveRange(supp, 200, 5);
+            // Ranges spanning the compressed set's 65536-value chunks
+            testRemoveRange(supp, 200000, 5);
+        }
+    }
+
+    private void testRemoveRange(Supplier<IntSet> is, int bound, int iterations) {
+        Random rnd = new Random(5171 * bound + iterations);
+        for (int i = 0; i < iterations; i++) {
+            TreeSet<Integer> sanityCheck = new TreeSet<>();
+            IntSet set = is.get();
+            String msg = set.getClass().getSimpleName() + ": ";
+            for (int j = 0; j < 500; j++) {
+                int curr = rnd.nextInt(bound);
+                sanityCheck.add(curr);
+                set.add(curr);
+            }
+            for (int j = 0; j < 20; j++) {
+                int a = rnd.nextInt(bound);
+                int b = Math.max(0, a + (rnd.nextBoolean() ? 1 : -1) * rnd.nextInt(bound / 10));
+                int oldSize = sanityCheck.size();
+                sanityCheck.subSet(Math.min(a, b), true, Math.max(a, b), true).clear();
+                assertEquals(msg + "removeRange(" + a + ", " + b + ")",
+                        oldSize != sanityCheck.size(), set.removeRange(a, b));
+                assertSets(msg + "removeRange(" + a + ", " + b + ") ", sanityCheck, set);
+            }
+        }
+    }
+
     static <T> void assertSets(String msg, Set<T> expect, Set<T> got) {
         if (expect.equals(got)) {
             return;
@@ -407,5 +454,8 @@ public class IntSetTest {
     private static final Supplier<IntSet> bits = () -> {
         return new IntSetImpl();
     };
+    private static final Supplier<IntSet> compressed = () -> {
+        return new IntSetCompressed();
+    };
 
 }
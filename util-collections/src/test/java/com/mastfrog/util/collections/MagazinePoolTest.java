@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Mastfrog Technologies.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class MagazinePoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        MagazinePool<long[]> pool = MagazinePool.longs(1024 * 1024);
+        assertEquals(8, pool.acquire(0).length);
+        assertEquals(8, pool.acquire(8).length);
+        assertEquals(16, pool.acquire(9).length);
+        assertEquals(1024, pool.acquire(1000).length);
+        assertEquals(1 << 20, pool.acquire(1 << 20).length);
+        assertEquals((1 << 20) + 1, pool.acquire((1 << 20) + 1).length);
+    }
+
+    @Test
+    public void testReuse() {
+        MagazinePool<int[]> pool = MagazinePool.ints(1024 * 1024);
+        int[] a = pool.acquire(100);
+        int[] b = pool.acquire(100);
+        pool.release(a);
+        pool.release(b);
+        assertSame(b, pool.acquire(128));
+        assertSame(a, pool.acquire(65));
+        int[] odd = new int[100];
+        pool.release(odd);
+        for (int i = 0; i < 20; i++) {
+            int[] x = pool.acquire(100);
+            assertFalse(x == odd);
+        }
+    }
+
+    @Test
+    public void testDepotRetentionIsBounded() {
+        // Two magazines of 16 arrays of 64 bytes
+        MagazinePool<byte[]> pool = MagazinePool.bytes(2 * 16 * 64);
+        List<byte[]> all = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            all.add(pool.acquire(64));
+        }
+        for (byte[] b : all) {
+            pool.release(b);
+        }
+        assertEquals(2 * 16 * 64, pool.retainedBytes());
+        Set<byte[]> reacquired = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 200; i++) {
+            reacquired.add(pool.acquire(64));
+        }
+        assertEquals(200, reacquired.size());
+        int reused = 0;
+        for (byte[] b : all) {
+            if (reacquired.contains(b)) {
+                reused++;
+            }
+        }
+        // 16 in this thread's magazine plus two magazines from the depot
+        assertEquals(48, reused);
+        assertEquals(0, pool.retainedBytes());
+        pool.trim();
+        assertEquals(0, pool.retainedBytes());
+    }
+
+    @Test
+    public void testMagazineBytesAreCapped() throws InterruptedException {
+        // 8192 longs fill a 64Kb magazine by themselves
+        MagazinePool<long[]> pool = MagazinePool.longs(1024 * 1024);
+        List<long[]> mid = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            mid.add(new long[8192]);
+        }
+        for (long[] l : mid) {
+            pool.release(l);
+        }
+        // One stays in this thread's magazine, the rest go to the depot
+        assertEquals(2 * 8192 * 8, pool.retainedBytes());
+
+        // Larger items skip the magazines entirely, and are bounded by the
+        // depot's limit
+        MagazinePool<long[]> big = MagazinePool.longs(2 * 65536 * 8);
+        List<long[]> released = new ArrayList<>();
+        Thread t = new Thread(() -> {
+            List<long[]> mine = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                mine.add(big.acquire(65536));
+            }
+            for (long[] l : mine) {
+                big.release(l);
+            }
+            released.addAll(mine);
+        });
+        t.start();
+        t.join();
+        assertEquals(2 * 65536 * 8, big.retainedBytes());
+        Set<long[]> theirs = Collections.newSetFromMap(new IdentityHashMap<>());
+        theirs.addAll(released);
+        assertTrue(theirs.contains(big.acquire(65536)));
+        assertEquals(65536 * 8, big.retainedBytes());
+        big.trim();
+        assertEquals(0, big.retainedBytes());
+        assertFalse(theirs.contains(big.acquire(65536)));
+    }
+
+    @Test
+    public void testMagazinesMoveBetweenThreads() throws InterruptedException {
+        MagazinePool<long[]> pool = MagazinePool.longs(1024 * 1024);
+        List<long[]> released = new ArrayList<>();
+        Thread t = new Thread(() -> {
+            List<long[]> mine = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                mine.add(pool.acquire(32));
+            }
+            for (long[] l : mine) {
+                pool.release(l);
+            }
+            released.addAll(mine);
+        });
+        t.start();
+        t.join();
+        assertTrue(pool.retainedBytes() > 0);
+        Set<long[]> ours = Collections.newSetFromMap(new IdentityHashMap<>());
+        ours.addAll(released);
+        long[] got = pool.acquire(32);
+        assertTrue(ours.contains(got));
+    }
+
+    @Test
+    public void testBuffersAreCleared() {
+        MagazinePool<ByteBuffer> pool = MagazinePool.directBuffers(1024 * 1024);
+        ByteBuffer buf = pool.acquire(100);
+        assertTrue(buf.isDirect());
+        assertEquals(128, buf.capacity());
+        buf.putInt(23).flip();
+        pool.release(buf);
+        ByteBuffer again = pool.acquire(128);
+        assertSame(buf, again);
+        assertEquals(0, again.position());
+        assertEquals(128, again.limit());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        MagazinePool<long[]> pool = MagazinePool.longs(1024 * 1024, true);
+        assertTrue(pool.isDebug());
+        long[] a = pool.acquire(10);
+        long[] b = pool.acquire(10);
+        assertEquals(2, pool.leaks().size());
+        pool.release(a);
+        List<Throwable> leaks = pool.leaks();
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0).getMessage(), leaks.get(0).getMessage().contains("16"));
+        try {
+            pool.release(a);
+            fail("Double release should be detected");
+        } catch (IllegalStateException ex) {
+            // ok
+        }
+        try {
+            pool.release(new long[16]);
+            fail("Foreign array should be detected");
+        } catch (IllegalStateException ex) {
+            // ok
+        }
+        pool.release(b);
+        assertTrue(pool.leaks().isEmpty());
+        assertTrue(MagazinePool.longs(1024).leaks().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUse() throws InterruptedException {
+        MagazinePool<long[]> pool = MagazinePool.longs(64 * 1024, true);
+        int threads = 4;
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threads; t++) {
+            long mark = t + 1;
+            new Thread(() -> {
+                try {
+                    List<long[]> held = new ArrayList<>();
+                    for (int i = 0; i < 5000; i++) {
+                        long[] arr = pool.acquire(8 + (i % 60));
+                        arr[0] = mark;
+                        held.add(arr);
+                        if (held.size() > 20 || i % 7 == 0) {
+                            for (long[] h : held) {
+                                // Nobody else may have been handed our array
+                                assertEquals(mark, h[0]);
+                                pool.release(h);
+                            }
+                            held.clear();
+                        }
+                    }
+                    for (long[] h : held) {
+                        pool.release(h);
+                    }
+                } catch (Throwable ex) {
+                    failure.set(ex);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertNull(failure.get());
+        assertTrue(pool.leaks().isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Compares MpscQueue with AtomicLinkedQueue and ConcurrentLinkedQueue as the
+ * inbox of a single consumer fed by several producers. The consumer polls one
+ * item at a time, or uses the batch drain methods where available.
+ *
+ * @author Tim Boudreau
+ */
+@Category(Benchmark.class)
+public class MpscQueueBenchmarkTest {
+
+    private static final Logger LOG = Logger.getLogger(MpscQueueBenchmarkTest.class.getName());
+    private static final int OPS = Integer.getInteger("mpsc.benchmark.ops", 1000000);
+    private static final int PRODUCERS = 4;
+
+    @Test
+    public void benchmarkInboxes() throws Exception {
+        Level[] levels = {Level.FINE, Level.INFO};
+        for (Level level : levels) {
+            run("ConcurrentLinkedQueue.poll", level, ConcurrentLinkedQueue::new, false);
+            run("AtomicLinkedQueue.drain", level, AtomicLinkedQueue::new, true);
+            run("MpscQueue.unbounded.poll", level, MpscQueue::unbounded, false);
+            run("MpscQueue.unbounded.drain", level, MpscQueue::unbounded, true);
+            run("MpscQueue.bounded.drain", level, () -> MpscQueue.bounded(1024), true);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run(String name, Level level, Supplier<Queue<Integer>> factory, boolean batch) throws Exception {
+        Queue<Integer> q = factory.get();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < OPS; i++) {
+                    while (!q.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        long[] sum = new long[1];
+        int total = OPS * PRODUCERS;
+        int received = 0;
+        long began = System.nanoTime();
+        start.countDown();
+        while (received < total) {
+            int got = 0;
+            if (!batch) {
+                Integer item = q.poll();
+                if (item != null) {
+                    sum[0] += item;
+                    got = 1;
+                }
+            } else if (q instanceof MpscQueue<?>) {
+                got = ((MpscQueue<Integer>) q).drain(item -> sum[0] += item, 256);
+            } else {
+                got = ((AtomicLinkedQueue<Integer>) q).drain(item -> sum[0] += item).size();
+            }
+            if (got == 0) {
+                Thread.yield();
+            }
+            received += got;
+        }
+        long elapsed = System.nanoTime() - began;
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(name, PRODUCERS * ((long) OPS * (OPS - 1) / 2), sum[0]);
+        LOG.log(level, "{0}: {1} items from {2} producers consumed in {3}ms",
+                new Object[]{name, total, PRODUCERS, TimeUnit.NANOSECONDS.toMillis(elapsed)});
+    }
+}
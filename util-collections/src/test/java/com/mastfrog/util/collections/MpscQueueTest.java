@@ -0,0 +1,168 @@
+/* 
+ * The MIT License
+ *
+ * Copyright 2016 Tim Boudreau.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.mastfrog.util.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Boudreau
+ */
+public class MpscQueueTest {
+
+    @Test
+    public void testFifo() {
+        testFifo(MpscQueue::unbounded);
+        testFifo(() -> MpscQueue.bounded(8));
+    }
+
+    private void testFifo(Supplier<MpscQueue<Integer>> factory) {
+        MpscQueue<Integer> q = factory.get();
+        String msg = q.getClass().getSimpleName();
+        assertTrue(msg, q.isEmpty());
+        assertNull(msg, q.poll());
+        assertNull(msg, q.peek());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 6; i++) {
+                assertTrue(msg, q.offer(i));
+            }
+            assertEquals(msg, 6, q.size());
+            assertEquals(msg, Arrays.asList(0, 1, 2, 3, 4, 5), new ArrayList<>(q));
+            assertEquals(msg, Integer.valueOf(0), q.peek());
+            assertEquals(msg, Integer.valueOf(0), q.poll());
+            List<Integer> drained = new ArrayList<>();
+            assertEquals(msg, 3, q.drain(drained::add, 3));
+            assertEquals(msg, Arrays.asList(1, 2, 3), drained);
+            drained.clear();
+            assertEquals(msg, 2, q.drain(drained::add));
+            assertEquals(msg, Arrays.asList(4, 5), drained);
+            assertTrue(msg, q.isEmpty());
+            assertEquals(msg, 0, q.drain(drained::add));
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        MpscQueue<Integer> q = MpscQueue.bounded(3);
+        assertEquals(4, ((ArrayMpscQueue<Integer>) q).capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertFalse(q.offer(4));
+        try {
+            q.add(4);
+            fail("add() should throw when full");
+        } catch (IllegalStateException ex) {
+            // ok
+        }
+        assertEquals(Integer.valueOf(0), q.poll());
+        assertTrue(q.offer(4));
+        assertEquals(4, q.size());
+        assertEquals(Arrays.asList(1, 2, 3, 4), new ArrayList<>(q));
+    }
+
+    @Test
+    public void testTinyBounded() {
+        for (int cap = 1; cap <= 2; cap++) {
+            MpscQueue<String> q = MpscQueue.bounded(cap);
+            String msg = "bounded(" + cap + ")";
+            assertEquals(msg, 2, ((ArrayMpscQueue<String>) q).capacity());
+            for (int round = 0; round < 3; round++) {
+                assertTrue(msg, q.offer("a"));
+                assertTrue(msg, q.offer("b"));
+                assertFalse(msg, q.offer("c"));
+                assertEquals(msg, 2, q.size());
+                assertEquals(msg, "a", q.poll());
+                assertTrue(msg, q.offer("c"));
+                List<String> drained = new ArrayList<>();
+                assertEquals(msg, 2, q.drain(drained::add));
+                assertEquals(msg, Arrays.asList("b", "c"), drained);
+                assertTrue(msg, q.isEmpty());
+                assertNull(msg, q.poll());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        testConcurrentProducers(MpscQueue.unbounded());
+        testConcurrentProducers(MpscQueue.bounded(64));
+    }
+
+    private void testConcurrentProducers(MpscQueue<long[]> q) throws InterruptedException {
+        int producers = 4;
+        int each = 20000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < each; i++) {
+                    long[] item = new long[]{producer, i};
+                    while (!q.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        int[] nextExpected = new int[producers];
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 60000;
+        while (received < producers * each && System.currentTimeMillis() < deadline) {
+            int got = q.drain(item -> {
+                int producer = (int) item[0];
+                // Each producer's items must arrive in the order offered
+                assertEquals(nextExpected[producer]++, (int) item[1]);
+            }, 100);
+            if (got == 0) {
+                Thread.yield();
+            }
+            received += got;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(q.getClass().getSimpleName(), producers * each, received);
+        assertTrue(q.isEmpty());
+    }
+}
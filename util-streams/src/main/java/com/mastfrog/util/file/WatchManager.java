@@ -75,6 +75,9 @@ public final class WatchManager {
     private final AtomicBoolean started = new AtomicBoolean();
     private final long interval;
     private Future<?> nextScheduled;
+    // Incremented whenever polling is started or stopped, so a run belonging
+    // to a chain which was stopped does not reschedule itself
+    private int generation;
     private final AtomicBoolean paused = new AtomicBoolean();
 
     private static Reference<WatchManager> sharedInstance;
@@ -151,13 +154,13 @@ public final class WatchManager {
         if (paused.compareAndSet(!pause, pause)) {
             synchronized (this) {
                 if (pause) {
+                    generation++;
                     if (nextScheduled != null) {
                         nextScheduled.cancel(false);
                     }
                 } else {
                     if (nextScheduled == null || nextScheduled.isDone() && started.get() && !isEmpty()) {
-                        nextScheduled = executor.schedule(this::run, interval,
-                                TimeUnit.MILLISECONDS);
+                        schedule(++generation, interval);
                     }
                 }
             }
@@ -191,6 +194,7 @@ public final class WatchManager {
         }
         if (started.compareAndSet(true, false)) {
             synchronized (this) {
+                generation++;
                 if (nextScheduled != null) {
                     nextScheduled.cancel(true);
                 }
@@ -201,7 +205,12 @@ public final class WatchManager {
         return false;
     }
 
-    void run() {
+    private void schedule(int gen, long delay) {
+        assert Thread.holdsLock(this);
+        nextScheduled = executor.schedule(() -> run(gen), delay, TimeUnit.MILLISECONDS);
+    }
+
+    void run(int gen) {
         try {
             while (pollLoop() > 0);
         } catch (InterruptedException ex) {
@@ -209,9 +218,8 @@ public final class WatchManager {
         } finally {
             if (started.get() && !paused.get()) {
                 synchronized (this) {
-                    if (!isEmpty()) {
-                        nextScheduled = executor.schedule(this::run, interval,
-                                TimeUnit.MILLISECONDS);
+                    if (gen == generation && !isEmpty()) {
+                        schedule(gen, interval);
                     }
                 }
             }
@@ -270,7 +278,7 @@ public final class WatchManager {
         reg.add(folder, target, kinds, c);
         if (started.compareAndSet(false, true) && !paused.get()) {
             if (!isEmpty()) {
-                nextScheduled = executor.submit(this::run);
+                schedule(++generation, 0);
             }
         }
     }
@@ -293,8 +301,11 @@ public final class WatchManager {
         });
         toRemove.forEach(fsRegs::remove);
         if (isEmpty()) {
+            // Don't interrupt a run in progress - it will not reschedule
+            // itself once a new watch starts a new chain
+            generation++;
             if (nextScheduled != null) {
-                nextScheduled.cancel(true);
+                nextScheduled.cancel(false);
             }
         }
     }